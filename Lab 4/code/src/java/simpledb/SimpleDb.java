@@ -9,6 +9,7 @@ import simpledb.transaction.TransactionId;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
 
 public class SimpleDb {
     public static void main(String[] args)
@@ -17,6 +18,10 @@ public class SimpleDb {
         switch (args[0]) {
             case "convert":
                 try {
+                    // a trailing "slotted" writes the pages of a SlottedHeapFile
+                    boolean slotted = args[args.length - 1].equalsIgnoreCase("slotted");
+                    if (slotted)
+                        args = Arrays.copyOf(args, args.length - 1);
                     if (args.length < 3 || args.length > 5) {
                         System.err.println("Unexpected number of arguments to convert ");
                         return;
@@ -43,6 +48,8 @@ public class SimpleDb {
                                 ts[index++] = Type.INT_TYPE;
                             else if (s.equalsIgnoreCase("string"))
                                 ts[index++] = Type.STRING_TYPE;
+                            else if (s.equalsIgnoreCase("varchar"))
+                                ts[index++] = Type.VARCHAR_TYPE;
                             else {
                                 System.err.println("Unknown type " + s);
                                 return;
@@ -52,8 +59,12 @@ public class SimpleDb {
                             fieldSeparator = args[4].charAt(0);
                     }
 
-                    HeapFileEncoder.convert(sourceTxtFile, targetDatFile,
-                            BufferPool.getPageSize(), numOfAttributes, ts, fieldSeparator);
+                    if (slotted)
+                        HeapFileEncoder.convertSlotted(sourceTxtFile, targetDatFile,
+                                BufferPool.getPageSize(), ts, fieldSeparator);
+                    else
+                        HeapFileEncoder.convert(sourceTxtFile, targetDatFile,
+                                BufferPool.getPageSize(), numOfAttributes, ts, fieldSeparator);
 
                 } catch (IOException e) {
                     throw new RuntimeException(e);
@@ -1,7 +1,11 @@
 package simpledb.common;
 
+import simpledb.index.BTreeFile;
+import simpledb.index.HashFile;
+import simpledb.storage.ColumnFile;
 import simpledb.storage.DbFile;
 import simpledb.storage.HeapFile;
+import simpledb.storage.SlottedHeapFile;
 import simpledb.storage.TupleDesc;
 
 import java.io.BufferedReader;
@@ -123,6 +127,14 @@ public class Catalog {
         return id2table.get(tableid);
     }
 
+    /**
+     * @return true if the specified table is stored a column at a time, in
+     *         a {@link ColumnFile}
+     */
+    public boolean isColumnar(int tableid) {
+        return id2table.get(tableid) instanceof ColumnFile;
+    }
+
     public String getPrimaryKey(int tableid) {
         return pkey.get(tableid);
     }
@@ -166,6 +178,7 @@ public class Catalog {
                 List<String> names = new ArrayList<>();
                 List<Type> types = new ArrayList<>();
                 String primaryKey = "";
+                List<Integer> dictColumns = new ArrayList<>();
                 for (String e : els) {
                     String[] els2 = e.trim().split(" ");
                     names.add(els2[0].trim());
@@ -173,6 +186,8 @@ public class Catalog {
                         types.add(Type.INT_TYPE);
                     else if (els2[1].trim().equalsIgnoreCase("string"))
                         types.add(Type.STRING_TYPE);
+                    else if (els2[1].trim().equalsIgnoreCase("varchar"))
+                        types.add(Type.VARCHAR_TYPE);
                     else {
                         System.out.println("Unknown type " + els2[1]);
                         System.exit(0);
@@ -180,6 +195,8 @@ public class Catalog {
                     if (els2.length == 3) {
                         if (els2[2].trim().equals("pk"))
                             primaryKey = els2[0].trim();
+                        else if (els2[2].trim().equals("dict"))
+                            dictColumns.add(names.size() - 1);
                         else {
                             System.out.println("Unknown annotation " + els2[2]);
                             System.exit(0);
@@ -189,7 +206,36 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder + "/" + name + ".dat"), t);
+                // a trailing "columnar" stores the table a column at a time,
+                // "btree" in a B+ tree, "hash" in an extendible hash index
+                // and "slotted" in a heap file of variable-length records
+                String storage = line.substring(line.indexOf(")") + 1).trim();
+                DbFile tabHf;
+                if (storage.equalsIgnoreCase("columnar")) {
+                    ColumnFile cf = new ColumnFile(new File(baseFolder + "/" + name + ".col"), t);
+                    for (int c : dictColumns)
+                        cf.setDictionaryEncoded(c, true);
+                    tabHf = cf;
+                } else if (!dictColumns.isEmpty()) {
+                    System.out.println("Dictionary encoding needs a columnar table: " + name);
+                    System.exit(0);
+                    return;
+                } else if (storage.equalsIgnoreCase("btree")) {
+                    // a B+ tree on the primary key, or on the first field
+                    int key = primaryKey.isEmpty() ? 0 : names.indexOf(primaryKey);
+                    tabHf = new BTreeFile(new File(baseFolder + "/" + name + ".btree"), key, t);
+                } else if (storage.equalsIgnoreCase("hash")) {
+                    int key = primaryKey.isEmpty() ? 0 : names.indexOf(primaryKey);
+                    tabHf = new HashFile(new File(baseFolder + "/" + name + ".hash"), key, t);
+                } else if (storage.equalsIgnoreCase("slotted"))
+                    tabHf = new SlottedHeapFile(new File(baseFolder + "/" + name + ".dat"), t);
+                else if (storage.isEmpty())
+                    tabHf = new HeapFile(new File(baseFolder + "/" + name + ".dat"), t);
+                else {
+                    System.out.println("Unknown storage " + storage);
+                    System.exit(0);
+                    return;
+                }
                 addTable(tabHf, name, primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
@@ -3,10 +3,12 @@ package simpledb.common;
 import simpledb.storage.Field;
 import simpledb.storage.IntField;
 import simpledb.storage.StringField;
+import simpledb.storage.VarcharField;
 
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.text.ParseException;
 
 /**
@@ -30,6 +32,11 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public Field parse(ByteBuffer buf) {
+            return new IntField(buf.getInt());
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -48,12 +55,51 @@ public enum Type implements Serializable {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public Field parse(ByteBuffer buf) {
+            int strLen = buf.getInt();
+            byte[] bs = new byte[strLen];
+            buf.get(bs);
+            buf.position(buf.position() + STRING_LEN - strLen);
+            return new StringField(new String(bs), STRING_LEN);
+        }
+    }, VARCHAR_TYPE() {
+        /**
+         * A VARCHAR takes only as many bytes as its value needs, so this is
+         * the largest size it can have.
+         */
+        @Override
+        public int getLen() {
+            return STRING_LEN + 2;
+        }
+
+        @Override
+        public Field parse(DataInputStream dis) throws ParseException {
+            try {
+                int strLen = dis.readUnsignedShort();
+                byte[] bs = new byte[strLen];
+                dis.readFully(bs);
+                return new VarcharField(new String(bs));
+            } catch (IOException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
+
+        @Override
+        public Field parse(ByteBuffer buf) {
+            int strLen = buf.getShort() & 0xFFFF;
+            byte[] bs = new byte[strLen];
+            buf.get(bs);
+            return new VarcharField(new String(bs));
+        }
     };
 
     public static final int STRING_LEN = 128;
 
     /**
-     * @return the number of bytes required to store a field of this type.
+     * @return the number of bytes required to store a field of this type;
+     *         for variable-length types, the most it can take.
      */
     public abstract int getLen();
 
@@ -66,4 +112,15 @@ public enum Type implements Serializable {
      */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+    /**
+     * Decode a field of this type directly from a buffer, without copying
+     * it into a stream first.
+     *
+     * @param buf The buffer to read from, starting at its position; the
+     *            position is advanced past the field.
+     * @return a Field object of the same type as this object that has
+     *         contents read from the buffer.
+     */
+    public abstract Field parse(ByteBuffer buf);
+
 }
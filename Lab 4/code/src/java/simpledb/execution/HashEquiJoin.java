@@ -1,14 +1,29 @@
 package simpledb.execution;
 
 import simpledb.common.DbException;
+import simpledb.storage.Field;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 import simpledb.transaction.TransactionAbortedException;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * HashEquiJoin builds a hash table on the keys of child1 and probes it with
+ * the tuples of child2. For each hash table it builds, it hands a
+ * {@link RuntimeFilter} on the keys to the SeqScan under child2, looking
+ * through Filters, so that probe tuples that cannot match are dropped by the
+ * scan, and pages outside the key range are skipped.
+ * <p>
+ * If child1 has more tuples than the memory budget, the join hash partitions
+ * both inputs into spill files and joins each pair of partitions in memory,
+ * splitting again the partitions that are still too large. Each child is
+ * read once; only the spill files are read again.
+ *
+ * @see #setMemoryBudget
  */
 public class HashEquiJoin extends Operator {
 
@@ -51,27 +66,340 @@ public class HashEquiJoin extends Operator {
     }
 
     final Map<Object, List<Tuple>> map = new HashMap<>();
+
+    /**
+     * Default number of child1 tuples the join keeps in memory.
+     */
     public final static int MAP_SIZE = 20000;
 
-    private boolean loadMap() throws DbException, TransactionAbortedException {
-        int cnt = 0;
+    /**
+     * Number of partitions the inputs are split into when child1 does not
+     * fit in memory, and at each level of repartitioning.
+     */
+    public static final int PARTITIONS = 16;
+
+    /**
+     * Number of times a partition that does not fit in memory is split
+     * again, each time with another hash function, before it is joined
+     * one memory load at a time.
+     */
+    static final int MAX_LEVEL = 3;
+
+    private int memoryTuples = MAP_SIZE;
+
+    // the filter on the keys of child1, and the probe tuples the filters of
+    // earlier passes eliminated
+    transient private RuntimeFilter filter = null;
+    transient private long rowsEliminated = 0;
+
+    // whether child1 did not fit in memory, and the partitions of the inputs
+    // left to join
+    transient private boolean spilling = false;
+    transient private Deque<Partition> partitions = null;
+    transient private Partition current = null;
+    transient private SpillFile.Reader buildReader = null;
+    transient private SpillFile.Reader probeReader = null;
+    transient private int spilledPartitions = 0;
+
+    /**
+     * The tuples of child1 and child2 whose keys hash to the same partition.
+     */
+    private static class Partition {
+        final SpillFile build;
+        final SpillFile probe;
+        final int level;
+
+        Partition(SpillFile build, SpillFile probe, int level) {
+            this.build = build;
+            this.probe = probe;
+            this.level = level;
+        }
+
+        void close() {
+            build.close();
+            probe.close();
+        }
+    }
+
+    /**
+     * Sets the number of child1 tuples the join keeps in memory. If child1
+     * has more tuples, both inputs are hash partitioned into spill files,
+     * and each pair of partitions is joined in memory (a Grace hash join),
+     * so that each child is read once.
+     */
+    public void setMemoryBudget(int tuples) {
+        if (tuples < 1)
+            throw new IllegalArgumentException("memory budget must be positive");
+        this.memoryTuples = tuples;
+    }
+
+    public int getMemoryBudget() {
+        return memoryTuples;
+    }
+
+    /**
+     * @return the number of partitions written to spill files since the join
+     *         was opened, counting repartitioned ones
+     */
+    public int getSpilledPartitions() {
+        return spilledPartitions;
+    }
+
+    private static int partition(Field key, int level) {
+        int h = key.hashCode() * 0x9e3779b1 + level * 0x85ebca6b;
+        h ^= h >>> 16;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 13;
+        return Math.floorMod(h, PARTITIONS);
+    }
+
+    private SpillFile[] newSpillFiles(TupleDesc td) throws IOException {
+        SpillFile[] files = new SpillFile[PARTITIONS];
+        for (int i = 0; i < PARTITIONS; i++)
+            files[i] = new SpillFile(td);
+        return files;
+    }
+
+    /**
+     * Reads child1 into the map if it fits, and otherwise into the build
+     * partitions; either way hands a filter on its keys to the probe scan.
+     */
+    private void build() throws DbException, TransactionAbortedException {
+        closePartitions();
         map.clear();
-        while (child1.hasNext()) {
-            t1 = child1.next();
-            List<Tuple> list = map.computeIfAbsent(t1.getField(pred.getField1()), k -> new ArrayList<>());
-            list.add(t1);
-            if (cnt++ == MAP_SIZE)
+        spilling = false;
+        List<Tuple> tuples = new ArrayList<>();
+        while (tuples.size() <= memoryTuples && child1.hasNext())
+            tuples.add(child1.next());
+        if (tuples.size() <= memoryTuples) {
+            for (Tuple t : tuples)
+                map.computeIfAbsent(t.getField(pred.getField1()), k -> new ArrayList<>()).add(t);
+            newRuntimeFilter(map.size());
+            if (filter != null) {
+                for (Object key : map.keySet())
+                    filter.add((Field) key);
+            }
+            pushRuntimeFilter();
+            return;
+        }
+
+        spilling = true;
+        newRuntimeFilter(memoryTuples * PARTITIONS);
+        try {
+            SpillFile[] build = newSpillFiles(child1.getTupleDesc());
+            for (Tuple t : tuples)
+                spillBuild(build, t);
+            tuples = null;
+            while (child1.hasNext())
+                spillBuild(build, child1.next());
+            SpillFile[] probe = newSpillFiles(child2.getTupleDesc());
+            for (int i = 0; i < PARTITIONS; i++)
+                partitions.add(new Partition(build[i], probe[i], 0));
+            spilledPartitions += PARTITIONS;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        pushRuntimeFilter();
+    }
+
+    private void spillBuild(SpillFile[] build, Tuple t) throws IOException {
+        Field key = t.getField(pred.getField1());
+        if (filter != null)
+            filter.add(key);
+        build[partition(key, 0)].add(t);
+    }
+
+    /**
+     * Reads child2 into the probe partitions, once the filter on the keys of
+     * child1 is complete.
+     */
+    private void partitionProbe() throws DbException, TransactionAbortedException {
+        try {
+            Iterator<Partition> it = partitions.iterator();
+            SpillFile[] probe = new SpillFile[PARTITIONS];
+            for (int i = 0; i < PARTITIONS; i++)
+                probe[i] = it.next().probe;
+            while (child2.hasNext()) {
+                Tuple t = child2.next();
+                probe[partition(t.getField(pred.getField2()), 0)].add(t);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Splits a partition that does not fit in memory with the hash function
+     * of the next level.
+     *
+     * @return false if all of its build tuples would go to one partition,
+     *         as when they share a key, in which case nothing is split
+     */
+    private boolean repartition(Partition p) throws IOException {
+        int level = p.level + 1;
+        SpillFile[] build = newSpillFiles(child1.getTupleDesc());
+        SpillFile[] probe = newSpillFiles(child2.getTupleDesc());
+        SpillFile.Reader in = p.build.reader();
+        for (Tuple t = in.next(); t != null; t = in.next())
+            build[partition(t.getField(pred.getField1()), level)].add(t);
+        in.close();
+        for (SpillFile f : build) {
+            if (f.size() == p.build.size()) {
+                for (int i = 0; i < PARTITIONS; i++) {
+                    build[i].close();
+                    probe[i].close();
+                }
+                return false;
+            }
+        }
+        in = p.probe.reader();
+        for (Tuple t = in.next(); t != null; t = in.next())
+            probe[partition(t.getField(pred.getField2()), level)].add(t);
+        in.close();
+        p.close();
+        for (int i = PARTITIONS - 1; i >= 0; i--)
+            partitions.push(new Partition(build[i], probe[i], level));
+        spilledPartitions += PARTITIONS;
+        return true;
+    }
+
+    /**
+     * Moves on to the next pair of partitions that can produce tuples,
+     * splitting those whose build side does not fit in memory, and loads the
+     * first memory load of its build side.
+     *
+     * @return false if no partitions are left
+     */
+    private boolean nextPartition() throws IOException {
+        closeCurrent();
+        while (!partitions.isEmpty()) {
+            Partition p = partitions.pop();
+            if (p.build.size() == 0 || p.probe.size() == 0) {
+                p.close();
+                continue;
+            }
+            if (p.build.size() > memoryTuples && p.level < MAX_LEVEL && repartition(p))
+                continue;
+            current = p;
+            buildReader = p.build.reader();
+            if (loadChunk())
                 return true;
         }
-        return cnt > 0;
+        return false;
+    }
+
+    /**
+     * Loads the next memory load of the build side of the current partition
+     * into the map, and starts a pass over its probe side. A partition that
+     * repartitioning could not split takes one pass per memory load.
+     *
+     * @return false if the build side is done
+     */
+    private boolean loadChunk() throws IOException {
+        map.clear();
+        int n = 0;
+        Tuple t;
+        while (n < memoryTuples && (t = buildReader.next()) != null) {
+            map.computeIfAbsent(t.getField(pred.getField1()), k -> new ArrayList<>()).add(t);
+            n++;
+        }
+        if (probeReader != null)
+            probeReader.close();
+        probeReader = null;
+        if (n == 0)
+            return false;
+        probeReader = current.probe.reader();
+        return true;
+    }
+
+    private void closeCurrent() throws IOException {
+        if (buildReader != null)
+            buildReader.close();
+        if (probeReader != null)
+            probeReader.close();
+        if (current != null)
+            current.close();
+        buildReader = null;
+        probeReader = null;
+        current = null;
+    }
+
+    private void closePartitions() {
+        try {
+            closeCurrent();
+        } catch (IOException e) {
+            // the spill files are deleted anyway
+        }
+        if (partitions == null)
+            return;
+        for (Partition p : partitions)
+            p.close();
+        partitions.clear();
+    }
+
+    /**
+     * @return the next tuple of the probe side, from child2 or from the
+     *         current probe partition, or null if there is none
+     */
+    private Tuple nextProbe() throws DbException, TransactionAbortedException, IOException {
+        if (!spilling)
+            return child2.hasNext() ? child2.next() : null;
+        return probeReader == null ? null : probeReader.next();
+    }
 
+    /**
+     * @return the SeqScan under child2 and the Filters above it, or null if
+     *         child2 is not such a scan
+     */
+    private SeqScan probeScan() {
+        OpIterator op = child2;
+        while (op instanceof Filter)
+            op = ((Filter) op).getChildren()[0];
+        return op instanceof SeqScan ? (SeqScan) op : null;
+    }
+
+    /**
+     * Starts a new, empty filter for the keys of child1, if there is a probe
+     * scan to hand it to.
+     */
+    private void newRuntimeFilter(int expectedKeys) {
+        if (filter != null)
+            rowsEliminated += filter.getRowsEliminated();
+        filter = null;
+        if (probeScan() != null)
+            filter = new RuntimeFilter(pred.getField2(),
+                    child2.getTupleDesc().getFieldType(pred.getField2()), expectedKeys);
+    }
+
+    /**
+     * Hands the filter, once the keys of child1 are added, to the probe
+     * scan, which picks it up when child2 is next opened or rewound.
+     */
+    private void pushRuntimeFilter() {
+        SeqScan scan = probeScan();
+        if (scan != null)
+            scan.setRuntimeFilter(filter);
+    }
+
+    /**
+     * @return the number of child2 tuples the runtime filters dropped before
+     *         they reached the join
+     */
+    public long getRowsEliminated() {
+        return rowsEliminated + (filter == null ? 0 : filter.getRowsEliminated());
     }
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child1.open();
+        filter = null;
+        rowsEliminated = 0;
+        spilledPartitions = 0;
+        partitions = new ArrayDeque<>();
+        build();
         child2.open();
-        loadMap();
+        if (spilling)
+            partitionProbe();
         super.open();
     }
 
@@ -83,11 +411,19 @@ public class HashEquiJoin extends Operator {
         this.t2 = null;
         this.listIt = null;
         this.map.clear();
+        closePartitions();
+        SeqScan scan = probeScan();
+        if (scan != null)
+            scan.setRuntimeFilter(null);
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         child1.rewind();
+        build();
         child2.rewind();
+        if (spilling)
+            partitionProbe();
+        this.listIt = null;
     }
 
     transient Iterator<Tuple> listIt = null;
@@ -127,32 +463,34 @@ public class HashEquiJoin extends Operator {
     }
 
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        if (listIt != null && listIt.hasNext()) {
-            return processList();
-        }
-
-        // loop around child2
-        while (child2.hasNext()) {
-            t2 = child2.next();
-
-            // if match, create a combined tuple and fill it with the values
-            // from both tuples
-            List<Tuple> l = map.get(t2.getField(pred.getField2()));
-            if (l == null)
-                continue;
-            listIt = l.iterator();
-
-            return processList();
-
-        }
+        try {
+            while (true) {
+                if (listIt != null && listIt.hasNext())
+                    return processList();
 
-        // child2 is done: advance child1
-        child2.rewind();
-        if (loadMap()) {
-            return fetchNext();
+                // if match, create a combined tuple and fill it with the
+                // values from both tuples
+                Tuple t = nextProbe();
+                if (t != null) {
+                    List<Tuple> l = map.get(t.getField(pred.getField2()));
+                    if (l != null) {
+                        t2 = t;
+                        listIt = l.iterator();
+                    }
+                    continue;
+                }
+                if (!spilling)
+                    return null;
+                // the probe partition is done: join it with the next memory
+                // load of its build partition, or move to the next partition
+                if (current != null && loadChunk())
+                    continue;
+                if (!nextPartition())
+                    return null;
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
         }
-
-        return null;
     }
 
     @Override
@@ -0,0 +1,130 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.index.HashFile;
+import simpledb.storage.DbFile;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.Field;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.NoSuchElementException;
+
+/**
+ * HashIndexScan is an access method for tables stored in a {@link HashFile}
+ * that returns the tuples whose key equals a constant, reading only the
+ * bucket of the constant. It is what a Filter with an EQUALS predicate on
+ * the key of such a table is rewritten to.
+ */
+public class HashIndexScan implements OpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private boolean isOpen = false;
+    private final TransactionId tid;
+    private final Field key;
+    private final int keyField;
+    private final TupleDesc myTd;
+    private final transient DbFileIterator it;
+    private final String tableName;
+    private final String alias;
+
+    /**
+     * Creates a hash index lookup in the specified table as a part of the
+     * specified transaction.
+     *
+     * @param tid        The transaction this scan is running as a part of.
+     * @param tableid    the table to scan; must be stored in a HashFile.
+     * @param tableAlias the alias of this table; the returned tupleDesc has
+     *                   fields named tableAlias.fieldName, as in SeqScan.
+     * @param key        the value of the key field to look up
+     */
+    public HashIndexScan(TransactionId tid, int tableid, String tableAlias, Field key) {
+        this.tid = tid;
+        this.key = key;
+        this.alias = tableAlias;
+        this.tableName = Database.getCatalog().getTableName(tableid);
+        DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+        if (!(file instanceof HashFile))
+            throw new IllegalArgumentException("table " + tableName + " has no hash index");
+        this.it = ((HashFile) file).lookup(tid, key);
+        this.keyField = ((HashFile) file).keyField();
+
+        TupleDesc td = file.getTupleDesc();
+        String[] newNames = new String[td.numFields()];
+        Type[] newTypes = new Type[td.numFields()];
+        for (int i = 0; i < td.numFields(); i++) {
+            newNames[i] = tableAlias + "." + td.getFieldName(i);
+            newTypes[i] = td.getFieldType(i);
+        }
+        myTd = new TupleDesc(newTypes, newNames);
+    }
+
+    /**
+     * @return the actual name of the table in the catalog of the database
+     */
+    public String getTableName() {
+        return this.tableName;
+    }
+
+    /**
+     * @return the alias of the table this operator scans.
+     */
+    public String getAlias() {
+        return this.alias;
+    }
+
+    /**
+     * @return the value of the key of the tuples to return
+     */
+    public Field getKey() {
+        return key;
+    }
+
+    /**
+     * @return the index of the key field in the returned tuples
+     */
+    public int getKeyField() {
+        return keyField;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        if (isOpen)
+            throw new DbException("double open on one OpIterator.");
+
+        it.open();
+        isOpen = true;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return myTd;
+    }
+
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        if (!isOpen)
+            throw new IllegalStateException("iterator is closed");
+        return it.hasNext();
+    }
+
+    public Tuple next() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (!isOpen)
+            throw new IllegalStateException("iterator is closed");
+        return it.next();
+    }
+
+    public void close() {
+        it.close();
+        isOpen = false;
+    }
+
+    public void rewind() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        close();
+        open();
+    }
+}
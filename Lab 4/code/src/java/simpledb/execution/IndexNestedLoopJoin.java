@@ -0,0 +1,241 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.index.BTreeFile;
+import simpledb.index.HashFile;
+import simpledb.storage.DbFile;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.Field;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * IndexNestedLoopJoin joins child1 with a table stored in a {@link BTreeFile}
+ * or {@link HashFile} keyed on the join field: for each child1 tuple it looks
+ * up the matching tuples through the index rather than scanning the table.
+ * <p>
+ * child2 is the SeqScan of that table, possibly under Filters. It describes
+ * the table and is shown in query plans, but is not read: the predicates of
+ * the Filters and those pushed into the scan are applied to the tuples the
+ * lookups return.
+ */
+public class IndexNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private final JoinPredicate pred;
+    private OpIterator child1, child2;
+    private final TupleDesc comboTD;
+
+    transient private SeqScan scan;
+    transient private DbFile file;
+    transient private List<Predicate> predicates;
+    transient private Tuple t1 = null;
+    transient private DbFileIterator matches = null;
+    transient private int lookups = 0;
+
+    /**
+     * Constructor. Accepts two children to join and the predicate to join
+     * them on.
+     *
+     * @param p      The predicate to use to join the children
+     * @param child1 Iterator for the left(outer) relation to join
+     * @param child2 the scan of the right(inner) relation, which must be
+     *               indexed on its join field as {@link #canUse} requires
+     */
+    public IndexNestedLoopJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        if (!canUse(p, child2))
+            throw new IllegalArgumentException("no index on the join field of the inner relation");
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /**
+     * @return the SeqScan under op and the Filters above it, or null if op is
+     *         not such a scan
+     */
+    public static SeqScan innerScan(OpIterator op) {
+        while (op instanceof Filter)
+            op = ((Filter) op).getChildren()[0];
+        return op instanceof SeqScan ? (SeqScan) op : null;
+    }
+
+    /**
+     * @return true if an index lookup can find the tuples of child2 that
+     *         match a child1 tuple under p: child2 scans a B+ tree keyed on
+     *         the join field, or a hash index keyed on it and p is an
+     *         equality
+     */
+    public static boolean canUse(JoinPredicate p, OpIterator child2) {
+        SeqScan scan = innerScan(child2);
+        if (scan == null)
+            return false;
+        DbFile file = Database.getCatalog().getDatabaseFile(scan.getTableId());
+        if (file instanceof HashFile)
+            return ((HashFile) file).keyField() == p.getField2() && p.getOperator() == Predicate.Op.EQUALS;
+        if (file instanceof BTreeFile)
+            return ((BTreeFile) file).keyField() == p.getField2() && SortMergeJoin.supports(p.getOperator());
+        return false;
+    }
+
+    /**
+     * @return the operator op' such that <tt>a op b</tt> if and only if
+     *         <tt>b op' a</tt>, which the lookups use to compare the key of
+     *         the index with the child1 field
+     */
+    public static Predicate.Op reverse(Predicate.Op op) {
+        switch (op) {
+            case LESS_THAN:
+                return Predicate.Op.GREATER_THAN;
+            case LESS_THAN_OR_EQ:
+                return Predicate.Op.GREATER_THAN_OR_EQ;
+            case GREATER_THAN:
+                return Predicate.Op.LESS_THAN;
+            case GREATER_THAN_OR_EQ:
+                return Predicate.Op.LESS_THAN_OR_EQ;
+            default:
+                return op;
+        }
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    /**
+     * @return the field name of join field1. Should be quantified by
+     *         alias or table name.
+     */
+    public String getJoinField1Name() {
+        return this.child1.getTupleDesc().getFieldName(this.pred.getField1());
+    }
+
+    /**
+     * @return the field name of join field2. Should be quantified by
+     *         alias or table name.
+     */
+    public String getJoinField2Name() {
+        return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    /**
+     * @return the number of index lookups since the join was opened, one
+     *         per child1 tuple
+     */
+    public int getLookups() {
+        return lookups;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        scan = innerScan(child2);
+        file = Database.getCatalog().getDatabaseFile(scan.getTableId());
+        predicates = new ArrayList<>(scan.getPredicates());
+        for (OpIterator op = child2; op instanceof Filter; op = ((Filter) op).getChildren()[0])
+            predicates.add(((Filter) op).getPredicate());
+        lookups = 0;
+        child1.open();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        closeMatches();
+        child1.close();
+        t1 = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        closeMatches();
+        child1.rewind();
+        t1 = null;
+    }
+
+    private void closeMatches() {
+        if (matches != null)
+            matches.close();
+        matches = null;
+    }
+
+    /**
+     * @return the tuples of the inner relation whose key matches key under
+     *         the join predicate
+     */
+    private DbFileIterator lookup(Field key) {
+        lookups++;
+        if (file instanceof HashFile)
+            return ((HashFile) file).lookup(scan.getTransactionId(), key);
+        return ((BTreeFile) file).indexIterator(scan.getTransactionId(),
+                new IndexPredicate(reverse(pred.getOperator()), key));
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples. As in {@link Join}, the tuples returned are the
+     * concatenation of joining tuples from the left and right relation.
+     *
+     * @return The next matching tuple.
+     * @see JoinPredicate#filter
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (matches != null) {
+                while (matches.hasNext()) {
+                    Tuple t2 = matches.next();
+                    if (!satisfies(t2))
+                        continue;
+
+                    int td1n = t1.getTupleDesc().numFields();
+                    int td2n = t2.getTupleDesc().numFields();
+
+                    // set fields in combined tuple
+                    Tuple t = new Tuple(comboTD);
+                    for (int i = 0; i < td1n; i++)
+                        t.setField(i, t1.getField(i));
+                    for (int i = 0; i < td2n; i++)
+                        t.setField(td1n + i, t2.getField(i));
+                    return t;
+                }
+                closeMatches();
+            }
+
+            // the matches are done: advance child1
+            if (!child1.hasNext())
+                return null;
+            t1 = child1.next();
+            matches = lookup(t1.getField(pred.getField1()));
+            matches.open();
+        }
+    }
+
+    private boolean satisfies(Tuple t) {
+        for (Predicate p : predicates) {
+            if (!p.filter(t))
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{this.child1, this.child2};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+    }
+
+}
@@ -0,0 +1,55 @@
+package simpledb.execution;
+
+import simpledb.storage.Field;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * IndexPredicate compares the key field of an index to a specified Field
+ * value, and tells an index which of its entries to read.
+ */
+public class IndexPredicate implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Predicate.Op op;
+    private final Field fieldvalue;
+
+    /**
+     * Constructor.
+     *
+     * @param op     the operation to apply (as defined in Predicate.Op); either
+     *               Predicate.Op.GREATER_THAN, Predicate.Op.LESS_THAN,
+     *               Predicate.Op.EQUALS, Predicate.Op.GREATER_THAN_OR_EQ, or
+     *               Predicate.Op.LESS_THAN_OR_EQ
+     * @param fvalue the value that the key field is compared to
+     */
+    public IndexPredicate(Predicate.Op op, Field fvalue) {
+        this.op = op;
+        this.fieldvalue = fvalue;
+    }
+
+    public Field getField() {
+        return fieldvalue;
+    }
+
+    public Predicate.Op getOp() {
+        return op;
+    }
+
+    public boolean equals(Object o) {
+        if (!(o instanceof IndexPredicate))
+            return false;
+        IndexPredicate ipd = (IndexPredicate) o;
+        return op == ipd.op && fieldvalue.equals(ipd.fieldvalue);
+    }
+
+    public int hashCode() {
+        return Objects.hash(op, fieldvalue);
+    }
+
+    public String toString() {
+        return op + " " + fieldvalue;
+    }
+}
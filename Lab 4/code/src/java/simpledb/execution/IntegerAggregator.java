@@ -21,8 +21,10 @@ public class IntegerAggregator implements Aggregator {
     private final int gbfield;
     private final Type gbfieldtype;
     private final int afield;
-    // a map of groupVal -> AggregateFields
-    private final Map<String, AggregateFields> groups;
+    // a map of groupVal -> AggregateFields; the key is null without grouping.
+    // Grouping on the fields themselves lets dictionary-encoded strings be
+    // grouped by their codes.
+    private final Map<Field, AggregateFields> groups;
 
     /**
      * Aggregate constructor
@@ -50,9 +52,9 @@ public class IntegerAggregator implements Aggregator {
      * @param tup the Tuple containing an aggregate field and a group-by field
      */
     public void mergeTupleIntoGroup(Tuple tup) {
-        String groupVal = "";
+        Field groupVal = null;
         if (gbfield != NO_GROUPING) {
-            groupVal = tup.getField(gbfield).toString();
+            groupVal = tup.getField(gbfield);
         }
         AggregateFields agg = groups.get(groupVal);
         if (agg == null)
@@ -97,15 +99,12 @@ public class IntegerAggregator implements Aggregator {
         }
 
         // iterate over groups and create summary tuples
-        for (String groupVal : groups.keySet()) {
+        for (Field groupVal : groups.keySet()) {
             AggregateFields agg = groups.get(groupVal);
             Tuple tup = new Tuple(td);
 
             if (gbfield != NO_GROUPING) {
-                if (gbfieldtype == Type.INT_TYPE)
-                    tup.setField(0, new IntField(new Integer(groupVal)));
-                else
-                    tup.setField(0, new StringField(groupVal, Type.STRING_LEN));
+                tup.setField(0, groupVal);
             }
             switch (what) {
                 case MIN:
@@ -144,10 +143,10 @@ public class IntegerAggregator implements Aggregator {
      * A helper struct to store accumulated aggregate values.
      */
     private static class AggregateFields {
-        public final String groupVal;
+        public final Field groupVal;
         public int min, max, sum, count, sumCount;
 
-        public AggregateFields(String groupVal) {
+        public AggregateFields(Field groupVal) {
             this.groupVal = groupVal;
             min = Integer.MAX_VALUE;
             max = Integer.MIN_VALUE;
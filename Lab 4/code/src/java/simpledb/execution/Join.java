@@ -1,22 +1,51 @@
 package simpledb.execution;
 
 import simpledb.common.DbException;
+import simpledb.storage.BufferPool;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 import simpledb.transaction.TransactionAbortedException;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * Join is a block nested loops join: it reads as many child1 tuples as its
+ * memory budget allows, and scans child2 once for the whole block, so that
+ * child2 is scanned once per block rather than once per child1 tuple.
+ * child2 is read a page's worth of tuples at a time, and each such batch is
+ * joined with every tuple of the block before the next is read. A budget of
+ * one tuple gives a tuple-at-a-time nested loops join.
+ *
+ * @see #setMemoryBudget
  */
 public class Join extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /**
+     * Default number of child1 tuples in a block.
+     */
+    public static final int DEFAULT_MEMORY = 20000;
+
     private final JoinPredicate pred;
     private OpIterator child1, child2;
     private final TupleDesc comboTD;
-    private Tuple t1 = null;
+    private int memoryTuples = DEFAULT_MEMORY;
+
+    // the block of child1 tuples, the batch of child2 tuples it is being
+    // joined with, and the position in both
+    transient private List<Tuple> block = null;
+    transient private List<Tuple> batch = null;
+    transient private int outer = 0;
+    transient private int inner = 0;
+    transient private int batchTuples;
+    // whether child2 is at its start, and how often it was scanned
+    transient private boolean innerFresh;
+    transient private int innerScans = 0;
 
     /**
      * Constructor. Accepts two children to join and the predicate to join them
@@ -37,6 +66,27 @@ public class Join extends Operator {
         return pred;
     }
 
+    /**
+     * Sets the number of child1 tuples the join holds in a block.
+     */
+    public void setMemoryBudget(int tuples) {
+        if (tuples < 1)
+            throw new IllegalArgumentException("memory budget must be positive");
+        this.memoryTuples = tuples;
+    }
+
+    public int getMemoryBudget() {
+        return memoryTuples;
+    }
+
+    /**
+     * @return the number of times child2 was scanned since the join was
+     *         opened, which is the number of blocks of child1
+     */
+    public int getInnerScans() {
+        return innerScans;
+    }
+
     /**
      * @return the field name of join field1. Should be quantified by
      *         alias or table name.
@@ -65,6 +115,13 @@ public class Join extends Operator {
             TransactionAbortedException {
         child1.open();
         child2.open();
+        // as many tuples as fit on a HeapPage
+        TupleDesc td2 = child2.getTupleDesc();
+        batchTuples = Math.max(1, BufferPool.getPageSize() * 8 / (td2.getSize() * 8 + 1));
+        innerScans = 0;
+        block = new ArrayList<>();
+        batch = new ArrayList<>();
+        reset();
         super.open();
     }
 
@@ -72,11 +129,57 @@ public class Join extends Operator {
         super.close();
         child2.close();
         child1.close();
+        if (block != null)
+            block.clear();
+        if (batch != null)
+            batch.clear();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         child1.rewind();
         child2.rewind();
+        reset();
+    }
+
+    private void reset() {
+        block.clear();
+        batch.clear();
+        outer = inner = 0;
+        innerFresh = true;
+    }
+
+    /**
+     * Reads the next batch of child2 tuples.
+     *
+     * @return false if child2 is done
+     */
+    private boolean nextBatch() throws DbException, TransactionAbortedException {
+        batch.clear();
+        while (batch.size() < batchTuples && child2.hasNext())
+            batch.add(child2.next());
+        outer = inner = 0;
+        return !batch.isEmpty();
+    }
+
+    /**
+     * Reads the next block of child1 tuples, and starts a new scan of child2
+     * for it.
+     *
+     * @return false if child1 is done
+     */
+    private boolean nextBlock() throws DbException, TransactionAbortedException {
+        block.clear();
+        batch.clear();
+        outer = inner = 0;
+        while (block.size() < memoryTuples && child1.hasNext())
+            block.add(child1.next());
+        if (block.isEmpty())
+            return false;
+        if (!innerFresh)
+            child2.rewind();
+        innerFresh = false;
+        innerScans++;
+        return true;
     }
 
     /**
@@ -98,40 +201,40 @@ public class Join extends Operator {
      * @see JoinPredicate#filter
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        // loop around child1
-        while (t1 != null || child1.hasNext()) {
-            if (t1 == null) {
-                assert child1.hasNext();
-                t1 = child1.next();
+        while (true) {
+            // join the batch with each tuple of the block
+            while (outer < block.size()) {
+                Tuple t1 = block.get(outer);
+                while (inner < batch.size()) {
+                    Tuple t2 = batch.get(inner++);
+
+                    // if match, create a combined tuple and fill it with the
+                    // values from both tuples
+                    if (!pred.filter(t1, t2))
+                        continue;
+
+                    int td1n = t1.getTupleDesc().numFields();
+                    int td2n = t2.getTupleDesc().numFields();
+
+                    // set fields in combined tuple
+                    Tuple t = new Tuple(comboTD);
+                    for (int i = 0; i < td1n; i++)
+                        t.setField(i, t1.getField(i));
+                    for (int i = 0; i < td2n; i++)
+                        t.setField(td1n + i, t2.getField(i));
+                    return t;
+                }
+                outer++;
+                inner = 0;
             }
 
-            // loop around child2
-            while (child2.hasNext()) {
-                Tuple t2 = child2.next();
-
-                // if match, create a combined tuple and fill it with the values
-                // from both tuples
-                if (!pred.filter(t1, t2))
-                    continue;
-
-                int td1n = t1.getTupleDesc().numFields();
-                int td2n = t2.getTupleDesc().numFields();
-
-                // set fields in combined tuple
-                Tuple t = new Tuple(comboTD);
-                for (int i = 0; i < td1n; i++)
-                    t.setField(i, t1.getField(i));
-                for (int i = 0; i < td2n; i++)
-                    t.setField(td1n + i, t2.getField(i));
-                return t;
-            }
-
-            // child2 is done: advance child1
-            t1 = null;
-            child2.rewind();
+            // the batch is done: read the next one, or when child2 is done,
+            // advance to the next block of child1
+            if (!block.isEmpty() && nextBatch())
+                continue;
+            if (!nextBlock())
+                return null;
         }
-
-        return null;
     }
 
     @Override
@@ -1,6 +1,9 @@
 package simpledb.execution;
 
+import simpledb.storage.Dictionary;
+import simpledb.storage.DictionaryField;
 import simpledb.storage.Field;
+import simpledb.storage.StringField;
 import simpledb.storage.Tuple;
 
 import java.io.Serializable;
@@ -15,6 +18,10 @@ public class Predicate implements Serializable {
     private final Op op;
     private final int field;
     private final Field operand;
+    // the operand looked up in the dictionary of the last dictionary-encoded
+    // field filtered, so that such fields are compared by code
+    private transient Dictionary dict;
+    private transient int code;
 
     /**
      * Constants used for return codes in Field.compare
@@ -97,6 +104,14 @@ public class Predicate implements Serializable {
      */
     public boolean filter(Tuple t) {
         Field f = t.getField(field);
+        if (f instanceof DictionaryField && op != Op.LIKE && operand instanceof StringField) {
+            DictionaryField df = (DictionaryField) f;
+            if (df.getDictionary() != dict) {
+                code = df.getDictionary().lookup(((StringField) operand).getValue());
+                dict = df.getDictionary();
+            }
+            return df.compareCode(op, code);
+        }
         return f.compare(op, operand);
     }
 
@@ -0,0 +1,154 @@
+package simpledb.execution;
+
+import simpledb.common.Type;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * A RuntimeFilter summarizes the join keys on the build side of a join, so
+ * that the probe side can drop tuples whose key cannot match before they
+ * reach the join. It is a Bloom filter on the keys, and for INT keys also
+ * the range of the keys, which a SeqScan over a HeapFile uses to skip the
+ * pages its zone map puts outside the range.
+ * <p>
+ * The filter counts the probe tuples it rejects. Tuples on pages that were
+ * skipped are never read, and are not counted.
+ *
+ * @see HashEquiJoin
+ * @see SeqScan#setRuntimeFilter
+ */
+public class RuntimeFilter implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Number of bits of the Bloom filter per key, which with
+     * NUM_HASHES hashes lets through about 1% of the keys that are not in
+     * the filter.
+     */
+    public static final int BITS_PER_KEY = 10;
+    static final int NUM_HASHES = 7;
+
+    private final int field;
+    private final BitSet bits;
+    private final int numBits;
+    private int numKeys = 0;
+    // the range of the keys, if they are INTs
+    private final boolean intKeys;
+    private int min = Integer.MAX_VALUE;
+    private int max = Integer.MIN_VALUE;
+    private long rowsEliminated = 0;
+
+    /**
+     * Creates an empty filter.
+     *
+     * @param field        the index of the key field in the probe tuples
+     * @param keyType      the type of the keys
+     * @param expectedKeys the number of distinct keys that will be added
+     */
+    public RuntimeFilter(int field, Type keyType, int expectedKeys) {
+        this.field = field;
+        this.intKeys = keyType == Type.INT_TYPE;
+        this.numBits = Math.max(64, expectedKeys * BITS_PER_KEY);
+        this.bits = new BitSet(numBits);
+    }
+
+    /**
+     * @return the index of the key field in the probe tuples
+     */
+    public int getField() {
+        return field;
+    }
+
+    /**
+     * Adds a key of the build side.
+     */
+    public void add(Field key) {
+        int h1 = key.hashCode();
+        int h2 = mix(h1);
+        for (int i = 0; i < NUM_HASHES; i++)
+            bits.set(Math.floorMod(h1 + i * h2, numBits));
+        numKeys++;
+        if (intKeys) {
+            int v = ((IntField) key).getValue();
+            min = Math.min(min, v);
+            max = Math.max(max, v);
+        }
+    }
+
+    private static int mix(int h) {
+        h *= 0x9e3779b1;
+        return (h ^ (h >>> 15)) | 1;
+    }
+
+    /**
+     * @return false if the key is certainly not one of the keys added
+     */
+    public boolean mightContain(Field key) {
+        if (numKeys == 0)
+            return false;
+        if (intKeys) {
+            int v = ((IntField) key).getValue();
+            if (v < min || v > max)
+                return false;
+        }
+        int h1 = key.hashCode();
+        int h2 = mix(h1);
+        for (int i = 0; i < NUM_HASHES; i++) {
+            if (!bits.get(Math.floorMod(h1 + i * h2, numBits)))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return true unless the key of the probe tuple is certainly not one of
+     *         the keys added, in which case the tuple is counted as
+     *         eliminated
+     */
+    public boolean accept(Tuple t) {
+        if (mightContain(t.getField(field)))
+            return true;
+        rowsEliminated++;
+        return false;
+    }
+
+    /**
+     * Returns predicates on the key field that all probe tuples that can
+     * match satisfy: for INT keys, the range of the keys, or no tuple at
+     * all if no keys were added. A scan can use them to skip pages; the
+     * tuples on the pages it reads are checked by {@link #accept}.
+     */
+    public List<Predicate> rangePredicates() {
+        List<Predicate> preds = new ArrayList<>();
+        if (!intKeys)
+            return preds;
+        if (numKeys == 0) {
+            preds.add(new Predicate(field, Predicate.Op.LESS_THAN, new IntField(Integer.MIN_VALUE)));
+        } else {
+            preds.add(new Predicate(field, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(min)));
+            preds.add(new Predicate(field, Predicate.Op.LESS_THAN_OR_EQ, new IntField(max)));
+        }
+        return preds;
+    }
+
+    /**
+     * @return the number of probe tuples the filter has rejected
+     */
+    public long getRowsEliminated() {
+        return rowsEliminated;
+    }
+
+    /**
+     * @return the number of keys added
+     */
+    public int numKeys() {
+        return numKeys;
+    }
+}
@@ -3,18 +3,30 @@ package simpledb.execution;
 import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Type;
+import simpledb.storage.AbstractDbFileIterator;
+import simpledb.storage.DbFile;
 import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 /**
  * SeqScan is an implementation of a sequential scan access method that reads
  * each tuple of a table in no particular order (e.g., as they are laid out on
  * disk).
+ * <p>
+ * Predicates can be pushed down into the scan, which then returns only the
+ * tuples that satisfy them, and a join can hand the scan a
+ * {@link RuntimeFilter} on the keys of its other input. Scans of HeapFiles
+ * skip the pages whose zone map shows that none of their tuples can pass,
+ * and can be given predicates that only skip pages, for operators above
+ * that check the tuples themselves.
  */
 public class SeqScan implements OpIterator {
 
@@ -24,7 +36,12 @@ public class SeqScan implements OpIterator {
     private final TransactionId tid;
     private TupleDesc myTd;
     private transient DbFileIterator it;
-    //    private transient int tableid;
+    private transient int tableid;
+    private final List<Predicate> predicates = new ArrayList<>();
+    private final List<Predicate> pagePredicates = new ArrayList<>();
+    private transient RuntimeFilter runtimeFilter;
+    // set when the iterator has to be recreated at the next open
+    private transient boolean stale = false;
     private String tableName;
     private String alias;
 
@@ -61,6 +78,20 @@ public class SeqScan implements OpIterator {
         return this.alias;
     }
 
+    /**
+     * @return the id of the table this operator scans
+     */
+    public int getTableId() {
+        return this.tableid;
+    }
+
+    /**
+     * @return the transaction this scan runs as a part of
+     */
+    public TransactionId getTransactionId() {
+        return this.tid;
+    }
+
     /**
      * Reset the tableid, and tableAlias of this operator.
      *
@@ -73,11 +104,15 @@ public class SeqScan implements OpIterator {
      *                   tableAlias.null, or null.null).
      */
     public void reset(int tableid, String tableAlias) {
-        //        this.tableid = tableid;
+        this.tableid = tableid;
+        this.predicates.clear();
+        this.pagePredicates.clear();
+        this.runtimeFilter = null;
+        this.stale = false;
         this.isOpen = false;
         this.alias = tableAlias;
         this.tableName = Database.getCatalog().getTableName(tableid);
-        this.it = Database.getCatalog().getDatabaseFile(tableid).iterator(tid);
+        this.it = fileIterator();
         myTd = Database.getCatalog().getTupleDesc(tableid);
         String[] newNames = new String[myTd.numFields()];
         Type[] newTypes = new Type[myTd.numFields()];
@@ -91,6 +126,140 @@ public class SeqScan implements OpIterator {
         myTd = new TupleDesc(newTypes, newNames);
     }
 
+    /**
+     * Makes the scan return only the tuples that also satisfy p. Must be
+     * called before the scan is opened.
+     *
+     * @param p a predicate on the fields of the table, numbered as in
+     *          getTupleDesc()
+     */
+    public void pushDown(Predicate p) {
+        if (isOpen)
+            throw new IllegalStateException("cannot push a predicate into an open scan");
+        predicates.add(p);
+        this.it = fileIterator();
+    }
+
+    /**
+     * @return the predicates pushed down into this scan
+     */
+    public List<Predicate> getPredicates() {
+        return predicates;
+    }
+
+    /**
+     * Makes the scan skip the pages whose zone map shows that no tuple on
+     * them satisfies p, without checking p on the tuples it returns; for
+     * scans beneath a {@link Filter} on p. Must be called before the scan
+     * is opened.
+     *
+     * @param p a predicate on the fields of the table, numbered as in
+     *          getTupleDesc()
+     */
+    public void skipPages(Predicate p) {
+        if (isOpen)
+            throw new IllegalStateException("cannot push a predicate into an open scan");
+        pagePredicates.add(p);
+        this.it = fileIterator();
+    }
+
+    /**
+     * @return the predicates that only skip pages
+     * @see #skipPages
+     */
+    public List<Predicate> getPagePredicates() {
+        return pagePredicates;
+    }
+
+    /**
+     * Sets a filter that a join computed from its other input, or null to
+     * remove it. The scan then drops the tuples whose key the filter rules
+     * out, and on a HeapFile skips the pages outside the filter's key range.
+     * If the scan is open, the filter takes effect at the next rewind.
+     */
+    public void setRuntimeFilter(RuntimeFilter filter) {
+        this.runtimeFilter = filter;
+        if (isOpen)
+            stale = true;
+        else
+            this.it = fileIterator();
+    }
+
+    /**
+     * @return the runtime filter of this scan, or null
+     */
+    public RuntimeFilter getRuntimeFilter() {
+        return runtimeFilter;
+    }
+
+    private DbFileIterator fileIterator() {
+        DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+        // the runtime filter checks its own key range on each tuple
+        List<Predicate> pagePreds = new ArrayList<>(pagePredicates);
+        if (runtimeFilter != null)
+            pagePreds.addAll(runtimeFilter.rangePredicates());
+        if (file instanceof HeapFile) {
+            if (predicates.isEmpty() && pagePreds.isEmpty() && runtimeFilter == null)
+                return file.iterator(tid);
+            DbFileIterator matching = ((HeapFile) file).iterator(tid, predicates, pagePreds);
+            if (runtimeFilter == null)
+                return matching;
+            return new FilteringIterator(matching, new ArrayList<>(), runtimeFilter);
+        }
+        if (predicates.isEmpty() && runtimeFilter == null)
+            return file.iterator(tid);
+        return new FilteringIterator(file.iterator(tid), predicates, runtimeFilter);
+    }
+
+    /**
+     * Returns the tuples of another iterator that satisfy the predicates and
+     * pass the runtime filter, if there is one.
+     */
+    private static class FilteringIterator extends AbstractDbFileIterator {
+        private final DbFileIterator all;
+        private final List<Predicate> predicates;
+        private final RuntimeFilter runtimeFilter;
+
+        FilteringIterator(DbFileIterator all, List<Predicate> predicates, RuntimeFilter runtimeFilter) {
+            this.all = all;
+            this.predicates = predicates;
+            this.runtimeFilter = runtimeFilter;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            all.open();
+        }
+
+        @Override
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            while (all.hasNext()) {
+                Tuple t = all.next();
+                if (matches(t) && (runtimeFilter == null || runtimeFilter.accept(t)))
+                    return t;
+            }
+            return null;
+        }
+
+        private boolean matches(Tuple t) {
+            for (Predicate p : predicates) {
+                if (!p.filter(t))
+                    return false;
+            }
+            return true;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        @Override
+        public void close() {
+            super.close();
+            all.close();
+        }
+    }
+
     public SeqScan(TransactionId tid, int tableId) {
         this(tid, tableId, Database.getCatalog().getTableName(tableId));
     }
@@ -99,6 +268,10 @@ public class SeqScan implements OpIterator {
         if (isOpen)
             throw new DbException("double open on one OpIterator.");
 
+        if (stale) {
+            it = fileIterator();
+            stale = false;
+        }
         it.open();
         isOpen = true;
     }
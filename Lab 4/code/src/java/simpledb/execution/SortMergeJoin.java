@@ -0,0 +1,558 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Field;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * SortMergeJoin joins its children by sorting both on their join fields and
+ * merging them, so that each child is read once whatever the predicate.
+ * <p>
+ * A child that is already sorted on its join field (an ascending OrderBy on
+ * it, or an IndexScan on its key, possibly under Filters) is used as it is.
+ * Other children are sorted in memory if they fit in the memory budget, and
+ * otherwise by an external sort that writes sorted runs to spill files and
+ * merges them.
+ * <p>
+ * For an equality predicate, each child1 tuple is joined with the run of
+ * child2 tuples with the same key. For an inequality predicate, the tuples
+ * of one child that match a tuple of the other form a prefix of the first
+ * child in key order, which only grows as the other child's key grows. The
+ * run or prefix is kept in a buffer that holds the memory budget in memory
+ * and the rest in a spill file, and is read again for each tuple joined
+ * with it.
+ */
+public class SortMergeJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Default number of tuples the join sorts in memory, for each child, and
+     * keeps in memory of a run or prefix.
+     */
+    public static final int DEFAULT_MEMORY = 20000;
+
+    /**
+     * Number of sorted runs the external sort merges at once.
+     */
+    public static final int MERGE_FANIN = 64;
+
+    private final JoinPredicate pred;
+    private OpIterator child1, child2;
+    private final TupleDesc comboTD;
+    private int memoryTuples = DEFAULT_MEMORY;
+
+    transient private SortedInput left, right;
+    // for inequality predicates, the child whose tuples are joined one at a
+    // time with a prefix of the other
+    transient private boolean driverIsLeft;
+    transient private Buffer buffer;
+    transient private Buffer.Cursor cursor;
+    // the tuple joined with the buffer, and for equality predicates its key
+    transient private Tuple current;
+    transient private Field runKey;
+    transient private int spilledRuns = 0;
+
+    /**
+     * Constructor. Accepts two children to join and the predicate to join
+     * them on.
+     *
+     * @param p      The predicate to use to join the children; one of
+     *               EQUALS, LESS_THAN, LESS_THAN_OR_EQ, GREATER_THAN and
+     *               GREATER_THAN_OR_EQ
+     * @param child1 Iterator for the left relation to join
+     * @param child2 Iterator for the right relation to join
+     */
+    public SortMergeJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        if (!supports(p.getOperator()))
+            throw new IllegalArgumentException("sort-merge join cannot evaluate " + p.getOperator());
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /**
+     * @return true if a sort-merge join can evaluate join predicates with
+     *         the given operator
+     */
+    public static boolean supports(Predicate.Op op) {
+        switch (op) {
+            case EQUALS:
+            case LESS_THAN:
+            case LESS_THAN_OR_EQ:
+            case GREATER_THAN:
+            case GREATER_THAN_OR_EQ:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @return true if the tuples of op come in ascending order of the given
+     *         field, so that the join need not sort them
+     */
+    public static boolean isSortedOn(OpIterator op, int field) {
+        if (op instanceof OrderBy)
+            return ((OrderBy) op).getOrderByField() == field && ((OrderBy) op).isASC();
+        if (op instanceof IndexScan)
+            return ((IndexScan) op).getKeyField() == field;
+        if (op instanceof Filter)
+            return isSortedOn(((Filter) op).getChildren()[0], field);
+        return false;
+    }
+
+    /**
+     * Sets the number of tuples of each child the join sorts in memory, and
+     * of a run or prefix it keeps in memory.
+     */
+    public void setMemoryBudget(int tuples) {
+        if (tuples < 1)
+            throw new IllegalArgumentException("memory budget must be positive");
+        this.memoryTuples = tuples;
+    }
+
+    public int getMemoryBudget() {
+        return memoryTuples;
+    }
+
+    /**
+     * @return the number of spill files the join has written since it was
+     *         opened, for sorted runs and for runs or prefixes that did not
+     *         fit in memory
+     */
+    public int getSpilledRuns() {
+        return spilledRuns;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    /**
+     * @return the field name of join field1. Should be quantified by
+     *         alias or table name.
+     */
+    public String getJoinField1Name() {
+        return this.child1.getTupleDesc().getFieldName(this.pred.getField1());
+    }
+
+    /**
+     * @return the field name of join field2. Should be quantified by
+     *         alias or table name.
+     */
+    public String getJoinField2Name() {
+        return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    private static int compare(Field a, Field b) {
+        if (a.compare(Predicate.Op.EQUALS, b))
+            return 0;
+        return a.compare(Predicate.Op.GREATER_THAN, b) ? 1 : -1;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        spilledRuns = 0;
+        left = new SortedInput(child1, pred.getField1());
+        right = new SortedInput(child2, pred.getField2());
+        Predicate.Op op = pred.getOperator();
+        driverIsLeft = op == Predicate.Op.GREATER_THAN || op == Predicate.Op.GREATER_THAN_OR_EQ;
+        try {
+            left.open();
+            right.open();
+            buffer = new Buffer(op == Predicate.Op.EQUALS || driverIsLeft
+                    ? child2.getTupleDesc() : child1.getTupleDesc());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        current = null;
+        cursor = null;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        if (buffer != null)
+            buffer.clear();
+        if (left != null)
+            left.close();
+        if (right != null)
+            right.close();
+        left = right = null;
+        buffer = null;
+        current = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        try {
+            buffer.clear();
+            left.rewind();
+            right.rewind();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        current = null;
+    }
+
+    private Tuple merge(Tuple t1, Tuple t2) {
+        int td1n = t1.getTupleDesc().numFields();
+        int td2n = t2.getTupleDesc().numFields();
+
+        // set fields in combined tuple
+        Tuple t = new Tuple(comboTD);
+        for (int i = 0; i < td1n; i++)
+            t.setField(i, t1.getField(i));
+        for (int i = 0; i < td2n; i++)
+            t.setField(td1n + i, t2.getField(i));
+        return t;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples. As in {@link Join}, the tuples returned are the
+     * concatenation of joining tuples from the left and right relation.
+     *
+     * @return The next matching tuple.
+     * @see JoinPredicate#filter
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        try {
+            if (pred.getOperator() == Predicate.Op.EQUALS)
+                return nextEquiJoin();
+            return nextRangeJoin();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private Tuple nextEquiJoin() throws DbException, TransactionAbortedException, IOException {
+        int f1 = pred.getField1(), f2 = pred.getField2();
+        while (true) {
+            if (current != null) {
+                Tuple t = cursor.next();
+                if (t != null)
+                    return merge(current, t);
+                // restore the run for the next child1 tuple with its key
+                Tuple l = left.peek();
+                if (l != null && compare(l.getField(f1), runKey) == 0) {
+                    current = left.next();
+                    cursor = buffer.cursor();
+                    continue;
+                }
+                current = null;
+                buffer.clear();
+            }
+
+            Tuple l = left.peek(), r = right.peek();
+            while (l != null && r != null) {
+                int c = compare(l.getField(f1), r.getField(f2));
+                if (c == 0)
+                    break;
+                if (c < 0) {
+                    left.next();
+                    l = left.peek();
+                } else {
+                    right.next();
+                    r = right.peek();
+                }
+            }
+            if (l == null || r == null)
+                return null;
+            runKey = r.getField(f2);
+            while ((r = right.peek()) != null && compare(r.getField(f2), runKey) == 0)
+                buffer.add(right.next());
+            current = left.next();
+            cursor = buffer.cursor();
+        }
+    }
+
+    private Tuple nextRangeJoin() throws DbException, TransactionAbortedException, IOException {
+        SortedInput drivers = driverIsLeft ? left : right;
+        SortedInput prefix = driverIsLeft ? right : left;
+        while (true) {
+            if (current != null) {
+                Tuple t = cursor.next();
+                if (t != null)
+                    return driverIsLeft ? merge(current, t) : merge(t, current);
+            }
+            current = drivers.next();
+            if (current == null)
+                return null;
+            // the prefix that matches grows with the key of the driver
+            Tuple t;
+            while ((t = prefix.peek()) != null
+                    && (driverIsLeft ? pred.filter(current, t) : pred.filter(t, current)))
+                buffer.add(prefix.next());
+            cursor = buffer.cursor();
+        }
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{this.child1, this.child2};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+    }
+
+    /**
+     * A child in ascending order of its join field: the child itself if it
+     * is already sorted, or its tuples sorted in memory or in sorted runs on
+     * disk.
+     */
+    private class SortedInput {
+        private final OpIterator child;
+        private final int field;
+        private final boolean presorted;
+        private List<Tuple> tuples;
+        private List<SpillFile> runs;
+        private Iterator<Tuple> it;
+        private Merge merge;
+        private Tuple peeked;
+
+        SortedInput(OpIterator child, int field) {
+            this.child = child;
+            this.field = field;
+            this.presorted = isSortedOn(child, field);
+        }
+
+        void open() throws DbException, TransactionAbortedException, IOException {
+            child.open();
+            if (!presorted) {
+                sort();
+                start();
+            }
+        }
+
+        private void sort() throws DbException, TransactionAbortedException, IOException {
+            Comparator<Tuple> comparator = new TupleComparator(field, true);
+            List<Tuple> buf = new ArrayList<>();
+            runs = new ArrayList<>();
+            while (child.hasNext()) {
+                buf.add(child.next());
+                if (buf.size() == memoryTuples) {
+                    runs.add(writeRun(buf, comparator));
+                    buf.clear();
+                }
+            }
+            if (runs.isEmpty()) {
+                buf.sort(comparator);
+                tuples = buf;
+                return;
+            }
+            if (!buf.isEmpty())
+                runs.add(writeRun(buf, comparator));
+            // merge the runs until the last merge can read them all at once
+            while (runs.size() > MERGE_FANIN) {
+                List<SpillFile> merged = new ArrayList<>();
+                for (int i = 0; i < runs.size(); i += MERGE_FANIN) {
+                    List<SpillFile> group = runs.subList(i, Math.min(runs.size(), i + MERGE_FANIN));
+                    SpillFile run = new SpillFile(child.getTupleDesc());
+                    spilledRuns++;
+                    Merge m = new Merge(group);
+                    for (Tuple t = m.next(); t != null; t = m.next())
+                        run.add(t);
+                    m.close();
+                    for (SpillFile f : group)
+                        f.close();
+                    merged.add(run);
+                }
+                runs = merged;
+            }
+        }
+
+        private SpillFile writeRun(List<Tuple> buf, Comparator<Tuple> comparator) throws IOException {
+            buf.sort(comparator);
+            SpillFile run = new SpillFile(child.getTupleDesc());
+            spilledRuns++;
+            for (Tuple t : buf)
+                run.add(t);
+            return run;
+        }
+
+        private void start() throws IOException {
+            peeked = null;
+            if (tuples != null) {
+                it = tuples.iterator();
+            } else {
+                if (merge != null)
+                    merge.close();
+                merge = new Merge(runs);
+            }
+        }
+
+        void rewind() throws DbException, TransactionAbortedException, IOException {
+            if (presorted) {
+                peeked = null;
+                child.rewind();
+            } else {
+                start();
+            }
+        }
+
+        /**
+         * @return the next tuple, without consuming it, or null at the end
+         */
+        Tuple peek() throws DbException, TransactionAbortedException, IOException {
+            if (peeked == null) {
+                if (presorted)
+                    peeked = child.hasNext() ? child.next() : null;
+                else if (tuples != null)
+                    peeked = it.hasNext() ? it.next() : null;
+                else
+                    peeked = merge.next();
+            }
+            return peeked;
+        }
+
+        /**
+         * @return the next tuple, or null at the end
+         */
+        Tuple next() throws DbException, TransactionAbortedException, IOException {
+            Tuple t = peek();
+            peeked = null;
+            return t;
+        }
+
+        void close() {
+            child.close();
+            try {
+                if (merge != null)
+                    merge.close();
+            } catch (IOException e) {
+                // the runs are deleted anyway
+            }
+            if (runs != null) {
+                for (SpillFile f : runs)
+                    f.close();
+            }
+            tuples = null;
+            runs = null;
+            merge = null;
+        }
+
+        /**
+         * Reads sorted runs in order, by repeatedly taking the smallest of
+         * their first tuples.
+         */
+        private class Merge {
+            private final List<SpillFile.Reader> readers = new ArrayList<>();
+            private final PriorityQueue<Map.Entry<Tuple, SpillFile.Reader>> heads;
+
+            Merge(List<SpillFile> runs) throws IOException {
+                Comparator<Tuple> comparator = new TupleComparator(field, true);
+                heads = new PriorityQueue<>(Math.max(1, runs.size()),
+                        (a, b) -> comparator.compare(a.getKey(), b.getKey()));
+                for (SpillFile run : runs) {
+                    SpillFile.Reader r = run.reader();
+                    readers.add(r);
+                    Tuple t = r.next();
+                    if (t != null)
+                        heads.add(new AbstractMap.SimpleEntry<>(t, r));
+                }
+            }
+
+            Tuple next() throws IOException {
+                Map.Entry<Tuple, SpillFile.Reader> head = heads.poll();
+                if (head == null)
+                    return null;
+                Tuple t = head.getValue().next();
+                if (t != null)
+                    heads.add(new AbstractMap.SimpleEntry<>(t, head.getValue()));
+                return head.getKey();
+            }
+
+            void close() throws IOException {
+                for (SpillFile.Reader r : readers)
+                    r.close();
+            }
+        }
+    }
+
+    /**
+     * The tuples a tuple is joined with: a run of child2 tuples with equal
+     * keys, or a growing prefix of one child. The first tuples are kept in
+     * memory, up to the memory budget, and the rest in a spill file.
+     */
+    private class Buffer {
+        private final TupleDesc td;
+        private final List<Tuple> tuples = new ArrayList<>();
+        private SpillFile overflow;
+
+        Buffer(TupleDesc td) {
+            this.td = td;
+        }
+
+        void add(Tuple t) throws IOException {
+            if (tuples.size() < memoryTuples) {
+                tuples.add(t);
+                return;
+            }
+            if (overflow == null) {
+                overflow = new SpillFile(td);
+                spilledRuns++;
+            }
+            overflow.add(t);
+        }
+
+        /**
+         * @return a cursor over the tuples added so far
+         */
+        Cursor cursor() throws IOException {
+            if (cursor != null)
+                cursor.close();
+            return new Cursor();
+        }
+
+        void clear() {
+            if (cursor != null) {
+                try {
+                    cursor.close();
+                } catch (IOException e) {
+                    // the spill file is deleted anyway
+                }
+            }
+            cursor = null;
+            tuples.clear();
+            if (overflow != null)
+                overflow.close();
+            overflow = null;
+        }
+
+        class Cursor {
+            private final int inMemory = tuples.size();
+            private int i = 0;
+            private SpillFile.Reader reader;
+
+            Tuple next() throws IOException {
+                if (i < inMemory)
+                    return tuples.get(i++);
+                if (overflow == null)
+                    return null;
+                if (reader == null)
+                    reader = overflow.reader();
+                return reader.next();
+            }
+
+            void close() throws IOException {
+                if (reader != null)
+                    reader.close();
+                reader = null;
+            }
+        }
+    }
+}
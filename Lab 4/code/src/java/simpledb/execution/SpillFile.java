@@ -0,0 +1,97 @@
+package simpledb.execution;
+
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.io.*;
+import java.text.ParseException;
+
+/**
+ * A temporary file of tuples, for operators whose input does not fit in
+ * memory. Tuples are appended with Field.serialize and read back, as often
+ * as needed, with Type.parse; a reader sees the tuples added before it was
+ * created. The file is deleted when it is closed.
+ */
+class SpillFile implements Closeable {
+
+    private final TupleDesc td;
+    private final File file;
+    private DataOutputStream out;
+    private int size = 0;
+
+    SpillFile(TupleDesc td) throws IOException {
+        this.td = td;
+        this.file = File.createTempFile("simpledb", ".spill");
+        file.deleteOnExit();
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+    }
+
+    /**
+     * Appends a tuple.
+     */
+    void add(Tuple t) throws IOException {
+        for (int i = 0; i < td.numFields(); i++)
+            t.getField(i).serialize(out);
+        size++;
+    }
+
+    /**
+     * @return the number of tuples in the file
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return a reader over the tuples of the file, in the order they were
+     *         added
+     */
+    Reader reader() throws IOException {
+        out.flush();
+        return new Reader();
+    }
+
+    /**
+     * Reads the tuples of the file once.
+     */
+    class Reader implements Closeable {
+        private final DataInputStream in;
+        private int left = size;
+
+        private Reader() throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        }
+
+        /**
+         * @return the next tuple, or null at the end of the file
+         */
+        Tuple next() throws IOException {
+            if (left == 0)
+                return null;
+            left--;
+            Tuple t = new Tuple(td);
+            try {
+                for (int i = 0; i < td.numFields(); i++)
+                    t.setField(i, td.getFieldType(i).parse(in));
+            } catch (ParseException e) {
+                throw new IOException(e);
+            }
+            return t;
+        }
+
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    public void close() {
+        try {
+            if (out != null)
+                out.close();
+        } catch (IOException e) {
+            // the file is deleted anyway
+        }
+        out = null;
+        file.delete();
+    }
+}
@@ -19,8 +19,10 @@ public class StringAggregator implements Aggregator {
     private final Op what;
     private final int gbfield;
     private final Type gbfieldtype;
-    // a map of groupVal -> AggregateFields
-    private final Map<String, AggregateFields> groups;
+    // a map of groupVal -> AggregateFields; the key is null without grouping.
+    // Grouping on the fields themselves lets dictionary-encoded strings be
+    // grouped by their codes.
+    private final Map<Field, AggregateFields> groups;
 
     /**
      * Aggregate constructor
@@ -47,9 +49,9 @@ public class StringAggregator implements Aggregator {
      * @param tup the Tuple containing an aggregate field and a group-by field
      */
     public void mergeTupleIntoGroup(Tuple tup) {
-        String groupVal = "";
+        Field groupVal = null;
         if (gbfield != NO_GROUPING) {
-            groupVal = tup.getField(gbfield).toString();
+            groupVal = tup.getField(gbfield);
         }
         AggregateFields agg = groups.get(groupVal);
         if (agg == null)
@@ -81,14 +83,12 @@ public class StringAggregator implements Aggregator {
         }
 
         // iterate over groups and create summary tuples
-        for (String groupVal : groups.keySet()) {
+        for (Field groupVal : groups.keySet()) {
             AggregateFields agg = groups.get(groupVal);
             Tuple tup = new Tuple(td);
 
             if (gbfield != NO_GROUPING) {
-                if (gbfieldtype == Type.INT_TYPE)
-                    tup.setField(0, new IntField(new Integer(groupVal)));
-                else tup.setField(0, new StringField(groupVal, Type.STRING_LEN));
+                tup.setField(0, groupVal);
             }
 
             if (what == Op.COUNT) {
@@ -107,10 +107,10 @@ public class StringAggregator implements Aggregator {
      * A helper struct to store accumulated aggregate values.
      */
     private static class AggregateFields {
-        public final String groupVal;
+        public final Field groupVal;
         public int count;
 
-        public AggregateFields(String groupVal) {
+        public AggregateFields(Field groupVal) {
             this.groupVal = groupVal;
             count = 0;
         }
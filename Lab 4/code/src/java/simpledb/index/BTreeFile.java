@@ -0,0 +1,681 @@
+package simpledb.index;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Debug;
+import simpledb.common.Permissions;
+import simpledb.execution.IndexPredicate;
+import simpledb.storage.*;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * BTreeFile is an implementation of a DbFile that stores its tuples in the
+ * leaves of a B+ tree, sorted on one key field, so that tuples with a given
+ * key or in a range of keys can be found without scanning the whole table.
+ * <p>
+ * Page 0 of the file points to the root, page 1 starts the chain of header
+ * pages that records which pages are in use, and all other pages are
+ * internal or leaf pages. Leaves that become empty are unlinked from the
+ * tree and their pages reused; pages that are merely underfull are left
+ * as they are, so the tree never redistributes tuples between siblings.
+ * <p>
+ * Operations lock the pages they descend through in the buffer pool, but
+ * give up the locks on internal pages as soon as they know that they will
+ * not change them, so that transactions only keep locks on the leaves they
+ * read or change and on the pages a split or merge changed. Inserts and
+ * deletes first descend with shared locks, and only take exclusive locks
+ * on the path from the root when the leaf has to split or is emptied.
+ *
+ * @see BTreeLeafPage
+ * @see BTreeInternalPage
+ */
+public class BTreeFile implements DbFile {
+
+    static final int ROOT_PTR_PAGE = 0;
+    static final int FIRST_HEADER_PAGE = 1;
+    // the root of a new tree, an empty leaf
+    private static final int FIRST_ROOT_PAGE = 2;
+
+    private final File f;
+    private final TupleDesc td;
+    private final int tableid;
+    private final int keyField;
+
+    // opened on first use, reopened if an interrupt closed it
+    private FileChannel channel;
+
+    /**
+     * Constructs a B+ tree file backed by the specified file. An empty or
+     * missing file holds an empty tree.
+     *
+     * @param f        the file that stores the on-disk backing store for this
+     *                 B+ tree
+     * @param keyField the index of the field the tree is sorted on
+     * @param td       the tuple descriptor of tuples in the file
+     */
+    public BTreeFile(File f, int keyField, TupleDesc td) {
+        this.f = f;
+        this.tableid = f.getAbsoluteFile().hashCode();
+        this.keyField = keyField;
+        this.td = td;
+    }
+
+    /**
+     * Returns the File backing this BTreeFile on disk.
+     */
+    public File getFile() {
+        return f;
+    }
+
+    public int getId() {
+        return tableid;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * @return the index of the field the tree is sorted on
+     */
+    public int keyField() {
+        return keyField;
+    }
+
+    private BTreePageId pageId(int pgNo) {
+        return new BTreePageId(tableid, pgNo);
+    }
+
+    synchronized FileChannel channel() throws IOException {
+        if (channel == null || !channel.isOpen()) {
+            channel = FileChannel.open(f.toPath(), StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+            if (channel.size() == 0)
+                writeEmptyTree();
+        }
+        return channel;
+    }
+
+    /**
+     * Writes the pages of a tree whose root is an empty leaf, straight to
+     * disk. The leaf is a page of zeroes.
+     */
+    private void writeEmptyTree() throws IOException {
+        BTreeRootPtrPage rootPtr = new BTreeRootPtrPage(pageId(ROOT_PTR_PAGE), BTreePage.createEmptyPageData());
+        rootPtr.setRoot(FIRST_ROOT_PAGE, true);
+        BTreeHeaderPage header = new BTreeHeaderPage(pageId(FIRST_HEADER_PAGE), BTreePage.createEmptyPageData());
+        for (int i = 0; i <= FIRST_ROOT_PAGE; i++)
+            header.setUsed(i, true);
+        writePageData(ROOT_PTR_PAGE, rootPtr.getPageData());
+        writePageData(FIRST_HEADER_PAGE, header.getPageData());
+        writePageData(FIRST_ROOT_PAGE, BTreePage.createEmptyPageData());
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        BTreePageId id = (BTreePageId) pid;
+        int pageSize = BufferPool.getPageSize();
+        long offset = (long) id.getPageNumber() * pageSize;
+
+        byte[] pageBuf = new byte[pageSize];
+        ByteBuffer buf = ByteBuffer.wrap(pageBuf);
+        try {
+            FileChannel ch = channel();
+            while (buf.hasRemaining()) {
+                if (ch.read(buf, offset + buf.position()) == -1)
+                    throw new IllegalArgumentException("Read past end of table");
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
+        if (id.getPageNumber() == ROOT_PTR_PAGE)
+            return new BTreeRootPtrPage(id, pageBuf);
+        switch (pageBuf[0]) {
+            case BTreePage.HEADER:
+                return new BTreeHeaderPage(id, pageBuf);
+            case BTreePage.INTERNAL:
+                return new BTreeInternalPage(id, pageBuf);
+            default:
+                return new BTreeLeafPage(id, pageBuf);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        writePageData(page.getId().getPageNumber(), page.getPageData());
+    }
+
+    private void writePageData(int pgNo, byte[] data) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        long offset = (long) pgNo * BufferPool.getPageSize();
+        FileChannel ch = channel();
+        while (buf.hasRemaining())
+            ch.write(buf, offset + buf.position());
+    }
+
+    /**
+     * Returns the number of pages in this BTreeFile, including the root
+     * pointer, header and free pages.
+     */
+    public int numPages() {
+        try {
+            return (int) (channel().size() / BufferPool.getPageSize());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Appends a page of zeroes to the file. Appending is not undone if the
+     * transaction aborts, but its header bit is, so the page is then free.
+     *
+     * @return the number of the new page
+     */
+    private synchronized int appendPage() throws IOException {
+        int pgNo = numPages();
+        writePageData(pgNo, BTreePage.createEmptyPageData());
+        return pgNo;
+    }
+
+    /**
+     * Descends from the root to the leftmost leaf that may hold key, or to
+     * the leftmost leaf if key is null. Internal pages are read with shared
+     * locks, each released once the lock on its child is granted.
+     *
+     * @param perm the permissions to fetch the leaf with
+     */
+    private BTreeLeafPage findLeaf(Latches l, Field key, Permissions perm)
+            throws TransactionAbortedException, DbException {
+        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) l.get(pageId(ROOT_PTR_PAGE), Permissions.READ_ONLY);
+        PageId parent = rootPtr.getId();
+        int pgNo = rootPtr.getRoot();
+        boolean leaf = rootPtr.isRootLeaf();
+        while (!leaf) {
+            BTreeInternalPage page = (BTreeInternalPage) l.get(pageId(pgNo), Permissions.READ_ONLY);
+            l.release(parent);
+            parent = page.getId();
+            pgNo = page.getChild(page.childIndex(key));
+            leaf = page.childrenAreLeaves();
+        }
+        BTreeLeafPage page = (BTreeLeafPage) l.get(pageId(pgNo), perm);
+        l.release(parent);
+        return page;
+    }
+
+    /**
+     * The pages a split or merge may change, found by descending from the
+     * root with exclusive locks: the root pointer, if the root may change,
+     * the internal pages from the highest one that may change down to the
+     * leaf's parent, the child taken at each of them, and the leaf.
+     */
+    private static class Path {
+        BTreeRootPtrPage rootPtr;
+        final Deque<BTreeInternalPage> pages = new ArrayDeque<>();
+        final Deque<Integer> slots = new ArrayDeque<>();
+        BTreeLeafPage leaf;
+    }
+
+    /**
+     * Descends from the root to the leftmost leaf that may hold key with
+     * exclusive locks. Whenever a page is reached that can take the change
+     * without passing it on to its parent, a new entry for an insert or the
+     * loss of a child for a delete, the locks above it are released.
+     */
+    private Path findLeafForUpdate(Latches l, Field key, boolean insert)
+            throws TransactionAbortedException, DbException {
+        Path path = new Path();
+        path.rootPtr = (BTreeRootPtrPage) l.get(pageId(ROOT_PTR_PAGE), Permissions.READ_WRITE);
+        int pgNo = path.rootPtr.getRoot();
+        boolean leaf = path.rootPtr.isRootLeaf();
+        while (!leaf) {
+            BTreeInternalPage page = (BTreeInternalPage) l.get(pageId(pgNo), Permissions.READ_WRITE);
+            boolean root = path.rootPtr != null && path.pages.isEmpty();
+            boolean safe = insert ? page.numKeys() < page.maxKeys() : page.numKeys() >= (root ? 2 : 1);
+            if (safe)
+                releasePath(l, path);
+            int slot = page.childIndex(key);
+            path.pages.push(page);
+            path.slots.push(slot);
+            pgNo = page.getChild(slot);
+            leaf = page.childrenAreLeaves();
+        }
+        path.leaf = (BTreeLeafPage) l.get(pageId(pgNo), Permissions.READ_WRITE);
+        return path;
+    }
+
+    private void releasePath(Latches l, Path path) {
+        if (path.rootPtr != null)
+            l.release(path.rootPtr.getId());
+        path.rootPtr = null;
+        for (BTreeInternalPage p : path.pages)
+            l.release(p.getId());
+        path.pages.clear();
+        path.slots.clear();
+    }
+
+    // see DbFile.java for javadocs
+    public List<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        Latches l = new Latches(tid);
+        Field key = t.getField(keyField);
+        BTreeLeafPage leaf = findLeaf(l, key, Permissions.READ_WRITE);
+        if (leaf.isFull()) {
+            l.release(leaf.getId());
+            Path path = findLeafForUpdate(l, key, true);
+            leaf = path.leaf;
+            if (leaf.isFull()) {
+                splitLeaf(l, path, t);
+                return l.dirtyPages();
+            }
+            // another transaction split the leaf in the meantime
+            releasePath(l, path);
+        }
+        leaf.insertTuple(t);
+        l.dirty(leaf);
+        return l.dirtyPages();
+    }
+
+    /**
+     * Splits the full leaf of the path, inserts t into the half it belongs
+     * in and adds the new leaf to the parent, splitting ancestors as far up
+     * as needed.
+     */
+    private void splitLeaf(Latches l, Path path, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        BTreeLeafPage leaf = path.leaf;
+        BTreeLeafPage right = new BTreeLeafPage(allocatePage(l), BTreePage.createEmptyPageData());
+        int oldRight = leaf.getRightSibling();
+        leaf.splitInto(right);
+        if (oldRight != 0) {
+            BTreeLeafPage next = (BTreeLeafPage) l.get(pageId(oldRight), Permissions.READ_WRITE);
+            next.setLeftSibling(right.getId().getPageNumber());
+            l.dirty(next);
+        }
+        Field key = t.getField(keyField);
+        if (BTreePage.compare(key, right.getKey(0)) < 0)
+            leaf.insertTuple(t);
+        else
+            right.insertTuple(t);
+        l.dirty(leaf);
+        l.dirty(right);
+
+        // pass the separator and the new page up until a page has room
+        Field sep = right.getKey(0);
+        int newChild = right.getId().getPageNumber();
+        int oldChild = leaf.getId().getPageNumber();
+        boolean leaves = true;
+        while (!path.pages.isEmpty()) {
+            BTreeInternalPage parent = path.pages.pop();
+            int slot = path.slots.pop();
+            l.dirty(parent);
+            if (parent.numKeys() < parent.maxKeys()) {
+                parent.insertEntry(slot, sep, newChild);
+                return;
+            }
+            BTreeInternalPage sibling = new BTreeInternalPage(allocatePage(l), BTreePage.createEmptyPageData());
+            Field up = parent.splitInto(sibling);
+            if (slot <= parent.numKeys())
+                parent.insertEntry(slot, sep, newChild);
+            else
+                sibling.insertEntry(slot - parent.numKeys() - 1, sep, newChild);
+            l.dirty(sibling);
+            sep = up;
+            newChild = sibling.getId().getPageNumber();
+            oldChild = parent.getId().getPageNumber();
+            leaves = false;
+        }
+
+        // the root split, so the tree grows by a level
+        BTreeInternalPage root = new BTreeInternalPage(allocatePage(l), BTreePage.createEmptyPageData());
+        root.init(oldChild, leaves);
+        root.insertEntry(0, sep, newChild);
+        l.dirty(root);
+        path.rootPtr.setRoot(root.getId().getPageNumber(), false);
+        l.dirty(path.rootPtr);
+        Debug.log(1, "BTreeFile: new root %d of table %d", root.getId().getPageNumber(), tableid);
+    }
+
+    /**
+     * Finds a free page, locks it and marks it used. Pages freed by earlier
+     * deletes are used first, and the file grows only when there are none.
+     *
+     * @return the id of the page, which the caller sets up as a new page
+     */
+    private BTreePageId allocatePage(Latches l)
+            throws DbException, IOException, TransactionAbortedException {
+        int slots = BTreeHeaderPage.slotsPerPage();
+        int numPages = numPages();
+        BTreeHeaderPage header = (BTreeHeaderPage) l.get(pageId(FIRST_HEADER_PAGE), Permissions.READ_WRITE);
+        for (int base = 0; ; base += slots) {
+            int free = header.firstFree();
+            if (free >= 0 && base + free < numPages) {
+                header.setUsed(free, true);
+                l.dirty(header);
+                BTreePageId pid = pageId(base + free);
+                l.get(pid, Permissions.READ_WRITE);
+                return pid;
+            }
+            if (header.getNext() == 0)
+                break;
+            header = (BTreeHeaderPage) l.get(pageId(header.getNext()), Permissions.READ_WRITE);
+        }
+        BTreePageId pid = pageId(appendPage());
+        l.get(pid, Permissions.READ_WRITE);
+        setUsed(l, pid.getPageNumber(), true);
+        return pid;
+    }
+
+    /**
+     * Sets the header bit of a page, adding header pages to the chain if
+     * the page lies beyond the pages it covers so far.
+     */
+    private void setUsed(Latches l, int pgNo, boolean used)
+            throws DbException, IOException, TransactionAbortedException {
+        int slots = BTreeHeaderPage.slotsPerPage();
+        BTreeHeaderPage header = (BTreeHeaderPage) l.get(pageId(FIRST_HEADER_PAGE), Permissions.READ_WRITE);
+        for (int k = pgNo / slots; k > 0; k--) {
+            if (header.getNext() == 0) {
+                BTreePageId next = pageId(appendPage());
+                l.get(next, Permissions.READ_WRITE);
+                header.setNext(next.getPageNumber());
+                l.dirty(header);
+                l.dirty(new BTreeHeaderPage(next, BTreePage.createEmptyPageData()));
+                setUsed(l, next.getPageNumber(), true);
+            }
+            header = (BTreeHeaderPage) l.get(pageId(header.getNext()), Permissions.READ_WRITE);
+        }
+        header.setUsed(pgNo % slots, used);
+        l.dirty(header);
+    }
+
+    // see DbFile.java for javadocs
+    public List<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        Latches l = new Latches(tid);
+        Field key = t.getField(keyField);
+        BTreeLeafPage leaf = findLeaf(l, key, Permissions.READ_WRITE);
+        int i = leaf.indexOf(t);
+        if (i >= 0 && leaf.numTuples() == 1) {
+            // the leaf becomes empty and is taken out of the tree
+            l.release(leaf.getId());
+            Path path = findLeafForUpdate(l, key, false);
+            leaf = path.leaf;
+            if (leaf.deleteTuple(t)) {
+                l.dirty(leaf);
+                if (leaf.numTuples() == 0)
+                    removeLeaf(l, path);
+                else
+                    releasePath(l, path);
+                return l.dirtyPages();
+            }
+            releasePath(l, path);
+        }
+        // a run of equal keys may continue on the leaves to the right
+        while (!leaf.deleteTuple(t)) {
+            int next = leaf.getRightSibling();
+            if (next == 0 || leaf.numTuples() > 0
+                    && BTreePage.compare(leaf.getKey(leaf.numTuples() - 1), key) > 0)
+                throw new DbException("tuple not found in B+ tree");
+            l.release(leaf.getId());
+            leaf = (BTreeLeafPage) l.get(pageId(next), Permissions.READ_WRITE);
+        }
+        l.dirty(leaf);
+        return l.dirtyPages();
+    }
+
+    /**
+     * Unlinks the empty leaf of the path from its siblings and its parent
+     * and frees it. Parents left without children are removed in turn, and
+     * a root left with a single child is replaced by that child. A leaf that
+     * is the root stays, empty.
+     */
+    private void removeLeaf(Latches l, Path path)
+            throws DbException, IOException, TransactionAbortedException {
+        BTreeLeafPage leaf = path.leaf;
+        if (path.pages.isEmpty()) {
+            releasePath(l, path);
+            return;
+        }
+        if (leaf.getLeftSibling() != 0) {
+            BTreeLeafPage left = (BTreeLeafPage) l.get(pageId(leaf.getLeftSibling()), Permissions.READ_WRITE);
+            left.setRightSibling(leaf.getRightSibling());
+            l.dirty(left);
+        }
+        if (leaf.getRightSibling() != 0) {
+            BTreeLeafPage right = (BTreeLeafPage) l.get(pageId(leaf.getRightSibling()), Permissions.READ_WRITE);
+            right.setLeftSibling(leaf.getLeftSibling());
+            l.dirty(right);
+        }
+        setUsed(l, leaf.getId().getPageNumber(), false);
+
+        while (!path.pages.isEmpty()) {
+            BTreeInternalPage parent = path.pages.pop();
+            int slot = path.slots.pop();
+            l.dirty(parent);
+            if (parent.numKeys() == 0) {
+                // the removed page was the only child
+                setUsed(l, parent.getId().getPageNumber(), false);
+                continue;
+            }
+            parent.removeChild(slot);
+            if (path.pages.isEmpty() && path.rootPtr != null && parent.numKeys() == 0) {
+                // the root has a single child left, which becomes the root
+                path.rootPtr.setRoot(parent.getChild(0), parent.childrenAreLeaves());
+                l.dirty(path.rootPtr);
+                setUsed(l, parent.getId().getPageNumber(), false);
+            }
+            return;
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return new BTreeSearchIterator(tid, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples whose key satisfies the predicate,
+     * in key order. Only the leaves that may hold such tuples are read,
+     * except for NOT_EQUALS and LIKE, which read all leaves.
+     */
+    public DbFileIterator indexIterator(TransactionId tid, IndexPredicate ipred) {
+        return new BTreeSearchIterator(tid, ipred);
+    }
+
+    /**
+     * Iterates over the leaves from the first one that may hold a matching
+     * tuple to the last one, in key order. The shared locks on the leaves
+     * are kept until the transaction ends.
+     */
+    private class BTreeSearchIterator extends AbstractDbFileIterator {
+        final TransactionId tid;
+        final IndexPredicate ipred;
+
+        private BTreeLeafPage leaf;
+        private Iterator<Tuple> it;
+
+        BTreeSearchIterator(TransactionId tid, IndexPredicate ipred) {
+            this.tid = tid;
+            this.ipred = ipred;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            Field start = null;
+            boolean inclusive = true;
+            if (ipred != null) {
+                switch (ipred.getOp()) {
+                    case GREATER_THAN:
+                        inclusive = false;
+                        // fall through
+                    case EQUALS:
+                    case GREATER_THAN_OR_EQ:
+                        start = ipred.getField();
+                        break;
+                    default:
+                        break;
+                }
+            }
+            leaf = findLeaf(new Latches(tid), start, Permissions.READ_ONLY);
+            it = start == null ? leaf.iterator() : leaf.iterator(start, inclusive);
+        }
+
+        /**
+         * @return true if t and all tuples after it are past the range of
+         *         the predicate
+         */
+        private boolean pastEnd(Tuple t) {
+            if (ipred == null)
+                return false;
+            int c = BTreePage.compare(t.getField(keyField), ipred.getField());
+            switch (ipred.getOp()) {
+                case EQUALS:
+                case LESS_THAN_OR_EQ:
+                    return c > 0;
+                case LESS_THAN:
+                    return c >= 0;
+                default:
+                    return false;
+            }
+        }
+
+        @Override
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            while (it != null) {
+                while (it.hasNext()) {
+                    Tuple t = it.next();
+                    if (pastEnd(t)) {
+                        it = null;
+                        return null;
+                    }
+                    if (ipred == null || t.getField(keyField).compare(ipred.getOp(), ipred.getField()))
+                        return t;
+                }
+                int next = leaf.getRightSibling();
+                if (next == 0) {
+                    it = null;
+                    return null;
+                }
+                leaf = (BTreeLeafPage) Database.getBufferPool().getPage(tid, pageId(next), Permissions.READ_ONLY);
+                it = leaf.iterator();
+            }
+            return null;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        @Override
+        public void close() {
+            super.close();
+            it = null;
+            leaf = null;
+        }
+    }
+
+    /**
+     * Builds the tree from tuples sorted on the key field, writing every page
+     * once, straight to disk, rather than inserting the tuples one at a time.
+     * Leaves and internal pages are filled completely, so the tree is as
+     * small and shallow as it can be, but the first inserts into it split
+     * pages.
+     * <p>
+     * The tree must be empty and not in use by any transaction; like
+     * {@link ColumnFile#merge()} this is a maintenance operation, which is
+     * neither logged nor undone.
+     *
+     * @param tuples the tuples, sorted on the key field
+     * @throws DbException if the tree is not empty or the tuples are not sorted
+     */
+    public synchronized void bulkLoad(Iterator<Tuple> tuples) throws DbException, IOException {
+        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) readPage(pageId(ROOT_PTR_PAGE));
+        if (numPages() != FIRST_ROOT_PAGE + 1 || !rootPtr.isRootLeaf()
+                || ((BTreeLeafPage) readPage(pageId(FIRST_ROOT_PAGE))).numTuples() > 0)
+            throw new DbException("bulk load needs an empty B+ tree");
+        for (int i = 0; i <= FIRST_ROOT_PAGE; i++)
+            Database.getBufferPool().removePage(pageId(i));
+
+        // the first key and page number of each page of the level being built
+        List<Field> keys = new ArrayList<>();
+        List<Integer> pages = new ArrayList<>();
+        int pgNo = FIRST_ROOT_PAGE;
+        BTreeLeafPage leaf = new BTreeLeafPage(pageId(pgNo), BTreePage.createEmptyPageData());
+        Field last = null;
+        while (tuples.hasNext()) {
+            Tuple t = tuples.next();
+            Field key = t.getField(keyField);
+            if (last != null && BTreePage.compare(last, key) > 0)
+                throw new DbException("tuples are not sorted on the key");
+            last = key;
+            if (leaf.isFull()) {
+                leaf.setRightSibling(pgNo + 1);
+                writePage(leaf);
+                keys.add(leaf.getKey(0));
+                pages.add(pgNo);
+                leaf = new BTreeLeafPage(pageId(++pgNo), BTreePage.createEmptyPageData());
+                leaf.setLeftSibling(pgNo - 1);
+            }
+            leaf.insertTuple(t);
+        }
+        writePage(leaf);
+        keys.add(leaf.numTuples() > 0 ? leaf.getKey(0) : null);
+        pages.add(pgNo);
+
+        boolean leaves = true;
+        int fanout = BTreeInternalPage.maxKeys(td.getFieldType(keyField)) + 1;
+        while (pages.size() > 1) {
+            List<Field> upperKeys = new ArrayList<>();
+            List<Integer> upperPages = new ArrayList<>();
+            for (int from = 0; from < pages.size(); ) {
+                int to = Math.min(from + fanout, pages.size());
+                // never leave a single child for the last page
+                if (pages.size() - to == 1)
+                    to--;
+                BTreeInternalPage page = new BTreeInternalPage(pageId(++pgNo), BTreePage.createEmptyPageData());
+                page.init(pages.get(from), leaves);
+                for (int i = from + 1; i < to; i++)
+                    page.insertEntry(i - from - 1, keys.get(i), pages.get(i));
+                writePage(page);
+                upperKeys.add(keys.get(from));
+                upperPages.add(pgNo);
+                from = to;
+            }
+            keys = upperKeys;
+            pages = upperPages;
+            leaves = false;
+        }
+        rootPtr.setRoot(pages.get(0), leaves);
+        writePage(rootPtr);
+        writeHeaders(pgNo + 1);
+    }
+
+    /**
+     * Writes header pages that mark the first n pages of the file as used,
+     * appending any header pages beyond the first to the file.
+     */
+    private void writeHeaders(int n) throws IOException {
+        int slots = BTreeHeaderPage.slotsPerPage();
+        int extra = 0;
+        while ((extra + 1L) * slots < n + extra)
+            extra++;
+        int total = n + extra;
+        for (int k = 0; k <= extra; k++) {
+            int pgNo = k == 0 ? FIRST_HEADER_PAGE : n + k - 1;
+            BTreeHeaderPage header = new BTreeHeaderPage(pageId(pgNo), BTreePage.createEmptyPageData());
+            for (int p = k * slots; p < Math.min(total, (k + 1) * slots); p++)
+                header.setUsed(p - k * slots, true);
+            header.setNext(k < extra ? n + k : 0);
+            writePage(header);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package simpledb.index;
+
+import simpledb.storage.BufferPool;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A page of the bitmap of the pages of a BTreeFile that are in use. The
+ * header pages form a chain starting at page 1; header page k of the chain
+ * has a bit for each of the pages k * slotsPerPage() up to
+ * (k + 1) * slotsPerPage(). Pages with a clear bit are free and are handed
+ * out again before the file grows.
+ */
+public class BTreeHeaderPage extends BTreePage {
+
+    private static final int HEADER_SIZE = 5;
+
+    private int next;
+    private final byte[] bits;
+
+    /**
+     * Create a BTreeHeaderPage from a set of bytes of data read from disk.
+     * The page holds a category byte, the page number of the next header
+     * page, or 0 if this is the last one, and the bitmap.
+     */
+    public BTreeHeaderPage(BTreePageId id, byte[] data) {
+        super(id, data);
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        buf.get();
+        next = buf.getInt();
+        bits = new byte[data.length - HEADER_SIZE];
+        buf.get(bits);
+    }
+
+    /**
+     * @return the number of pages a header page keeps track of
+     */
+    public static int slotsPerPage() {
+        return (BufferPool.getPageSize() - HEADER_SIZE) * 8;
+    }
+
+    public int getNext() {
+        return next;
+    }
+
+    public void setNext(int pgNo) {
+        next = pgNo;
+    }
+
+    public boolean isUsed(int slot) {
+        return (bits[slot / 8] & (1 << (slot % 8))) != 0;
+    }
+
+    public void setUsed(int slot, boolean used) {
+        if (used)
+            bits[slot / 8] |= (byte) (1 << (slot % 8));
+        else
+            bits[slot / 8] &= (byte) ~(1 << (slot % 8));
+    }
+
+    /**
+     * @return the first slot whose page is free, or -1 if all are in use
+     */
+    public int firstFree() {
+        for (int i = 0; i < bits.length; i++) {
+            if (bits[i] != (byte) 0xFF) {
+                for (int b = 0; b < 8; b++) {
+                    if (!isUsed(i * 8 + b))
+                        return i * 8 + b;
+                }
+            }
+        }
+        return -1;
+    }
+
+    public byte[] getPageData() {
+        ByteBuffer buf = ByteBuffer.wrap(createEmptyPageData());
+        buf.put(HEADER);
+        buf.putInt(next);
+        buf.put(bits);
+        return buf.array();
+    }
+
+    public BTreeHeaderPage getBeforeImage() {
+        return new BTreeHeaderPage(getId(), beforeImageData());
+    }
+}
@@ -0,0 +1,169 @@
+package simpledb.index;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.storage.BufferPool;
+import simpledb.storage.Field;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An internal page of a B+ tree: numKeys() keys and one more child
+ * pointers. All keys in the subtree of child i lie between key i - 1 and
+ * key i, both included, since a run of equal keys may be split across
+ * leaves. Internal pages keep no pointer to their parent; operations that
+ * change the tree remember the path they descended instead.
+ *
+ * @see BTreeFile
+ */
+public class BTreeInternalPage extends BTreePage {
+
+    private static final int HEADER_SIZE = 6;
+
+    final Type keyType;
+    private boolean childrenAreLeaves;
+    private final List<Field> keys = new ArrayList<>();
+    private final List<Integer> children = new ArrayList<>();
+
+    /**
+     * Create a BTreeInternalPage from a set of bytes of data read from
+     * disk. The page holds a category byte, a byte that is 1 if the
+     * children are leaves, the number of keys n, the first child pointer
+     * and then n pairs of a key and the child pointer to its right.
+     */
+    public BTreeInternalPage(BTreePageId id, byte[] data) {
+        super(id, data);
+        BTreeFile file = (BTreeFile) Database.getCatalog().getDatabaseFile(id.getTableId());
+        this.keyType = file.getTupleDesc().getFieldType(file.keyField());
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        if (buf.get() != INTERNAL)
+            return;
+        childrenAreLeaves = buf.get() != 0;
+        int n = buf.getInt();
+        children.add(buf.getInt());
+        for (int i = 0; i < n; i++) {
+            keys.add(readField(buf, keyType));
+            children.add(buf.getInt());
+        }
+    }
+
+    /**
+     * @return the number of keys that fit on an internal page with keys
+     *         of the given type
+     */
+    public static int maxKeys(Type keyType) {
+        return (BufferPool.getPageSize() - HEADER_SIZE - 4) / (keyType.getLen() + 4);
+    }
+
+    public int maxKeys() {
+        return maxKeys(keyType);
+    }
+
+    public int numKeys() {
+        return keys.size();
+    }
+
+    public Field getKey(int i) {
+        return keys.get(i);
+    }
+
+    /**
+     * @return the page number of child i, for i from 0 to numKeys()
+     */
+    public int getChild(int i) {
+        return children.get(i);
+    }
+
+    public boolean childrenAreLeaves() {
+        return childrenAreLeaves;
+    }
+
+    /**
+     * Sets the first child of an empty page.
+     */
+    void init(int child, boolean leaves) {
+        children.clear();
+        keys.clear();
+        children.add(child);
+        childrenAreLeaves = leaves;
+    }
+
+    /**
+     * @return the leftmost child that may hold the key, or child 0 if key
+     *         is null
+     */
+    public int childIndex(Field key) {
+        if (key == null)
+            return 0;
+        int lo = 0, hi = keys.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(keys.get(mid), key) < 0)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * Adds a new child to the right of child i, with key as the key that
+     * separates them.
+     */
+    void insertEntry(int i, Field key, int child) {
+        keys.add(i, key);
+        children.add(i + 1, child);
+    }
+
+    /**
+     * Removes child i together with the key to its left, or to its right
+     * for the first child.
+     */
+    void removeChild(int i) {
+        children.remove(i);
+        keys.remove(i > 0 ? i - 1 : 0);
+    }
+
+    /**
+     * Moves the upper half of the entries of a full page to the empty page
+     * right.
+     *
+     * @return the middle key, which no longer belongs to either page and
+     *         separates them in the parent
+     */
+    Field splitInto(BTreeInternalPage right) {
+        int mid = keys.size() / 2;
+        right.keys.clear();
+        right.children.clear();
+        right.childrenAreLeaves = childrenAreLeaves;
+        right.keys.addAll(keys.subList(mid + 1, keys.size()));
+        right.children.addAll(children.subList(mid + 1, children.size()));
+        Field up = keys.get(mid);
+        keys.subList(mid, keys.size()).clear();
+        children.subList(mid + 1, children.size()).clear();
+        return up;
+    }
+
+    public byte[] getPageData() {
+        ByteBuffer buf = ByteBuffer.wrap(createEmptyPageData());
+        // a page allocated but not set up yet is still the page of zeroes
+        // it was on disk
+        if (children.isEmpty())
+            return buf.array();
+        buf.put(INTERNAL);
+        buf.put((byte) (childrenAreLeaves ? 1 : 0));
+        buf.putInt(keys.size());
+        buf.putInt(children.get(0));
+        for (int i = 0; i < keys.size(); i++) {
+            writeField(buf, keys.get(i), keyType);
+            buf.putInt(children.get(i + 1));
+        }
+        return buf.array();
+    }
+
+    public BTreeInternalPage getBeforeImage() {
+        return new BTreeInternalPage(getId(), beforeImageData());
+    }
+}
@@ -0,0 +1,229 @@
+package simpledb.index;
+
+import simpledb.common.Database;
+import simpledb.storage.BufferPool;
+import simpledb.storage.Field;
+import simpledb.storage.RecordId;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A leaf page of a B+ tree, which holds tuples sorted on the key field of
+ * the BTreeFile and points to its left and right siblings, so that range
+ * scans can walk along the leaves. Tuples are stored densely in key order,
+ * so the slot of a tuple, and with it its RecordId, changes when tuples
+ * before it are inserted or deleted.
+ *
+ * @see BTreeFile
+ */
+public class BTreeLeafPage extends BTreePage {
+
+    private static final int HEADER_SIZE = 13;
+
+    final TupleDesc td;
+    final int keyField;
+    private int leftSibling;
+    private int rightSibling;
+    private final List<Tuple> tuples = new ArrayList<>();
+
+    /**
+     * Create a BTreeLeafPage from a set of bytes of data read from disk.
+     * The page holds a category byte, the page numbers of the left and
+     * right siblings, or 0 where there is none, the number of tuples and
+     * then the tuples, each in the fixed size of the TupleDesc.
+     */
+    public BTreeLeafPage(BTreePageId id, byte[] data) {
+        super(id, data);
+        BTreeFile file = (BTreeFile) Database.getCatalog().getDatabaseFile(id.getTableId());
+        this.td = file.getTupleDesc();
+        this.keyField = file.keyField();
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        buf.get();
+        leftSibling = buf.getInt();
+        rightSibling = buf.getInt();
+        int n = buf.getInt();
+        for (int i = 0; i < n; i++) {
+            Tuple t = new Tuple(td);
+            for (int j = 0; j < td.numFields(); j++)
+                t.setField(j, readField(buf, td.getFieldType(j)));
+            t.setRecordId(new RecordId(pid, i));
+            tuples.add(t);
+        }
+    }
+
+    /**
+     * @return the number of tuples of the given TupleDesc that fit on a
+     *         leaf page
+     */
+    public static int maxTuples(TupleDesc td) {
+        return (BufferPool.getPageSize() - HEADER_SIZE) / td.getSize();
+    }
+
+    public int numTuples() {
+        return tuples.size();
+    }
+
+    public boolean isFull() {
+        return tuples.size() >= maxTuples(td);
+    }
+
+    public Tuple getTuple(int i) {
+        return tuples.get(i);
+    }
+
+    public Field getKey(int i) {
+        return tuples.get(i).getField(keyField);
+    }
+
+    /**
+     * @return the page number of the left sibling, or 0 for the leftmost leaf
+     */
+    public int getLeftSibling() {
+        return leftSibling;
+    }
+
+    /**
+     * @return the page number of the right sibling, or 0 for the rightmost
+     *         leaf
+     */
+    public int getRightSibling() {
+        return rightSibling;
+    }
+
+    public void setLeftSibling(int pgNo) {
+        leftSibling = pgNo;
+    }
+
+    public void setRightSibling(int pgNo) {
+        rightSibling = pgNo;
+    }
+
+    /**
+     * @return the number of tuples with a key less than key, or at most
+     *         key if inclusive is set
+     */
+    private int position(Field key, boolean inclusive) {
+        int lo = 0, hi = tuples.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int c = compare(getKey(mid), key);
+            if (c < 0 || inclusive && c == 0)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    private void renumber(int from) {
+        for (int i = from; i < tuples.size(); i++)
+            tuples.get(i).setRecordId(new RecordId(pid, i));
+    }
+
+    /**
+     * Adds a tuple after the tuples with a key up to its own, and sets its
+     * RecordId.
+     */
+    void insertTuple(Tuple t) {
+        if (isFull())
+            throw new IllegalStateException("leaf page is full");
+        int i = position(t.getField(keyField), true);
+        tuples.add(i, t);
+        renumber(i);
+    }
+
+    /**
+     * Removes the tuple with the same field values as t, preferring the one
+     * in the slot of t's RecordId if there are several.
+     *
+     * @return true if such a tuple was on the page
+     */
+    boolean deleteTuple(Tuple t) {
+        int i = indexOf(t);
+        if (i < 0)
+            return false;
+        tuples.remove(i);
+        renumber(i);
+        return true;
+    }
+
+    /**
+     * @return the slot of the tuple with the same field values as t, or -1
+     */
+    int indexOf(Tuple t) {
+        RecordId rid = t.getRecordId();
+        if (rid != null && pid.equals(rid.getPageId()) && rid.getTupleNumber() < tuples.size()
+                && sameFields(tuples.get(rid.getTupleNumber()), t))
+            return rid.getTupleNumber();
+        Field key = t.getField(keyField);
+        for (int i = position(key, false); i < tuples.size() && compare(getKey(i), key) == 0; i++) {
+            if (sameFields(tuples.get(i), t))
+                return i;
+        }
+        return -1;
+    }
+
+    private boolean sameFields(Tuple a, Tuple b) {
+        for (int i = 0; i < td.numFields(); i++) {
+            if (!a.getField(i).equals(b.getField(i)))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Moves the upper half of the tuples to the empty page right, and links
+     * right in as this page's right sibling. The caller updates the left
+     * pointer of the old right sibling.
+     */
+    void splitInto(BTreeLeafPage right) {
+        int mid = tuples.size() / 2;
+        right.tuples.clear();
+        right.tuples.addAll(tuples.subList(mid, tuples.size()));
+        tuples.subList(mid, tuples.size()).clear();
+        right.renumber(0);
+        right.rightSibling = rightSibling;
+        right.leftSibling = pid.getPageNumber();
+        rightSibling = right.pid.getPageNumber();
+    }
+
+    /**
+     * @return an iterator over the tuples of the page in key order, which
+     *         is not affected by later changes to the page
+     */
+    public Iterator<Tuple> iterator() {
+        return Arrays.asList(tuples.toArray(new Tuple[0])).iterator();
+    }
+
+    /**
+     * @return an iterator over the tuples of the page with a key of at
+     *         least key, or greater than key if inclusive is not set
+     */
+    Iterator<Tuple> iterator(Field key, boolean inclusive) {
+        int from = position(key, !inclusive);
+        return Arrays.asList(tuples.subList(from, tuples.size()).toArray(new Tuple[0])).iterator();
+    }
+
+    public byte[] getPageData() {
+        ByteBuffer buf = ByteBuffer.wrap(createEmptyPageData());
+        buf.put(LEAF);
+        buf.putInt(leftSibling);
+        buf.putInt(rightSibling);
+        buf.putInt(tuples.size());
+        for (Tuple t : tuples) {
+            for (int j = 0; j < td.numFields(); j++)
+                writeField(buf, t.getField(j), td.getFieldType(j));
+        }
+        return buf.array();
+    }
+
+    public BTreeLeafPage getBeforeImage() {
+        return new BTreeLeafPage(getId(), beforeImageData());
+    }
+}
@@ -0,0 +1,23 @@
+package simpledb.index;
+
+/**
+ * The parts shared by the pages of a BTreeFile. The first byte of every
+ * page says what kind of page it is; a page of zeroes is an empty leaf.
+ *
+ * @see BTreeFile
+ */
+public abstract class BTreePage extends IndexPage {
+
+    static final byte ROOT_PTR = 1;
+    static final byte HEADER = 2;
+    static final byte INTERNAL = 3;
+    static final byte LEAF = 4;
+
+    BTreePage(BTreePageId id, byte[] data) {
+        super(id, data);
+    }
+
+    public BTreePageId getId() {
+        return (BTreePageId) pid;
+    }
+}
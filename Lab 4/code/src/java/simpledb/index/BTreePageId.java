@@ -0,0 +1,56 @@
+package simpledb.index;
+
+import simpledb.storage.PageId;
+
+import java.util.Objects;
+
+/**
+ * Unique identifier for a page of a BTreeFile. Page 0 of every BTreeFile
+ * is its {@link BTreeRootPtrPage} and page 1 its first
+ * {@link BTreeHeaderPage}; what kind of page the others are is recorded on
+ * the page itself.
+ */
+public class BTreePageId implements PageId {
+
+    private final int tableId;
+    private final int pgNo;
+
+    /**
+     * Constructor. Create a page id structure for a specific page of a
+     * specific B+ tree.
+     *
+     * @param tableId The table that is being referenced
+     * @param pgNo    The page number in that table.
+     */
+    public BTreePageId(int tableId, int pgNo) {
+        this.tableId = tableId;
+        this.pgNo = pgNo;
+    }
+
+    public int getTableId() {
+        return tableId;
+    }
+
+    public int getPageNumber() {
+        return pgNo;
+    }
+
+    public int hashCode() {
+        return Objects.hash(tableId, pgNo, BTreePageId.class);
+    }
+
+    public boolean equals(Object o) {
+        if (!(o instanceof BTreePageId))
+            return false;
+        BTreePageId p = (BTreePageId) o;
+        return tableId == p.tableId && pgNo == p.pgNo;
+    }
+
+    public int[] serialize() {
+        return new int[]{tableId, pgNo};
+    }
+
+    public String toString() {
+        return "BTreePageId(" + tableId + ", " + pgNo + ")";
+    }
+}
@@ -0,0 +1,59 @@
+package simpledb.index;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Page 0 of a BTreeFile, which records the page number of the root of the
+ * tree and whether the root is a leaf. Readers go through this page to
+ * find the root, and a transaction that splits or collapses the root
+ * changes it.
+ */
+public class BTreeRootPtrPage extends BTreePage {
+
+    private int root;
+    private boolean rootIsLeaf;
+
+    /**
+     * Create a BTreeRootPtrPage from a set of bytes of data read from disk.
+     * The page holds a category byte, the root's page number and a byte
+     * that is 1 if the root is a leaf.
+     */
+    public BTreeRootPtrPage(BTreePageId id, byte[] data) {
+        super(id, data);
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        buf.get();
+        root = buf.getInt();
+        rootIsLeaf = buf.get() != 0;
+    }
+
+    /**
+     * @return the page number of the root
+     */
+    public int getRoot() {
+        return root;
+    }
+
+    /**
+     * @return true if the root is a leaf page
+     */
+    public boolean isRootLeaf() {
+        return rootIsLeaf;
+    }
+
+    public void setRoot(int pgNo, boolean leaf) {
+        root = pgNo;
+        rootIsLeaf = leaf;
+    }
+
+    public byte[] getPageData() {
+        ByteBuffer buf = ByteBuffer.wrap(createEmptyPageData());
+        buf.put(ROOT_PTR);
+        buf.putInt(root);
+        buf.put((byte) (rootIsLeaf ? 1 : 0));
+        return buf.array();
+    }
+
+    public BTreeRootPtrPage getBeforeImage() {
+        return new BTreeRootPtrPage(getId(), beforeImageData());
+    }
+}
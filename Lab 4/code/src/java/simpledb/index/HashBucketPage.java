@@ -0,0 +1,198 @@
+package simpledb.index;
+
+import simpledb.common.Database;
+import simpledb.storage.BufferPool;
+import simpledb.storage.RecordId;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A bucket page of a HashFile, holding tuples whose key hashes end in the
+ * same localDepth bits, in no particular order. When the tuples of a
+ * bucket cannot be told apart by more bits of their hash, so that
+ * splitting the bucket would not help, the bucket continues on a chain of
+ * overflow pages. Pages on the free list are bucket pages marked free,
+ * whose next pointer is the next free page.
+ *
+ * @see HashFile
+ */
+public class HashBucketPage extends HashPage {
+
+    private static final int HEADER_SIZE = 13;
+
+    final TupleDesc td;
+    private boolean free;
+    private int localDepth;
+    private int next;
+    private final List<Tuple> tuples = new ArrayList<>();
+
+    /**
+     * Create a HashBucketPage from a set of bytes of data read from disk.
+     * The page holds a category byte, the local depth, the next page of
+     * the chain or 0, the number of tuples and then the tuples, each in
+     * the fixed size of the TupleDesc.
+     */
+    public HashBucketPage(HashPageId id, byte[] data) {
+        super(id, data);
+        this.td = Database.getCatalog().getDatabaseFile(id.getTableId()).getTupleDesc();
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        free = buf.get() == FREE;
+        localDepth = buf.getInt();
+        next = buf.getInt();
+        int n = buf.getInt();
+        for (int i = 0; i < n; i++) {
+            Tuple t = new Tuple(td);
+            for (int j = 0; j < td.numFields(); j++)
+                t.setField(j, readField(buf, td.getFieldType(j)));
+            t.setRecordId(new RecordId(pid, i));
+            tuples.add(t);
+        }
+    }
+
+    /**
+     * @return the number of tuples of the given TupleDesc that fit on a
+     *         bucket page
+     */
+    public static int maxTuples(TupleDesc td) {
+        return (BufferPool.getPageSize() - HEADER_SIZE) / td.getSize();
+    }
+
+    public boolean isFree() {
+        return free;
+    }
+
+    /**
+     * Puts the page on the free list, in front of the page next.
+     */
+    void free(int next) {
+        this.free = true;
+        this.next = next;
+        this.localDepth = 0;
+        tuples.clear();
+    }
+
+    /**
+     * @return the number of low-order hash bits all keys in the bucket
+     *         share; the same on all pages of an overflow chain
+     */
+    public int getLocalDepth() {
+        return localDepth;
+    }
+
+    void setLocalDepth(int depth) {
+        localDepth = depth;
+    }
+
+    /**
+     * @return the next page of the overflow chain, or of the free list,
+     *         or 0 if there is none
+     */
+    public int getNext() {
+        return next;
+    }
+
+    void setNext(int pgNo) {
+        next = pgNo;
+    }
+
+    public int numTuples() {
+        return tuples.size();
+    }
+
+    public boolean isFull() {
+        return tuples.size() >= maxTuples(td);
+    }
+
+    public Tuple getTuple(int i) {
+        return tuples.get(i);
+    }
+
+    /**
+     * Adds a tuple at the end of the page and sets its RecordId.
+     */
+    void insertTuple(Tuple t) {
+        if (isFull())
+            throw new IllegalStateException("bucket page is full");
+        t.setRecordId(new RecordId(pid, tuples.size()));
+        tuples.add(t);
+    }
+
+    /**
+     * Removes all tuples, for a bucket that is being split.
+     */
+    List<Tuple> removeAll() {
+        List<Tuple> removed = new ArrayList<>(tuples);
+        tuples.clear();
+        return removed;
+    }
+
+    /**
+     * Removes the tuple with the same field values as t, preferring the one
+     * in the slot of t's RecordId if there are several.
+     *
+     * @return true if such a tuple was on the page
+     */
+    boolean deleteTuple(Tuple t) {
+        int i = indexOf(t);
+        if (i < 0)
+            return false;
+        tuples.remove(i);
+        for (int j = i; j < tuples.size(); j++)
+            tuples.get(j).setRecordId(new RecordId(pid, j));
+        return true;
+    }
+
+    /**
+     * @return the slot of the tuple with the same field values as t, or -1
+     */
+    int indexOf(Tuple t) {
+        RecordId rid = t.getRecordId();
+        if (rid != null && pid.equals(rid.getPageId()) && rid.getTupleNumber() < tuples.size()
+                && sameFields(tuples.get(rid.getTupleNumber()), t))
+            return rid.getTupleNumber();
+        for (int i = 0; i < tuples.size(); i++) {
+            if (sameFields(tuples.get(i), t))
+                return i;
+        }
+        return -1;
+    }
+
+    private boolean sameFields(Tuple a, Tuple b) {
+        for (int i = 0; i < td.numFields(); i++) {
+            if (!a.getField(i).equals(b.getField(i)))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return an iterator over the tuples of the page, which is not
+     *         affected by later changes to the page
+     */
+    public Iterator<Tuple> iterator() {
+        return Arrays.asList(tuples.toArray(new Tuple[0])).iterator();
+    }
+
+    public byte[] getPageData() {
+        ByteBuffer buf = ByteBuffer.wrap(createEmptyPageData());
+        buf.put(free ? FREE : BUCKET);
+        buf.putInt(localDepth);
+        buf.putInt(next);
+        buf.putInt(tuples.size());
+        for (Tuple t : tuples) {
+            for (int j = 0; j < td.numFields(); j++)
+                writeField(buf, t.getField(j), td.getFieldType(j));
+        }
+        return buf.array();
+    }
+
+    public HashBucketPage getBeforeImage() {
+        return new HashBucketPage(getId(), beforeImageData());
+    }
+}
@@ -0,0 +1,55 @@
+package simpledb.index;
+
+import simpledb.storage.BufferPool;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A page of the directory of a HashFile. Entry j of the directory, which
+ * is on directory page j / entriesPerPage(), holds the page number of the
+ * bucket for keys whose hash ends in the bits of j.
+ */
+public class HashDirectoryPage extends HashPage {
+
+    private final int[] entries;
+
+    /**
+     * Create a HashDirectoryPage from a set of bytes of data read from
+     * disk. The page holds a category byte and the entries.
+     */
+    public HashDirectoryPage(HashPageId id, byte[] data) {
+        super(id, data);
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        buf.get();
+        entries = new int[entriesPerPage()];
+        for (int i = 0; i < entries.length; i++)
+            entries[i] = buf.getInt();
+    }
+
+    /**
+     * @return the number of directory entries a page holds
+     */
+    public static int entriesPerPage() {
+        return (BufferPool.getPageSize() - 1) / 4;
+    }
+
+    public int getEntry(int i) {
+        return entries[i];
+    }
+
+    void setEntry(int i, int bucket) {
+        entries[i] = bucket;
+    }
+
+    public byte[] getPageData() {
+        ByteBuffer buf = ByteBuffer.wrap(createEmptyPageData());
+        buf.put(DIRECTORY);
+        for (int e : entries)
+            buf.putInt(e);
+        return buf.array();
+    }
+
+    public HashDirectoryPage getBeforeImage() {
+        return new HashDirectoryPage(getId(), beforeImageData());
+    }
+}
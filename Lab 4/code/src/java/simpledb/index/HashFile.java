@@ -0,0 +1,643 @@
+package simpledb.index;
+
+import simpledb.common.DbException;
+import simpledb.common.Debug;
+import simpledb.common.Permissions;
+import simpledb.execution.Predicate;
+import simpledb.storage.*;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * HashFile is an implementation of a DbFile that stores its tuples in an
+ * extendible hash table on one key field, so that the tuples with a given
+ * key are found by reading the header, one directory page and one bucket,
+ * however large the table grows. It cannot answer range predicates.
+ * <p>
+ * The low globalDepth bits of the hash of a key index the directory, whose
+ * entries point to buckets. A bucket that fills up is split on the next
+ * bit of the hash, doubling the directory first if the bucket already uses
+ * all globalDepth bits. A bucket whose tuples all have the same hash bits
+ * up to the largest directory grows a chain of overflow pages instead. A
+ * bucket that becomes empty is merged into its buddy, the bucket that
+ * differs in the last bit of its local depth, if the buddy has the same
+ * depth. The directory never shrinks.
+ * <p>
+ * Lookups pass through the header and a directory page with shared locks,
+ * each released once the next page is locked. Inserts and deletes that
+ * split or merge buckets, or change overflow chains, lock the header and
+ * the whole directory exclusively first, so that they never wait for a
+ * directory page while holding a bucket.
+ *
+ * @see HashBucketPage
+ * @see HashDirectoryPage
+ */
+public class HashFile implements DbFile {
+
+    static final int HEADER_PAGE = 0;
+    // the directory and the only bucket of a new index
+    private static final int FIRST_DIRECTORY_PAGE = 1;
+    private static final int FIRST_BUCKET_PAGE = 2;
+
+    private final File f;
+    private final TupleDesc td;
+    private final int tableid;
+    private final int keyField;
+
+    // opened on first use, reopened if an interrupt closed it
+    private FileChannel channel;
+
+    /**
+     * Constructs a hash index file backed by the specified file. An empty
+     * or missing file holds an empty index.
+     *
+     * @param f        the file that stores the on-disk backing store for this
+     *                 hash index
+     * @param keyField the index of the field the tuples are hashed on
+     * @param td       the tuple descriptor of tuples in the file
+     */
+    public HashFile(File f, int keyField, TupleDesc td) {
+        this.f = f;
+        this.tableid = f.getAbsoluteFile().hashCode();
+        this.keyField = keyField;
+        this.td = td;
+    }
+
+    /**
+     * Returns the File backing this HashFile on disk.
+     */
+    public File getFile() {
+        return f;
+    }
+
+    public int getId() {
+        return tableid;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * @return the index of the field the tuples are hashed on
+     */
+    public int keyField() {
+        return keyField;
+    }
+
+    private HashPageId pageId(int pgNo) {
+        return new HashPageId(tableid, pgNo);
+    }
+
+    /**
+     * @return the hash of a key, with its bits mixed so that the low bits
+     *         that index the directory depend on all bits of the key
+     */
+    static int hash(Field key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    private static int mask(int depth) {
+        return (1 << depth) - 1;
+    }
+
+    /**
+     * @return the largest global depth the directory pages the header can
+     *         point to have room for
+     */
+    static int maxDepth() {
+        long capacity = (long) HashHeaderPage.maxDirectoryPages() * HashDirectoryPage.entriesPerPage();
+        return Math.min(30, 63 - Long.numberOfLeadingZeros(capacity));
+    }
+
+    synchronized FileChannel channel() throws IOException {
+        if (channel == null || !channel.isOpen()) {
+            channel = FileChannel.open(f.toPath(), StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+            if (channel.size() == 0)
+                writeEmptyIndex();
+        }
+        return channel;
+    }
+
+    /**
+     * Writes the pages of an index with a global depth of 0, straight to
+     * disk: the header, a directory with a single entry and the bucket it
+     * points to, which is a page of zeroes.
+     */
+    private void writeEmptyIndex() throws IOException {
+        HashHeaderPage header = new HashHeaderPage(pageId(HEADER_PAGE), IndexPage.createEmptyPageData());
+        header.addDirectoryPage(FIRST_DIRECTORY_PAGE);
+        HashDirectoryPage dir = new HashDirectoryPage(pageId(FIRST_DIRECTORY_PAGE), IndexPage.createEmptyPageData());
+        dir.setEntry(0, FIRST_BUCKET_PAGE);
+        writePageData(HEADER_PAGE, header.getPageData());
+        writePageData(FIRST_DIRECTORY_PAGE, dir.getPageData());
+        writePageData(FIRST_BUCKET_PAGE, IndexPage.createEmptyPageData());
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        HashPageId id = (HashPageId) pid;
+        int pageSize = BufferPool.getPageSize();
+        long offset = (long) id.getPageNumber() * pageSize;
+
+        byte[] pageBuf = new byte[pageSize];
+        ByteBuffer buf = ByteBuffer.wrap(pageBuf);
+        try {
+            FileChannel ch = channel();
+            while (buf.hasRemaining()) {
+                if (ch.read(buf, offset + buf.position()) == -1)
+                    throw new IllegalArgumentException("Read past end of table");
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        Debug.log(1, "HashFile.readPage: read page %d", id.getPageNumber());
+        if (id.getPageNumber() == HEADER_PAGE)
+            return new HashHeaderPage(id, pageBuf);
+        if (pageBuf[0] == HashPage.DIRECTORY)
+            return new HashDirectoryPage(id, pageBuf);
+        return new HashBucketPage(id, pageBuf);
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        writePageData(page.getId().getPageNumber(), page.getPageData());
+    }
+
+    private void writePageData(int pgNo, byte[] data) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        long offset = (long) pgNo * BufferPool.getPageSize();
+        FileChannel ch = channel();
+        while (buf.hasRemaining())
+            ch.write(buf, offset + buf.position());
+    }
+
+    /**
+     * Returns the number of pages in this HashFile, including the header,
+     * directory and free pages.
+     */
+    public int numPages() {
+        try {
+            return (int) (channel().size() / BufferPool.getPageSize());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Appends a page of zeroes to the file. Appending is not undone if the
+     * transaction aborts, and the page is then lost to the index.
+     *
+     * @return the number of the new page
+     */
+    private synchronized int appendPage() throws IOException {
+        int pgNo = numPages();
+        writePageData(pgNo, IndexPage.createEmptyPageData());
+        return pgNo;
+    }
+
+    /**
+     * Finds the first page of the bucket for a hash. The header and the
+     * directory page are read with shared locks, each released once the
+     * lock on the next page is granted.
+     *
+     * @param perm the permissions to fetch the bucket with
+     */
+    private HashBucketPage findBucket(Latches l, int h, Permissions perm)
+            throws TransactionAbortedException, DbException {
+        HashHeaderPage header = (HashHeaderPage) l.get(pageId(HEADER_PAGE), Permissions.READ_ONLY);
+        int index = h & mask(header.getGlobalDepth());
+        int perPage = HashDirectoryPage.entriesPerPage();
+        HashDirectoryPage dir = (HashDirectoryPage) l.get(
+                pageId(header.getDirectoryPage(index / perPage)), Permissions.READ_ONLY);
+        l.release(header.getId());
+        HashBucketPage bucket = (HashBucketPage) l.get(pageId(dir.getEntry(index % perPage)), perm);
+        l.release(dir.getId());
+        return bucket;
+    }
+
+    /**
+     * @return the pages of the bucket starting at first, in chain order
+     */
+    private List<HashBucketPage> chain(Latches l, HashBucketPage first, Permissions perm)
+            throws TransactionAbortedException, DbException {
+        List<HashBucketPage> chain = new ArrayList<>();
+        chain.add(first);
+        for (int next = first.getNext(); next != 0; ) {
+            HashBucketPage p = (HashBucketPage) l.get(pageId(next), perm);
+            chain.add(p);
+            next = p.getNext();
+        }
+        return chain;
+    }
+
+    /**
+     * Locks the header and all directory pages exclusively, in the order
+     * lookups lock them.
+     */
+    private HashHeaderPage lockDirectory(Latches l) throws TransactionAbortedException, DbException {
+        HashHeaderPage header = (HashHeaderPage) l.get(pageId(HEADER_PAGE), Permissions.READ_WRITE);
+        for (int i = 0; i < header.numDirectoryPages(); i++)
+            l.get(pageId(header.getDirectoryPage(i)), Permissions.READ_WRITE);
+        return header;
+    }
+
+    /**
+     * Releases the locks of lockDirectory on the pages that did not change.
+     */
+    private void unlockDirectory(Latches l, HashHeaderPage header) {
+        for (int i = 0; i < header.numDirectoryPages(); i++)
+            l.release(pageId(header.getDirectoryPage(i)));
+        l.release(header.getId());
+    }
+
+    private int getEntry(Latches l, HashHeaderPage header, int index)
+            throws TransactionAbortedException, DbException {
+        int perPage = HashDirectoryPage.entriesPerPage();
+        HashDirectoryPage dir = (HashDirectoryPage) l.get(
+                pageId(header.getDirectoryPage(index / perPage)), Permissions.READ_WRITE);
+        return dir.getEntry(index % perPage);
+    }
+
+    private void setEntry(Latches l, HashHeaderPage header, int index, int bucket)
+            throws TransactionAbortedException, DbException {
+        int perPage = HashDirectoryPage.entriesPerPage();
+        HashDirectoryPage dir = (HashDirectoryPage) l.get(
+                pageId(header.getDirectoryPage(index / perPage)), Permissions.READ_WRITE);
+        dir.setEntry(index % perPage, bucket);
+        l.dirty(dir);
+    }
+
+    // see DbFile.java for javadocs
+    public List<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        Latches l = new Latches(tid);
+        int h = hash(t.getField(keyField));
+        List<HashBucketPage> chain = chain(l, findBucket(l, h, Permissions.READ_WRITE), Permissions.READ_WRITE);
+        if (insertIntoChain(l, chain, t))
+            return l.dirtyPages();
+
+        // the bucket has to split or grow, which changes the directory or
+        // the free list
+        for (HashBucketPage p : chain)
+            l.release(p.getId());
+        HashHeaderPage header = lockDirectory(l);
+        while (true) {
+            int index = h & mask(header.getGlobalDepth());
+            HashBucketPage bucket = (HashBucketPage) l.get(pageId(getEntry(l, header, index)),
+                    Permissions.READ_WRITE);
+            chain = chain(l, bucket, Permissions.READ_WRITE);
+            if (insertIntoChain(l, chain, t))
+                break;
+            if (bucket.getLocalDepth() < maxDepth() && splitSeparates(chain, h)) {
+                split(l, header, index, chain);
+                continue;
+            }
+            HashBucketPage overflow = newBucket(l, header, bucket.getLocalDepth());
+            HashBucketPage last = chain.get(chain.size() - 1);
+            last.setNext(overflow.getId().getPageNumber());
+            l.dirty(last);
+            overflow.insertTuple(t);
+            break;
+        }
+        unlockDirectory(l, header);
+        return l.dirtyPages();
+    }
+
+    /**
+     * Inserts t on the first page of the chain with room.
+     *
+     * @return false if all pages of the chain are full
+     */
+    private boolean insertIntoChain(Latches l, List<HashBucketPage> chain, Tuple t) {
+        for (HashBucketPage p : chain) {
+            if (!p.isFull()) {
+                p.insertTuple(t);
+                l.dirty(p);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if some tuple of the chain has a hash that differs from
+     *         h in the bits a directory of the largest depth would use, so
+     *         that splitting the bucket often enough separates them
+     */
+    private boolean splitSeparates(List<HashBucketPage> chain, int h) {
+        int m = mask(maxDepth());
+        for (HashBucketPage p : chain) {
+            for (int i = 0; i < p.numTuples(); i++) {
+                if (((hash(p.getTuple(i).getField(keyField)) ^ h) & m) != 0)
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Splits the bucket with the given chain, which directory entry index
+     * points to, on the next bit of the hash, doubling the directory first
+     * if the bucket already uses all of its bits. The tuples are spread over
+     * the bucket and a new bucket, and overflow pages that are no longer
+     * needed are freed.
+     */
+    private void split(Latches l, HashHeaderPage header, int index, List<HashBucketPage> chain)
+            throws DbException, IOException, TransactionAbortedException {
+        HashBucketPage bucket = chain.get(0);
+        int d = bucket.getLocalDepth();
+        if (d == header.getGlobalDepth())
+            doubleDirectory(l, header);
+
+        List<Tuple> tuples = new ArrayList<>();
+        for (HashBucketPage p : chain)
+            tuples.addAll(p.removeAll());
+        for (int i = 1; i < chain.size(); i++)
+            free(l, header, chain.get(i));
+        bucket.setNext(0);
+        bucket.setLocalDepth(d + 1);
+        l.dirty(bucket);
+        HashBucketPage sibling = newBucket(l, header, d + 1);
+        int sibPgNo = sibling.getId().getPageNumber();
+
+        int size = 1 << header.getGlobalDepth();
+        for (int j = index & mask(d); j < size; j += 1 << d) {
+            if ((j >>> d & 1) != 0)
+                setEntry(l, header, j, sibPgNo);
+        }
+        for (Tuple t : tuples) {
+            HashBucketPage first = (hash(t.getField(keyField)) >>> d & 1) != 0 ? sibling : bucket;
+            List<HashBucketPage> target = chain(l, first, Permissions.READ_WRITE);
+            if (!insertIntoChain(l, target, t)) {
+                HashBucketPage overflow = newBucket(l, header, d + 1);
+                HashBucketPage last = target.get(target.size() - 1);
+                last.setNext(overflow.getId().getPageNumber());
+                overflow.insertTuple(t);
+            }
+        }
+        Debug.log(1, "HashFile: split bucket %d of table %d into %d", bucket.getId().getPageNumber(),
+                tableid, sibPgNo);
+    }
+
+    /**
+     * Doubles the directory, adding directory pages if needed. Each new
+     * entry points to the same bucket as the entry it extends.
+     */
+    private void doubleDirectory(Latches l, HashHeaderPage header)
+            throws DbException, IOException, TransactionAbortedException {
+        int n = 1 << header.getGlobalDepth();
+        while ((long) header.numDirectoryPages() * HashDirectoryPage.entriesPerPage() < 2L * n) {
+            HashPageId pid = allocatePage(l, header);
+            l.dirty(new HashDirectoryPage(pid, IndexPage.createEmptyPageData()));
+            header.addDirectoryPage(pid.getPageNumber());
+        }
+        for (int j = 0; j < n; j++)
+            setEntry(l, header, n + j, getEntry(l, header, j));
+        header.setGlobalDepth(header.getGlobalDepth() + 1);
+        l.dirty(header);
+    }
+
+    /**
+     * Takes a page off the free list, or appends one if the list is empty,
+     * and locks it.
+     *
+     * @return the id of the page, which the caller sets up as a new page
+     */
+    private HashPageId allocatePage(Latches l, HashHeaderPage header)
+            throws DbException, IOException, TransactionAbortedException {
+        HashPageId pid;
+        if (header.getFreeHead() != 0) {
+            pid = pageId(header.getFreeHead());
+            HashBucketPage free = (HashBucketPage) l.get(pid, Permissions.READ_WRITE);
+            header.setFreeHead(free.getNext());
+        } else {
+            pid = pageId(appendPage());
+            l.get(pid, Permissions.READ_WRITE);
+        }
+        l.dirty(header);
+        return pid;
+    }
+
+    private HashBucketPage newBucket(Latches l, HashHeaderPage header, int localDepth)
+            throws DbException, IOException, TransactionAbortedException {
+        HashBucketPage bucket = new HashBucketPage(allocatePage(l, header), IndexPage.createEmptyPageData());
+        bucket.setLocalDepth(localDepth);
+        l.dirty(bucket);
+        return bucket;
+    }
+
+    /**
+     * Puts a bucket page that is no longer used on the free list.
+     */
+    private void free(Latches l, HashHeaderPage header, HashBucketPage page) {
+        page.free(header.getFreeHead());
+        header.setFreeHead(page.getId().getPageNumber());
+        l.dirty(page);
+        l.dirty(header);
+    }
+
+    // see DbFile.java for javadocs
+    public List<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        Latches l = new Latches(tid);
+        int h = hash(t.getField(keyField));
+        List<HashBucketPage> chain = chain(l, findBucket(l, h, Permissions.READ_WRITE), Permissions.READ_WRITE);
+        boolean found = false;
+        for (int i = 0; i < chain.size() && !found; i++) {
+            HashBucketPage p = chain.get(i);
+            if (p.indexOf(t) < 0)
+                continue;
+            found = true;
+            // an overflow page, or a bucket that could merge, that becomes
+            // empty changes the chain or the directory
+            boolean empties = p.numTuples() == 1
+                    && (i > 0 || chain.size() == 1 && p.getLocalDepth() > 0);
+            if (!empties) {
+                p.deleteTuple(t);
+                l.dirty(p);
+                return l.dirtyPages();
+            }
+        }
+        if (!found)
+            throw new DbException("tuple not found in hash index");
+
+        for (HashBucketPage p : chain)
+            l.release(p.getId());
+        HashHeaderPage header = lockDirectory(l);
+        int index = h & mask(header.getGlobalDepth());
+        HashBucketPage bucket = (HashBucketPage) l.get(pageId(getEntry(l, header, index)),
+                Permissions.READ_WRITE);
+        chain = chain(l, bucket, Permissions.READ_WRITE);
+        for (int i = 0; i < chain.size(); i++) {
+            HashBucketPage p = chain.get(i);
+            if (!p.deleteTuple(t))
+                continue;
+            l.dirty(p);
+            if (p.numTuples() == 0 && i > 0) {
+                HashBucketPage prev = chain.get(i - 1);
+                prev.setNext(p.getNext());
+                l.dirty(prev);
+                free(l, header, p);
+            } else if (p.numTuples() == 0 && chain.size() == 1) {
+                merge(l, header, index, p);
+            }
+            unlockDirectory(l, header);
+            return l.dirtyPages();
+        }
+        throw new DbException("tuple not found in hash index");
+    }
+
+    /**
+     * Merges the empty bucket that directory entry index points to into its
+     * buddy, if the buddy has the same local depth: the entries of the
+     * bucket point to the buddy from now on, and the bucket is freed.
+     */
+    private void merge(Latches l, HashHeaderPage header, int index, HashBucketPage bucket)
+            throws DbException, TransactionAbortedException {
+        int d = bucket.getLocalDepth();
+        if (d == 0)
+            return;
+        int low = index & mask(d);
+        int buddyPgNo = getEntry(l, header, low ^ (1 << (d - 1)));
+        HashBucketPage buddy = (HashBucketPage) l.get(pageId(buddyPgNo), Permissions.READ_WRITE);
+        if (buddy.getLocalDepth() != d) {
+            l.release(buddy.getId());
+            return;
+        }
+        int size = 1 << header.getGlobalDepth();
+        for (int j = low; j < size; j += 1 << d)
+            setEntry(l, header, j, buddyPgNo);
+        buddy.setLocalDepth(d - 1);
+        l.dirty(buddy);
+        free(l, header, bucket);
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return new HashFileIterator(tid);
+    }
+
+    /**
+     * Returns an iterator over the tuples whose key equals the given key,
+     * which reads only the bucket of the key.
+     */
+    public DbFileIterator lookup(TransactionId tid, Field key) {
+        return new HashLookupIterator(tid, key);
+    }
+
+    /**
+     * Iterates over the pages of the file in order, returning the tuples of
+     * all buckets and overflow pages. Locks on the header, directory and
+     * free pages are released as soon as they turn out to hold no tuples.
+     */
+    private class HashFileIterator extends AbstractDbFileIterator {
+        final TransactionId tid;
+        private int pgNo;
+        private int numPages;
+        private Iterator<Tuple> it;
+
+        HashFileIterator(TransactionId tid) {
+            this.tid = tid;
+        }
+
+        public void open() {
+            pgNo = HEADER_PAGE;
+            numPages = numPages();
+            it = null;
+        }
+
+        @Override
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            while (it == null || !it.hasNext()) {
+                if (++pgNo >= numPages)
+                    return null;
+                Latches l = new Latches(tid);
+                Page p = l.get(pageId(pgNo), Permissions.READ_ONLY);
+                if (p instanceof HashBucketPage && !((HashBucketPage) p).isFree())
+                    it = ((HashBucketPage) p).iterator();
+                else
+                    l.release(p.getId());
+            }
+            return it.next();
+        }
+
+        public void rewind() {
+            open();
+        }
+
+        @Override
+        public void close() {
+            super.close();
+            numPages = 0;
+            it = null;
+        }
+    }
+
+    /**
+     * Iterates over the chain of the bucket of a key, returning the tuples
+     * with that key.
+     */
+    private class HashLookupIterator extends AbstractDbFileIterator {
+        final TransactionId tid;
+        final Field key;
+        private HashBucketPage page;
+        private Iterator<Tuple> it;
+
+        HashLookupIterator(TransactionId tid, Field key) {
+            this.tid = tid;
+            this.key = key;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            page = findBucket(new Latches(tid), hash(key), Permissions.READ_ONLY);
+            it = page.iterator();
+        }
+
+        @Override
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            while (it != null) {
+                while (it.hasNext()) {
+                    Tuple t = it.next();
+                    if (t.getField(keyField).compare(Predicate.Op.EQUALS, key))
+                        return t;
+                }
+                if (page.getNext() == 0) {
+                    it = null;
+                    return null;
+                }
+                page = (HashBucketPage) new Latches(tid).get(pageId(page.getNext()), Permissions.READ_ONLY);
+                it = page.iterator();
+            }
+            return null;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        @Override
+        public void close() {
+            super.close();
+            page = null;
+            it = null;
+        }
+    }
+}
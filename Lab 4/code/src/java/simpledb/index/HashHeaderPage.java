@@ -0,0 +1,96 @@
+package simpledb.index;
+
+import simpledb.storage.BufferPool;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Page 0 of a HashFile, which records the global depth of the directory,
+ * the page numbers of the directory pages in order, and the head of the
+ * list of free pages. Transactions that split or merge buckets change
+ * it; lookups only pass through it.
+ */
+public class HashHeaderPage extends HashPage {
+
+    private static final int HEADER_SIZE = 13;
+
+    private int globalDepth;
+    private int freeHead;
+    private final List<Integer> directory = new ArrayList<>();
+
+    /**
+     * Create a HashHeaderPage from a set of bytes of data read from disk.
+     * The page holds a category byte, the global depth, the first free
+     * page or 0 if there is none, the number of directory pages and their
+     * page numbers.
+     */
+    public HashHeaderPage(HashPageId id, byte[] data) {
+        super(id, data);
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        buf.get();
+        globalDepth = buf.getInt();
+        freeHead = buf.getInt();
+        int n = buf.getInt();
+        for (int i = 0; i < n; i++)
+            directory.add(buf.getInt());
+    }
+
+    /**
+     * @return the number of directory pages the header has room for
+     */
+    public static int maxDirectoryPages() {
+        return (BufferPool.getPageSize() - HEADER_SIZE) / 4;
+    }
+
+    /**
+     * @return the number of low-order bits of a key's hash that index the
+     *         directory
+     */
+    public int getGlobalDepth() {
+        return globalDepth;
+    }
+
+    void setGlobalDepth(int depth) {
+        globalDepth = depth;
+    }
+
+    public int getFreeHead() {
+        return freeHead;
+    }
+
+    void setFreeHead(int pgNo) {
+        freeHead = pgNo;
+    }
+
+    public int numDirectoryPages() {
+        return directory.size();
+    }
+
+    /**
+     * @return the page number of directory page i
+     */
+    public int getDirectoryPage(int i) {
+        return directory.get(i);
+    }
+
+    void addDirectoryPage(int pgNo) {
+        directory.add(pgNo);
+    }
+
+    public byte[] getPageData() {
+        ByteBuffer buf = ByteBuffer.wrap(createEmptyPageData());
+        buf.put(HEADER);
+        buf.putInt(globalDepth);
+        buf.putInt(freeHead);
+        buf.putInt(directory.size());
+        for (int pgNo : directory)
+            buf.putInt(pgNo);
+        return buf.array();
+    }
+
+    public HashHeaderPage getBeforeImage() {
+        return new HashHeaderPage(getId(), beforeImageData());
+    }
+}
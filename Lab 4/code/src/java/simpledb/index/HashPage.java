@@ -0,0 +1,23 @@
+package simpledb.index;
+
+/**
+ * The parts shared by the pages of a HashFile. The first byte of every
+ * page says what kind of page it is; a page of zeroes is an empty bucket.
+ *
+ * @see HashFile
+ */
+public abstract class HashPage extends IndexPage {
+
+    static final byte HEADER = 1;
+    static final byte DIRECTORY = 2;
+    static final byte BUCKET = 3;
+    static final byte FREE = 4;
+
+    HashPage(HashPageId id, byte[] data) {
+        super(id, data);
+    }
+
+    public HashPageId getId() {
+        return (HashPageId) pid;
+    }
+}
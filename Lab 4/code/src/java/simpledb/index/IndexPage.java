@@ -0,0 +1,108 @@
+package simpledb.index;
+
+import simpledb.common.Type;
+import simpledb.execution.Predicate;
+import simpledb.storage.BufferPool;
+import simpledb.storage.Field;
+import simpledb.storage.Page;
+import simpledb.storage.PageId;
+import simpledb.transaction.TransactionId;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The parts shared by the pages of the index files in this package.
+ * <p>
+ * Index pages are decoded into objects when they are read and encoded
+ * again when they are written, so the bytes a page was read from are never
+ * changed and serve as its first before-image.
+ */
+public abstract class IndexPage implements Page {
+
+    private volatile boolean dirty = false;
+    private volatile TransactionId dirtier = null;
+
+    final PageId pid;
+
+    private byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    IndexPage(PageId id, byte[] data) {
+        this.pid = id;
+        this.oldData = data;
+    }
+
+    /**
+     * @return a page of zeroes, which every kind of index page reads as an
+     *         empty page
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()];
+    }
+
+    /**
+     * @return the bytes of the page as of the last call to setBeforeImage()
+     */
+    byte[] beforeImageData() {
+        synchronized (oldDataLock) {
+            return oldData.clone();
+        }
+    }
+
+    public void setBeforeImage() {
+        byte[] data = getPageData();
+        synchronized (oldDataLock) {
+            oldData = data;
+        }
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        if (dirty) this.dirtier = tid;
+    }
+
+    public TransactionId isDirty() {
+        return dirty ? dirtier : null;
+    }
+
+    /**
+     * Orders two keys of the same type.
+     *
+     * @return a negative number, zero or a positive number as a is less
+     *         than, equal to or greater than b
+     */
+    static int compare(Field a, Field b) {
+        if (a.compare(Predicate.Op.LESS_THAN, b))
+            return -1;
+        return a.compare(Predicate.Op.EQUALS, b) ? 0 : 1;
+    }
+
+    /**
+     * Reads a field stored in the fixed length of its type.
+     */
+    static Field readField(ByteBuffer buf, Type type) {
+        int start = buf.position();
+        Field f = type.parse(buf);
+        buf.position(start + type.getLen());
+        return f;
+    }
+
+    /**
+     * Writes a field padded to the fixed length of its type.
+     */
+    static void writeField(ByteBuffer buf, Field f, Type type) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(type.getLen());
+        try {
+            f.serialize(new DataOutputStream(baos));
+        } catch (IOException e) {
+            // this really shouldn't happen
+            throw new RuntimeException(e);
+        }
+        int start = buf.position();
+        buf.put(baos.toByteArray());
+        buf.position(start + type.getLen());
+    }
+}
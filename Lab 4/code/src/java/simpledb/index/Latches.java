@@ -0,0 +1,54 @@
+package simpledb.index;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.storage.BufferPool;
+import simpledb.storage.Page;
+import simpledb.storage.PageId;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.*;
+
+/**
+ * The pages one operation on an index fetches. Pages changed by the
+ * operation are kept here, and fetched from here rather than from the
+ * buffer pool, until the operation returns them to the buffer pool as its
+ * dirty pages. Locks on pages the operation did not change, and that the
+ * transaction did not hold before, can be released early, which is how
+ * index operations give up the locks on pages they only passed through.
+ */
+class Latches {
+    final TransactionId tid;
+    private final Map<PageId, Page> dirtypages = new LinkedHashMap<>();
+    private final Set<PageId> acquired = new HashSet<>();
+
+    Latches(TransactionId tid) {
+        this.tid = tid;
+    }
+
+    Page get(PageId pid, Permissions perm)
+            throws TransactionAbortedException, DbException {
+        Page p = dirtypages.get(pid);
+        if (p != null)
+            return p;
+        BufferPool bp = Database.getBufferPool();
+        if (!bp.holdsLock(tid, pid))
+            acquired.add(pid);
+        return bp.getPage(tid, pid, perm);
+    }
+
+    void release(PageId pid) {
+        if (acquired.remove(pid) && !dirtypages.containsKey(pid))
+            Database.getBufferPool().unsafeReleasePage(tid, pid);
+    }
+
+    void dirty(Page p) {
+        dirtypages.put(p.getId(), p);
+    }
+
+    List<Page> dirtyPages() {
+        return new ArrayList<>(dirtypages.values());
+    }
+}
@@ -7,6 +7,13 @@ import simpledb.execution.Predicate;
  */
 public class IntHistogram {
 
+    private final int min;
+    private final int max;
+    // width of a bucket, at least one value
+    private final double width;
+    private final int[] heights;
+    private int ntups = 0;
+
     /**
      * Create a new IntHistogram.
      * <p>
@@ -24,7 +31,23 @@ public class IntHistogram {
      * @param max     The maximum integer value that will ever be passed to this class for histogramming
      */
     public IntHistogram(int buckets, int min, int max) {
-        // TODO: some code goes here
+        this.min = min;
+        this.max = max;
+        // no point in buckets narrower than one value
+        long range = (long) max - min + 1;
+        int n = (int) Math.max(1, Math.min(buckets, range));
+        this.width = (double) range / n;
+        this.heights = new int[n];
+    }
+
+    private int bucket(int v) {
+        int b = (int) ((v - (double) min) / width);
+        return Math.min(b, heights.length - 1);
+    }
+
+    // the lowest value that falls in bucket b
+    private double left(int b) {
+        return min + b * width;
     }
 
     /**
@@ -33,7 +56,10 @@ public class IntHistogram {
      * @param v Value to add to the histogram
      */
     public void addValue(int v) {
-        // TODO: some code goes here
+        if (v < min || v > max)
+            throw new IllegalArgumentException("value " + v + " out of histogram range");
+        heights[bucket(v)]++;
+        ntups++;
     }
 
     /**
@@ -47,9 +73,61 @@ public class IntHistogram {
      * @return Predicted selectivity of this particular operator and value
      */
     public double estimateSelectivity(Predicate.Op op, int v) {
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                return equals(v);
+            case NOT_EQUALS:
+                return 1.0 - equals(v);
+            case GREATER_THAN:
+                return greaterThan(v);
+            case GREATER_THAN_OR_EQ:
+                return clamp(greaterThan(v) + equals(v));
+            case LESS_THAN:
+                return lessThan(v);
+            case LESS_THAN_OR_EQ:
+                return clamp(lessThan(v) + equals(v));
+            default:
+                throw new IllegalArgumentException("unsupported operator " + op);
+        }
+    }
+
+    private double equals(int v) {
+        if (v < min || v > max || ntups == 0)
+            return 0.0;
+        // values are assumed to be spread evenly over the bucket
+        return heights[bucket(v)] / Math.max(1.0, width) / ntups;
+    }
+
+    private double greaterThan(int v) {
+        if (v < min)
+            return 1.0;
+        if (v >= max || ntups == 0)
+            return 0.0;
+        int b = bucket(v);
+        // the part of v's bucket above v, then all buckets to the right
+        double part = (left(b + 1) - (v + 1)) / width;
+        double count = heights[b] * clamp(part);
+        for (int i = b + 1; i < heights.length; i++)
+            count += heights[i];
+        return clamp(count / ntups);
+    }
+
+    private double lessThan(int v) {
+        if (v <= min || ntups == 0)
+            return 0.0;
+        if (v > max)
+            return 1.0;
+        int b = bucket(v);
+        double part = (v - left(b)) / width;
+        double count = heights[b] * clamp(part);
+        for (int i = 0; i < b; i++)
+            count += heights[i];
+        return clamp(count / ntups);
+    }
 
-        // TODO: some code goes here
-        return -1.0;
+    private static double clamp(double d) {
+        return Math.max(0.0, Math.min(1.0, d));
     }
 
     /**
@@ -60,15 +138,25 @@ public class IntHistogram {
      *         implement a more efficient optimization
      */
     public double avgSelectivity() {
-        // TODO: some code goes here
-        return 1.0;
+        if (ntups == 0)
+            return 1.0;
+        // the selectivity of an equality predicate on a value drawn like
+        // the histogrammed ones
+        double sel = 0.0;
+        for (int h : heights) {
+            double f = (double) h / ntups;
+            sel += f * f / Math.max(1.0, width);
+        }
+        return sel;
     }
 
     /**
      * @return A string describing this histogram, for debugging purposes
      */
     public String toString() {
-        // TODO: some code goes here
-        return null;
+        StringBuilder sb = new StringBuilder("IntHistogram(" + min + ".." + max + ", " + ntups + " values:");
+        for (int i = 0; i < heights.length; i++)
+            sb.append(' ').append(heights[i]);
+        return sb.append(')').toString();
     }
 }
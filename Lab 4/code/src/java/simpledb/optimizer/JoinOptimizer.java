@@ -3,7 +3,6 @@ package simpledb.optimizer;
 import simpledb.ParsingException;
 import simpledb.common.Database;
 import simpledb.execution.*;
-import simpledb.storage.TupleDesc;
 
 import javax.swing.*;
 import javax.swing.tree.DefaultMutableTreeNode;
@@ -19,6 +18,36 @@ public class JoinOptimizer {
     final LogicalPlan p;
     final List<LogicalJoinNode> joins;
 
+    /**
+     * The physical join algorithms {@link #instantiateJoin} chooses from.
+     */
+    public enum JoinAlgorithm {
+        /** a {@link Join} that holds one outer tuple at a time */
+        NESTED_LOOP,
+        /** a {@link Join} that holds a block of outer tuples in memory */
+        BLOCK_NESTED_LOOP,
+        /** a {@link HashEquiJoin}, for equality predicates */
+        HASH,
+        /** a {@link SortMergeJoin}, for equality and inequality predicates */
+        SORT_MERGE,
+        /** an {@link IndexNestedLoopJoin}, when the inner table is indexed on its join field */
+        INDEX_NESTED_LOOP
+    }
+
+    /**
+     * The number of tuples a join may hold in memory, which joins are
+     * costed and instantiated with.
+     */
+    private static int joinMemory = Join.DEFAULT_MEMORY;
+
+    public static void setJoinMemory(int tuples) {
+        joinMemory = tuples;
+    }
+
+    public static int getJoinMemory() {
+        return joinMemory;
+    }
+
     /**
      * Constructor
      *
@@ -37,6 +66,11 @@ public class JoinOptimizer {
      * inner/outer here -- because OpIterator's don't provide any cardinality
      * estimates, and stats only has information about the base tables. For this
      * reason, the plan1
+     * <p>
+     * Without estimates, the algorithm is picked by the join's predicate
+     * alone: a {@link HashEquiJoin} for equality, a {@link SortMergeJoin}
+     * for inequality predicates, and a block nested loops {@link Join}
+     * otherwise. Joins with subqueries are instantiated this way.
      *
      * @param lj    The join being considered
      * @param plan1 The left join node's child
@@ -45,9 +79,79 @@ public class JoinOptimizer {
     public static OpIterator instantiateJoin(LogicalJoinNode lj,
                                              OpIterator plan1, OpIterator plan2) throws ParsingException {
 
-        int t1id = 0, t2id = 0;
+        JoinPredicate p = joinPredicate(lj, plan1, plan2);
         OpIterator j;
 
+        if (lj.p == Predicate.Op.EQUALS)
+            j = new HashEquiJoin(p, plan1, plan2);
+        else if (SortMergeJoin.supports(lj.p))
+            j = new SortMergeJoin(p, plan1, plan2);
+        else
+            j = new Join(p, plan1, plan2);
+
+        return j;
+
+    }
+
+    /**
+     * Return the iterator of the cheapest algorithm for computing a given
+     * logical join, by the costs {@link #estimateJoinCosts} estimates from
+     * the cardinalities and costs of the subplans, the join's predicate and
+     * {@link #getJoinMemory the memory joins may use}. An index nested
+     * loops join is considered when plan2 scans a table indexed on its join
+     * field.
+     *
+     * @param lj    The join being considered
+     * @param plan1 The left join node's child
+     * @param plan2 The right join node's child
+     * @param card1 Estimated cardinality of plan1
+     * @param card2 Estimated cardinality of plan2
+     * @param cost1 Estimated cost of computing plan1
+     * @param cost2 Estimated cost of computing plan2
+     * @param stats The table stats, referenced by table names, not alias
+     */
+    public static OpIterator instantiateJoin(LogicalJoinNode lj,
+                                             OpIterator plan1, OpIterator plan2,
+                                             int card1, int card2, double cost1, double cost2,
+                                             Map<String, TableStats> stats) throws ParsingException {
+        if (lj instanceof LogicalSubplanJoinNode)
+            return instantiateJoin(lj, plan1, plan2);
+
+        JoinPredicate p = joinPredicate(lj, plan1, plan2);
+        JoinAlgorithm algorithm = cheapestJoin(estimateJoinCosts(lj.p, card1, card2,
+                cost1, cost2, indexProbeCost(p, plan2, stats), joinMemory));
+
+        switch (algorithm) {
+            case NESTED_LOOP: {
+                Join j = new Join(p, plan1, plan2);
+                j.setMemoryBudget(1);
+                return j;
+            }
+            case HASH: {
+                HashEquiJoin j = new HashEquiJoin(p, plan1, plan2);
+                j.setMemoryBudget(joinMemory);
+                return j;
+            }
+            case SORT_MERGE: {
+                SortMergeJoin j = new SortMergeJoin(p, plan1, plan2);
+                j.setMemoryBudget(joinMemory);
+                return j;
+            }
+            case INDEX_NESTED_LOOP:
+                return new IndexNestedLoopJoin(p, plan1, plan2);
+            default: {
+                Join j = new Join(p, plan1, plan2);
+                j.setMemoryBudget(joinMemory);
+                return j;
+            }
+        }
+    }
+
+    private static JoinPredicate joinPredicate(LogicalJoinNode lj,
+                                               OpIterator plan1, OpIterator plan2) throws ParsingException {
+
+        int t1id = 0, t2id = 0;
+
         try {
             t1id = plan1.getTupleDesc().indexForFieldName(lj.f1QuantifiedName);
         } catch (NoSuchElementException e) {
@@ -66,22 +170,63 @@ public class JoinOptimizer {
             }
         }
 
-        JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
+        return new JoinPredicate(t1id, lj.p, t2id);
+    }
 
-        j = new Join(p,plan1,plan2);
+    /**
+     * @return the cost of one index lookup into the table plan2 scans, or
+     *         Double.POSITIVE_INFINITY if an {@link IndexNestedLoopJoin}
+     *         cannot look up its tuples; both instantiateJoin and the cost
+     *         estimates of the optimizer cost index joins by this
+     */
+    private static double indexProbeCost(JoinPredicate p, OpIterator plan2,
+                                         Map<String, TableStats> stats) {
+        if (!IndexNestedLoopJoin.canUse(p, plan2))
+            return Double.POSITIVE_INFINITY;
+        String table = Database.getCatalog().getTableName(
+                IndexNestedLoopJoin.innerScan(plan2).getTableId());
+        TableStats s = stats.get(table);
+        return s == null ? Double.POSITIVE_INFINITY
+                : s.estimateIndexProbeCost(p.getField2(), p.getOperator());
+    }
 
-        return j;
+    /**
+     * @return the cost of one index lookup of j into plan2, see
+     *         {@link #indexProbeCost(JoinPredicate, OpIterator, Map)}, or
+     *         Double.POSITIVE_INFINITY if plan2 is null
+     */
+    private static double indexProbeCost(LogicalJoinNode j, OpIterator plan2,
+                                         Map<String, TableStats> stats) {
+        if (plan2 == null || stats == null)
+            return Double.POSITIVE_INFINITY;
+        int field2;
+        try {
+            field2 = plan2.getTupleDesc().indexForFieldName(j.f2QuantifiedName);
+        } catch (NoSuchElementException e) {
+            // not a field of plan2: no index to use
+            return Double.POSITIVE_INFINITY;
+        }
+        // only the field of plan2 matters to the lookup
+        return indexProbeCost(new JoinPredicate(0, j.p, field2), plan2, stats);
+    }
 
+    /**
+     * Estimate the cost of a join, without an index nested loops join; see
+     * {@link #estimateJoinCost(LogicalJoinNode, int, int, double, double, OpIterator, Map)}.
+     */
+    public double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
+                                   double cost1, double cost2) {
+        return estimateJoinCost(j, card1, card2, cost1, cost2, null, null);
     }
 
     /**
      * Estimate the cost of a join.
      * <p>
-     * The cost of the join should be calculated based on the join algorithm (or
-     * algorithms) that you implemented for Lab 2. It should be a function of
-     * the amount of data that must be read over the course of the query, as
-     * well as the number of CPU opertions performed by your join. Assume that
-     * the cost of a single predicate application is roughly 1.
+     * The cost is that of the cheapest algorithm for the join, among those
+     * {@link #estimateJoinCosts} estimates. It is a function
+     * of the amount of data that must be read over the course of the query,
+     * as well as the number of CPU opertions performed by the join. Assume
+     * that the cost of a single predicate application is roughly 1.
      *
      * @param j     A LogicalJoinNode representing the join operation being
      *              performed.
@@ -91,24 +236,189 @@ public class JoinOptimizer {
      *              side of the query
      * @param cost2 Estimated cost of one full scan of the table on the right-hand
      *              side of the query
+     * @param plan2 The right-hand side of the query, or null if it is not
+     *              known yet
+     * @param stats The table stats, referenced by table names, not alias
      * @return An estimate of the cost of this query, in terms of cost1 and
      *         cost2
      */
     public double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
-                                   double cost1, double cost2) {
+                                   double cost1, double cost2,
+                                   OpIterator plan2, Map<String, TableStats> stats) {
         if (j instanceof LogicalSubplanJoinNode) {
             // A LogicalSubplanJoinNode represents a subquery.
             // You do not need to implement proper support for these for Lab 3.
             return card1 + cost1 + cost2;
         } else {
-            // Insert your code here.
-            // HINT: You may need to use the variable "j" if you implemented
-            // a join algorithm that's more complicated than a basic
-            // nested-loops join.
-            return -1.0;
+            Map<JoinAlgorithm, Double> costs = estimateJoinCosts(j, card1, card2, cost1, cost2,
+                    plan2, stats);
+            return costs.get(cheapestJoin(costs));
         }
     }
 
+    /**
+     * Estimate the cost of a join with each algorithm that can compute it.
+     * An index nested loops join is costed when {@link #instantiateJoin}
+     * could build one over plan2: plan2 scans a table indexed on the join
+     * field, as {@link IndexNestedLoopJoin#canUse} checks, and stats has
+     * statistics of the table.
+     *
+     * @param plan2 the right-hand side of the join, or null if it is not
+     *              known yet
+     * @param stats the table stats, referenced by table names, not alias
+     * @return the estimated cost of each algorithm, in terms of cost1 and
+     *         cost2
+     * @see #estimateJoinCost
+     */
+    public Map<JoinAlgorithm, Double> estimateJoinCosts(LogicalJoinNode j, int card1, int card2,
+                                                        double cost1, double cost2,
+                                                        OpIterator plan2,
+                                                        Map<String, TableStats> stats) {
+        return estimateJoinCosts(j.p, card1, card2, cost1, cost2,
+                indexProbeCost(j, plan2, stats), joinMemory);
+    }
+
+    /**
+     * Estimate the cost of a join under op with each algorithm that can
+     * compute it: nested loops and block nested loops joins always, a hash
+     * join for equality, a sort-merge join for equality and inequality, and
+     * an index nested loops join when indexProbeCost is finite.
+     *
+     * @param indexProbeCost the cost of one index lookup into the
+     *                       right-hand table, or Double.POSITIVE_INFINITY if
+     *                       it has no index to use
+     * @param memoryTuples   the number of tuples a join may hold in memory
+     * @return the estimated cost of each algorithm
+     */
+    public static Map<JoinAlgorithm, Double> estimateJoinCosts(Predicate.Op op,
+                                                               int card1, int card2,
+                                                               double cost1, double cost2,
+                                                               double indexProbeCost,
+                                                               int memoryTuples) {
+        Map<JoinAlgorithm, Double> costs = new EnumMap<>(JoinAlgorithm.class);
+        costs.put(JoinAlgorithm.NESTED_LOOP,
+                estimateNestedLoopJoinCost(card1, card2, cost1, cost2));
+        costs.put(JoinAlgorithm.BLOCK_NESTED_LOOP,
+                estimateBlockNestedLoopJoinCost(card1, card2, cost1, cost2, memoryTuples));
+        if (op == Predicate.Op.EQUALS)
+            costs.put(JoinAlgorithm.HASH,
+                    estimateHashJoinCost(card1, card2, cost1, cost2, memoryTuples));
+        if (SortMergeJoin.supports(op))
+            costs.put(JoinAlgorithm.SORT_MERGE,
+                    estimateSortMergeJoinCost(card1, card2, cost1, cost2, memoryTuples));
+        if (!Double.isInfinite(indexProbeCost))
+            costs.put(JoinAlgorithm.INDEX_NESTED_LOOP,
+                    estimateIndexNestedLoopJoinCost(card1, cost1, indexProbeCost));
+        return costs;
+    }
+
+    /**
+     * @return the algorithm with the lowest cost, the first in the order of
+     *         {@link JoinAlgorithm} among equal costs
+     */
+    public static JoinAlgorithm cheapestJoin(Map<JoinAlgorithm, Double> costs) {
+        JoinAlgorithm best = null;
+        for (Map.Entry<JoinAlgorithm, Double> e : costs.entrySet()) {
+            if (best == null || e.getValue() < costs.get(best))
+                best = e.getKey();
+        }
+        return best;
+    }
+
+    /**
+     * Estimate the cost of a nested loops join: one scan of the outer
+     * relation, one scan of the inner relation per outer tuple, and one
+     * predicate application per pair of tuples.
+     */
+    public static double estimateNestedLoopJoinCost(int card1, int card2,
+                                                    double cost1, double cost2) {
+        return cost1 + card1 * cost2 + (double) card1 * card2;
+    }
+
+    /**
+     * Estimate the cost of a block nested loops join: one scan of the outer
+     * relation, one scan of the inner relation per block of blockTuples
+     * outer tuples, and one predicate application per pair of tuples.
+     */
+    public static double estimateBlockNestedLoopJoinCost(int card1, int card2,
+                                                         double cost1, double cost2,
+                                                         int blockTuples) {
+        double blocks = Math.max(1, Math.ceil((double) card1 / blockTuples));
+        return cost1 + blocks * cost2 + (double) card1 * card2;
+    }
+
+    /**
+     * Estimate the cost of a sort-merge join: one scan of each relation, a
+     * sort of each, and a merge that compares each tuple about once.
+     */
+    public static double estimateSortMergeJoinCost(int card1, int card2,
+                                                   double cost1, double cost2) {
+        return estimateSortMergeJoinCost(card1, card2, cost1, cost2,
+                SortMergeJoin.DEFAULT_MEMORY);
+    }
+
+    /**
+     * Estimate the cost of a sort-merge join that sorts memoryTuples tuples
+     * at a time.
+     */
+    public static double estimateSortMergeJoinCost(int card1, int card2,
+                                                   double cost1, double cost2,
+                                                   int memoryTuples) {
+        return cost1 + cost2 + estimateSortCost(card1, memoryTuples)
+                + estimateSortCost(card2, memoryTuples) + card1 + card2;
+    }
+
+    /**
+     * Estimate the cost of a hash join that builds its table on the
+     * left-hand side: one scan of each relation and a hash and probe per
+     * tuple, and if the left-hand side does not fit in memoryTuples tuples,
+     * a write and read of each tuple per partitioning pass.
+     */
+    public static double estimateHashJoinCost(int card1, int card2,
+                                              double cost1, double cost2,
+                                              int memoryTuples) {
+        double cost = cost1 + cost2 + card1 + card2;
+        if (card1 <= memoryTuples)
+            return cost;
+        double passes = Math.ceil(Math.log((double) card1 / memoryTuples)
+                / Math.log(HashEquiJoin.PARTITIONS));
+        return cost + ((double) card1 + card2) * SPILL_COST_PER_TUPLE * passes;
+    }
+
+    /**
+     * Estimate the cost of an index nested loops join: one scan of the
+     * outer relation and one index lookup per outer tuple.
+     */
+    public static double estimateIndexNestedLoopJoinCost(int card1, double cost1,
+                                                         double indexProbeCost) {
+        return cost1 + card1 * indexProbeCost;
+    }
+
+    /**
+     * Cost of writing a tuple to a spill file and reading it back, about
+     * the cost of a page read shared by the tuples on the page.
+     */
+    static final double SPILL_COST_PER_TUPLE = 2.0;
+
+    /**
+     * Estimate the cost of sorting card tuples as {@link SortMergeJoin}
+     * does: n log n comparisons, and if the tuples do not fit in memory, a
+     * write and read of each tuple for the sorted runs and for each merge
+     * pass but the last.
+     */
+    static double estimateSortCost(int card) {
+        return estimateSortCost(card, SortMergeJoin.DEFAULT_MEMORY);
+    }
+
+    static double estimateSortCost(int card, int memoryTuples) {
+        double cost = card * (Math.log(Math.max(card, 2)) / Math.log(2));
+        if (card <= memoryTuples)
+            return cost;
+        double runs = Math.ceil((double) card / memoryTuples);
+        double passes = Math.ceil(Math.log(runs) / Math.log(SortMergeJoin.MERGE_FANIN));
+        return cost + card * SPILL_COST_PER_TUPLE * passes;
+    }
+
     /**
      * Estimate the cardinality of a join. The cardinality of a join is the
      * number of tuples produced by the join.
@@ -143,9 +453,23 @@ public class JoinOptimizer {
                                                    String field2PureName, int card1, int card2, boolean t1pkey,
                                                    boolean t2pkey, Map<String, TableStats> stats,
                                                    Map<String, Integer> tableAliasToId) {
-        int card = 1;
-        // TODO: some code goes here
-        return card <= 0 ? 1 : card;
+        double card;
+        if (joinOp == Predicate.Op.EQUALS) {
+            // each tuple matches at most one tuple of a primary key side
+            if (t1pkey && t2pkey)
+                card = Math.min(card1, card2);
+            else if (t1pkey)
+                card = card2;
+            else if (t2pkey)
+                card = card1;
+            else
+                card = Math.max(card1, card2);
+        } else {
+            // range predicates keep a fixed fraction of the cross product
+            card = 0.3 * card1 * card2;
+        }
+        card = Math.min(card, Integer.MAX_VALUE);
+        return card <= 0 ? 1 : (int) card;
     }
 
     /**
@@ -198,11 +522,47 @@ public class JoinOptimizer {
             Map<String, TableStats> stats,
             Map<String, Double> filterSelectivities, boolean explain)
             throws ParsingException {
-        // Not necessary for labs 1 and 2.
+        // subqueries and tables without statistics have no costs to order
+        // by, so such queries keep the order the joins were given in
+        for (LogicalJoinNode j : joins) {
+            if (j instanceof LogicalSubplanJoinNode || !hasStats(j.t1Alias, stats)
+                    || !hasStats(j.t2Alias, stats))
+                return joins;
+        }
+
+        // the best left-deep plan of each set of joins, built from the best
+        // plans of its subsets one join smaller
+        PlanCache pc = new PlanCache();
+        for (int size = 1; size <= joins.size(); size++) {
+            for (Set<LogicalJoinNode> s : enumerateSubsets(joins, size)) {
+                CostCard best = null;
+                double bestCost = Double.POSITIVE_INFINITY;
+                for (LogicalJoinNode j : s) {
+                    CostCard cc = computeCostAndCardOfSubplan(stats, filterSelectivities,
+                            j, s, bestCost, pc);
+                    if (cc != null) {
+                        best = cc;
+                        bestCost = cc.cost;
+                    }
+                }
+                if (best != null)
+                    pc.addPlan(s, best.cost, best.card, best.plan);
+            }
+        }
+
+        List<LogicalJoinNode> order = pc.getOrder(new HashSet<>(joins));
+        // joins that cannot all be reached without a cross product
+        if (order == null)
+            return joins;
+        if (explain)
+            printJoins(order, pc, stats, filterSelectivities);
+        return order;
+    }
 
-        // TODO: some code goes here
-        // Replace the following.
-        return joins;
+    private boolean hasStats(String alias, Map<String, TableStats> stats) {
+        Integer tableId = p.getTableId(alias);
+        return tableId != null
+                && stats.get(Database.getCatalog().getTableName(tableId)) != null;
     }
 
     // ===================== Private Methods =================================
@@ -259,6 +619,10 @@ public class JoinOptimizer {
         double t1cost, t2cost;
         int t1card, t2card;
         boolean leftPkey, rightPkey;
+        // the scans of the tables that are not the subtree of prevBest,
+        // which are the only sides an index join can look up
+        OpIterator t1plan = this.p.getSubplan(j.t1Alias);
+        OpIterator t2plan = this.p.getSubplan(j.t2Alias);
 
         if (news.isEmpty()) { // base case -- both are base relations
             prevBest = new ArrayList<>();
@@ -289,6 +653,7 @@ public class JoinOptimizer {
 
             // estimate cost of right subtree
             if (doesJoin(prevBest, table1Alias)) { // j.t1 is in prevBest
+                t1plan = null;
                 t1cost = prevBestCost; // left side just has cost of whatever
                 // left
                 // subtree is
@@ -305,6 +670,7 @@ public class JoinOptimizer {
             } else if (doesJoin(prevBest, j.t2Alias)) { // j.t2 is in prevbest
                 // (both
                 // shouldn't be)
+                t2plan = null;
                 t2cost = prevBestCost; // left side just has cost of whatever
                 // left
                 // subtree is
@@ -323,10 +689,10 @@ public class JoinOptimizer {
         }
 
         // case where prevbest is left
-        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost);
+        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost, t2plan, stats);
 
         LogicalJoinNode j2 = j.swapInnerOuter();
-        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
+        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost, t1plan, stats);
         if (cost2 < cost1) {
             boolean tmp;
             j = j2;
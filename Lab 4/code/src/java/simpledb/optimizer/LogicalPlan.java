@@ -5,6 +5,7 @@ import simpledb.common.Catalog;
 import simpledb.common.Database;
 import simpledb.common.Type;
 import simpledb.execution.*;
+import simpledb.index.HashFile;
 import simpledb.storage.*;
 import simpledb.transaction.TransactionId;
 
@@ -89,6 +90,14 @@ public class LogicalPlan {
         return this.tableMap;
     }
 
+    /**
+     * @return the operator that scans and filters the table with the given
+     *         alias, once {@link #physicalPlan} has built it, or null
+     */
+    OpIterator getSubplan(String alias) {
+        return subplanMap.get(alias);
+    }
+
     /**
      * Add a new filter to the logical plan
      *
@@ -297,6 +306,38 @@ public class LogicalPlan {
         throw new ParsingException("Unknown predicate " + s);
     }
 
+    /**
+     * Returns the columns of a scanned table that the query refers to, in
+     * the select list, the WHERE clause, the GROUP BY or the ORDER BY, so
+     * that a ColumnScan of the table reads no other columns.
+     */
+    private int[] referencedColumns(LogicalScanNode table) {
+        Set<String> names = new HashSet<>();
+        for (LogicalSelectListNode si : selectList)
+            names.add(si.fname);
+        for (LogicalFilterNode lf : filters)
+            names.add(lf.tableAlias + "." + lf.fieldPureName);
+        for (LogicalJoinNode lj : joins) {
+            names.add(lj.t1Alias + "." + lj.f1PureName);
+            names.add(lj.t2Alias + "." + lj.f2PureName);
+        }
+        names.add(groupByField);
+        names.add(aggField);
+        names.add(oByField);
+
+        TupleDesc td = Database.getCatalog().getTupleDesc(table.t);
+        boolean all = names.contains("null.*") || names.contains(table.alias + ".*");
+        List<Integer> columns = new ArrayList<>();
+        for (int i = 0; i < td.numFields(); i++) {
+            if (all || names.contains(table.alias + "." + td.getFieldName(i)))
+                columns.add(i);
+        }
+        // a query like SELECT COUNT(*) still needs one column to count rows
+        if (columns.isEmpty())
+            columns.add(0);
+        return columns.stream().mapToInt(Integer::intValue).toArray();
+    }
+
     /**
      * Convert this LogicalPlan into a physicalPlan represented by a {@link OpIterator}.  Attempts to
      * find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
@@ -317,12 +358,18 @@ public class LogicalPlan {
         Map<String, String> equivMap = new HashMap<>();
         Map<String, Double> filterSelectivities = new HashMap<>();
         Map<String, TableStats> statsMap = new HashMap<>();
+        // the cost of the index scans that replace table scans
+        Map<String, Double> indexScanCosts = new HashMap<>();
 
         while (tableIt.hasNext()) {
             LogicalScanNode table = tableIt.next();
-            SeqScan ss = null;
+            OpIterator ss = null;
             try {
-                ss = new SeqScan(t, Database.getCatalog().getDatabaseFile(table.t).getId(), table.alias);
+                int id = Database.getCatalog().getDatabaseFile(table.t).getId();
+                if (Database.getCatalog().isColumnar(id))
+                    ss = new ColumnScan(t, id, table.alias, referencedColumns(table));
+                else
+                    ss = new SeqScan(t, id, table.alias);
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown table " + table.t);
             }
@@ -360,11 +407,37 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
-
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
+            // the statistics number the fields of the whole table, which the
+            // fields of a ColumnScan are not
+            int tableField = Database.getCatalog().getTupleDesc(this.getTableId(lf.tableAlias))
+                    .indexForFieldName(lf.fieldPureName);
+
+            // a filter on the key of a B+ tree or hash index can be answered
+            // by the index instead, when reading the matching pages costs
+            // less than a scan
+            double indexCost = s == null ? Double.POSITIVE_INFINITY
+                    : s.estimateIndexScanCost(tableField, lf.p, f);
+            if (subplan instanceof SeqScan && s != null && indexCost < s.estimateScanCost()) {
+                int tableId = this.getTableId(lf.tableAlias);
+                indexScanCosts.put(lf.tableAlias, indexCost);
+                if (Database.getCatalog().getDatabaseFile(tableId) instanceof HashFile)
+                    subplanMap.put(lf.tableAlias, new HashIndexScan(t, tableId, lf.tableAlias, f));
+                else
+                    subplanMap.put(lf.tableAlias, new IndexScan(t, tableId, lf.tableAlias,
+                            new IndexPredicate(lf.p, f)));
+            } else {
+                // the scan under the filters of this table skips the pages
+                // its zone map rules out; the Filter checks the tuples
+                OpIterator scan = subplan;
+                while (scan instanceof Filter)
+                    scan = ((Filter) scan).getChildren()[0];
+                if (scan instanceof SeqScan)
+                    ((SeqScan) scan).skipPages(p);
+                subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            }
 
-            double sel = s.estimateSelectivity(subplan.getTupleDesc().indexForFieldName(lf.fieldQuantifiedName), lf.p, f);
+            double sel = s.estimateSelectivity(tableField, lf.p, f);
             filterSelectivities.put(lf.tableAlias, filterSelectivities.get(lf.tableAlias) * sel);
 
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
@@ -374,6 +447,18 @@ public class LogicalPlan {
 
         joins = jo.orderJoins(statsMap, filterSelectivities, explain);
 
+        // estimated cardinality and cost of each subplan, which choose the
+        // algorithm of the joins over it
+        Map<String, Integer> cards = new HashMap<>();
+        Map<String, Double> costs = new HashMap<>();
+        for (LogicalScanNode table : tables) {
+            TableStats s = statsMap.get(Database.getCatalog().getTableName(table.t));
+            if (s != null) {
+                cards.put(table.alias, s.estimateTableCardinality(filterSelectivities.get(table.alias)));
+                costs.put(table.alias, indexScanCosts.getOrDefault(table.alias, s.estimateScanCost()));
+            }
+        }
+
         for (LogicalJoinNode lj : joins) {
             OpIterator plan1;
             OpIterator plan2;
@@ -406,7 +491,23 @@ public class LogicalPlan {
                 throw new ParsingException("Unknown table in WHERE clause " + lj.t2Alias);
 
             OpIterator j;
-            j = JoinOptimizer.instantiateJoin(lj, plan1, plan2);
+            if (isSubqueryJoin || !cards.containsKey(t1name) || !cards.containsKey(t2name)) {
+                j = JoinOptimizer.instantiateJoin(lj, plan1, plan2);
+                cards.remove(t1name);
+            } else {
+                int card1 = cards.get(t1name), card2 = cards.get(t2name);
+                double cost1 = costs.get(t1name), cost2 = costs.get(t2name);
+                j = JoinOptimizer.instantiateJoin(lj, plan1, plan2, card1, card2,
+                        cost1, cost2, statsMap);
+                Catalog catalog = Database.getCatalog();
+                boolean t1pkey = lj.f1PureName.equals(catalog.getPrimaryKey(getTableId(lj.t1Alias)));
+                boolean t2pkey = lj.f2PureName.equals(catalog.getPrimaryKey(getTableId(lj.t2Alias)));
+                cards.put(t1name, JoinOptimizer.estimateTableJoinCardinality(lj.p,
+                        lj.t1Alias, lj.t2Alias, lj.f1PureName, lj.f2PureName, card1, card2,
+                        t1pkey, t2pkey, statsMap, tableMap));
+                costs.put(t1name, jo.estimateJoinCost(lj, card1, card2, cost1, cost2,
+                        plan2, statsMap));
+            }
             subplanMap.put(t1name, j);
 
             if (!isSubqueryJoin) {
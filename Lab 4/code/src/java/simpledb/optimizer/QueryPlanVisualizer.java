@@ -11,11 +11,16 @@ import java.util.Iterator;
 public class QueryPlanVisualizer {
 
     static final String JOIN = "⨝";
+    static final String BLOCK_JOIN = "⨝(block)";
     static final String HASH_JOIN = "⨝(hash)";
+    static final String MERGE_JOIN = "⨝(merge)";
+    static final String INDEX_JOIN = "⨝(index)";
     static final String SELECT = "σ";
     static final String PROJECT = "π";
     static final String RENAME = "ρ";
     static final String SCAN = "scan";
+    static final String INDEX_SCAN = "index_scan";
+    static final String HASH_INDEX_SCAN = "hash_index_scan";
     static final String ORDERBY = "o";
     static final String GROUPBY = "g";
     static final String SPACE = "  ";
@@ -29,7 +34,7 @@ public class QueryPlanVisualizer {
         Operator o = (Operator) root;
         OpIterator[] children = o.getChildren();
 
-        if (o instanceof Join || o instanceof HashEquiJoin) {
+        if (joinSymbol(o) != null) {
             int d1 = this.calculateQueryPlanTreeDepth(children[0]);
             int d2 = this.calculateQueryPlanTreeDepth(children[1]);
             return Math.max(d1, d2) + 3;
@@ -65,17 +70,38 @@ public class QueryPlanVisualizer {
         int adjustDepth = currentDepth == 0 ? -1 : 0;
         SubTreeDescriptor thisNode = new SubTreeDescriptor(null);
 
-        if (queryPlan instanceof SeqScan) {
-            SeqScan s = (SeqScan) queryPlan;
-            String tableName = s.getTableName();
-            String alias = s.getAlias();
+        if (queryPlan instanceof SeqScan || queryPlan instanceof ColumnScan
+                || queryPlan instanceof IndexScan || queryPlan instanceof HashIndexScan) {
+            String tableName, alias;
+            String condition = "";
+            if (queryPlan instanceof SeqScan) {
+                tableName = ((SeqScan) queryPlan).getTableName();
+                alias = ((SeqScan) queryPlan).getAlias();
+            } else if (queryPlan instanceof ColumnScan) {
+                tableName = ((ColumnScan) queryPlan).getTableName();
+                alias = ((ColumnScan) queryPlan).getAlias();
+            } else if (queryPlan instanceof HashIndexScan) {
+                HashIndexScan hs = (HashIndexScan) queryPlan;
+                tableName = hs.getTableName();
+                alias = hs.getAlias();
+                condition = ", " + hs.getTupleDesc().getFieldName(hs.getKeyField())
+                        + " = " + hs.getKey();
+            } else {
+                IndexScan is = (IndexScan) queryPlan;
+                tableName = is.getTableName();
+                alias = is.getAlias();
+                condition = ", " + is.getTupleDesc().getFieldName(is.getKeyField())
+                        + " " + is.getIndexPredicate();
+            }
             //            TupleDesc td = s.getTupleDesc();
             if (!tableName.equals(alias))
                 alias = " " + alias;
             else
                 alias = "";
             thisNode.text = String
-                    .format("%1$s(%2$s)", SCAN, tableName + alias);
+                    .format("%1$s(%2$s)", queryPlan instanceof IndexScan ? INDEX_SCAN
+                                    : queryPlan instanceof HashIndexScan ? HASH_INDEX_SCAN : SCAN,
+                            tableName + alias + condition);
             if (SCAN.length() / 2 < parentUpperBarStartShift) {
                 thisNode.upBarPosition = currentStartPosition
                         + parentUpperBarStartShift;
@@ -106,19 +132,19 @@ public class QueryPlanVisualizer {
 
             Operator plan = (Operator) queryPlan;
             OpIterator[] children = plan.getChildren();
+            String symbol = joinSymbol(plan);
 
-            if (plan instanceof Join) {
-                Join j = (Join) plan;
-                TupleDesc td = j.getTupleDesc();
-                JoinPredicate jp = j.getJoinPredicate();
+            if (symbol != null) {
+                JoinPredicate jp = joinPredicate(plan);
+                TupleDesc td = plan.getTupleDesc();
                 String field1 = td.getFieldName(jp.getField1());
                 String field2 = td.getFieldName(jp.getField2()
                         + children[0].getTupleDesc().numFields());
-                thisNode.text = String.format("%1$s(%2$s),card:%3$d", JOIN,
-                        field1 + jp.getOperator() + field2, j.getEstimatedCardinality());
+                thisNode.text = String.format("%1$s(%2$s),card:%3$d", symbol,
+                        field1 + jp.getOperator() + field2, plan.getEstimatedCardinality());
                 int upBarShift = parentUpperBarStartShift;
-                if (JOIN.length() / 2 > parentUpperBarStartShift)
-                    upBarShift = JOIN.length() / 2;
+                if (symbol.length() / 2 > parentUpperBarStartShift)
+                    upBarShift = symbol.length() / 2;
 
                 SubTreeDescriptor left = this.buildTree(queryPlanDepth,
                         currentDepth + adjustDepth + 3, children[0],
@@ -128,35 +154,7 @@ public class QueryPlanVisualizer {
                         currentStartPosition + left.width + SPACE.length(), 0);
                 thisNode.upBarPosition = (left.upBarPosition + right.upBarPosition) / 2;
                 thisNode.textStartPosition = thisNode.upBarPosition
-                        - JOIN.length() / 2;
-                thisNode.width = Math.max(
-                        left.width + right.width + SPACE.length(),
-                        thisNode.textStartPosition + thisNode.text.length()
-                                - currentStartPosition);
-                thisNode.leftChild = left;
-                thisNode.rightChild = right;
-                thisNode.height = currentDepth;
-            } else if (plan instanceof HashEquiJoin) {
-                HashEquiJoin j = (HashEquiJoin) plan;
-                JoinPredicate jp = j.getJoinPredicate();
-                TupleDesc td = j.getTupleDesc();
-                String field1 = td.getFieldName(jp.getField1());
-                String field2 = td.getFieldName(jp.getField2()
-                        + children[0].getTupleDesc().numFields());
-                thisNode.text = String.format("%1$s(%2$s),card:%3$d", HASH_JOIN, field1
-                        + jp.getOperator() + field2, j.getEstimatedCardinality());
-                int upBarShift = parentUpperBarStartShift;
-                if (HASH_JOIN.length() / 2 > parentUpperBarStartShift)
-                    upBarShift = HASH_JOIN.length() / 2;
-                SubTreeDescriptor left = this.buildTree(queryPlanDepth,
-                        currentDepth + 3 + adjustDepth, children[0],
-                        currentStartPosition, upBarShift);
-                SubTreeDescriptor right = this.buildTree(queryPlanDepth,
-                        currentDepth + 3 + adjustDepth, children[1],
-                        currentStartPosition + left.width + SPACE.length(), 0);
-                thisNode.upBarPosition = (left.upBarPosition + right.upBarPosition) / 2;
-                thisNode.textStartPosition = thisNode.upBarPosition
-                        - HASH_JOIN.length() / 2;
+                        - symbol.length() / 2;
                 thisNode.width = Math.max(
                         left.width + right.width + SPACE.length(),
                         thisNode.textStartPosition + thisNode.text.length()
@@ -330,6 +328,32 @@ public class QueryPlanVisualizer {
         return thisNode;
     }
 
+    /**
+     * @return the symbol for a join operator, which shows its algorithm, or
+     *         null if the operator is not a join
+     */
+    private static String joinSymbol(Operator o) {
+        if (o instanceof Join)
+            return ((Join) o).getMemoryBudget() > 1 ? BLOCK_JOIN : JOIN;
+        if (o instanceof HashEquiJoin)
+            return HASH_JOIN;
+        if (o instanceof SortMergeJoin)
+            return MERGE_JOIN;
+        if (o instanceof IndexNestedLoopJoin)
+            return INDEX_JOIN;
+        return null;
+    }
+
+    private static JoinPredicate joinPredicate(Operator o) {
+        if (o instanceof Join)
+            return ((Join) o).getJoinPredicate();
+        if (o instanceof HashEquiJoin)
+            return ((HashEquiJoin) o).getJoinPredicate();
+        if (o instanceof SortMergeJoin)
+            return ((SortMergeJoin) o).getJoinPredicate();
+        return ((IndexNestedLoopJoin) o).getJoinPredicate();
+    }
+
     private void printTree(SubTreeDescriptor root, char[] buffer, int width) {
         if (root == null)
             return;
@@ -1,14 +1,23 @@
 package simpledb.optimizer;
 
 import simpledb.common.Database;
+import simpledb.common.DbException;
 import simpledb.common.Type;
 import simpledb.execution.Predicate;
-import simpledb.execution.SeqScan;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeInternalPage;
+import simpledb.index.HashBucketPage;
+import simpledb.index.HashFile;
 import simpledb.storage.*;
 import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionAbortedException;
 
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
@@ -66,6 +75,15 @@ public class TableStats {
      */
     static final int NUM_HIST_BINS = 100;
 
+    private final DbFile file;
+    private final int ioCostPerPage;
+    private final int ntups;
+    // pages a scan of the table reads
+    private final int numPages;
+    // one histogram per column, of the kind that fits its type
+    private final IntHistogram[] intHists;
+    private final StringHistogram[] stringHists;
+
     /**
      * Create a new TableStats object, that keeps track of statistics on each
      * column of a table
@@ -75,14 +93,65 @@ public class TableStats {
      *                      sequential-scan IO and disk seeks.
      */
     public TableStats(int tableid, int ioCostPerPage) {
-        // For this function, you'll have to get the
-        // DbFile for the table in question,
-        // then scan through its tuples and calculate
-        // the values that you need.
-        // You should try to do this reasonably efficiently, but you don't
-        // necessarily have to (for example) do everything
-        // in a single scan of the table.
-        // TODO: some code goes here
+        this.ioCostPerPage = ioCostPerPage;
+        this.file = Database.getCatalog().getDatabaseFile(tableid);
+        TupleDesc td = file.getTupleDesc();
+        int n = td.numFields();
+        intHists = new IntHistogram[n];
+        stringHists = new StringHistogram[n];
+
+        // the first scan finds the range of each int column, which the
+        // histograms are built over by the second
+        int[] mins = new int[n];
+        int[] maxs = new int[n];
+        Arrays.fill(mins, Integer.MAX_VALUE);
+        Arrays.fill(maxs, Integer.MIN_VALUE);
+        Set<PageId> pages = new HashSet<>();
+        int count = 0;
+        Transaction t = new Transaction();
+        t.start();
+        try {
+            DbFileIterator it = file.iterator(t.getId());
+            it.open();
+            while (it.hasNext()) {
+                Tuple tup = it.next();
+                count++;
+                if (tup.getRecordId() != null)
+                    pages.add(tup.getRecordId().getPageId());
+                for (int i = 0; i < n; i++) {
+                    if (td.getFieldType(i) == Type.INT_TYPE) {
+                        int v = ((IntField) tup.getField(i)).getValue();
+                        mins[i] = Math.min(mins[i], v);
+                        maxs[i] = Math.max(maxs[i], v);
+                    }
+                }
+            }
+            for (int i = 0; i < n; i++) {
+                if (td.getFieldType(i) == Type.INT_TYPE)
+                    intHists[i] = count == 0 ? new IntHistogram(1, 0, 0)
+                            : new IntHistogram(NUM_HIST_BINS, mins[i], maxs[i]);
+                else
+                    stringHists[i] = new StringHistogram(NUM_HIST_BINS);
+            }
+            it.rewind();
+            while (it.hasNext()) {
+                Tuple tup = it.next();
+                for (int i = 0; i < n; i++) {
+                    if (intHists[i] != null)
+                        intHists[i].addValue(((IntField) tup.getField(i)).getValue());
+                    else
+                        stringHists[i].addValue(((StringField) tup.getField(i)).getValue());
+                }
+            }
+            it.close();
+            t.commit();
+        } catch (DbException | TransactionAbortedException | IOException e) {
+            throw new RuntimeException("could not compute statistics of table " + tableid, e);
+        }
+        this.ntups = count;
+        // a HeapFile scan reads empty pages too; for other files, count the
+        // pages the tuples are on
+        this.numPages = file instanceof HeapFile ? ((HeapFile) file).numPages() : pages.size();
     }
 
     /**
@@ -98,8 +167,63 @@ public class TableStats {
      * @return The estimated cost of scanning the table.
      */
     public double estimateScanCost() {
-        // TODO: some code goes here
-        return 0;
+        return (double) numPages * ioCostPerPage;
+    }
+
+    /**
+     * Estimates the cost of finding the tuples that satisfy <tt>field op
+     * constant</tt> through the table's index. A B+ tree has to read the
+     * pages on the path from the root to the first matching leaf and then
+     * the leaves the matching tuples are on. A hash index reads the header,
+     * a directory page and the pages of one bucket. Only tables stored in a
+     * {@link BTreeFile} or {@link HashFile} keyed on the field have such an
+     * index; neither helps with NOT_EQUALS or LIKE, and a hash index helps
+     * only with EQUALS.
+     *
+     * @return the estimated cost, or Double.POSITIVE_INFINITY if the index
+     *         cannot be used for the predicate
+     */
+    public double estimateIndexScanCost(int field, Predicate.Op op, Field constant) {
+        if (!hasIndex(field, op))
+            return Double.POSITIVE_INFINITY;
+        return indexCost(field, estimateSelectivity(field, op, constant));
+    }
+
+    /**
+     * Estimates the cost of one lookup through the table's index for the
+     * tuples that satisfy <tt>field op v</tt>, for a value v not known in
+     * advance, as an index nested loops join makes for each outer tuple.
+     * The cost is that of {@link #estimateIndexScanCost} at the average
+     * selectivity of the field.
+     *
+     * @return the estimated cost, or Double.POSITIVE_INFINITY if the index
+     *         cannot be used for the predicate
+     */
+    public double estimateIndexProbeCost(int field, Predicate.Op op) {
+        if (!hasIndex(field, op))
+            return Double.POSITIVE_INFINITY;
+        return indexCost(field, avgSelectivity(field, op));
+    }
+
+    private boolean hasIndex(int field, Predicate.Op op) {
+        if (file instanceof HashFile)
+            return ((HashFile) file).keyField() == field && op == Predicate.Op.EQUALS;
+        return file instanceof BTreeFile && ((BTreeFile) file).keyField() == field
+                && op != Predicate.Op.NOT_EQUALS && op != Predicate.Op.LIKE;
+    }
+
+    private double indexCost(int field, double selectivity) {
+        if (file instanceof HashFile) {
+            double pages = Math.ceil(selectivity * ntups
+                    / HashBucketPage.maxTuples(file.getTupleDesc()));
+            return (2 + Math.max(1.0, pages)) * ioCostPerPage;
+        }
+        int fanout = BTreeInternalPage.maxKeys(file.getTupleDesc().getFieldType(field)) + 1;
+        int height = 1;
+        for (long reach = fanout; reach < numPages; reach *= fanout)
+            height++;
+        double leaves = Math.ceil(selectivity * numPages);
+        return (height + Math.max(1.0, leaves)) * ioCostPerPage;
     }
 
     /**
@@ -111,8 +235,7 @@ public class TableStats {
      *         selectivityFactor
      */
     public int estimateTableCardinality(double selectivityFactor) {
-        // TODO: some code goes here
-        return 0;
+        return (int) Math.round(ntups * selectivityFactor);
     }
 
     /**
@@ -125,8 +248,18 @@ public class TableStats {
      *              expected selectivity. You may estimate this value from the histograms.
      */
     public double avgSelectivity(int field, Predicate.Op op) {
-        // TODO: some code goes here
-        return 1.0;
+        double eq = intHists[field] != null ? intHists[field].avgSelectivity()
+                : stringHists[field].avgSelectivity();
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                return eq;
+            case NOT_EQUALS:
+                return 1.0 - eq;
+            default:
+                // a range predicate on a random value keeps half on average
+                return 0.5;
+        }
     }
 
     /**
@@ -140,16 +273,16 @@ public class TableStats {
      *         predicate
      */
     public double estimateSelectivity(int field, Predicate.Op op, Field constant) {
-        // TODO: some code goes here
-        return 1.0;
+        if (intHists[field] != null)
+            return intHists[field].estimateSelectivity(op, ((IntField) constant).getValue());
+        return stringHists[field].estimateSelectivity(op, ((StringField) constant).getValue());
     }
 
     /**
      * return the total number of tuples in this table
      */
     public int totalTuples() {
-        // TODO: some code goes here
-        return 0;
+        return ntups;
     }
 
 }
@@ -0,0 +1,146 @@
+package simpledb.storage;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+
+/**
+ * Adaptive Replacement Cache (Megiddo and Modha). Resident pages are split
+ * between T1 (seen once recently) and T2 (seen at least twice), each kept in
+ * LRU order. Ghost lists B1 and B2 remember the ids of pages recently evicted
+ * from T1 and T2; a miss that hits a ghost list shifts the target size p of
+ * T1 toward whichever list would have kept the page. Long sequential scans
+ * therefore only churn T1 and leave the frequently used pages in T2 alone.
+ * <p>
+ * Pages excluded from eviction are parked outside T1/T2 and rejoin their
+ * list when they become evictable again, so every operation is O(1).
+ */
+public class ArcPolicy implements ReplacementPolicy {
+
+    private final int c;
+    private int p = 0;
+
+    // iteration order is LRU first
+    private final LinkedHashSet<PageId> t1 = new LinkedHashSet<>();
+    private final LinkedHashSet<PageId> t2 = new LinkedHashSet<>();
+    private final LinkedHashSet<PageId> b1 = new LinkedHashSet<>();
+    private final LinkedHashSet<PageId> b2 = new LinkedHashSet<>();
+
+    // non-evictable resident pages, mapped to true if they belong to T2
+    private final Map<PageId, Boolean> pinned = new HashMap<>();
+    private int pinnedInT2 = 0;
+
+    /**
+     * @param capacity the number of pages the buffer pool can hold
+     */
+    public ArcPolicy(int capacity) {
+        this.c = Math.max(capacity, 1);
+    }
+
+    private int t1Size() {
+        return t1.size() + pinned.size() - pinnedInT2;
+    }
+
+    private int t2Size() {
+        return t2.size() + pinnedInT2;
+    }
+
+    private static PageId lru(LinkedHashSet<PageId> list) {
+        Iterator<PageId> it = list.iterator();
+        return it.hasNext() ? it.next() : null;
+    }
+
+    public void recordAccess(PageId pid) {
+        if (t1.remove(pid) || t2.remove(pid)) {
+            t2.add(pid);
+        } else {
+            Boolean inT2 = pinned.get(pid);
+            if (inT2 != null && !inT2) {
+                pinned.put(pid, true);
+                pinnedInT2++;
+            }
+        }
+    }
+
+    public void recordInsert(PageId pid) {
+        if (t1.contains(pid) || t2.contains(pid) || pinned.containsKey(pid)) {
+            recordAccess(pid);
+            return;
+        }
+        if (b1.remove(pid)) {
+            // T1 was too small to keep this page
+            p = Math.min(c, p + Math.max(b2.size() / Math.max(b1.size(), 1), 1));
+            t2.add(pid);
+        } else if (b2.remove(pid)) {
+            // T2 was too small to keep this page
+            p = Math.max(0, p - Math.max(b1.size() / Math.max(b2.size(), 1), 1));
+            t2.add(pid);
+        } else {
+            t1.add(pid);
+        }
+        trimGhosts();
+    }
+
+    public void recordRemove(PageId pid) {
+        if (t1.remove(pid)) {
+            b1.add(pid);
+        } else if (t2.remove(pid)) {
+            b2.add(pid);
+        } else {
+            Boolean inT2 = pinned.remove(pid);
+            if (inT2 == null)
+                return;
+            if (inT2) {
+                pinnedInT2--;
+                b2.add(pid);
+            } else {
+                b1.add(pid);
+            }
+        }
+        trimGhosts();
+    }
+
+    public void setEvictable(PageId pid, boolean evictable) {
+        if (evictable) {
+            Boolean inT2 = pinned.remove(pid);
+            if (inT2 == null)
+                return;
+            if (inT2) {
+                pinnedInT2--;
+                t2.add(pid);
+            } else {
+                t1.add(pid);
+            }
+        } else if (t1.remove(pid)) {
+            pinned.put(pid, false);
+        } else if (t2.remove(pid)) {
+            pinned.put(pid, true);
+            pinnedInT2++;
+        }
+    }
+
+    public PageId victim() {
+        if (!t1.isEmpty() && (t1Size() > p || t2.isEmpty()))
+            return lru(t1);
+        if (!t2.isEmpty())
+            return lru(t2);
+        return null;
+    }
+
+    /**
+     * Keep |T1| + |B1| <= c and |T1| + |T2| + |B1| + |B2| <= 2c.
+     */
+    private void trimGhosts() {
+        while (!b1.isEmpty() && t1Size() + b1.size() > c)
+            b1.remove(lru(b1));
+        while (t1Size() + t2Size() + b1.size() + b2.size() > 2 * c) {
+            if (!b2.isEmpty())
+                b2.remove(lru(b2));
+            else if (!b1.isEmpty())
+                b1.remove(lru(b1));
+            else
+                break;
+        }
+    }
+}
@@ -9,8 +9,18 @@ import simpledb.transaction.TransactionId;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntFunction;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -20,6 +30,12 @@ import java.util.concurrent.ConcurrentMap;
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p>
+ * The page table is split into hash partitions, each with its own latch and
+ * replacement policy, so that lookups of unrelated pages never contend.
+ * Pages are read from disk outside of any latch; a frame that is still
+ * being loaded acts as a placeholder, and concurrent requests for the same
+ * page wait for that one read instead of issuing their own.
  *
  * @Threadsafe, all fields are final
  */
@@ -38,20 +54,115 @@ public class BufferPool {
      */
     public static final int DEFAULT_PAGES = 50;
 
-    private final Random random = new Random();
-    final int numPages;   // number of pages -- currently, not enforced
-    final ConcurrentMap<PageId, Page> pages; // hash table storing current pages in memory
+    /**
+     * Default number of partitions of the page table.
+     */
+    public static final int DEFAULT_PARTITIONS = 16;
+
+    /**
+     * Background thread that reads prefetched pages, shared by all pools.
+     * Read-ahead is sequential I/O, so a single thread keeps the disk busy.
+     */
+    private static final ExecutorService PREFETCH_EXECUTOR = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "BufferPool-prefetch");
+        t.setDaemon(true);
+        return t;
+    });
+
+    final int numPages;
+    private final Partition[] partitions;
+    // frames in use or reserved across all partitions, never above numPages
+    private final AtomicInteger numFrames = new AtomicInteger();
     private LockManager lockManager;
+    // transaction table: the pages each running transaction may have
+    // dirtied, i.e. fetched with write permission or changed through
+    // insertTuple/deleteTuple; commit and abort only look at these
+    private final ConcurrentHashMap<TransactionId, Set<PageId>> writeSets =
+            new ConcurrentHashMap<>();
+    // commits and aborts only touch the pages of their own transaction and
+    // share this lock; flushAllPages, which the LogFile calls while it
+    // holds the pool's monitor, takes it exclusively
+    private final ReadWriteLock flushLock = new ReentrantReadWriteLock();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    // prefetched pages that no getPage has asked for yet
+    private final Set<PageId> prefetched = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger pendingPrefetches = new AtomicInteger();
+    private final AtomicLong prefetches = new AtomicLong();
+    private final AtomicLong prefetchHits = new AtomicLong();
+    private final AtomicLong wastedPrefetches = new AtomicLong();
 
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * Creates a BufferPool that caches up to numPages pages, using CLOCK
+     * replacement.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
+        this(numPages, ClockPolicy::new);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages and picks pages
+     * to evict with the given replacement policy.
+     *
+     * @param numPages      maximum number of pages in this buffer pool.
+     * @param policyFactory creates the policy for a pool of the given
+     *                      capacity, e.g. {@code ArcPolicy::new}
+     */
+    public BufferPool(int numPages, IntFunction<ReplacementPolicy> policyFactory) {
+        this(numPages, policyFactory, DEFAULT_PARTITIONS);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages in a page table
+     * split into the given number of partitions. Each partition gets its own
+     * replacement policy; the capacity limit applies to the pool as a whole.
+     *
+     * @param numPages      maximum number of pages in this buffer pool.
+     * @param policyFactory creates the policy for a partition of the given
+     *                      capacity
+     * @param numPartitions number of partitions, rounded up to a power of two
+     */
+    public BufferPool(int numPages, IntFunction<ReplacementPolicy> policyFactory,
+                      int numPartitions) {
+        int n = Integer.highestOneBit(Math.max(numPartitions, 1));
+        if (n < numPartitions)
+            n <<= 1;
         this.numPages = numPages;
-        this.pages = new ConcurrentHashMap<>();
-        this.lockManager = new LockManager();
+        this.partitions = new Partition[n];
+        int share = Math.max(1, (numPages + n - 1) / n);
+        for (int i = 0; i < n; i++)
+            partitions[i] = new Partition(policyFactory.apply(share));
+        // the victim of a deadlock is the transaction with the least work to undo
+        this.lockManager = new LockManager(this::writeSetSize);
+    }
+
+    /**
+     * One hash partition of the page table. A frame is a future that is
+     * completed once the page has been read, so readers of a page that is
+     * still loading simply wait on it. All fields are guarded by the
+     * partition's monitor, which is never held during disk I/O.
+     */
+    private static class Partition {
+        final Map<PageId, CompletableFuture<Page>> frames = new HashMap<>();
+        final ReplacementPolicy policy;
+
+        Partition(ReplacementPolicy policy) {
+            this.policy = policy;
+        }
+    }
+
+    private int partitionIndex(PageId pid) {
+        int h = pid.hashCode();
+        return (h ^ (h >>> 16)) & (partitions.length - 1);
+    }
+
+    private Partition partitionOf(PageId pid) {
+        return partitions[partitionIndex(pid)];
     }
 
     public static int getPageSize() {
@@ -68,6 +179,63 @@ public class BufferPool {
         BufferPool.pageSize = DEFAULT_PAGE_SIZE;
     }
 
+    /**
+     * @return the number of getPage calls served from memory
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of getPage calls that had to read the page from disk
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of pages evicted to make room for other pages
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * @return the number of pages read by prefetchPage
+     */
+    public long getPrefetchCount() {
+        return prefetches.get();
+    }
+
+    /**
+     * @return the number of prefetched pages that were later requested
+     */
+    public long getPrefetchHitCount() {
+        return prefetchHits.get();
+    }
+
+    /**
+     * @return the number of prefetched pages evicted before anyone asked
+     *         for them
+     */
+    public long getWastedPrefetchCount() {
+        return wastedPrefetches.get();
+    }
+
+    /**
+     * @return the number of transactions aborted to break a deadlock
+     */
+    public long getDeadlockCount() {
+        return lockManager.getDeadlockCount();
+    }
+
+    /**
+     * @return the total time transactions have spent waiting for page locks
+     */
+    public long getLockWaitMillis() {
+        return lockManager.getLockWaitMillis();
+    }
+
     /**
      * Retrieve the specified page with the associated permissions.
      * Will acquire a lock and may block if that lock is held by another
@@ -85,34 +253,265 @@ public class BufferPool {
      */
     public Page getPage(TransactionId tid, PageId pid, Permissions perm)
             throws TransactionAbortedException, DbException {
-        // XXX Yuan points out that HashMap is not synchronized, so this is buggy.
-        // XXX TODO(ghuo): do we really know enough to implement NO STEAL here?
-        //     won't we still evict pages?
-        Page p;
+        return getPage(tid, pid, perm, null);
+    }
+
+    /**
+     * Retrieve the specified page with the associated permissions, reading
+     * it into a frame of the given ring if it is not in the buffer pool.
+     *
+     * @param tid  the ID of the transaction requesting the page
+     * @param pid  the ID of the requested page
+     * @param perm the requested permissions on the page
+     * @param ring the ring of the scan requesting the page, or null to take
+     *             frames from the pool as usual
+     * @see #ringForScan(int)
+     */
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm, BufferRing ring)
+            throws TransactionAbortedException, DbException {
         boolean lockType = perm == Permissions.READ_ONLY ? false : true;
-        synchronized (this) {
-            boolean acquired = false;
-            long stratTime = System.currentTimeMillis();
-            long waitTime = 2000;
-            while (!acquired) {
-                long currTime = System.currentTimeMillis();
-                if (currTime - stratTime >= waitTime) {
-                    throw new TransactionAbortedException();
+        lockManager.acquireLock(tid, pid, lockType);
+        if (lockType)
+            addToWriteSet(tid, pid);
+
+        Partition part = partitionOf(pid);
+        while (true) {
+            CompletableFuture<Page> frame;
+            synchronized (part) {
+                frame = part.frames.get(pid);
+                if (frame != null)
+                    part.policy.recordAccess(pid);
+            }
+            if (frame != null) {
+                recordHit(pid);
+                return awaitFrame(frame);
+            }
+
+            // make room first; eviction may need the latches of other partitions
+            reserveFrame(pid, ring);
+            frame = installFrame(part, pid);
+            if (frame != null) {
+                if (ring != null)
+                    ring.add(pid);
+                misses.incrementAndGet();
+                return loadFrame(part, pid, frame);
+            }
+            // somebody else started loading the page in the meantime
+        }
+    }
+
+    private void recordHit(PageId pid) {
+        hits.incrementAndGet();
+        if (prefetched.remove(pid))
+            prefetchHits.incrementAndGet();
+    }
+
+    /**
+     * Put a placeholder frame for the page into its partition, using a frame
+     * already reserved by the caller. If the page is already there, the
+     * reservation is returned instead.
+     *
+     * @return the placeholder, which the caller must fill with loadFrame,
+     *         or null if the page is already resident or being loaded
+     */
+    private CompletableFuture<Page> installFrame(Partition part, PageId pid) {
+        synchronized (part) {
+            if (part.frames.containsKey(pid)) {
+                numFrames.decrementAndGet();
+                return null;
+            }
+            CompletableFuture<Page> frame = new CompletableFuture<>();
+            part.frames.put(pid, frame);
+            part.policy.recordInsert(pid);
+            // a frame cannot be evicted before its page has arrived
+            part.policy.setEvictable(pid, false);
+            return frame;
+        }
+    }
+
+    /**
+     * Read the page into a placeholder frame created by installFrame, outside
+     * of any latch. If the read fails the frame is given up again.
+     */
+    private Page loadFrame(Partition part, PageId pid, CompletableFuture<Page> frame) {
+        try {
+            Page p = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+            synchronized (part) {
+                // under the latch, so an evictor never sees a loaded but pinned frame
+                if (part.frames.get(pid) == frame)
+                    part.policy.setEvictable(pid, true);
+                frame.complete(p);
+            }
+            return p;
+        } catch (RuntimeException e) {
+            synchronized (part) {
+                if (part.frames.remove(pid, frame)) {
+                    part.policy.recordRemove(pid);
+                    numFrames.decrementAndGet();
                 }
-                acquired = lockManager.acquireLock(tid, pid, lockType);
             }
-            p = pages.get(pid);
-            if (p == null) {
-                if (pages.size() >= numPages) {
-                    evictPage();
+            frame.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Start reading a page into the buffer pool in the background, so that
+     * a later getPage finds it there. No lock is taken: the page only becomes
+     * visible to a transaction through getPage, which locks it as usual.
+     * The request is dropped if the page is already resident, if too many
+     * prefetches are outstanding, or if no clean page can be evicted to make
+     * room for it.
+     *
+     * @param pid the page that is expected to be requested soon
+     */
+    public void prefetchPage(PageId pid) {
+        prefetchPage(pid, null);
+    }
+
+    /**
+     * Start reading a page in the background into a frame of the given ring.
+     *
+     * @param pid  the page that is expected to be requested soon
+     * @param ring the ring of the scan that will request it, or null
+     */
+    public void prefetchPage(PageId pid, BufferRing ring) {
+        Partition part = partitionOf(pid);
+        synchronized (part) {
+            if (part.frames.containsKey(pid))
+                return;
+        }
+        if (pendingPrefetches.incrementAndGet() > Math.max(1, numPages / 4)) {
+            pendingPrefetches.decrementAndGet();
+            return;
+        }
+        try {
+            PREFETCH_EXECUTOR.execute(() -> {
+                try {
+                    reserveFrame(pid, ring);
+                    // before the frame appears, so that no getPage can miss it
+                    prefetched.add(pid);
+                    CompletableFuture<Page> frame = installFrame(part, pid);
+                    if (frame == null) {
+                        prefetched.remove(pid);
+                    } else {
+                        if (ring != null)
+                            ring.add(pid);
+                        prefetches.incrementAndGet();
+                        loadFrame(part, pid, frame);
+                    }
+                } catch (DbException | RuntimeException e) {
+                    // only a hint; getPage will report any real problem
+                    prefetched.remove(pid);
+                } finally {
+                    pendingPrefetches.decrementAndGet();
                 }
+            });
+        } catch (RejectedExecutionException e) {
+            pendingPrefetches.decrementAndGet();
+        }
+    }
+
+    /**
+     * Wait for a frame to be loaded and return its page, rethrowing the
+     * failure of the read that was supposed to fill it.
+     */
+    private static Page awaitFrame(CompletableFuture<Page> frame) {
+        try {
+            return frame.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw e;
+        }
+    }
+
+    /**
+     * Choose the buffer access strategy for a sequential scan. Tables that
+     * fit comfortably are cached like any other pages. Larger tables, which
+     * would push out most of the working set of other transactions, are
+     * read through a ring of a few frames instead.
+     *
+     * @param tablePages the number of pages the scan will read
+     * @return a new ring for the scan, or null if the scan should use the
+     *         pool normally
+     */
+    public BufferRing ringForScan(int tablePages) {
+        if (tablePages <= numPages * 3 / 4)
+            return null;
+        return new BufferRing(Math.min(BufferRing.MAX_SIZE, numPages / 4));
+    }
+
+    /**
+     * Claim one frame for a page read through the given ring. Once the ring
+     * is full this reuses the frame of the ring's oldest page; if that page
+     * cannot be dropped, a frame is claimed from the pool as usual.
+     */
+    private void reserveFrame(PageId pid, BufferRing ring) throws DbException {
+        if (ring != null) {
+            PageId old;
+            while ((old = ring.recycle()) != null) {
+                if (evictIfClean(old))
+                    return;
+            }
+        }
+        reserveFrame(pid);
+    }
+
+    /**
+     * Drop a page from the pool if it is loaded and clean, handing its frame
+     * over to the caller instead of releasing it.
+     *
+     * @return false if the page is not resident, still loading or dirty
+     */
+    private boolean evictIfClean(PageId pid) {
+        Partition part = partitionOf(pid);
+        synchronized (part) {
+            CompletableFuture<Page> frame = part.frames.get(pid);
+            if (frame == null)
+                return false;
+            Page p = frame.getNow(null);
+            if (p == null || p.isDirty() != null)
+                return false;
+            part.frames.remove(pid);
+            part.policy.recordRemove(pid);
+            if (prefetched.remove(pid))
+                wastedPrefetches.incrementAndGet();
+            evictions.incrementAndGet();
+            return true;
+        }
+    }
 
-                p = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
-                pages.put(pid, p);
+    /**
+     * Claim one frame of the pool's capacity, evicting pages if the pool
+     * is full. Must not be called while holding a partition latch.
+     *
+     * @param pid the page the frame is for; eviction starts in its partition
+     */
+    private void reserveFrame(PageId pid) throws DbException {
+        while (true) {
+            int n = numFrames.get();
+            if (n < numPages) {
+                if (numFrames.compareAndSet(n, n + 1))
+                    return;
+            } else {
+                evictPage(partitionIndex(pid));
             }
         }
+    }
 
-        return p;
+    /**
+     * Acquire a lock for a transaction without reading a page, for ids such
+     * as a ColumnFile's table lock that do not name a page. The lock is held
+     * until the transaction completes.
+     *
+     * @param tid  the ID of the transaction requesting the lock
+     * @param pid  the ID to lock
+     * @param perm READ_ONLY for a shared lock, READ_WRITE for an exclusive one
+     */
+    public void lock(TransactionId tid, PageId pid, Permissions perm)
+            throws TransactionAbortedException {
+        lockManager.acquireLock(tid, pid, perm == Permissions.READ_WRITE);
     }
 
     /**
@@ -153,15 +552,27 @@ public class BufferPool {
      * @throws IOException
      */
     public void transactionComplete(TransactionId tid, boolean commit) throws IOException {
-        if (commit) {
-            flushPages(tid);
-        } else {
-            restorePages(tid);
-        }
-        for (PageId pid : pages.keySet()) {
-            if (holdsLock(tid, pid)) {
-                unsafeReleasePage(tid, pid);
+        Set<Integer> tables = new HashSet<>();
+        try {
+            if (commit) {
+                Set<PageId> pids = writeSets.get(tid);
+                if (pids != null)
+                    pids.forEach(pid -> tables.add(pid.getTableId()));
+                flushPages(tid);
+            } else {
+                restorePages(tid);
             }
+        } finally {
+            lockManager.releaseAllLocks(tid);
+        }
+
+        // column tables fold their delta in once it has grown large enough;
+        // the merge waits for the other transactions using the table, so it
+        // runs in the background rather than holding up this commit
+        for (int tableid : tables) {
+            DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+            if (file instanceof ColumnFile)
+                ((ColumnFile) file).scheduleMerge();
         }
     }
 
@@ -188,26 +599,7 @@ public class BufferPool {
         // to.
 
         List<Page> dirtypages = file.insertTuple(tid, t);
-
-        synchronized (this) {
-            for (Page p : dirtypages) {
-                p.markDirty(true, tid);
-
-                //System.out.println("ADDING TUPLE TO PAGE " + p.getId().pageno() + " WITH HASH CODE " + p.getId().hashCode());
-
-                // if page in pool already, done.
-                if (pages.get(p.getId()) != null) {
-                    //replace old page with new one in case addTuple returns a new copy of the page
-                    pages.put(p.getId(), p);
-                } else {
-
-                    // put page in pool
-                    if (pages.size() >= numPages)
-                        evictPage();
-                    pages.put(p.getId(), p);
-                }
-            }
-        }
+        cacheDirtyPages(tid, dirtypages);
     }
 
     /**
@@ -227,26 +619,69 @@ public class BufferPool {
             throws DbException, IOException, TransactionAbortedException {
         DbFile file = Database.getCatalog().getDatabaseFile(t.getRecordId().getPageId().getTableId());
         List<Page> dirtypages = file.deleteTuple(tid, t);
+        cacheDirtyPages(tid, dirtypages);
+    }
 
-        synchronized (this) {
-            for (Page p : dirtypages) {
-                p.markDirty(true, tid);
-
-                // if page in pool already, done.
-                if (pages.get(p.getId()) != null) {
-                    //replace old page with new one in case deleteTuple returns a new copy of the page
-                    pages.put(p.getId(), p);
+    /**
+     * Marks the pages dirtied by an insert or delete as dirty and makes sure
+     * the buffer pool holds exactly those versions. Dirty pages are excluded
+     * from eviction until they are flushed or restored (NO STEAL).
+     */
+    private void cacheDirtyPages(TransactionId tid, List<Page> dirtypages)
+            throws DbException {
+        for (Page p : dirtypages) {
+            p.markDirty(true, tid);
+            PageId pid = p.getId();
+            addToWriteSet(tid, pid);
+            Partition part = partitionOf(pid);
+
+            boolean resident;
+            synchronized (part) {
+                resident = part.frames.containsKey(pid);
+            }
+            if (!resident)
+                reserveFrame(pid);
+
+            synchronized (part) {
+                //replace old page with new one in case the file returns a new copy of the page
+                CompletableFuture<Page> old = part.frames.put(pid, CompletableFuture.completedFuture(p));
+                if (old == null) {
+                    part.policy.recordInsert(pid);
                 } else {
-
-                    // put page in pool
-                    if (pages.size() >= numPages)
-                        evictPage();
-                    pages.put(p.getId(), p);
+                    part.policy.recordAccess(pid);
+                    if (!resident)
+                        numFrames.decrementAndGet();
                 }
+                part.policy.setEvictable(pid, false);
             }
         }
     }
 
+    /**
+     * @return the ids of all pages currently in the buffer pool
+     */
+    private List<PageId> residentPageIds() {
+        List<PageId> pids = new ArrayList<>();
+        for (Partition part : partitions) {
+            synchronized (part) {
+                pids.addAll(part.frames.keySet());
+            }
+        }
+        return pids;
+    }
+
+    /**
+     * @return the page with the specified id if it is in the buffer pool and
+     *         has finished loading, otherwise null
+     */
+    private Page residentPage(PageId pid) {
+        Partition part = partitionOf(pid);
+        synchronized (part) {
+            CompletableFuture<Page> frame = part.frames.get(pid);
+            return frame == null ? null : frame.getNow(null);
+        }
+    }
+
     /**
      * Flush all dirty pages to disk.
      * NB: Be careful using this routine -- it writes dirty data to disk so will
@@ -254,8 +689,19 @@ public class BufferPool {
      */
     public synchronized void flushAllPages() throws IOException {
         /* calls flushPage() for each page in the BufferPool */
-        for (PageId pageId : pages.keySet()) flushPage(pageId);
+        flushLock.writeLock().lock();
+        try {
+            for (PageId pageId : residentPageIds()) flushPage(pageId);
+        } finally {
+            flushLock.writeLock().unlock();
+        }
 
+        // the zone maps are saved here rather than with each page
+        for (Iterator<Integer> it = Database.getCatalog().tableIdIterator(); it.hasNext(); ) {
+            DbFile file = Database.getCatalog().getDatabaseFile(it.next());
+            if (file instanceof HeapFile)
+                ((HeapFile) file).saveZones();
+        }
     }
 
     /**
@@ -268,9 +714,13 @@ public class BufferPool {
      * are removed from the cache so they can be reused safely
      */
     public synchronized void removePage(PageId pid) {
-        Page p = pages.get(pid);
-        if (p != null) {
-            pages.remove(pid);
+        Partition part = partitionOf(pid);
+        synchronized (part) {
+            if (part.frames.remove(pid) != null) {
+                part.policy.recordRemove(pid);
+                numFrames.decrementAndGet();
+                prefetched.remove(pid);
+            }
         }
     }
 
@@ -279,78 +729,154 @@ public class BufferPool {
      *
      * @param pid an ID indicating the page to flush
      */
-    private synchronized void flushPage(PageId pid) throws IOException {
+    private void flushPage(PageId pid) throws IOException {
 
-        Page p = pages.get(pid);
+        Page p = residentPage(pid);
         if (p == null)
             return; //not in buffer pool -- doesn't need to be flushed
 
         DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
         file.writePage(p);
         p.markDirty(false, null);
+        Partition part = partitionOf(pid);
+        synchronized (part) {
+            part.policy.setEvictable(pid, true);
+        }
+    }
+
+    private void addToWriteSet(TransactionId tid, PageId pid) {
+        writeSets.computeIfAbsent(tid, k -> ConcurrentHashMap.newKeySet()).add(pid);
+    }
+
+    /**
+     * @return the number of pages the transaction may have dirtied so far
+     */
+    private int writeSetSize(TransactionId tid) {
+        Set<PageId> pids = writeSets.get(tid);
+        return pids == null ? 0 : pids.size();
     }
 
     /**
      * Write all pages of the specified transaction to disk.
      */
-    public synchronized void flushPages(TransactionId tid) throws IOException {
-        for (PageId pid : pages.keySet()) {
-            Page page = pages.get(pid);
-            if (page.isDirty() != null && page.isDirty().equals(tid)) {
-                flushPage(pid);
+    public void flushPages(TransactionId tid) throws IOException {
+        Set<PageId> pids = writeSets.remove(tid);
+        if (pids == null)
+            return;
+        flushLock.readLock().lock();
+        try {
+            for (PageId pid : pids) {
+                Page page = residentPage(pid);
+                if (page != null && page.isDirty() != null && page.isDirty().equals(tid)) {
+                    flushPage(pid);
+                    // the committed contents are what later transactions roll back to
+                    page.setBeforeImage();
+                }
             }
+        } finally {
+            flushLock.readLock().unlock();
         }
     }
 
-    public synchronized void restorePages(TransactionId tid) {
-        for (PageId pid : pages.keySet()) {
-            Page page = pages.get(pid);
-            if (page.isDirty() != null && page.isDirty().equals(tid)) {
-                DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
-                Page restoredPage = file.readPage(pid);
-                pages.put(pid, restoredPage);
+    /**
+     * Discard the changes of the specified transaction by replacing each
+     * page it dirtied with the version on disk.
+     */
+    public void restorePages(TransactionId tid) {
+        Set<PageId> pids = writeSets.remove(tid);
+        if (pids == null)
+            return;
+        flushLock.readLock().lock();
+        try {
+            for (PageId pid : pids) {
+                Page page = residentPage(pid);
+                if (page != null && page.isDirty() != null && page.isDirty().equals(tid)) {
+                    DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+                    Page restoredPage = file.readPage(pid);
+                    Partition part = partitionOf(pid);
+                    synchronized (part) {
+                        part.frames.replace(pid, CompletableFuture.completedFuture(restoredPage));
+                        part.policy.setEvictable(pid, true);
+                    }
+                }
             }
+        } finally {
+            flushLock.readLock().unlock();
         }
     }
 
     /**
-     * Discards a page from the buffer pool.
-     * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * Discards a page from the buffer pool to free up one frame, trying the
+     * partition at index start first and then the others in turn. Victims
+     * are chosen by each partition's replacement policy; dirty pages are
+     * never evicted (NO STEAL), so victims never need to be written out.
      */
-    private synchronized void evictPage() throws DbException {
-        // pick a random page and flush it.
-        // XXX this will work for lab1, but not for lab4.
-        // XXX this can cause pages to be evicted that have uncommitted updates on them
-        Object[] pids = pages.keySet().toArray();
-        PageId pid = (PageId) pids[random.nextInt(pids.length)];
-        try {
-            Page p = pages.get(pid);
-            if (p.isDirty() != null) { //if this is dirty, remove first non-dirty
-                boolean gotNew = false;
-                for (PageId pg : pages.keySet()) {
-                    Page page = pages.get(pg);
-                    if (page.isDirty() != null) {
-                        continue;
-                    }
-                    if (pages.get(pg).isDirty() == null) {
-                        pid = pg;
-                        gotNew = true;
-                        break;
+    private void evictPage(int start) throws DbException {
+        while (true) {
+            for (int i = 0; i < partitions.length; i++) {
+                Partition part = partitions[(start + i) & (partitions.length - 1)];
+                synchronized (part) {
+                    if (evictFrom(part)) {
+                        numFrames.decrementAndGet();
+                        evictions.incrementAndGet();
+                        return;
                     }
                 }
-                if (!gotNew) {
-                    throw new DbException("All buffer pool slots contain dirty pages;  COMMIT or ROLLBACK to continue.");
+            }
+            // frames that are still being read (e.g. prefetches) cannot be
+            // evicted yet, but will be soon; only dirty pages are a dead end
+            CompletableFuture<Page> loading = loadingFrame();
+            if (loading == null)
+                throw new DbException("All buffer pool slots contain dirty pages;  COMMIT or ROLLBACK to continue.");
+            try {
+                loading.join();
+            } catch (CompletionException | CancellationException ignored) {
+            }
+        }
+    }
+
+    /**
+     * @return a frame whose page is still being read, or null if there is none
+     */
+    private CompletableFuture<Page> loadingFrame() {
+        for (Partition part : partitions) {
+            synchronized (part) {
+                for (CompletableFuture<Page> frame : part.frames.values()) {
+                    if (!frame.isDone())
+                        return frame;
                 }
             }
-            //XXX: The above code makes sure page is not dirty. 
-            //Assuming we have FORCE, Why do we flush it to disk?
-            //Answer: yes we don't need this if we have FORCE, but we do need it if we don't.
-            //it doesn't hurt to keep it here.            
-            flushPage(pid);
-        } catch (IOException e) {
-            throw new DbException("could not evict page");
         }
-        pages.remove(pid);
+        return null;
+    }
+
+    /**
+     * Evict one clean page from the given partition. Caller holds its latch.
+     *
+     * @return false if the partition has no evictable page
+     */
+    private boolean evictFrom(Partition part) {
+        PageId pid;
+        while ((pid = part.policy.victim()) != null) {
+            CompletableFuture<Page> frame = part.frames.get(pid);
+            if (frame == null) {
+                // policy is out of date, forget the page and try again
+                part.policy.recordRemove(pid);
+                continue;
+            }
+            Page p = frame.getNow(null);
+            if (p != null && p.isDirty() != null) {
+                // dirtied behind our back; keep it until it is flushed or restored
+                part.policy.setEvictable(pid, false);
+                continue;
+            }
+            part.frames.remove(pid);
+            part.policy.recordRemove(pid);
+            if (prefetched.remove(pid))
+                wastedPrefetches.incrementAndGet();
+            return true;
+        }
+        return false;
     }
 
 }
@@ -0,0 +1,56 @@
+package simpledb.storage;
+
+import java.util.ArrayDeque;
+
+/**
+ * A buffer access strategy for large sequential scans: a small ring of
+ * buffer pool frames that the scan keeps reusing, so that reading a table
+ * much larger than the pool displaces at most a ring's worth of other pages
+ * instead of the whole working set.
+ * <p>
+ * Pages the scan has to read from disk are remembered in the ring. Once the
+ * ring is full, the frame of its oldest page is recycled for the next read,
+ * provided that page is still resident and clean; otherwise the read takes a
+ * frame from the pool as usual. Pages that were already in the pool are
+ * used in place and never join the ring.
+ *
+ * @see BufferPool#ringForScan(int)
+ * @Threadsafe
+ */
+public class BufferRing {
+
+    /**
+     * Upper bound on the number of frames in a ring.
+     */
+    public static final int MAX_SIZE = 32;
+
+    private final int capacity;
+    private final ArrayDeque<PageId> pages;
+
+    /**
+     * @param capacity the number of frames the ring may occupy
+     */
+    public BufferRing(int capacity) {
+        this.capacity = Math.max(1, capacity);
+        this.pages = new ArrayDeque<>(this.capacity);
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Remember a page that was read into the pool through this ring.
+     */
+    synchronized void add(PageId pid) {
+        pages.addLast(pid);
+    }
+
+    /**
+     * @return the oldest page of the ring if the ring is full, whose frame
+     *         should be reused for the next page, otherwise null
+     */
+    synchronized PageId recycle() {
+        return pages.size() >= capacity ? pages.pollFirst() : null;
+    }
+}
@@ -0,0 +1,111 @@
+package simpledb.storage;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * CLOCK (second chance) replacement. Resident pages sit in a circular array
+ * of frames with a reference bit each. A hit sets the bit; the clock hand
+ * sweeps the frames, clearing set bits and stopping at the first evictable
+ * frame whose bit is already clear.
+ * <p>
+ * Victim selection is amortized O(1): every step of the hand either clears
+ * a bit that a previous access set or finds the victim.
+ */
+public class ClockPolicy implements ReplacementPolicy {
+
+    private PageId[] frames;
+    private boolean[] referenced;
+    private boolean[] evictable;
+    private final Map<PageId, Integer> frameOf;
+    private final Deque<Integer> freeFrames;
+    private int used = 0;       // high-water mark of frames ever handed out
+    private int hand = 0;
+    private int numEvictable = 0;
+
+    /**
+     * @param capacity the number of pages the buffer pool can hold
+     */
+    public ClockPolicy(int capacity) {
+        int n = Math.max(capacity, 1);
+        frames = new PageId[n];
+        referenced = new boolean[n];
+        evictable = new boolean[n];
+        frameOf = new HashMap<>();
+        freeFrames = new ArrayDeque<>();
+    }
+
+    public void recordAccess(PageId pid) {
+        Integer f = frameOf.get(pid);
+        if (f != null)
+            referenced[f] = true;
+    }
+
+    public void recordInsert(PageId pid) {
+        if (frameOf.containsKey(pid)) {
+            recordAccess(pid);
+            return;
+        }
+        int f;
+        if (!freeFrames.isEmpty()) {
+            f = freeFrames.pop();
+        } else {
+            if (used == frames.length)
+                grow();
+            f = used++;
+        }
+        frames[f] = pid;
+        referenced[f] = true;
+        evictable[f] = true;
+        numEvictable++;
+        frameOf.put(pid, f);
+    }
+
+    public void recordRemove(PageId pid) {
+        Integer f = frameOf.remove(pid);
+        if (f == null)
+            return;
+        if (evictable[f])
+            numEvictable--;
+        frames[f] = null;
+        referenced[f] = false;
+        evictable[f] = false;
+        freeFrames.push(f);
+    }
+
+    public void setEvictable(PageId pid, boolean value) {
+        Integer f = frameOf.get(pid);
+        if (f == null || evictable[f] == value)
+            return;
+        evictable[f] = value;
+        numEvictable += value ? 1 : -1;
+    }
+
+    public PageId victim() {
+        if (numEvictable == 0)
+            return null;
+        // at most two full turns: the first may only clear reference bits
+        for (int steps = 0; steps < 2 * used; steps++) {
+            int f = hand;
+            hand = (hand + 1) % used;
+            if (frames[f] == null || !evictable[f])
+                continue;
+            if (referenced[f]) {
+                referenced[f] = false;
+                continue;
+            }
+            return frames[f];
+        }
+        return null;
+    }
+
+    private void grow() {
+        int n = frames.length * 2;
+        frames = Arrays.copyOf(frames, n);
+        referenced = Arrays.copyOf(referenced, n);
+        evictable = Arrays.copyOf(evictable, n);
+    }
+}
@@ -0,0 +1,776 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Debug;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * ColumnFile is a DbFile that stores each column of a table in its own chain
+ * of pages, so that a scan that needs only a few columns reads only their
+ * pages. Scans that ask for a subset of the columns do so through
+ * {@link #iterator(TransactionId, int[])}.
+ * <p>
+ * Column pages are packed and never change in place. A ColumnFile backed by
+ * file f consists of f itself, which records the number of rows in the main
+ * store and the current generation of the other files, and of the files of
+ * that generation. The files of generation 0 are:
+ * <ul>
+ * <li>f.0, f.1, ..., one file of {@link ColumnPage}s per column, holding
+ * the values of the main store's rows in order;</li>
+ * <li>f.0.dict, f.1.dict, ..., the {@link Dictionary} of each column that is
+ * stored as {@link DictionaryPage}s of codes;</li>
+ * <li>f.del, the {@link DeleteBitmapPage}s marking deleted main store
+ * rows;</li>
+ * <li>f.delta, a HeapFile holding the rows inserted since the last merge.</li>
+ * </ul>
+ * and those of generation g are named alike, with f.g&lt;g&gt; in place of f.
+ * <p>
+ * Inserts go to the delta, and deletes either set a bit in the bitmap or
+ * delete the row from the delta; both are ordinary transactional page
+ * changes. {@link #merge()} folds the delta into the column files of the
+ * next generation and drops deleted rows; the BufferPool schedules it
+ * through {@link #scheduleMerge()} when a transaction that changed the table
+ * commits. Every transaction that reads or changes the table holds a shared
+ * lock on {@link #tableLock()}, which the merge takes exclusively.
+ *
+ * @see ColumnPage
+ * @see simpledb.execution.ColumnScan
+ */
+public class ColumnFile implements DbFile {
+
+    /**
+     * Default number of delta pages after which {@link #needsMerge()} asks
+     * for a merge.
+     */
+    public static final int DEFAULT_MERGE_PAGES = 64;
+
+    /**
+     * Background thread that runs the merges scheduled by
+     * {@link #scheduleMerge()}, shared by all column files.
+     */
+    private static final ExecutorService MERGE_EXECUTOR = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "ColumnFile-merge");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final File f;
+    private final TupleDesc td;
+    private final int tableid;
+
+    // guarded by this
+    private HeapFile delta;
+    private int numRows;
+    private int generation;
+    // the merge scheduled last; guarded by its own lock, as committers
+    // schedule merges while a merge may hold this
+    private final Object mergeLock = new Object();
+    private Future<Boolean> pendingMerge;
+    private int mergePages = DEFAULT_MERGE_PAGES;
+    // per column, opened on first use; the last entry is the delete bitmap
+    private final FileChannel[] channels;
+    // per column, the dictionary the column is encoded with, or null; and
+    // whether the next merge should encode the column
+    private final Dictionary[] dictionaries;
+    private final boolean[] encode;
+
+    /**
+     * Constructs a column file backed by the specified file and the column,
+     * bitmap and delta files next to it.
+     *
+     * @param f the file that records the number of rows of the table, and
+     *          names the other files of the table
+     */
+    public ColumnFile(File f, TupleDesc td) {
+        this.f = f;
+        this.tableid = f.getAbsoluteFile().hashCode();
+        this.td = td;
+        this.channels = new FileChannel[td.numFields() + 1];
+        this.dictionaries = new Dictionary[td.numFields()];
+        this.encode = new boolean[td.numFields()];
+        try {
+            if (f.length() >= 4) {
+                try (DataInputStream dis = new DataInputStream(new FileInputStream(f))) {
+                    numRows = dis.readInt();
+                    // files written before generations existed are generation 0
+                    if (f.length() >= 8)
+                        generation = dis.readInt();
+                }
+            }
+            // a merge that did not finish left the files of the next
+            // generation half written, or those of the last one undeleted
+            deleteGeneration(generation + 1);
+            if (generation > 0)
+                deleteGeneration(generation - 1);
+            for (int c = 0; c < td.numFields(); c++) {
+                if (dictionaryFile(generation, c).exists()) {
+                    dictionaries[c] = Dictionary.read(dictionaryFile(generation, c), td.getFieldType(c));
+                    encode[c] = true;
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        this.delta = new HeapFile(deltaFile(generation), td, tableid);
+    }
+
+    /**
+     * Returns the File recording the number of rows of this ColumnFile.
+     */
+    public File getFile() {
+        return f;
+    }
+
+    private File file(int gen, String suffix) {
+        return new File(f.getPath() + (gen == 0 ? "" : ".g" + gen) + suffix);
+    }
+
+    private File columnFile(int gen, int column) {
+        return file(gen, column == ColumnPageId.DELETED ? ".del" : "." + column);
+    }
+
+    private File dictionaryFile(int gen, int column) {
+        return file(gen, "." + column + ".dict");
+    }
+
+    private File deltaFile(int gen) {
+        return file(gen, ".delta");
+    }
+
+    /**
+     * Deletes the files of a generation, which must not be in use.
+     */
+    private void deleteGeneration(int gen) throws IOException {
+        for (int c = 0; c < td.numFields(); c++) {
+            Files.deleteIfExists(columnFile(gen, c).toPath());
+            Files.deleteIfExists(dictionaryFile(gen, c).toPath());
+        }
+        Files.deleteIfExists(columnFile(gen, ColumnPageId.DELETED).toPath());
+        Files.deleteIfExists(deltaFile(gen).toPath());
+        Files.deleteIfExists(new ZoneMap(deltaFile(gen), td).getFile().toPath());
+    }
+
+    public int getId() {
+        return tableid;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * @return the number of rows in the main store, including deleted rows,
+     *         but not the rows in the delta
+     */
+    public synchronized int numRows() {
+        return numRows;
+    }
+
+    /**
+     * Sets the number of delta pages after which {@link #needsMerge()}
+     * returns true.
+     */
+    public synchronized void setMergePages(int pages) {
+        if (pages < 1)
+            throw new IllegalArgumentException("merge threshold must be at least one page");
+        mergePages = pages;
+    }
+
+    /**
+     * @return true if the delta has grown large enough that the table should
+     *         be merged
+     */
+    public synchronized boolean needsMerge() {
+        return delta.numPages() >= mergePages;
+    }
+
+    /**
+     * Sets whether a string column is stored dictionary encoded, as the
+     * codes of its values in a {@link Dictionary}, run-length encoded. This
+     * suits columns with few distinct values, especially sorted ones. The
+     * column is rewritten in the new format by the next {@link #merge()}.
+     *
+     * @throws IllegalArgumentException if the column is not a string column
+     */
+    public synchronized void setDictionaryEncoded(int column, boolean encoded) {
+        Type type = td.getFieldType(column);
+        if (encoded && type != Type.STRING_TYPE && type != Type.VARCHAR_TYPE)
+            throw new IllegalArgumentException("only string columns can be dictionary encoded");
+        encode[column] = encoded;
+    }
+
+    /**
+     * @return the dictionary the column is currently stored with, or null
+     *         if it is not dictionary encoded
+     */
+    public synchronized Dictionary getDictionary(int column) {
+        return dictionaries[column];
+    }
+
+    /**
+     * @return the id that transactions lock to use the table as a whole:
+     *         shared by those that read or change it, exclusive by a merge
+     */
+    public ColumnPageId tableLock() {
+        return new ColumnPageId(tableid, ColumnPageId.TABLE, 0);
+    }
+
+    synchronized HeapFile delta() {
+        return delta;
+    }
+
+    private synchronized FileChannel channel(int column) throws IOException {
+        int i = column == ColumnPageId.DELETED ? td.numFields() : column;
+        if (channels[i] == null || !channels[i].isOpen()) {
+            channels[i] = FileChannel.open(columnFile(generation, column).toPath(),
+                    StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+        }
+        return channels[i];
+    }
+
+    /**
+     * @return the TupleDesc of the tuples returned by a scan of the given
+     *         columns
+     */
+    public TupleDesc getTupleDesc(int[] columns) {
+        Type[] types = new Type[columns.length];
+        String[] names = new String[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            types[i] = td.getFieldType(columns[i]);
+            names[i] = td.getFieldName(columns[i]);
+        }
+        return new TupleDesc(types, names);
+    }
+
+    /**
+     * @return the RecordId of a row of the main store, which names the bit
+     *         of the row in the delete bitmap
+     */
+    RecordId rowId(int row) {
+        int bits = DeleteBitmapPage.bitsPerPage();
+        return new RecordId(new ColumnPageId(tableid, ColumnPageId.DELETED, row / bits), row % bits);
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        if (pid instanceof HeapPageId)
+            return delta().readPage(pid);
+
+        ColumnPageId id = (ColumnPageId) pid;
+        int pageSize = BufferPool.getPageSize();
+        long offset = (long) id.getPageNumber() * pageSize;
+        byte[] pageBuf = new byte[pageSize];
+        ByteBuffer buf = ByteBuffer.wrap(pageBuf);
+        try {
+            FileChannel ch = channel(id.getColumn());
+            while (buf.hasRemaining()) {
+                if (ch.read(buf, offset + buf.position()) == -1) {
+                    // bitmap pages past the end have no deleted rows yet
+                    if (id.getColumn() == ColumnPageId.DELETED)
+                        break;
+                    throw new IllegalArgumentException("Read past end of column " + id.getColumn());
+                }
+            }
+            Debug.log(1, "ColumnFile.readPage: read page %d of column %d", id.getPageNumber(), id.getColumn());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        if (id.getColumn() == ColumnPageId.DELETED)
+            return new DeleteBitmapPage(id, pageBuf);
+        if (getDictionary(id.getColumn()) != null)
+            return new DictionaryPage(id, pageBuf);
+        return new ColumnPage(id, pageBuf);
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        if (page.getId() instanceof HeapPageId) {
+            delta().writePage(page);
+            return;
+        }
+        ColumnPageId id = (ColumnPageId) page.getId();
+        ByteBuffer buf = ByteBuffer.wrap(page.getPageData());
+        long offset = (long) id.getPageNumber() * BufferPool.getPageSize();
+        FileChannel ch = channel(id.getColumn());
+        while (buf.hasRemaining())
+            ch.write(buf, offset + buf.position());
+    }
+
+    // see DbFile.java for javadocs
+    public List<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        Database.getBufferPool().lock(tid, tableLock(), Permissions.READ_ONLY);
+        return delta().insertTuple(tid, t);
+    }
+
+    // see DbFile.java for javadocs
+    public List<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
+            IOException, TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || rid.getPageId().getTableId() != tableid)
+            throw new DbException("tuple is not a member of this file");
+        Database.getBufferPool().lock(tid, tableLock(), Permissions.READ_ONLY);
+        if (rid.getPageId() instanceof HeapPageId)
+            return delta().deleteTuple(tid, t);
+
+        ColumnPageId pid = (ColumnPageId) rid.getPageId();
+        long row = (long) pid.getPageNumber() * DeleteBitmapPage.bitsPerPage() + rid.getTupleNumber();
+        if (pid.getColumn() != ColumnPageId.DELETED || row >= numRows())
+            throw new DbException("tuple is not a member of this file");
+        DeleteBitmapPage p = (DeleteBitmapPage) Database.getBufferPool().getPage(tid, pid,
+                Permissions.READ_WRITE);
+        if (p.isDeleted(rid.getTupleNumber()))
+            throw new DbException("tried to delete a deleted tuple.");
+        p.setDeleted(rid.getTupleNumber());
+        List<Page> pages = new ArrayList<>();
+        pages.add(p);
+        return pages;
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        int[] all = new int[td.numFields()];
+        for (int i = 0; i < all.length; i++)
+            all[i] = i;
+        return iterator(tid, all);
+    }
+
+    /**
+     * Returns an iterator over the given columns of all the rows in the
+     * table, in the order given. Only the pages of these columns are read.
+     * The tuples returned keep the RecordIds of their rows, so they can be
+     * passed to {@link #deleteTuple}.
+     */
+    public DbFileIterator iterator(TransactionId tid, int[] columns) {
+        return new ColumnFileIterator(this, tid, columns);
+    }
+
+    /**
+     * Folds the delta into the column files: the column files of the next
+     * generation are written without the deleted rows and with the rows of
+     * the delta appended, and start out with an empty delete bitmap and
+     * delta. Columns marked with {@link #setDictionaryEncoded} are written
+     * with a new dictionary of their values.
+     * <p>
+     * Once the new files are on disk, the merge switches to them by renaming
+     * a new version of f, with the new row count and generation, over the
+     * old one; only then are the files of the old generation, its delta
+     * among them, deleted. A crash before the rename leaves the table as it
+     * was, and one after it the merged table.
+     * <p>
+     * This is a maintenance operation and not transactional. The caller
+     * must make sure no transaction uses the table while it runs and that
+     * every transaction that changed the table has completed, as
+     * {@link #mergeIfNeeded()} does.
+     */
+    public synchronized void merge() throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        BufferPool bp = Database.getBufferPool();
+
+        BitSet deleted = new BitSet();
+        FileChannel del = channel(ColumnPageId.DELETED);
+        int bitmapPages = (int) ((del.size() + pageSize - 1) / pageSize);
+        for (int pg = 0; pg < bitmapPages; pg++) {
+            ColumnPageId pid = new ColumnPageId(tableid, ColumnPageId.DELETED, pg);
+            DeleteBitmapPage p = (DeleteBitmapPage) readPage(pid);
+            for (int slot = 0; slot < DeleteBitmapPage.bitsPerPage(); slot++)
+                if (p.isDeleted(slot))
+                    deleted.set(pg * DeleteBitmapPage.bitsPerPage() + slot);
+        }
+
+        List<Tuple> added = new ArrayList<>();
+        // preallocated delta pages are empty pages, so every page is read
+        int deltaPages = (int) (delta.getFile().length() / pageSize);
+        for (int pg = 0; pg < deltaPages; pg++) {
+            TuplePage p = (TuplePage) delta.readPage(new HeapPageId(tableid, pg));
+            p.iterator().forEachRemaining(added::add);
+        }
+
+        // write the next generation, leaving the current one untouched
+        int next = generation + 1;
+        deleteGeneration(next);
+        Dictionary[] dicts = new Dictionary[td.numFields()];
+        int rows = 0;
+        for (int c = 0; c < td.numFields(); c++) {
+            dicts[c] = encode[c] ? buildDictionary(c, deleted, added) : null;
+            try (FileChannel ch = FileChannel.open(columnFile(next, c).toPath(),
+                    StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW)) {
+                ColumnWriter out = new ColumnWriter(ch, td.getFieldType(c), dicts[c]);
+                ColumnReader in = new ColumnReader(this, c, this::readPage);
+                for (int row = 0; row < numRows; row++) {
+                    if (!deleted.get(row))
+                        out.add(value(in, row));
+                }
+                for (Tuple t : added)
+                    out.add(t.getField(c));
+                rows = out.finish();
+                ch.force(false);
+            }
+            if (dicts[c] != null)
+                dicts[c].write(dictionaryFile(next, c));
+        }
+
+        // the switch: f names the new generation from now on
+        File tmp = new File(f.getPath() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp);
+             DataOutputStream dos = new DataOutputStream(fos)) {
+            dos.writeInt(rows);
+            dos.writeInt(next);
+            dos.flush();
+            fos.getFD().sync();
+        }
+        Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+
+        // drop the pages and files of the old generation
+        for (int c = 0; c < td.numFields(); c++) {
+            FileChannel old = channel(c);
+            for (int pg = 0; pg < old.size() / pageSize; pg++)
+                bp.removePage(new ColumnPageId(tableid, c, pg));
+            old.close();
+        }
+        for (int pg = 0; pg < bitmapPages; pg++)
+            bp.removePage(new ColumnPageId(tableid, ColumnPageId.DELETED, pg));
+        del.close();
+        for (int pg = 0; pg < deltaPages; pg++)
+            bp.removePage(new HeapPageId(tableid, pg));
+        delta.channel().close();
+        int old = generation;
+        generation = next;
+        numRows = rows;
+        System.arraycopy(dicts, 0, dictionaries, 0, dicts.length);
+        delta = new HeapFile(deltaFile(next), td, tableid);
+        deleteGeneration(old);
+        Debug.log(1, "ColumnFile.merge: %d rows and %d deleted rows merged into %d rows",
+                added.size(), deleted.cardinality(), rows);
+    }
+
+    /**
+     * Merges the table if {@link #needsMerge()}. The merge runs as a
+     * transaction of its own that first waits for an exclusive lock on
+     * {@link #tableLock()}, so that every other transaction using the table
+     * has completed by the time it starts and new ones wait until it is
+     * done. This blocks the caller until then; see {@link #scheduleMerge()}
+     * for a merge that does not.
+     *
+     * @return true if the table was merged
+     */
+    public boolean mergeIfNeeded() throws IOException {
+        if (!needsMerge())
+            return false;
+        BufferPool bp = Database.getBufferPool();
+        TransactionId tid = new TransactionId();
+        try {
+            bp.lock(tid, tableLock(), Permissions.READ_WRITE);
+            // somebody else may have merged while we waited
+            if (!needsMerge())
+                return false;
+            merge();
+            return true;
+        } catch (TransactionAbortedException e) {
+            // chosen as the victim of a deadlock; the next commit tries again
+            Debug.log(1, "ColumnFile.mergeIfNeeded: merge of table %d aborted", tableid);
+            return false;
+        } finally {
+            bp.transactionComplete(tid, false);
+        }
+    }
+
+    /**
+     * Runs {@link #mergeIfNeeded()} on a background thread. Only one merge
+     * of the table is scheduled at a time.
+     *
+     * @return the scheduled merge, which returns whether the table was
+     *         merged
+     */
+    public Future<Boolean> scheduleMerge() {
+        synchronized (mergeLock) {
+            if (pendingMerge == null || pendingMerge.isDone())
+                pendingMerge = MERGE_EXECUTOR.submit(this::mergeIfNeeded);
+            return pendingMerge;
+        }
+    }
+
+    // reads a value while merging, when pages come from the file itself
+    private static Field value(ColumnReader in, int row) throws IOException {
+        try {
+            return in.get(row);
+        } catch (DbException | TransactionAbortedException e) {
+            // only the buffer pool throws these
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Collects the values the column will hold after the merge into a
+     * dictionary. If there are too many of them, the column is stored
+     * unencoded from now on.
+     *
+     * @return the dictionary, or null if the column has too many values
+     */
+    private Dictionary buildDictionary(int column, BitSet deleted, List<Tuple> added)
+            throws IOException {
+        TreeSet<String> values = new TreeSet<>();
+        ColumnReader in = new ColumnReader(this, column, this::readPage);
+        for (int row = 0; row < numRows && values.size() <= Dictionary.MAX_SIZE; row++) {
+            if (!deleted.get(row))
+                values.add(((StringField) value(in, row)).getValue());
+        }
+        for (Tuple t : added)
+            values.add(((StringField) t.getField(column)).getValue());
+        if (values.size() > Dictionary.MAX_SIZE) {
+            Debug.log(0, "ColumnFile.merge: column %d has too many values to dictionary encode", column);
+            encode[column] = false;
+            return null;
+        }
+        return new Dictionary(td.getFieldType(column), values.toArray(new String[0]));
+    }
+}
+
+/**
+ * Helper class that writes the values of one column of a ColumnFile to a
+ * new column file, as packed ColumnPages or, given a dictionary, as
+ * DictionaryPages of runs of codes.
+ */
+class ColumnWriter {
+
+    private final FileChannel ch;
+    private final Type type;
+    private final Dictionary dict;
+    private final ByteBuffer out;
+    private final int perPage;
+
+    private int rows = 0;
+    // values or runs on the current page
+    private int onPage = 0;
+    // the current run, if dictionary encoded
+    private int runCode = -1;
+    private int runLength = 0;
+
+    ColumnWriter(FileChannel ch, Type type, Dictionary dict) {
+        this.ch = ch;
+        this.type = type;
+        this.dict = dict;
+        this.out = ByteBuffer.allocate(BufferPool.getPageSize());
+        if (dict == null) {
+            perPage = ColumnPage.valuesPerPage(type);
+        } else {
+            perPage = DictionaryPage.runsPerPage();
+            out.position(DictionaryPage.HEADER_SIZE);
+        }
+    }
+
+    void add(Field f) throws IOException {
+        rows++;
+        if (dict == null) {
+            out.put(ColumnPage.encode(f, type));
+            if (++onPage == perPage)
+                writePage();
+            return;
+        }
+        int code = dict.lookup(((StringField) f).getValue());
+        if (code == runCode && runLength < DictionaryPage.MAX_RUN) {
+            runLength++;
+            return;
+        }
+        endRun();
+        runCode = code;
+        runLength = 1;
+    }
+
+    private void endRun() throws IOException {
+        if (runLength == 0)
+            return;
+        out.putShort((short) runCode);
+        out.putShort((short) runLength);
+        runLength = 0;
+        if (++onPage == perPage)
+            writePage();
+    }
+
+    /**
+     * Writes out the last page.
+     *
+     * @return the number of values written
+     */
+    int finish() throws IOException {
+        if (dict != null)
+            endRun();
+        if (onPage > 0)
+            writePage();
+        return rows;
+    }
+
+    // writes out a full (or zero-padded last) page and clears the buffer
+    private void writePage() throws IOException {
+        if (dict != null)
+            out.putInt(0, onPage);
+        out.position(out.limit());
+        out.flip();
+        while (out.hasRemaining())
+            ch.write(out);
+        out.clear();
+        Arrays.fill(out.array(), (byte) 0);
+        if (dict != null)
+            out.position(DictionaryPage.HEADER_SIZE);
+        onPage = 0;
+    }
+}
+
+/**
+ * Helper class that reads the values of one column of a ColumnFile's main
+ * store. Rows must be read in increasing order, but may be skipped.
+ */
+class ColumnReader {
+
+    /**
+     * Where the reader gets its pages from: the buffer pool for scans, or
+     * the file itself while merging.
+     */
+    interface PageSource {
+        Page getPage(ColumnPageId pid) throws DbException, TransactionAbortedException;
+    }
+
+    private final int tableid;
+    private final int column;
+    private final PageSource source;
+    private final Dictionary dict;
+    private final int perPage;
+
+    // plain columns: the current page
+    private ColumnPage page;
+    // encoded columns: the current page, run, and the first row after it
+    private DictionaryPage runs;
+    private int run;
+    private int runEnd;
+
+    ColumnReader(ColumnFile cf, int column, PageSource source) {
+        this.tableid = cf.getId();
+        this.column = column;
+        this.source = source;
+        this.dict = cf.getDictionary(column);
+        this.perPage = ColumnPage.valuesPerPage(cf.getTupleDesc().getFieldType(column));
+    }
+
+    Field get(int row) throws DbException, TransactionAbortedException {
+        if (dict == null) {
+            int pgNo = row / perPage;
+            if (page == null || page.getId().getPageNumber() != pgNo)
+                page = (ColumnPage) source.getPage(new ColumnPageId(tableid, column, pgNo));
+            return page.getField(row % perPage);
+        }
+        // skip whole runs, and pages of runs, up to the row
+        while (runs == null || row >= runEnd) {
+            if (runs == null || ++run == runs.numRuns()) {
+                int pgNo = runs == null ? 0 : runs.getId().getPageNumber() + 1;
+                runs = (DictionaryPage) source.getPage(new ColumnPageId(tableid, column, pgNo));
+                run = 0;
+            }
+            runEnd += runs.runLength(run);
+        }
+        return dict.field(runs.runCode(run));
+    }
+}
+
+/**
+ * Helper class that iterates over some of the columns of a ColumnFile: the
+ * live rows of the main store, read a page of each column at a time, and
+ * then the rows of the delta.
+ */
+class ColumnFileIterator extends AbstractDbFileIterator {
+
+    final ColumnFile cf;
+    final TransactionId tid;
+    final int[] columns;
+    final TupleDesc td;
+
+    private int numRows;
+    private int row;
+    private final ColumnReader[] readers;
+    private DeleteBitmapPage bitmap;
+    private DbFileIterator deltaIt;
+
+    public ColumnFileIterator(ColumnFile cf, TransactionId tid, int[] columns) {
+        this.cf = cf;
+        this.tid = tid;
+        this.columns = columns.clone();
+        this.td = cf.getTupleDesc(columns);
+        this.readers = new ColumnReader[columns.length];
+        this.row = Integer.MAX_VALUE;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        BufferPool bp = Database.getBufferPool();
+        // the table cannot be merged before the transaction completes
+        bp.lock(tid, cf.tableLock(), Permissions.READ_ONLY);
+        numRows = cf.numRows();
+        row = 0;
+        bitmap = null;
+        for (int i = 0; i < columns.length; i++)
+            readers[i] = new ColumnReader(cf, columns[i],
+                    pid -> bp.getPage(tid, pid, Permissions.READ_ONLY));
+        deltaIt = cf.delta().iterator(tid);
+        deltaIt.open();
+    }
+
+    @Override
+    protected Tuple readNext() throws DbException, TransactionAbortedException {
+        BufferPool bp = Database.getBufferPool();
+        int bits = DeleteBitmapPage.bitsPerPage();
+        for (; row < numRows; row++) {
+            RecordId rid = cf.rowId(row);
+            if (bitmap == null || !bitmap.getId().equals(rid.getPageId()))
+                bitmap = (DeleteBitmapPage) bp.getPage(tid, rid.getPageId(), Permissions.READ_ONLY);
+            if (bitmap.isDeleted(row % bits))
+                continue;
+
+            Tuple t = new Tuple(td);
+            for (int i = 0; i < columns.length; i++)
+                t.setField(i, readers[i].get(row));
+            t.setRecordId(rid);
+            row++;
+            return t;
+        }
+
+        if (deltaIt == null || !deltaIt.hasNext())
+            return null;
+        Tuple d = deltaIt.next();
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < columns.length; i++)
+            t.setField(i, d.getField(columns[i]));
+        t.setRecordId(d.getRecordId());
+        return t;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    public void close() {
+        super.close();
+        if (deltaIt != null)
+            deltaIt.close();
+        deltaIt = null;
+        row = Integer.MAX_VALUE;
+    }
+}
@@ -0,0 +1,105 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.transaction.TransactionId;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A page of one column of a ColumnFile. The page holds the values of that
+ * column for consecutive rows, each padded to the fixed length of the
+ * column's type, so the value of row r is at offset (r % valuesPerPage) *
+ * len on page r / valuesPerPage. Which of the values are live rows is
+ * decided by the ColumnFile, which knows the number of rows and which of
+ * them are deleted.
+ * <p>
+ * Column pages are only written when the ColumnFile merges its delta, and
+ * never through the buffer pool, so a ColumnPage is never dirtied.
+ *
+ * @see ColumnFile
+ */
+public class ColumnPage implements Page {
+
+    private volatile boolean dirty = false;
+    private volatile TransactionId dirtier = null;
+
+    final ColumnPageId pid;
+    final Type type;
+    final byte[] data;
+
+    /**
+     * Create a ColumnPage from a set of bytes of data read from disk.
+     */
+    public ColumnPage(ColumnPageId id, byte[] data) {
+        this.pid = id;
+        this.type = Database.getCatalog().getTupleDesc(id.getTableId()).getFieldType(id.getColumn());
+        this.data = data;
+    }
+
+    /**
+     * @return the number of values of a column of the given type that fit
+     *         on a page
+     */
+    public static int valuesPerPage(Type type) {
+        return BufferPool.getPageSize() / type.getLen();
+    }
+
+    /**
+     * @return the serialized form of the field, padded to the length of the
+     *         column's type
+     */
+    static byte[] encode(Field f, Type type) {
+        int len = type.getLen();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
+        try {
+            f.serialize(new DataOutputStream(baos));
+        } catch (IOException e) {
+            // this really shouldn't happen
+            e.printStackTrace();
+        }
+        return Arrays.copyOf(baos.toByteArray(), len);
+    }
+
+    /**
+     * @return the value in the given slot of the page
+     */
+    public Field getField(int slot) {
+        int len = type.getLen();
+        return type.parse(ByteBuffer.wrap(data, slot * len, len));
+    }
+
+    public ColumnPageId getId() {
+        return pid;
+    }
+
+    public byte[] getPageData() {
+        return data.clone();
+    }
+
+    @Override
+    public void writeTo(ByteBuffer buf) {
+        buf.put(data);
+    }
+
+    public ColumnPage getBeforeImage() {
+        // never changed in place, so the page is its own before-image
+        return this;
+    }
+
+    public void setBeforeImage() {
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        if (dirty) this.dirtier = tid;
+    }
+
+    public TransactionId isDirty() {
+        return dirty ? dirtier : null;
+    }
+}
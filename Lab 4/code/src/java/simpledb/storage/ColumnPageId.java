@@ -0,0 +1,74 @@
+package simpledb.storage;
+
+import java.util.Objects;
+
+/**
+ * Unique identifier for a page of a ColumnFile: a page of the chain of one
+ * column, or of the file's delete bitmap.
+ */
+public class ColumnPageId implements PageId {
+
+    /**
+     * The column number that names the delete bitmap of a ColumnFile.
+     */
+    public static final int DELETED = -1;
+
+    /**
+     * The column number of the id that names a whole ColumnFile. It has no
+     * page; transactions lock it to keep the table from being merged under
+     * them.
+     */
+    public static final int TABLE = -2;
+
+    private final int tableId;
+    private final int column;
+    private final int pgNo;
+
+    /**
+     * Constructor. Create a page id for a page of a column.
+     *
+     * @param tableId The table that is being referenced
+     * @param column  The column the page belongs to, or DELETED
+     * @param pgNo    The page number within the column's chain
+     */
+    public ColumnPageId(int tableId, int column, int pgNo) {
+        this.tableId = tableId;
+        this.column = column;
+        this.pgNo = pgNo;
+    }
+
+    public int getTableId() {
+        return tableId;
+    }
+
+    /**
+     * @return the column this page belongs to, or DELETED for the delete
+     *         bitmap
+     */
+    public int getColumn() {
+        return column;
+    }
+
+    public int getPageNumber() {
+        return pgNo;
+    }
+
+    public int hashCode() {
+        return Objects.hash(tableId, column, pgNo);
+    }
+
+    public boolean equals(Object o) {
+        if (!(o instanceof ColumnPageId))
+            return false;
+        ColumnPageId p = (ColumnPageId) o;
+        return tableId == p.tableId && column == p.column && pgNo == p.pgNo;
+    }
+
+    public int[] serialize() {
+        return new int[]{tableId, column, pgNo};
+    }
+
+    public String toString() {
+        return "ColumnPageId(" + tableId + ", " + column + ", " + pgNo + ")";
+    }
+}
@@ -0,0 +1,90 @@
+package simpledb.storage;
+
+import simpledb.transaction.TransactionId;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A page of the delete bitmap of a ColumnFile, with one bit for each row
+ * of the file's main store; a set bit means the row is deleted. Bit b of
+ * page p belongs to row p * BITS_PER_PAGE + b. Unlike column pages, bitmap
+ * pages are changed by transactions and are dirtied, flushed and restored
+ * through the buffer pool like any other page.
+ *
+ * @see ColumnFile
+ */
+public class DeleteBitmapPage implements Page {
+
+    private volatile boolean dirty = false;
+    private volatile TransactionId dirtier = null;
+
+    final ColumnPageId pid;
+    final byte[] data;
+
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    /**
+     * Create a DeleteBitmapPage from a set of bytes of data read from disk.
+     */
+    public DeleteBitmapPage(ColumnPageId id, byte[] data) {
+        this.pid = id;
+        this.data = data;
+        setBeforeImage();
+    }
+
+    /**
+     * @return the number of rows a bitmap page covers
+     */
+    public static int bitsPerPage() {
+        return BufferPool.getPageSize() * 8;
+    }
+
+    /**
+     * @return true if the row in the given slot of the page is deleted
+     */
+    public boolean isDeleted(int slot) {
+        return (data[slot / 8] & (1 << (slot % 8))) != 0;
+    }
+
+    /**
+     * Marks the row in the given slot of the page as deleted.
+     */
+    public void setDeleted(int slot) {
+        data[slot / 8] |= (byte) (1 << (slot % 8));
+    }
+
+    public ColumnPageId getId() {
+        return pid;
+    }
+
+    public byte[] getPageData() {
+        return data.clone();
+    }
+
+    @Override
+    public void writeTo(ByteBuffer buf) {
+        buf.put(data);
+    }
+
+    public DeleteBitmapPage getBeforeImage() {
+        synchronized (oldDataLock) {
+            return new DeleteBitmapPage(pid, oldData.clone());
+        }
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = data.clone();
+        }
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        if (dirty) this.dirtier = tid;
+    }
+
+    public TransactionId isDirty() {
+        return dirty ? dirtier : null;
+    }
+}
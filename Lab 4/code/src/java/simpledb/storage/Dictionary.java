@@ -0,0 +1,112 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * The dictionary of a dictionary-encoded string column of a ColumnFile. It
+ * assigns each distinct value of the column a code, which is the value's
+ * position in sorted order, so comparing codes gives the same result as
+ * comparing the values.
+ * <p>
+ * Each value has one shared {@link DictionaryField}, so reading an encoded
+ * column allocates no fields or strings.
+ *
+ * @see DictionaryPage
+ */
+public class Dictionary {
+
+    /**
+     * The number of distinct values a dictionary can hold, as codes are
+     * stored in two bytes.
+     */
+    public static final int MAX_SIZE = 1 << 16;
+
+    private final Type type;
+    private final String[] values;
+    private final DictionaryField[] fields;
+
+    /**
+     * Creates a dictionary of the given values.
+     *
+     * @param type   the type of the column, STRING_TYPE or VARCHAR_TYPE
+     * @param values the distinct values of the column, in sorted order
+     */
+    public Dictionary(Type type, String[] values) {
+        if (values.length > MAX_SIZE)
+            throw new IllegalArgumentException("too many values for a dictionary");
+        this.type = type;
+        this.values = values.clone();
+        this.fields = new DictionaryField[values.length];
+        for (int i = 0; i < values.length; i++)
+            fields[i] = new DictionaryField(this, i);
+    }
+
+    /**
+     * @return the type of the column
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return the number of values in the dictionary
+     */
+    public int size() {
+        return values.length;
+    }
+
+    /**
+     * @return the value with the given code
+     */
+    public String value(int code) {
+        return values[code];
+    }
+
+    /**
+     * @return the field of the value with the given code
+     */
+    public DictionaryField field(int code) {
+        return fields[code];
+    }
+
+    /**
+     * Looks a value up in the dictionary.
+     *
+     * @return the code of the value if it is in the dictionary, otherwise
+     *         (-(insertion point) - 1), as Arrays.binarySearch does, where
+     *         the insertion point is the code of the first larger value
+     */
+    public int lookup(String value) {
+        return Arrays.binarySearch(values, value);
+    }
+
+    /**
+     * Writes the values of the dictionary to the file.
+     */
+    void write(File f) throws IOException {
+        try (FileOutputStream fos = new FileOutputStream(f);
+             DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(fos))) {
+            dos.writeInt(values.length);
+            for (String v : values)
+                dos.writeUTF(v);
+            dos.flush();
+            fos.getFD().sync();
+        }
+    }
+
+    /**
+     * Reads a dictionary written by {@link #write}.
+     */
+    static Dictionary read(File f, Type type) throws IOException {
+        try (DataInputStream dis = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(f)))) {
+            String[] values = new String[dis.readInt()];
+            for (int i = 0; i < values.length; i++)
+                values[i] = dis.readUTF();
+            return new Dictionary(type, values);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+import simpledb.execution.Predicate;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Instance of Field for a value of a dictionary-encoded column. It holds
+ * the value's code and shares the value's string with its dictionary. It
+ * compares and hashes like a StringField with the same value, but two
+ * DictionaryFields of the same dictionary are compared by their codes.
+ *
+ * @see Dictionary
+ */
+public class DictionaryField extends StringField {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient Dictionary dictionary;
+    private final int code;
+
+    DictionaryField(Dictionary dictionary, int code) {
+        super(dictionary.value(code), Type.STRING_LEN);
+        this.dictionary = dictionary;
+        this.code = code;
+    }
+
+    /**
+     * @return the dictionary the code of this field refers to
+     */
+    public Dictionary getDictionary() {
+        return dictionary;
+    }
+
+    /**
+     * @return the code of the value in its dictionary
+     */
+    public int getCode() {
+        return code;
+    }
+
+    @Override
+    public boolean equals(Object field) {
+        if (field instanceof DictionaryField && ((DictionaryField) field).dictionary == dictionary)
+            return ((DictionaryField) field).code == code;
+        return super.equals(field);
+    }
+
+    @Override
+    public int hashCode() {
+        return super.hashCode();
+    }
+
+    /**
+     * Writes the value in the format of the column's type.
+     */
+    @Override
+    public void serialize(DataOutputStream dos) throws IOException {
+        if (dictionary.getType() == Type.VARCHAR_TYPE) {
+            dos.writeShort(getValue().length());
+            dos.writeBytes(getValue());
+        } else {
+            super.serialize(dos);
+        }
+    }
+
+    @Override
+    public boolean compare(Predicate.Op op, Field val) {
+        if (op != Predicate.Op.LIKE && val instanceof DictionaryField
+                && ((DictionaryField) val).dictionary == dictionary)
+            return compareCode(op, ((DictionaryField) val).code);
+        return super.compare(op, val);
+    }
+
+    /**
+     * Compares this field to a value that was looked up in the dictionary,
+     * without looking at the strings. LIKE needs the strings and is not
+     * supported.
+     *
+     * @param lookup the result of {@link Dictionary#lookup} for the value
+     */
+    public boolean compareCode(Predicate.Op op, int lookup) {
+        int cmpVal;
+        if (lookup >= 0)
+            cmpVal = Integer.compare(code, lookup);
+        else
+            // the value falls between two codes and equals neither
+            cmpVal = code < -lookup - 1 ? -1 : 1;
+
+        switch (op) {
+            case EQUALS:
+                return cmpVal == 0;
+
+            case NOT_EQUALS:
+                return cmpVal != 0;
+
+            case GREATER_THAN:
+                return cmpVal > 0;
+
+            case GREATER_THAN_OR_EQ:
+                return cmpVal >= 0;
+
+            case LESS_THAN:
+                return cmpVal < 0;
+
+            case LESS_THAN_OR_EQ:
+                return cmpVal <= 0;
+        }
+
+        throw new IllegalArgumentException("cannot compare codes with " + op);
+    }
+
+    @Override
+    public Type getType() {
+        return dictionary.getType();
+    }
+}
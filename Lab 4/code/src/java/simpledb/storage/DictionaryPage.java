@@ -0,0 +1,109 @@
+package simpledb.storage;
+
+import simpledb.transaction.TransactionId;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A page of a dictionary-encoded column of a ColumnFile. Instead of the
+ * values themselves, the page stores their codes in the column's
+ * {@link Dictionary}, run-length encoded: the page starts with the number
+ * of runs, followed by the runs, each a code and the number of consecutive
+ * rows with that code, both unsigned two-byte values:
+ * <pre>
+ * | numRuns | code 0 | length 0 | code 1 | length 1 | ...
+ * </pre>
+ * An unsorted column takes four bytes per row; a sorted column takes four
+ * bytes per distinct value. Since the number of rows on a page varies, the
+ * pages of an encoded column are read from the first one on.
+ * <p>
+ * Like ColumnPages, DictionaryPages are only written when the ColumnFile
+ * merges its delta and are never dirtied.
+ *
+ * @see ColumnFile
+ */
+public class DictionaryPage implements Page {
+
+    static final int HEADER_SIZE = 4;
+    static final int RUN_SIZE = 4;
+    /**
+     * The longest run a page can hold; longer runs are split.
+     */
+    public static final int MAX_RUN = 0xFFFF;
+
+    private volatile boolean dirty = false;
+    private volatile TransactionId dirtier = null;
+
+    final ColumnPageId pid;
+    final byte[] data;
+
+    /**
+     * Create a DictionaryPage from a set of bytes of data read from disk.
+     */
+    public DictionaryPage(ColumnPageId id, byte[] data) {
+        this.pid = id;
+        this.data = data;
+    }
+
+    /**
+     * @return the number of runs that fit on a page
+     */
+    public static int runsPerPage() {
+        return (BufferPool.getPageSize() - HEADER_SIZE) / RUN_SIZE;
+    }
+
+    private int u16(int off) {
+        return ((data[off] & 0xFF) << 8) | (data[off + 1] & 0xFF);
+    }
+
+    /**
+     * @return the number of runs on the page
+     */
+    public int numRuns() {
+        return ByteBuffer.wrap(data).getInt(0);
+    }
+
+    /**
+     * @return the code of the rows in the given run
+     */
+    public int runCode(int run) {
+        return u16(HEADER_SIZE + run * RUN_SIZE);
+    }
+
+    /**
+     * @return the number of rows in the given run
+     */
+    public int runLength(int run) {
+        return u16(HEADER_SIZE + run * RUN_SIZE + 2);
+    }
+
+    public ColumnPageId getId() {
+        return pid;
+    }
+
+    public byte[] getPageData() {
+        return data.clone();
+    }
+
+    @Override
+    public void writeTo(ByteBuffer buf) {
+        buf.put(data);
+    }
+
+    public DictionaryPage getBeforeImage() {
+        // never changed in place, so the page is its own before-image
+        return this;
+    }
+
+    public void setBeforeImage() {
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        if (dirty) this.dirtier = tid;
+    }
+
+    public TransactionId isDirty() {
+        return dirty ? dirtier : null;
+    }
+}
@@ -0,0 +1,79 @@
+package simpledb.storage;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Records how much free space each page of a HeapFile has, so that
+ * inserts can go straight to a page with room instead of locking and
+ * reading full pages one after another.
+ * <p>
+ * The map is a hint. It is updated whenever a page is inserted into,
+ * deleted from or written out, but aborted transactions can leave it
+ * wrong in either direction, so callers must still check the page itself
+ * and report what they found. Pages the map has not seen yet are treated
+ * as possibly having room, and are tried once pages known to have room
+ * run out.
+ *
+ * @see HeapFile#insertTuple
+ * @Threadsafe
+ */
+public class FreeSpaceMap {
+
+    // free space per page; only meaningful for pages in seen
+    private int[] free = new int[64];
+    private final BitSet seen = new BitSet();
+    private final BitSet withRoom = new BitSet();
+
+    /**
+     * Record the free space on a page, in the unit of
+     * {@link TuplePage#getFreeSpace()}.
+     */
+    public synchronized void update(int pgNo, int freeSpace) {
+        if (pgNo >= free.length)
+            free = Arrays.copyOf(free, Math.max(pgNo + 1, free.length * 2));
+        free[pgNo] = freeSpace;
+        seen.set(pgNo);
+        withRoom.set(pgNo, freeSpace > 0);
+    }
+
+    /**
+     * @return the free space last recorded for the page, or -1 if the map
+     *         has not seen the page
+     */
+    public synchronized int freeSpace(int pgNo) {
+        return seen.get(pgNo) ? free[pgNo] : -1;
+    }
+
+    /**
+     * Choose a page to insert into. Among the pages known to have enough
+     * room, the search starts at a position derived from seed and wraps
+     * around, so that inserters passing different seeds tend to pick
+     * different pages.
+     *
+     * @param numPages the number of pages in the file
+     * @param seed     a value identifying the inserter, e.g. its transaction id
+     * @param need     the free space the insert needs
+     * @return a page that may have room, or -1 if every page is known to be
+     *         too full
+     */
+    public synchronized int choosePage(int numPages, long seed, int need) {
+        if (numPages <= 0)
+            return -1;
+        int p = nextWithRoom((int) Math.floorMod(seed, (long) numPages), numPages, need);
+        if (p < 0)
+            p = nextWithRoom(0, numPages, need);
+        if (p >= 0)
+            return p;
+        p = seen.nextClearBit(0);
+        return p < numPages ? p : -1;
+    }
+
+    private int nextWithRoom(int from, int numPages, int need) {
+        for (int p = withRoom.nextSetBit(from); p >= 0 && p < numPages; p = withRoom.nextSetBit(p + 1)) {
+            if (free[p] >= need)
+                return p;
+        }
+        return -1;
+    }
+}
@@ -4,11 +4,16 @@ import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Debug;
 import simpledb.common.Permissions;
+import simpledb.execution.Predicate;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 
@@ -18,6 +23,14 @@ import java.util.List;
  * size, and the file is simply a collection of those pages. HeapFile works
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
  * constructor.
+ * <p>
+ * All I/O goes through a single FileChannel that stays open for the lifetime
+ * of the HeapFile, using positional reads and writes, so a page miss costs
+ * one pread and no open/close or seek.
+ * <p>
+ * A {@link ZoneMap} in a side file records the range of values on each
+ * page, so that scans with predicates skip the pages that cannot hold a
+ * matching tuple.
  *
  * @author Sam Madden
  * @see HeapPage#HeapPage
@@ -27,8 +40,32 @@ public class HeapFile implements DbFile {
     private final File f;
     private final TupleDesc td;
     private final int tableid;
-    // a hack to remember the last page that had a free slot
-    private volatile int lastEmptyPage = -1;
+    // free slots per page, consulted by insertTuple
+    private final FreeSpaceMap freeSpace = new FreeSpaceMap();
+    // value ranges per page, consulted by scans with predicates; null for
+    // HeapFiles inside other DbFiles, which scan them without predicates
+    private ZoneMap zones;
+
+    // opened on first use, reopened if an interrupt closed it
+    private FileChannel channel;
+    // number of pages known to exist, -1 until first computed; may lag
+    // behind the file if pages are appended by someone else
+    private volatile int knownPages = -1;
+
+    /**
+     * Default number of pages the file grows by when it runs out of room.
+     */
+    public static final int DEFAULT_EXTENT_PAGES = 8;
+
+    // guarded by this: the number of pages to preallocate at a time, and the
+    // end of the last preallocated extent, or -1 if the file has none left.
+    // Pages from knownPages up to reservedEnd exist in the file but have not
+    // been handed out yet, and do not count towards numPages().
+    private int extentPages = DEFAULT_EXTENT_PAGES;
+    private int reservedEnd = -1;
+
+    // per-thread buffer pages are encoded into before being written
+    private static final ThreadLocal<ByteBuffer> WRITE_BUFFER = new ThreadLocal<>();
 
     /**
      * Constructs a heap file backed by the specified file.
@@ -37,8 +74,17 @@ public class HeapFile implements DbFile {
      *          file.
      */
     public HeapFile(File f, TupleDesc td) {
+        this(f, td, f.getAbsoluteFile().hashCode());
+        this.zones = new ZoneMap(f, td);
+    }
+
+    /**
+     * Constructs a heap file whose pages belong to the table with the given
+     * id, for DbFiles that keep some of their tuples in a HeapFile.
+     */
+    HeapFile(File f, TupleDesc td, int tableid) {
         this.f = f;
-        this.tableid = f.getAbsoluteFile().hashCode();
+        this.tableid = tableid;
         this.td = td;
     }
 
@@ -73,43 +119,96 @@ public class HeapFile implements DbFile {
         return td;
     }
 
+    synchronized FileChannel channel() throws IOException {
+        if (channel == null || !channel.isOpen()) {
+            channel = FileChannel.open(f.toPath(), StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+        }
+        return channel;
+    }
+
+    private synchronized void notePages(int n) {
+        if (n > knownPages)
+            knownPages = n;
+    }
+
+    /**
+     * Creates a page of this file from its bytes on disk. HeapFile stores
+     * HeapPages; subclasses with another page format override this together
+     * with {@link #spaceNeeded(Tuple)}.
+     */
+    protected TuplePage createPage(HeapPageId id, byte[] data) throws IOException {
+        return new HeapPage(id, data);
+    }
+
+    /**
+     * Returns how much of a page's {@link TuplePage#getFreeSpace() free space}
+     * inserting the tuple takes; one slot on a HeapPage.
+     */
+    protected int spaceNeeded(Tuple t) {
+        return 1;
+    }
+
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
         HeapPageId id = (HeapPageId) pid;
+        int pageSize = BufferPool.getPageSize();
+        long offset = (long) id.getPageNumber() * pageSize;
 
-        try (BufferedInputStream bis = new BufferedInputStream(new FileInputStream(f))) {
-            byte[] pageBuf = new byte[BufferPool.getPageSize()];
-            if (bis.skip((long) id.getPageNumber() * BufferPool.getPageSize()) != (long) id
-                    .getPageNumber() * BufferPool.getPageSize()) {
-                throw new IllegalArgumentException(
-                        "Unable to seek to correct place in heapfile");
-            }
-            int retval = bis.read(pageBuf, 0, BufferPool.getPageSize());
-            if (retval == -1) {
-                throw new IllegalArgumentException("Read past end of table");
-            }
-            if (retval < BufferPool.getPageSize()) {
-                throw new IllegalArgumentException("Unable to read "
-                        + BufferPool.getPageSize() + " bytes from heapfile");
+        byte[] pageBuf = new byte[pageSize];
+        ByteBuffer buf = ByteBuffer.wrap(pageBuf);
+        try {
+            FileChannel ch = channel();
+            while (buf.hasRemaining()) {
+                if (ch.read(buf, offset + buf.position()) == -1) {
+                    if (buf.position() == 0)
+                        throw new IllegalArgumentException("Read past end of table");
+                    throw new IllegalArgumentException("Unable to read "
+                            + pageSize + " bytes from heapfile");
+                }
             }
             Debug.log(1, "HeapFile.readPage: read page %d", id.getPageNumber());
-            return new HeapPage(id, pageBuf);
+            return createPage(id, pageBuf);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
-        // Close the file on success or error
-        // Ignore failures closing the file
     }
 
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
-        HeapPage p = (HeapPage) page;
-        // System.out.println("Writing back page " + p.getId().pageno());
-        byte[] data = p.getPageData();
-        RandomAccessFile rf = new RandomAccessFile(f, "rw");
-        rf.seek((long) p.getId().getPageNumber() * BufferPool.getPageSize());
-        rf.write(data);
-        rf.close();
+        TuplePage p = (TuplePage) page;
+        int pgNo = p.getId().getPageNumber();
+        // the saved zones must not be narrower than the page on disk
+        if (zones != null)
+            zones.beforeWrite();
+        ByteBuffer buf = writeBuffer();
+        p.writeTo(buf);
+        buf.flip();
+        writePageData(pgNo, buf);
+        notePages(pgNo + 1);
+        freeSpace.update(pgNo, p.getFreeSpace());
+    }
+
+    /**
+     * Returns this thread's cleared buffer for encoding pages to write.
+     * It is direct, so the channel writes it without another copy.
+     */
+    private static ByteBuffer writeBuffer() {
+        int pageSize = BufferPool.getPageSize();
+        ByteBuffer buf = WRITE_BUFFER.get();
+        if (buf == null || buf.capacity() != pageSize) {
+            buf = ByteBuffer.allocateDirect(pageSize);
+            WRITE_BUFFER.set(buf);
+        }
+        buf.clear();
+        return buf;
+    }
+
+    private void writePageData(int pgNo, ByteBuffer buf) throws IOException {
+        long offset = (long) pgNo * BufferPool.getPageSize();
+        FileChannel ch = channel();
+        while (buf.hasRemaining())
+            ch.write(buf, offset + buf.position());
     }
 
     /**
@@ -118,7 +217,32 @@ public class HeapFile implements DbFile {
     public int numPages() {
         // XXX: this seems to be rounding it down. isn't that wrong?
         // XXX: (marcua) no - we only ever write full pages
-        return (int) (f.length() / BufferPool.getPageSize());
+        try {
+            int n = (int) (channel().size() / BufferPool.getPageSize());
+            synchronized (this) {
+                if (n == reservedEnd) {
+                    // the end of the file is our preallocated extent
+                    return knownPages;
+                }
+                // someone else grew the file; the reserved pages are
+                // ordinary empty pages now
+                reservedEnd = -1;
+                notePages(n);
+            }
+            return n;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Returns the number of pages as of the last append or size check,
+     * without touching the file. Loops over the pages of the file use this
+     * and only call numPages() once they reach the end.
+     */
+    int cachedNumPages() {
+        int n = knownPages;
+        return n >= 0 ? n : numPages();
     }
 
     // see DbFile.java for javadocs
@@ -126,87 +250,108 @@ public class HeapFile implements DbFile {
             throws DbException, IOException, TransactionAbortedException {
         List<Page> dirtypages = new ArrayList<>();
 
-        // find the first page with a free slot in it
-        int i = 0;
-        if (lastEmptyPage != -1)
-            i = lastEmptyPage;
-        // XXX: Would it not be better to scan from numPages() to 0 since the
-        // last pages are more likely to have empty slots?
-        for (; i < numPages(); i++) {
+        // ask the free space map for a page with room; the transaction id
+        // spreads concurrent inserters over different pages
+        int need = spaceNeeded(t);
+        int i;
+        while ((i = freeSpace.choosePage(cachedNumPages(), tid.getId(), need)) != -1) {
             Debug.log(
                     4,
                     "HeapFile.addTuple: checking free slots on page %d of table %d",
                     i, tableid);
             HeapPageId pid = new HeapPageId(tableid, i);
-            HeapPage p = (HeapPage) Database.getBufferPool().getPage(tid, pid,
+            TuplePage p = (TuplePage) Database.getBufferPool().getPage(tid, pid,
                     Permissions.READ_WRITE);
 
-            // no empty slots
+            // no room
             //
             // think about why we have to invoke releasePage here.
             // can you think of ways where
-            if (p.getNumUnusedSlots() == 0) {
+            int free = p.getFreeSpace();
+            if (free < need) {
                 Debug.log(
                         4,
-                        "HeapFile.addTuple: no free slots on page %d of table %d",
+                        "HeapFile.addTuple: no room on page %d of table %d",
                         i, tableid);
+                freeSpace.update(i, free);
                 Database.getBufferPool().unsafeReleasePage(tid, pid);
-                // we mistakenly got here through lastEmptyPage, just add a page
-                // XXX we know this isn't very pretty.
-                if (lastEmptyPage != -1) {
-                    lastEmptyPage = -1;
-                    break;
-                }
                 continue;
             }
-            Debug.log(4, "HeapFile.addTuple: %d free slots in table %d",
-                    p.getNumUnusedSlots(), tableid);
+            Debug.log(4, "HeapFile.addTuple: %d free space on page %d of table %d",
+                    free, i, tableid);
+            if (zones != null)
+                zones.inserted(i, t);
             p.insertTuple(t);
-            lastEmptyPage = p.getId().getPageNumber();
-            // System.out.println("nfetches = " + nfetches);
+            freeSpace.update(i, p.getFreeSpace());
             dirtypages.add(p);
             return dirtypages;
         }
 
         // no empty slots -- append a page
-        // This must be synchronized so that the append operation is atomic.
-        // Otherwise a second
-        // thread could be blocked just after opening the file. The first
-        // transaction flushes
-        // new tuples to the page. The second transaction then overwrites the
-        // data with an empty
-        // page, losing the new data.
-        synchronized (this) {
-            BufferedOutputStream bw = new BufferedOutputStream(
-                    new FileOutputStream(f, true));
-            byte[] emptyData = HeapPage.createEmptyPageData();
-            bw.write(emptyData);
-            bw.close();
-        }
+        // allocatePage is synchronized so that two inserters never get the
+        // same page; otherwise the second could overwrite the first's new
+        // tuples with an empty page once they had been flushed.
+        int newPgNo = allocatePage();
 
         // by virtue of writing these bits to the HeapFile, it is now visible.
         // so some other dude may have obtained a read lock on the empty page
         // we just created---which is ok, we haven't yet added the tuple.
         // we just need to lock the page before we can add the tuple to it.
 
-        HeapPage p = (HeapPage) Database.getBufferPool()
-                .getPage(tid, new HeapPageId(tableid, numPages() - 1),
+        TuplePage p = (TuplePage) Database.getBufferPool()
+                .getPage(tid, new HeapPageId(tableid, newPgNo),
                         Permissions.READ_WRITE);
+        if (zones != null)
+            zones.inserted(newPgNo, t);
         p.insertTuple(t);
-        lastEmptyPage = p.getId().getPageNumber();
-        // System.out.println("nfetches = " + nfetches);
+        freeSpace.update(newPgNo, p.getFreeSpace());
         dirtypages.add(p);
         return dirtypages;
     }
 
+    /**
+     * Sets the number of pages the file is extended by at a time when
+     * inserts run out of room.
+     */
+    public synchronized void setExtentPages(int pages) {
+        if (pages < 1)
+            throw new IllegalArgumentException("extent must have at least one page");
+        extentPages = pages;
+    }
+
+    /**
+     * Hands out the next empty page at the end of the file. Pages are taken
+     * from the current extent; when it is used up, a new extent of
+     * extentPages zeroed pages, each a valid empty page, is written
+     * with a single write.
+     *
+     * @return the number of the new page, which numPages() now includes
+     */
+    private synchronized int allocatePage() throws IOException {
+        if (reservedEnd < 0 || knownPages >= reservedEnd) {
+            int first = numPages();
+            int pageSize = BufferPool.getPageSize();
+            writePageData(first, ByteBuffer.allocate(extentPages * pageSize));
+            reservedEnd = first + extentPages;
+            Debug.log(1, "HeapFile.allocatePage: reserved pages %d to %d of table %d",
+                    first, reservedEnd - 1, tableid);
+        }
+        int pgNo = knownPages;
+        notePages(pgNo + 1);
+        return pgNo;
+    }
+
     // see DbFile.java for javadocs
     public List<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
             TransactionAbortedException {
-        HeapPage p = (HeapPage) Database.getBufferPool().getPage(
+        TuplePage p = (TuplePage) Database.getBufferPool().getPage(
                 tid,
                 new HeapPageId(tableid, t.getRecordId().getPageId()
                         .getPageNumber()), Permissions.READ_WRITE);
         p.deleteTuple(t);
+        freeSpace.update(p.getId().getPageNumber(), p.getFreeSpace());
+        if (zones != null)
+            zones.deleted(p.getId().getPageNumber());
         List<Page> pages = new ArrayList<>();
         pages.add(p);
         return pages;
@@ -214,49 +359,187 @@ public class HeapFile implements DbFile {
 
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
-        return new HeapFileIterator(this, tid);
+        return new HeapFileIterator(this, tid, Collections.emptyList(), Collections.emptyList());
+    }
+
+    /**
+     * Returns an iterator over the tuples that satisfy all of the given
+     * predicates, which does not read the pages whose zones show that none
+     * of their tuples do.
+     *
+     * @param predicates predicates on the fields of this file's TupleDesc
+     */
+    public DbFileIterator iterator(TransactionId tid, List<Predicate> predicates) {
+        return new HeapFileIterator(this, tid, predicates, predicates);
+    }
+
+    /**
+     * Returns an iterator over the tuples that satisfy all of the given
+     * predicates, which also does not read the pages whose zones show that
+     * none of their tuples satisfy all of pagePredicates. The tuples
+     * returned are not checked against pagePredicates.
+     *
+     * @param predicates     predicates the tuples returned satisfy
+     * @param pagePredicates predicates that only rule out pages
+     */
+    public DbFileIterator iterator(TransactionId tid, List<Predicate> predicates,
+                                   List<Predicate> pagePredicates) {
+        List<Predicate> skip = new ArrayList<>(predicates);
+        skip.addAll(pagePredicates);
+        return new HeapFileIterator(this, tid, predicates, skip);
+    }
+
+    /**
+     * @return false if the zone map shows that no tuple on the page
+     *         satisfies all of the predicates
+     */
+    boolean mayMatch(int pgNo, List<Predicate> predicates) {
+        return predicates.isEmpty() || zones == null || zones.mayMatch(pgNo, predicates);
+    }
+
+    /**
+     * Called by scans for each page they read; rebuilds the zone of the page
+     * if it is loose or missing and no running transaction changed the page.
+     */
+    void pageRead(TuplePage p) {
+        if (zones == null || p.isDirty() != null || !zones.isStale(p.getId().getPageNumber()))
+            return;
+        zones.rebuild(p);
+    }
+
+    /**
+     * Saves the zone map to its side file; see {@link ZoneMap#save}.
+     */
+    public void saveZones() throws IOException {
+        if (zones != null)
+            zones.save();
     }
 
 }
 
 /**
- * Helper class that implements the Java Iterator for tuples on a HeapFile
+ * Helper class that implements the Java Iterator for tuples on a HeapFile.
+ * <p>
+ * While pages are visited in order, the iterator asks the buffer pool to
+ * prefetch the pages ahead of it. The read-ahead window starts small and
+ * doubles every time the scan catches up with pages it prefetched, up to
+ * MAX_READ_AHEAD pages or a quarter of the buffer pool; it starts over
+ * after a rewind.
+ * <p>
+ * Scans of tables that are large compared to the buffer pool read their
+ * pages through a {@link BufferRing}, and then read ahead at most half a
+ * ring so that prefetched pages are not recycled before they are used.
  */
 class HeapFileIterator extends AbstractDbFileIterator {
 
+    static final int MIN_READ_AHEAD = 4;
+    static final int MAX_READ_AHEAD = 64;
+
     Iterator<Tuple> it = null;
     int curpgno = 0;
 
+    // read-ahead state: the last page read, the last page prefetched and
+    // the current window size
+    private int lastpgno = -1;
+    private int prefetchedpgno = -1;
+    private int window = MIN_READ_AHEAD;
+    private BufferRing ring = null;
+
     final TransactionId tid;
     final HeapFile hf;
+    final List<Predicate> predicates;
+    // the predicates that rule out pages: predicates, and maybe others
+    final List<Predicate> pagePredicates;
 
-    public HeapFileIterator(HeapFile hf, TransactionId tid) {
+    public HeapFileIterator(HeapFile hf, TransactionId tid, List<Predicate> predicates,
+                            List<Predicate> pagePredicates) {
         this.hf = hf;
         this.tid = tid;
+        this.predicates = predicates;
+        this.pagePredicates = pagePredicates;
     }
 
     public void open() {
         curpgno = -1;
+        lastpgno = -1;
+        prefetchedpgno = -1;
+        window = MIN_READ_AHEAD;
+        ring = Database.getBufferPool().ringForScan(hf.cachedNumPages());
     }
 
     @Override
     protected Tuple readNext() throws TransactionAbortedException, DbException {
-        if (it != null && !it.hasNext())
-            it = null;
-
-        while (it == null && curpgno < hf.numPages() - 1) {
-            curpgno++;
-            HeapPageId curpid = new HeapPageId(hf.getId(), curpgno);
-            HeapPage curp = (HeapPage) Database.getBufferPool().getPage(tid,
-                    curpid, Permissions.READ_ONLY);
-            it = curp.iterator();
-            if (!it.hasNext())
+        while (true) {
+            if (it != null && !it.hasNext())
                 it = null;
+
+            while (it == null && hasNextPage()) {
+                curpgno++;
+                if (!hf.mayMatch(curpgno, pagePredicates)) {
+                    // skipping a page does not break a sequential scan
+                    lastpgno = curpgno;
+                    continue;
+                }
+                readAhead();
+                HeapPageId curpid = new HeapPageId(hf.getId(), curpgno);
+                TuplePage curp = (TuplePage) Database.getBufferPool().getPage(tid,
+                        curpid, Permissions.READ_ONLY, ring);
+                hf.pageRead(curp);
+                it = curp.iterator();
+                if (!it.hasNext())
+                    it = null;
+            }
+
+            if (it == null)
+                return null;
+            Tuple t = it.next();
+            if (matches(t))
+                return t;
         }
+    }
+
+    private boolean matches(Tuple t) {
+        for (Predicate p : predicates) {
+            if (!p.filter(t))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Called before page curpgno is read; prefetches the next pages once
+     * fewer than half a window of them are already on their way.
+     */
+    private void readAhead() {
+        boolean sequential = curpgno == lastpgno + 1;
+        lastpgno = curpgno;
+        if (!sequential) {
+            window = MIN_READ_AHEAD;
+            prefetchedpgno = curpgno;
+            return;
+        }
+        if (prefetchedpgno - curpgno >= window / 2)
+            return;
+        BufferPool bp = Database.getBufferPool();
+        // never more than the pool (or ring) can hold alongside other pages
+        int max = Math.min(MAX_READ_AHEAD, Math.max(1, bp.numPages / 4));
+        if (ring != null)
+            max = Math.min(max, Math.max(1, ring.capacity() / 2));
+        if (prefetchedpgno >= curpgno)
+            window *= 2;
+        window = Math.min(window, max);
+
+        int last = Math.min(curpgno + window, hf.cachedNumPages() - 1);
+        for (int pgno = Math.max(prefetchedpgno, curpgno) + 1; pgno <= last; pgno++) {
+            if (hf.mayMatch(pgno, pagePredicates))
+                bp.prefetchPage(new HeapPageId(hf.getId(), pgno), ring);
+        }
+        prefetchedpgno = Math.max(prefetchedpgno, last);
+    }
 
-        if (it == null)
-            return null;
-        return it.next();
+    private boolean hasNextPage() {
+        // only look at the file again once the cached page count runs out
+        return curpgno < hf.cachedNumPages() - 1 || curpgno < hf.numPages() - 1;
     }
 
     public void rewind() {
@@ -4,15 +4,19 @@ import simpledb.common.Type;
 import simpledb.common.Utility;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.regex.Pattern;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts
  * an array of tuples and converts it to
  * pages of binary data in the appropriate format for simpledb heap pages
  * Pages are padded out to a specified length, and written consecutive in a
- * data file.
+ * data file. {@link #convertSlotted} writes the pages of a SlottedHeapFile
+ * instead.
  */
 
 public class HeapFileEncoder {
@@ -158,11 +162,20 @@ public class HeapFileEncoder {
                     pageStream.writeBytes(s);
                     while (overflow-- > 0)
                         pageStream.write((byte) 0);
+                } else if (typeAr[fieldNo] == Type.VARCHAR_TYPE) {
+                    s = s.trim();
+                    if (s.length() > Type.STRING_LEN)
+                        s = s.substring(0, Type.STRING_LEN);
+                    pageStream.writeShort(s.length());
+                    pageStream.writeBytes(s);
                 }
                 curpos = 0;
-                if (c == '\n')
+                if (c == '\n') {
                     fieldNo = 0;
-                else
+                    // VARCHARs are not padded, so pad the record to its slot
+                    while (pageStream.size() < recordcount * nrecbytes)
+                        pageStream.write((byte) 0);
+                } else
                     fieldNo++;
 
             } else if (c == -1) {
@@ -225,4 +238,90 @@ public class HeapFileEncoder {
         br.close();
         os.close();
     }
+    /**
+     * Convert the specified input text file, in the format
+     * {@link #convert(File, File, int, int, Type[], char)} reads, into the
+     * pages of a {@link SlottedHeapFile}: each tuple is stored in the bytes
+     * its fields serialize to, so VARCHAR fields take only the space of
+     * their values.
+     *
+     * @param inFile         The input file to read data from
+     * @param outFile        The output file to write data to
+     * @param npagebytes     The number of bytes per page in the output file
+     * @param typeAr         the types of the fields of each line
+     * @param fieldSeparator the character between the fields of a line
+     * @throws IOException if the input/output file can't be opened or a
+     *                     tuple does not fit on a page
+     * @see SlottedPage
+     */
+    public static void convertSlotted(File inFile, File outFile, int npagebytes,
+                                      Type[] typeAr, char fieldSeparator)
+            throws IOException {
+        List<byte[]> records = new ArrayList<>();
+        int used = SlottedPage.HEADER_SIZE;
+        int npages = 0;
+
+        try (BufferedReader br = new BufferedReader(new FileReader(inFile));
+             OutputStream os = new BufferedOutputStream(new FileOutputStream(outFile))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (line.trim().isEmpty())
+                    continue;
+                String[] values = line.split(Pattern.quote(String.valueOf(fieldSeparator)), -1);
+                ByteArrayOutputStream record = new ByteArrayOutputStream();
+                DataOutputStream dos = new DataOutputStream(record);
+                for (int i = 0; i < typeAr.length; i++) {
+                    String v = i < values.length ? values[i].trim() : "";
+                    if (typeAr[i] == Type.INT_TYPE) {
+                        try {
+                            dos.writeInt(Integer.parseInt(v));
+                        } catch (NumberFormatException e) {
+                            System.out.println("BAD LINE : " + line);
+                            dos.writeInt(0);
+                        }
+                    } else if (typeAr[i] == Type.STRING_TYPE) {
+                        new StringField(v, Type.STRING_LEN).serialize(dos);
+                    } else {
+                        new VarcharField(v.length() > Type.STRING_LEN
+                                ? v.substring(0, Type.STRING_LEN) : v).serialize(dos);
+                    }
+                }
+                byte[] r = record.toByteArray();
+                if (SlottedPage.HEADER_SIZE + SlottedPage.SLOT_SIZE + r.length > npagebytes)
+                    throw new IOException("tuple does not fit on a page: " + line);
+                if (used + SlottedPage.SLOT_SIZE + r.length > npagebytes) {
+                    os.write(slottedPage(records, npagebytes));
+                    npages++;
+                    records.clear();
+                    used = SlottedPage.HEADER_SIZE;
+                }
+                records.add(r);
+                used += SlottedPage.SLOT_SIZE + r.length;
+            }
+            // an empty file still gets an (all-zero) empty page
+            if (!records.isEmpty() || npages == 0)
+                os.write(slottedPage(records, npagebytes));
+        }
+    }
+
+    /**
+     * @return the image of a SlottedPage holding the given records, packed
+     *         at the end of the page in slot order
+     */
+    private static byte[] slottedPage(List<byte[]> records, int npagebytes) {
+        ByteBuffer page = ByteBuffer.allocate(npagebytes);
+        int end = npagebytes;
+        page.putShort(0, (short) records.size());
+        for (int slot = 0; slot < records.size(); slot++) {
+            byte[] r = records.get(slot);
+            end -= r.length;
+            page.position(end);
+            page.put(r);
+            int dir = SlottedPage.HEADER_SIZE + slot * SlottedPage.SLOT_SIZE;
+            page.putShort(dir, (short) end);
+            page.putShort(dir + 2, (short) r.length);
+        }
+        page.putShort(2, (short) (npagebytes - end));
+        return page.array();
+    }
 }
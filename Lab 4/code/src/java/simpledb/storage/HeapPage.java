@@ -7,28 +7,49 @@ import simpledb.common.Debug;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and
  * implements the Page interface that is used by BufferPool.
+ * <p>
+ * A page keeps the raw image it was read from and decodes a tuple only
+ * when it is asked for it, caching the result per slot. Changes are
+ * written through to the image, so serializing the page is a copy.
+ * <p>
+ * The before-image shares the page image rather than copying it: the image
+ * is copied only when the page is first changed after the before-image was
+ * taken, so pages that are only read never pay for it.
  *
  * @see HeapFile
  * @see BufferPool
  */
-public class HeapPage implements Page {
+public class HeapPage implements TuplePage {
     private volatile boolean dirty = false;
     private volatile TransactionId dirtier = null;
 
     final HeapPageId pid;
     final TupleDesc td;
     final byte[] header;
+    // decoded tuples, filled in on first access to each slot
     final Tuple[] tuples;
     final int numSlots;
 
+    // the page image the tuples are decoded from. While sharedData is set
+    // it matches the page exactly and may also be referenced by the caller
+    // of the constructor or by oldData, so it is copied before any change.
+    private byte[] data;
+    private boolean sharedData;
+
+    // source of the zeroes written for empty slots and padding
+    private static final byte[] ZEROES = new byte[1024];
+
+    // guarded by oldDataLock, as are data and sharedData while they change
     byte[] oldData;
-    private final Byte oldDataLock = (byte) 0;
+    private final Object oldDataLock = new Object();
 
     /**
      * Create a HeapPage from a set of bytes of data read from disk.
@@ -51,24 +72,14 @@ public class HeapPage implements Page {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
-
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i = 0; i < header.length; i++)
-            header[i] = dis.readByte();
 
+        // the header is small and changes often, so it gets its own array;
+        // tuples stay encoded until they are read
+        header = Arrays.copyOf(data, getHeaderSize());
         tuples = new Tuple[numSlots];
-        try {
-            // allocate and read the actual records of this page
-            for (int i = 0; i < tuples.length; i++)
-                tuples[i] = readNextTuple(dis, i);
-        } catch (NoSuchElementException e) {
-            e.printStackTrace();
-        }
-        dis.close();
-
-        setBeforeImage();
+        this.data = data;
+        this.sharedData = true;
+        this.oldData = data;
     }
 
     /**
@@ -118,7 +129,13 @@ public class HeapPage implements Page {
 
     public void setBeforeImage() {
         synchronized (oldDataLock) {
-            oldData = getPageData().clone();
+            if (!sharedData) {
+                // bring the image up to date and share it; the next change
+                // copies it again
+                System.arraycopy(header, 0, data, 0, header.length);
+                sharedData = true;
+            }
+            oldData = data;
         }
     }
 
@@ -129,38 +146,53 @@ public class HeapPage implements Page {
         return pid;
     }
 
+    private int slotOffset(int slotId) {
+        return header.length + slotId * td.getSize();
+    }
+
+    /**
+     * Decode the tuple in a used slot from the page image.
+     */
+    private Tuple decodeTuple(int slotId) {
+        Tuple t = new Tuple(td);
+        t.setRecordId(new RecordId(pid, slotId));
+        ByteBuffer buf = ByteBuffer.wrap(data, slotOffset(slotId), td.getSize());
+        for (int j = 0; j < td.numFields(); j++)
+            t.setField(j, td.getFieldType(j).parse(buf));
+        return t;
+    }
+
     /**
-     * Suck up tuples from the source file.
+     * Make sure the page image is a full-size array owned by this page
+     * before changing the page.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i = 0; i < td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
+    private void ownData() {
+        synchronized (oldDataLock) {
+            if (sharedData) {
+                data = Arrays.copyOf(data, BufferPool.getPageSize());
+                sharedData = false;
             }
-            return null;
         }
+    }
 
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
+    /**
+     * Write a tuple into its slot of the page image.
+     */
+    private void encodeTuple(int slotId, Tuple t) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(td.getSize());
+        DataOutputStream dos = new DataOutputStream(baos);
         try {
-            for (int j = 0; j < td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
+            for (int j = 0; j < td.numFields(); j++)
+                t.getField(j).serialize(dos);
+            dos.flush();
+        } catch (IOException e) {
+            // this really shouldn't happen
             e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
         }
-
-        return t;
+        // variable-length fields may leave the end of the slot unused
+        int len = baos.size();
+        System.arraycopy(baos.toByteArray(), 0, data, slotOffset(slotId), len);
+        Arrays.fill(data, slotOffset(slotId) + len, slotOffset(slotId + 1), (byte) 0);
     }
 
     /**
@@ -175,64 +207,45 @@ public class HeapPage implements Page {
      * @see #HeapPage
      */
     public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (byte b : header) {
-            try {
-                dos.writeByte(b);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
-
-        // create the tuples
-        for (int i = 0; i < tuples.length; i++) {
-
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j = 0; j < td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
-                continue;
-            }
-
-            // non-empty slot
-            for (int j = 0; j < td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
+        byte[] pageData = new byte[BufferPool.getPageSize()];
+        writeTo(ByteBuffer.wrap(pageData));
+        return pageData;
+    }
 
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
+    /**
+     * Writes the page as getPageData would, one bulk put per run of used
+     * or empty slots.
+     */
+    @Override
+    public void writeTo(ByteBuffer buf) {
+        buf.put(header);
+        int slot = 0;
+        while (slot < numSlots) {
+            boolean used = isSlotUsed(slot);
+            int end = slot + 1;
+            while (end < numSlots && isSlotUsed(end) == used)
+                end++;
+            int from = slotOffset(slot);
+            int to = slotOffset(end);
+            if (used) {
+                int copied = Math.max(0, Math.min(to, data.length) - from);
+                buf.put(data, from, copied);
+                putZeroes(buf, to - from - copied);
+            } else {
+                putZeroes(buf, to - from);
             }
+            slot = end;
         }
+        // padding at the end of the page
+        putZeroes(buf, BufferPool.getPageSize() - slotOffset(numSlots));
+    }
 
-        // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
+    private static void putZeroes(ByteBuffer buf, int n) {
+        while (n > 0) {
+            int len = Math.min(n, ZEROES.length);
+            buf.put(ZEROES, 0, len);
+            n -= len;
         }
-
-        return baos.toByteArray();
     }
 
     /**
@@ -263,7 +276,9 @@ public class HeapPage implements Page {
             throw new DbException("tried to delete tuple on invalid page or table");
         if (!isSlotUsed(rid.getTupleNumber()))
             throw new DbException("tried to delete null tuple.");
+        ownData();
         markSlotUsed(rid.getTupleNumber(), false);
+        tuples[rid.getTupleNumber()] = null;
     }
 
     /**
@@ -290,10 +305,12 @@ public class HeapPage implements Page {
         if (goodSlot == -1)
             throw new DbException("called addTuple on page with no empty slots.");
 
+        ownData();
         markSlotUsed(goodSlot, true);
         Debug.log(1, "HeapPage.addTuple: new tuple, tableId = %d pageId = %d slotId = %d", pid.getTableId(), pid.getPageNumber(), goodSlot);
         RecordId rid = new RecordId(pid, goodSlot);
         t.setRecordId(rid);
+        encodeTuple(goodSlot, t);
         tuples[goodSlot] = t;
     }
 
@@ -321,11 +338,21 @@ public class HeapPage implements Page {
      * Returns the number of unused (i.e., empty) slots on this page.
      */
     public int getNumUnusedSlots() {
-        int cnt = 0;
-        for (int i = 0; i < numSlots; i++)
-            if (!isSlotUsed(i))
-                cnt++;
-        return cnt;
+        int used = 0;
+        for (int i = 0; i < numSlots / 8; i++)
+            used += Integer.bitCount(header[i] & 0xFF);
+        // bits past the last slot are not counted
+        if (numSlots % 8 != 0)
+            used += Integer.bitCount(header[numSlots / 8] & ((1 << (numSlots % 8)) - 1));
+        return numSlots - used;
+    }
+
+    /**
+     * Returns the number of unused slots; a HeapPage measures free space
+     * in slots.
+     */
+    public int getFreeSpace() {
+        return getNumUnusedSlots();
     }
 
     /**
@@ -373,7 +400,13 @@ public class HeapPage implements Page {
             }
 
             Debug.log(1, "HeapPage.getTuple: returning tuple %d", i);
-            return tuples[i];
+            Tuple t = tuples[i];
+            if (t == null) {
+                // concurrent readers may both decode the slot; either copy will do
+                t = decodeTuple(i);
+                tuples[i] = t;
+            }
+            return t;
 
         } catch (ArrayIndexOutOfBoundsException e) {
             throw new NoSuchElementException();
@@ -2,164 +2,465 @@ package simpledb.storage;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import simpledb.common.DeadlockException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ToIntFunction;
 
 import simpledb.transaction.*;
 
+/**
+ * LockManager implements page-level shared/exclusive locks for strict
+ * two-phase locking.
+ * <p>
+ * Every page with outstanding requests has its own queue, guarded by its own
+ * latch. Requests are granted in FIFO order as long as they are compatible
+ * with the locks already granted; a transaction that upgrades its shared
+ * lock to an exclusive one jumps ahead of all other waiters. Waiting
+ * transactions sleep on the queue's condition and are woken when a lock on
+ * that page is released.
+ * <p>
+ * Deadlocks are detected as soon as they form: the queues keep a wait-for
+ * graph up to date, and every transaction that blocks looks for a cycle
+ * through itself. The transaction on the cycle that is cheapest to abort
+ * gets a {@link TransactionAbortedException}.
+ *
+ * @Threadsafe
+ */
 public class LockManager {
-    private class Lock {
-        TransactionId tid;
+
+    private static class Lock {
+        final TransactionId tid;
         // false for shared lock or true for exclusive lock
         boolean lockType;
+        final LockQueue queue;
+        // guarded by queue.latch
+        boolean granted = false;
+        boolean aborted = false;
 
-        public Lock(TransactionId tid, boolean lockType) {
+        public Lock(TransactionId tid, boolean lockType, LockQueue queue) {
             this.tid = tid;
             this.lockType = lockType;
+            this.queue = queue;
         }
     }
 
-    // private class DependencyGraph {
-    //     private ConcurrentHashMap<TransactionId, HashSet<TransactionId>> graph;
-
-    //     public DependencyGraph() {
-    //         graph = new ConcurrentHashMap<>();
-    //     }
-
-    //     public void addNode(TransactionId tid) {
-    //         if (graph.containsKey(tid)) {
-    //             return;
-    //         }
-    //         graph.put(tid, new HashSet<>());
-    //     }
-
-    //     public void addEdge(TransactionId from, TransactionId to) {
-    //         addNode(from);
-    //         addNode(to);
-    //         graph.get(from).add(to);
-    //     }
-
-    //     public void removeNode(TransactionId tid) {
-    //         for (TransactionId tidToRemove : graph.keySet()) {
-    //             HashSet<TransactionId> transactions = graph.get(tidToRemove);
-    //             transactions.remove(tid);
-    //         }
-    //         graph.remove(tid);
-    //     }
-
-    //     public void removeEdgy(TransactionId from, TransactionId to) {
-    //         if (graph.containsKey(from) && graph.containsKey(to)) {
-    //             graph.get(from).remove(to);
-    //         }
-    //     }
-
-    //     public boolean isCyclic() {
-    //         ConcurrentHashMap<TransactionId, Boolean> visited = new ConcurrentHashMap<>();
-    //         ConcurrentHashMap<TransactionId, Boolean> path = new ConcurrentHashMap<>();
-    //         for (TransactionId tid : graph.keySet()) {
-    //             if (dfs(tid, visited, path)) {
-    //                 return true;
-    //             }
-    //         }
-    //         return false;
-    //     }
-
-    //     private boolean dfs(TransactionId tid,
-    //                         ConcurrentHashMap<TransactionId, Boolean> visited,
-    //                         ConcurrentHashMap<TransactionId, Boolean> path) {
-    //         if (path.getOrDefault(tid, false)) {
-    //             return false;
-    //         }
-    //         if (visited.getOrDefault(tid, false)) {
-    //             return true;
-    //         }
-    //         visited.put(tid, true);
-    //         path.put(tid, true);
-    //         HashSet<TransactionId> transactions = graph.get(tid);
-    //         for (TransactionId tidToTraverse : transactions) {
-    //             if (dfs(tidToTraverse, visited, path)) {
-    //                 return true;
-    //             }
-    //         }
-    //         path.put(tid, false);
-    //         return false;
-    //     }
-    // }
-
-    ConcurrentHashMap<PageId, ArrayList<Lock>> lockMap;
+    /**
+     * The granted locks and the waiting requests on a single page. A queue
+     * that has become empty is retired and dropped from the lock table; a
+     * thread that finds a retired queue looks the page up again.
+     */
+    private static class LockQueue {
+        final PageId pid;
+        final ReentrantLock latch = new ReentrantLock();
+        final Condition changed = latch.newCondition();
+        final List<Lock> granted = new ArrayList<>();
+        final Deque<Lock> waiting = new ArrayDeque<>();
+        boolean retired = false;
 
-    public LockManager() {
-        lockMap = new ConcurrentHashMap<>();
-    }
+        LockQueue(PageId pid) {
+            this.pid = pid;
+        }
 
-    public synchronized boolean acquireLock(TransactionId tid, PageId pid, boolean lockType) {
-        if (!lockMap.containsKey(pid)) {
-            Lock lock = new Lock(tid, lockType);
-            ArrayList<Lock> locks = new ArrayList<>();
-            locks.add(lock);
-            lockMap.put(pid, locks);
+        Lock grantedTo(TransactionId tid) {
+            for (Lock lock : granted) {
+                if (lock.tid.equals(tid))
+                    return lock;
+            }
+            return null;
+        }
+
+        /**
+         * Whether a request could be granted next to the locks that are
+         * already granted, ignoring the lock its own transaction holds.
+         */
+        boolean compatible(Lock request) {
+            for (Lock lock : granted) {
+                if (lock.tid.equals(request.tid))
+                    continue;
+                if (request.lockType || lock.lockType)
+                    return false;
+            }
             return true;
         }
+    }
+
+    /**
+     * The wait-for graph: an edge from T1 to T2 means that T1 waits for a
+     * lock that T2 holds, or that T2 is ahead of T1 in the same queue.
+     * A transaction waits for at most one lock at a time.
+     */
+    private static class DependencyGraph {
+        private final Map<TransactionId, Set<TransactionId>> graph = new HashMap<>();
+        private final Map<TransactionId, Lock> waitingFor = new HashMap<>();
+
+        synchronized void setEdges(Lock request, Set<TransactionId> blockers) {
+            graph.put(request.tid, blockers);
+            waitingFor.put(request.tid, request);
+        }
+
+        synchronized void removeNode(TransactionId tid) {
+            graph.remove(tid);
+            waitingFor.remove(tid);
+        }
+
+        /**
+         * @return the pending requests of the transactions on a cycle through
+         *         start, or null if start is not deadlocked
+         */
+        synchronized List<Lock> findCycle(TransactionId start) {
+            Deque<TransactionId> path = new ArrayDeque<>();
+            if (!dfs(start, start, new HashSet<>(), path))
+                return null;
+            List<Lock> cycle = new ArrayList<>();
+            for (TransactionId tid : path)
+                cycle.add(waitingFor.get(tid));
+            return cycle;
+        }
 
-        ArrayList<Lock> locks = lockMap.get(pid);
-        for (int i = 0; i < locks.size(); i++) {
-            Lock lock = locks.get(i);
-            if (lock.tid.equals(tid)) {
-                if (lock.lockType == lockType || lock.lockType) {
+        private boolean dfs(TransactionId tid, TransactionId start,
+                            Set<TransactionId> visited, Deque<TransactionId> path) {
+            Set<TransactionId> edges = graph.get(tid);
+            if (edges == null)
+                return false; // not waiting, so not on any cycle
+            visited.add(tid);
+            path.addLast(tid);
+            for (TransactionId next : edges) {
+                if (next.equals(start))
                     return true;
-                }
-                if (locks.size() == 1) {
-                    lock.lockType = true;
+                if (!visited.contains(next) && dfs(next, start, visited, path))
                     return true;
-                } else {
-                    return false;
-                }
             }
+            path.removeLast();
+            return false;
         }
+    }
 
-        if (locks.size() == 1 && locks.get(0).lockType) {
-            return false;
+    private final ConcurrentHashMap<PageId, LockQueue> lockMap;
+    // the pages each transaction holds a lock on, so that commit and abort
+    // only visit the transaction's own pages
+    private final ConcurrentHashMap<TransactionId, Set<PageId>> lockedPages =
+            new ConcurrentHashMap<>();
+    private final DependencyGraph dependencies = new DependencyGraph();
+    private final ToIntFunction<TransactionId> abortCost;
+
+    private final AtomicLong deadlocks = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+
+    /**
+     * Creates a LockManager that resolves deadlocks by aborting the
+     * transaction holding the fewest exclusive locks.
+     */
+    public LockManager() {
+        lockMap = new ConcurrentHashMap<>();
+        abortCost = this::numExclusiveLocks;
+    }
+
+    /**
+     * Creates a LockManager that resolves deadlocks by aborting the
+     * transaction with the lowest abort cost.
+     *
+     * @param abortCost estimates the work lost by aborting a transaction,
+     *                  e.g. the number of pages it has dirtied
+     */
+    public LockManager(ToIntFunction<TransactionId> abortCost) {
+        lockMap = new ConcurrentHashMap<>();
+        this.abortCost = abortCost;
+    }
+
+    /**
+     * @return the number of deadlocks that were broken by aborting a transaction
+     */
+    public long getDeadlockCount() {
+        return deadlocks.get();
+    }
+
+    /**
+     * @return the total time transactions have spent blocked on locks
+     */
+    public long getLockWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(waitNanos.get());
+    }
+
+    /**
+     * Look up the queue of a page, creating it if needed, and return it with
+     * its latch held.
+     */
+    private LockQueue latchQueue(PageId pid) {
+        while (true) {
+            LockQueue q = lockMap.computeIfAbsent(pid, LockQueue::new);
+            q.latch.lock();
+            if (!q.retired)
+                return q;
+            q.latch.unlock();
         }
+    }
 
-        if (!lockType) {
-            Lock lock = new Lock(tid, false);
-            locks.add(lock);
-            lockMap.put(pid, locks);
-            return true;
+    /**
+     * Drop the queue from the lock table if nobody holds or waits for a lock
+     * on the page any more. Caller holds the queue's latch.
+     */
+    private void retireIfEmpty(LockQueue q) {
+        if (q.granted.isEmpty() && q.waiting.isEmpty()) {
+            q.retired = true;
+            lockMap.remove(q.pid, q);
         }
-        return false;
     }
 
-    public synchronized boolean releaseLock(TransactionId tid, PageId pid) {
-        if (!lockMap.containsKey(pid)) {
-            return false;
+    /**
+     * Grant waiting requests from the head of the queue for as long as they
+     * are compatible, wake the waiters if anything changed, and bring the
+     * wait-for edges of the remaining waiters up to date. Caller holds the
+     * queue's latch.
+     */
+    private void grantWaiters(LockQueue q) {
+        boolean any = false;
+        while (!q.waiting.isEmpty()) {
+            Lock request = q.waiting.peekFirst();
+            if (request.aborted) {
+                // its thread is on the way out; never grant it
+                q.waiting.removeFirst();
+                continue;
+            }
+            if (!q.compatible(request))
+                break;
+            q.waiting.removeFirst();
+            Lock held = q.grantedTo(request.tid);
+            if (held != null) {
+                held.lockType = true; // upgrade
+            } else {
+                q.granted.add(request);
+                lockedPages.compute(request.tid, (tid, pids) -> {
+                    if (pids == null)
+                        pids = ConcurrentHashMap.newKeySet();
+                    pids.add(q.pid);
+                    return pids;
+                });
+            }
+            request.granted = true;
+            dependencies.removeNode(request.tid);
+            any = true;
+        }
+        if (any)
+            q.changed.signalAll();
+
+        Set<TransactionId> ahead = new HashSet<>();
+        for (Lock request : q.waiting) {
+            if (request.aborted)
+                continue;
+            Set<TransactionId> blockers = new HashSet<>(ahead);
+            for (Lock lock : q.granted) {
+                if (request.lockType || lock.lockType)
+                    blockers.add(lock.tid);
+            }
+            blockers.remove(request.tid);
+            dependencies.setEdges(request, blockers);
+            ahead.add(request.tid);
+        }
+    }
+
+    /**
+     * Acquire a lock on the specified page, blocking until it is granted.
+     * Re-acquiring a lock that is already held, or a shared lock while
+     * holding an exclusive one, returns immediately.
+     *
+     * @param tid      the transaction requesting the lock
+     * @param pid      the page to lock
+     * @param lockType false for a shared lock, true for an exclusive lock
+     * @throws TransactionAbortedException if the transaction was chosen as
+     *                                     the victim of a deadlock
+     */
+    public void acquireLock(TransactionId tid, PageId pid, boolean lockType)
+            throws TransactionAbortedException {
+        LockQueue q = latchQueue(pid);
+        Lock request;
+        try {
+            Lock held = q.grantedTo(tid);
+            if (held != null && (held.lockType || !lockType))
+                return;
+
+            request = new Lock(tid, lockType, q);
+            if (held != null) {
+                // upgrades go before every other waiter
+                q.waiting.addFirst(request);
+            } else {
+                q.waiting.addLast(request);
+            }
+            grantWaiters(q);
+            if (request.granted)
+                return;
+        } finally {
+            q.latch.unlock();
         }
 
-        ArrayList<Lock> locks = lockMap.get(pid);
-        for (int i = 0; i < locks.size(); i++) {
-            Lock lock = locks.get(i);
-            if (lock.tid.equals(tid)) {
-                locks.remove(i);
-                if (locks.size() == 0) {
-                    lockMap.remove(pid);
-                }
-                return true;
+        long start = System.nanoTime();
+        try {
+            // a new edge can only close cycles through the transaction that
+            // just blocked; break them one at a time. A cycle is counted only
+            // by whoever marks its victim aborted, and choosing this request
+            // goes through the same check, so the wait below throws
+            Lock victim;
+            while ((victim = chooseVictim(dependencies.findCycle(tid))) != null) {
+                if (abortWaiter(victim))
+                    deadlocks.incrementAndGet();
+                if (victim == request)
+                    break;
+            }
+
+            q.latch.lock();
+            try {
+                while (!request.granted && !request.aborted)
+                    q.changed.await();
+                if (!request.granted)
+                    throw new TransactionAbortedException();
+            } finally {
+                q.latch.unlock();
             }
+        } catch (InterruptedException e) {
+            throw new TransactionAbortedException();
+        } finally {
+            waitNanos.addAndGet(System.nanoTime() - start);
+            withdraw(request);
         }
+    }
 
-        return false;
+    /**
+     * Remove a request that is still waiting from its queue, e.g. because
+     * its transaction is being aborted; the requests behind it may now be
+     * grantable.
+     */
+    private void withdraw(Lock request) {
+        LockQueue q = request.queue;
+        q.latch.lock();
+        try {
+            if (request.granted)
+                return;
+            q.waiting.remove(request);
+            dependencies.removeNode(request.tid);
+            grantWaiters(q);
+            retireIfEmpty(q);
+        } finally {
+            q.latch.unlock();
+        }
     }
 
-    public synchronized boolean holdsLock(TransactionId tid, PageId pid) {
-        if (!lockMap.containsKey(pid)) {
+    /**
+     * Pick the request on a deadlock cycle whose transaction is cheapest to
+     * abort; among equally cheap ones, the youngest transaction.
+     */
+    private Lock chooseVictim(List<Lock> cycle) {
+        if (cycle == null)
+            return null;
+        Lock victim = null;
+        int victimCost = Integer.MAX_VALUE;
+        for (Lock request : cycle) {
+            int cost = abortCost.applyAsInt(request.tid);
+            if (victim == null || cost < victimCost
+                    || (cost == victimCost && request.tid.getId() > victim.tid.getId())) {
+                victim = request;
+                victimCost = cost;
+            }
+        }
+        return victim;
+    }
+
+    /**
+     * Make a waiting request fail with TransactionAbortedException, and drop
+     * its transaction from the wait-for graph right away.
+     *
+     * @return false if the request was granted or aborted in the meantime
+     */
+    private boolean abortWaiter(Lock request) {
+        LockQueue q = request.queue;
+        q.latch.lock();
+        try {
+            if (request.granted || request.aborted)
+                return false;
+            request.aborted = true;
+            dependencies.removeNode(request.tid);
+            q.changed.signalAll();
+            return true;
+        } finally {
+            q.latch.unlock();
+        }
+    }
+
+    /**
+     * Release the lock the transaction holds on the page and grant the
+     * waiting requests that became compatible.
+     *
+     * @return false if the transaction held no lock on the page
+     */
+    public boolean releaseLock(TransactionId tid, PageId pid) {
+        LockQueue q = lockMap.get(pid);
+        if (q == null)
             return false;
+        q.latch.lock();
+        try {
+            Lock held = q.retired ? null : q.grantedTo(tid);
+            if (held == null)
+                return false;
+            q.granted.remove(held);
+            lockedPages.computeIfPresent(tid, (t, pids) -> {
+                pids.remove(pid);
+                return pids.isEmpty() ? null : pids;
+            });
+            grantWaiters(q);
+            retireIfEmpty(q);
+            return true;
+        } finally {
+            q.latch.unlock();
         }
-        ArrayList<Lock> locks = lockMap.get(pid);
-        for (int i = 0; i < locks.size(); i++) {
-            Lock lock = locks.get(i);
-            if (lock.tid.equals(tid)) {
-                return true;
+    }
+
+    /**
+     * Release every lock the transaction holds, visiting only its own pages.
+     */
+    public void releaseAllLocks(TransactionId tid) {
+        for (PageId pid : getLockedPages(tid))
+            releaseLock(tid, pid);
+    }
+
+    /**
+     * @return a snapshot of the pages the transaction holds a lock on
+     */
+    public Set<PageId> getLockedPages(TransactionId tid) {
+        Set<PageId> pids = lockedPages.get(tid);
+        return pids == null ? Collections.emptySet() : new HashSet<>(pids);
+    }
+
+    public boolean holdsLock(TransactionId tid, PageId pid) {
+        LockQueue q = lockMap.get(pid);
+        if (q == null)
+            return false;
+        q.latch.lock();
+        try {
+            return !q.retired && q.grantedTo(tid) != null;
+        } finally {
+            q.latch.unlock();
+        }
+    }
+
+    /**
+     * Default abort cost: the number of exclusive locks the transaction
+     * holds, i.e. the pages it may have modified.
+     */
+    private int numExclusiveLocks(TransactionId tid) {
+        int n = 0;
+        for (PageId pid : getLockedPages(tid)) {
+            LockQueue q = lockMap.get(pid);
+            if (q == null)
+                continue;
+            q.latch.lock();
+            try {
+                Lock held = q.grantedTo(tid);
+                if (held != null && held.lockType)
+                    n++;
+            } finally {
+                q.latch.unlock();
             }
         }
-        return false;
+        return n;
     }
 }
@@ -10,6 +10,7 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 /*
@@ -80,6 +81,8 @@ public class LogFile {
 
     final File logFile;
     private RandomAccessFile raf;
+    // reused to encode page images into; guarded by this
+    private ByteBuffer pageBuf = ByteBuffer.allocate(0);
     Boolean recoveryUndecided; // no call to recover() and no append to log
 
     static final int ABORT_RECORD = 1;
@@ -250,9 +253,13 @@ public class LogFile {
         for (int j : pageInfo) {
             raf.writeInt(j);
         }
-        byte[] pageData = p.getPageData();
-        raf.writeInt(pageData.length);
-        raf.write(pageData);
+        int pageSize = BufferPool.getPageSize();
+        if (pageBuf.capacity() < pageSize)
+            pageBuf = ByteBuffer.allocate(pageSize);
+        pageBuf.clear();
+        p.writeTo(pageBuf);
+        raf.writeInt(pageBuf.position());
+        raf.write(pageBuf.array(), 0, pageBuf.position());
         //        Debug.log ("WROTE PAGE DATA, CLASS = " + pageClassName + ", table = " +  pid.getTableId() + ", page = " + pid.pageno());
     }
 
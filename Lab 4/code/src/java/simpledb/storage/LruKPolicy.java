@@ -0,0 +1,123 @@
+package simpledb.storage;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * LRU-K replacement (O'Neil, O'Neil and Weikum). Each resident page remembers
+ * the logical times of its last K accesses, and the victim is the page whose
+ * K-th most recent access is oldest. Pages seen fewer than K times have an
+ * infinite backward K-distance and are evicted first, least recently used
+ * first, which keeps one-off scan pages from displacing the hot set.
+ * <p>
+ * With K = 1 this is plain LRU. Candidates are kept ordered in a tree, so
+ * victim selection and each access cost O(log n) in the pool size.
+ */
+public class LruKPolicy implements ReplacementPolicy {
+
+    private static class Entry {
+        final PageId pid;
+        final long[] history;  // circular buffer of the last K access times
+        int numAccesses = 0;
+        boolean evictable = true;
+
+        Entry(PageId pid, int k) {
+            this.pid = pid;
+            this.history = new long[k];
+        }
+
+        void access(long now) {
+            history[numAccesses % history.length] = now;
+            numAccesses++;
+        }
+
+        boolean hasFullHistory() {
+            return numAccesses >= history.length;
+        }
+
+        // the K-th most recent access time if known, otherwise the most recent
+        long sortTime() {
+            if (hasFullHistory())
+                return history[numAccesses % history.length];
+            return history[(numAccesses - 1) % history.length];
+        }
+    }
+
+    // pages with an incomplete history sort before all others
+    private static final Comparator<Entry> ORDER = Comparator
+            .comparing(Entry::hasFullHistory)
+            .thenComparingLong(Entry::sortTime);
+
+    private final int k;
+    private final Map<PageId, Entry> entries;
+    private final TreeSet<Entry> candidates;
+    private long clock = 0;
+
+    /**
+     * @param capacity the number of pages the buffer pool can hold
+     * @param k        the number of past accesses to track per page
+     */
+    public LruKPolicy(int capacity, int k) {
+        if (k < 1)
+            throw new IllegalArgumentException("LRU-K needs k >= 1");
+        this.k = k;
+        this.entries = new HashMap<>(capacity * 2);
+        this.candidates = new TreeSet<>(ORDER);
+    }
+
+    /**
+     * Creates an LRU-2 policy.
+     *
+     * @param capacity the number of pages the buffer pool can hold
+     */
+    public LruKPolicy(int capacity) {
+        this(capacity, 2);
+    }
+
+    public void recordAccess(PageId pid) {
+        Entry e = entries.get(pid);
+        if (e == null)
+            return;
+        if (e.evictable)
+            candidates.remove(e);
+        e.access(++clock);
+        if (e.evictable)
+            candidates.add(e);
+    }
+
+    public void recordInsert(PageId pid) {
+        if (entries.containsKey(pid)) {
+            recordAccess(pid);
+            return;
+        }
+        Entry e = new Entry(pid, k);
+        e.access(++clock);
+        entries.put(pid, e);
+        candidates.add(e);
+    }
+
+    public void recordRemove(PageId pid) {
+        Entry e = entries.remove(pid);
+        if (e != null && e.evictable)
+            candidates.remove(e);
+    }
+
+    public void setEvictable(PageId pid, boolean evictable) {
+        Entry e = entries.get(pid);
+        if (e == null || e.evictable == evictable)
+            return;
+        if (evictable) {
+            e.evictable = true;
+            candidates.add(e);
+        } else {
+            candidates.remove(e);
+            e.evictable = false;
+        }
+    }
+
+    public PageId victim() {
+        return candidates.isEmpty() ? null : candidates.first().pid;
+    }
+}
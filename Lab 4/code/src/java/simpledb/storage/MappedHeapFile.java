@@ -0,0 +1,91 @@
+package simpledb.storage;
+
+import simpledb.common.Debug;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A HeapFile that serves page reads from a memory mapping of its file,
+ * meant for read-mostly tables that are scanned often. A page miss copies
+ * the page straight out of the mapped region, without a system call, and
+ * a cold scan of a large table simply faults the file in.
+ * <p>
+ * The file is mapped in fixed-size segments, each mapped lazily on first
+ * use. Writes still go through the file channel. The mapping is shared
+ * with the page cache, so it sees those writes, but a segment only covers
+ * the file as long as it was when the segment was mapped. When a read
+ * falls past the end of its segment because pages were appended, that
+ * segment is mapped again.
+ *
+ * @see HeapFile
+ */
+public class MappedHeapFile extends HeapFile {
+
+    /**
+     * Size of a mapped segment in bytes.
+     */
+    public static final int SEGMENT_SIZE = 1 << 26;
+
+    // guarded by this; an entry is null until its segment is first read
+    private final List<MappedByteBuffer> segments = new ArrayList<>();
+
+    /**
+     * Constructs a memory-mapped heap file backed by the specified file.
+     *
+     * @param f the file that stores the on-disk backing store for this heap
+     *          file.
+     */
+    public MappedHeapFile(File f, TupleDesc td) {
+        super(f, td);
+    }
+
+    /**
+     * Returns the segment that holds the bytes [offset, offset + length) of
+     * the file, mapping or remapping it as needed.
+     */
+    private synchronized MappedByteBuffer segment(long offset, int length) throws IOException {
+        int index = (int) (offset / SEGMENT_SIZE);
+        long start = (long) index * SEGMENT_SIZE;
+        while (segments.size() <= index)
+            segments.add(null);
+
+        MappedByteBuffer seg = segments.get(index);
+        if (seg == null || start + seg.capacity() < offset + length) {
+            FileChannel ch = channel();
+            long size = ch.size();
+            if (size < offset + length)
+                throw new IllegalArgumentException("Read past end of table");
+            seg = ch.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, size - start));
+            segments.set(index, seg);
+        }
+        return seg;
+    }
+
+    // see DbFile.java for javadocs
+    @Override
+    public Page readPage(PageId pid) {
+        HeapPageId id = (HeapPageId) pid;
+        int pageSize = BufferPool.getPageSize();
+        long offset = (long) id.getPageNumber() * pageSize;
+        if (offset / SEGMENT_SIZE != (offset + pageSize - 1) / SEGMENT_SIZE) {
+            // only possible with a page size that does not divide the segment size
+            return super.readPage(pid);
+        }
+
+        try {
+            MappedByteBuffer seg = segment(offset, pageSize);
+            byte[] pageBuf = new byte[pageSize];
+            // read through a duplicate to leave the shared buffer's position alone
+            seg.duplicate().position((int) (offset % SEGMENT_SIZE)).get(pageBuf);
+            Debug.log(1, "MappedHeapFile.readPage: read page %d", id.getPageNumber());
+            return createPage(id, pageBuf);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
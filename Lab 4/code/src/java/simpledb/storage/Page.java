@@ -2,6 +2,8 @@ package simpledb.storage;
 
 import simpledb.transaction.TransactionId;
 
+import java.nio.ByteBuffer;
+
 /**
  * Page is the interface used to represent pages that are resident in the
  * BufferPool.  Typically, DbFiles will read and write pages from disk.
@@ -48,6 +50,18 @@ public interface Page {
 
     byte[] getPageData();
 
+    /**
+     * Writes the same bytes as getPageData into buf, starting at its
+     * position and advancing it. Pages should override this to encode
+     * straight into the buffer without allocating.
+     *
+     * @param buf the buffer to write to, with at least as many bytes
+     *            remaining as the page is long
+     */
+    default void writeTo(ByteBuffer buf) {
+        buf.put(getPageData());
+    }
+
     /**
      * Provide a representation of this page before any modifications were made
      * to it.  Used by recovery.
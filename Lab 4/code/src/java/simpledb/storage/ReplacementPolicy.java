@@ -0,0 +1,59 @@
+package simpledb.storage;
+
+/**
+ * ReplacementPolicy decides which resident page the BufferPool should evict
+ * when it needs a free frame. The BufferPool reports every hit, load and
+ * removal of a page to its policy, and asks it for a victim when it is full.
+ * <p>
+ * Pages that must not leave the pool (for example pages dirtied by a running
+ * transaction under NO STEAL) are excluded with {@link #setEvictable}, so that
+ * {@link #victim} never has to step over them.
+ * <p>
+ * Implementations are not thread-safe; the BufferPool serializes all calls
+ * to a given policy instance.
+ *
+ * @see BufferPool
+ */
+public interface ReplacementPolicy {
+
+    /**
+     * Record that a resident page was requested again (a buffer pool hit).
+     *
+     * @param pid the id of the page that was accessed
+     */
+    void recordAccess(PageId pid);
+
+    /**
+     * Record that a page was loaded into the buffer pool (a buffer pool miss).
+     * Newly inserted pages are evictable.
+     *
+     * @param pid the id of the page that became resident
+     */
+    void recordInsert(PageId pid);
+
+    /**
+     * Record that a page left the buffer pool, either because it was chosen
+     * as a victim or because it was discarded. Unknown ids are ignored.
+     *
+     * @param pid the id of the page that is no longer resident
+     */
+    void recordRemove(PageId pid);
+
+    /**
+     * Include or exclude a resident page from victim selection.
+     * Unknown ids are ignored.
+     *
+     * @param pid       the id of the page
+     * @param evictable false if the page must stay in the pool
+     */
+    void setEvictable(PageId pid, boolean evictable);
+
+    /**
+     * Choose the next page to evict. The page stays tracked by the policy
+     * until {@link #recordRemove} is called for it.
+     *
+     * @return the id of an evictable resident page, or null if every
+     *         resident page is currently excluded from eviction
+     */
+    PageId victim();
+}
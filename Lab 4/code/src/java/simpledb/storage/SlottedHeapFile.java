@@ -0,0 +1,40 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * A HeapFile whose pages are SlottedPages, storing each tuple in only the
+ * bytes its fields take. Tables with {@link Type#VARCHAR_TYPE} columns
+ * holding short values fit many more tuples per page this way, so scans
+ * of them read several times fewer pages.
+ * <p>
+ * Everything else, including the free space map, extent allocation and
+ * read-ahead, works as for HeapFile; free space is measured in bytes.
+ *
+ * @see SlottedPage
+ */
+public class SlottedHeapFile extends HeapFile {
+
+    /**
+     * Constructs a heap file of slotted pages backed by the specified file.
+     *
+     * @param f the file that stores the on-disk backing store for this heap
+     *          file.
+     */
+    public SlottedHeapFile(File f, TupleDesc td) {
+        super(f, td);
+    }
+
+    @Override
+    protected TuplePage createPage(HeapPageId id, byte[] data) throws IOException {
+        return new SlottedPage(id, data);
+    }
+
+    @Override
+    protected int spaceNeeded(Tuple t) {
+        return SlottedPage.spaceNeeded(t);
+    }
+}
@@ -0,0 +1,401 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Debug;
+import simpledb.transaction.TransactionId;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * A page of a SlottedHeapFile. Unlike HeapPage, which gives every tuple a
+ * slot of the table's maximum tuple size, SlottedPage stores each tuple as
+ * a record of exactly the bytes its fields serialize to, so that VARCHAR
+ * fields only take the space their values need.
+ * <p>
+ * The page starts with the number of slots and the size of the record
+ * area, followed by the slot directory, which grows towards the end of the
+ * page. Records are packed at the end of the page and grow towards the
+ * start:
+ * <pre>
+ * | numSlots | areaSize | offset 0 | length 0 | offset 1 | ... free ... | records |
+ * </pre>
+ * All numbers are unsigned two-byte values, so pages may be at most 65535
+ * bytes. A slot with offset 0 is empty. A tuple's RecordId names its slot,
+ * so records can be moved within the page without changing RecordIds:
+ * when an insert does not fit in the free space between the directory and
+ * the records but would fit in the space left behind by deleted records,
+ * the page is compacted first. An all-zero page is an empty page.
+ * <p>
+ * Like HeapPage, the page decodes a record only when it is asked for it and
+ * shares its image with the before-image until the first change.
+ *
+ * @see SlottedHeapFile
+ * @see HeapPage
+ */
+public class SlottedPage implements TuplePage {
+
+    static final int HEADER_SIZE = 4;
+    static final int SLOT_SIZE = 4;
+
+    private volatile boolean dirty = false;
+    private volatile TransactionId dirtier = null;
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    final int pageSize;
+
+    // the page image; while sharedData is set it may also be referenced by
+    // the caller of the constructor or by oldData, so it is copied before
+    // any change
+    private byte[] data;
+    private boolean sharedData;
+    // decoded tuples by slot, filled in on first access
+    private Tuple[] tuples;
+
+    // guarded by oldDataLock, as are data and sharedData while they change
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    /**
+     * Create a SlottedPage from a set of bytes of data read from disk, in the
+     * format described above.
+     */
+    public SlottedPage(HeapPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.pageSize = BufferPool.getPageSize();
+        if (pageSize > 0xFFFF)
+            throw new IOException("slotted pages can be at most 65535 bytes");
+        if (data.length < pageSize)
+            data = Arrays.copyOf(data, pageSize);
+        this.data = data;
+        this.sharedData = true;
+        this.oldData = data;
+        this.tuples = new Tuple[numSlots()];
+    }
+
+    /**
+     * Generates a byte array corresponding to an empty SlottedPage.
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()];
+    }
+
+    /**
+     * @return the number of bytes a tuple takes on a SlottedPage, including
+     *         its slot
+     */
+    public static int spaceNeeded(Tuple t) {
+        int len = SLOT_SIZE;
+        TupleDesc desc = t.getTupleDesc();
+        for (int i = 0; i < desc.numFields(); i++) {
+            Field f = t.getField(i);
+            len += f instanceof VarcharField ? ((VarcharField) f).getSerializedLength()
+                    : f.getType().getLen();
+        }
+        return len;
+    }
+
+    private int u16(int off) {
+        return ((data[off] & 0xFF) << 8) | (data[off + 1] & 0xFF);
+    }
+
+    private void putU16(int off, int v) {
+        data[off] = (byte) (v >>> 8);
+        data[off + 1] = (byte) v;
+    }
+
+    private int numSlots() {
+        return u16(0);
+    }
+
+    private int areaSize() {
+        return u16(2);
+    }
+
+    private int recordOffset(int slot) {
+        return u16(HEADER_SIZE + slot * SLOT_SIZE);
+    }
+
+    private int recordLength(int slot) {
+        return u16(HEADER_SIZE + slot * SLOT_SIZE + 2);
+    }
+
+    private void setSlot(int slot, int offset, int length) {
+        putU16(HEADER_SIZE + slot * SLOT_SIZE, offset);
+        putU16(HEADER_SIZE + slot * SLOT_SIZE + 2, length);
+    }
+
+    /**
+     * @return the free bytes between the slot directory and the records
+     */
+    private int contiguousFreeSpace() {
+        return pageSize - areaSize() - (HEADER_SIZE + numSlots() * SLOT_SIZE);
+    }
+
+    /**
+     * Returns the number of free bytes on the page, counting the space left
+     * behind by deleted records.
+     */
+    public int getFreeSpace() {
+        int n = numSlots();
+        int live = 0;
+        for (int i = 0; i < n; i++)
+            live += recordLength(i);
+        return pageSize - HEADER_SIZE - n * SLOT_SIZE - live;
+    }
+
+    /**
+     * Returns the number of tuples on this page.
+     */
+    public int getNumTuples() {
+        int n = numSlots();
+        int cnt = 0;
+        for (int i = 0; i < n; i++)
+            if (recordOffset(i) != 0)
+                cnt++;
+        return cnt;
+    }
+
+    /**
+     * Return a view of this page before it was modified
+     * -- used by recovery
+     */
+    public SlottedPage getBeforeImage() {
+        try {
+            byte[] oldDataRef;
+            synchronized (oldDataLock) {
+                oldDataRef = oldData;
+            }
+            return new SlottedPage(pid, oldDataRef);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            // share the current image; the next change copies it again
+            sharedData = true;
+            oldData = data;
+        }
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /**
+     * Make sure the page image is owned by this page before changing it.
+     */
+    private void ownData() {
+        synchronized (oldDataLock) {
+            if (sharedData) {
+                data = data.clone();
+                sharedData = false;
+            }
+        }
+    }
+
+    private byte[] encode(Tuple t) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(td.getSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            for (int j = 0; j < td.numFields(); j++)
+                t.getField(j).serialize(dos);
+            dos.flush();
+        } catch (IOException e) {
+            // this really shouldn't happen
+            e.printStackTrace();
+        }
+        return baos.toByteArray();
+    }
+
+    /**
+     * Moves all records to the end of the page, so that the space of
+     * deleted records joins the free space in the middle.
+     */
+    private void compact() {
+        int n = numSlots();
+        List<Integer> live = new ArrayList<>();
+        for (int i = 0; i < n; i++)
+            if (recordOffset(i) != 0)
+                live.add(i);
+        // records only move towards the end of the page, so moving the one
+        // nearest the end first never overwrites a record not yet moved
+        live.sort((a, b) -> recordOffset(b) - recordOffset(a));
+
+        int end = pageSize;
+        for (int slot : live) {
+            int len = recordLength(slot);
+            end -= len;
+            System.arraycopy(data, recordOffset(slot), data, end, len);
+            setSlot(slot, end, len);
+        }
+        putU16(2, pageSize - end);
+        Arrays.fill(data, HEADER_SIZE + n * SLOT_SIZE, end, (byte) 0);
+        Debug.log(1, "SlottedPage.compact: compacted page %d of table %d",
+                pid.getPageNumber(), pid.getTableId());
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page.
+     * Used to serialize this page to disk.
+     * <p>
+     * Passing the array to the SlottedPage constructor produces an
+     * identical SlottedPage.
+     */
+    public byte[] getPageData() {
+        return Arrays.copyOf(data, pageSize);
+    }
+
+    @Override
+    public void writeTo(ByteBuffer buf) {
+        buf.put(data, 0, pageSize);
+    }
+
+    /**
+     * Delete the specified tuple from the page. Its slot becomes empty and
+     * its bytes free space.
+     *
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *                     already empty.
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if ((rid.getPageId().getPageNumber() != pid.getPageNumber()) || (rid.getPageId().getTableId() != pid.getTableId()))
+            throw new DbException("tried to delete tuple on invalid page or table");
+        int slot = rid.getTupleNumber();
+        if (slot >= numSlots() || recordOffset(slot) == 0)
+            throw new DbException("tried to delete null tuple.");
+
+        ownData();
+        int offset = recordOffset(slot);
+        int len = recordLength(slot);
+        // the record nearest the free space is reclaimed right away
+        if (offset == pageSize - areaSize())
+            putU16(2, areaSize() - len);
+        setSlot(slot, 0, 0);
+        tuples[slot] = null;
+
+        // trailing empty slots are dropped from the directory
+        int n = numSlots();
+        while (n > 0 && recordOffset(n - 1) == 0)
+            n--;
+        putU16(0, n);
+    }
+
+    /**
+     * Adds the specified tuple to the page as a record of its serialized
+     * size, compacting the page first if that is what it takes to make room.
+     *
+     * @throws DbException if the tuple does not fit on the page or the
+     *                     tupledesc is mismatched.
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (!t.getTupleDesc().equals(td))
+            throw new DbException("type mismatch, in addTuple");
+
+        byte[] rec = encode(t);
+        int n = numSlots();
+        int slot = 0;
+        while (slot < n && recordOffset(slot) != 0)
+            slot++;
+        int need = rec.length + (slot == n ? SLOT_SIZE : 0);
+        if (contiguousFreeSpace() < need) {
+            if (getFreeSpace() < need)
+                throw new DbException("not enough room on page for tuple.");
+            ownData();
+            compact();
+        }
+
+        ownData();
+        int offset = pageSize - areaSize() - rec.length;
+        System.arraycopy(rec, 0, data, offset, rec.length);
+        putU16(2, areaSize() + rec.length);
+        if (slot == n) {
+            putU16(0, n + 1);
+            if (tuples.length <= slot)
+                tuples = Arrays.copyOf(tuples, Math.max(slot + 1, tuples.length * 2));
+        }
+        setSlot(slot, offset, rec.length);
+        Debug.log(1, "SlottedPage.addTuple: new tuple, tableId = %d pageId = %d slotId = %d", pid.getTableId(), pid.getPageNumber(), slot);
+        t.setRecordId(new RecordId(pid, slot));
+        tuples[slot] = t;
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        if (dirty) this.dirtier = tid;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return dirty ? dirtier : null;
+    }
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on
+     *         this iterator throws an UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator() {
+        return new Iterator<Tuple>() {
+            private int slot = nextUsed(0);
+
+            private int nextUsed(int from) {
+                int n = numSlots();
+                while (from < n && recordOffset(from) == 0)
+                    from++;
+                return from;
+            }
+
+            public boolean hasNext() {
+                return slot < numSlots();
+            }
+
+            public Tuple next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                Tuple t = getTuple(slot);
+                slot = nextUsed(slot + 1);
+                return t;
+            }
+        };
+    }
+
+    // decodes the tuple in a used slot, or returns the cached one
+    private Tuple getTuple(int slot) {
+        Tuple t = slot < tuples.length ? tuples[slot] : null;
+        if (t == null) {
+            t = new Tuple(td);
+            t.setRecordId(new RecordId(pid, slot));
+            ByteBuffer buf = ByteBuffer.wrap(data, recordOffset(slot), recordLength(slot));
+            for (int j = 0; j < td.numFields(); j++)
+                t.setField(j, td.getFieldType(j).parse(buf));
+            if (slot < tuples.length)
+                tuples[slot] = t;
+        }
+        return t;
+    }
+}
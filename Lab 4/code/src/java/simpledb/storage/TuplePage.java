@@ -0,0 +1,43 @@
+package simpledb.storage;
+
+import simpledb.common.DbException;
+
+import java.util.Iterator;
+
+/**
+ * A page of a HeapFile: a Page that stores the tuples of a table in no
+ * particular order. HeapPage stores them in fixed-size slots, SlottedPage
+ * as variable-length records.
+ *
+ * @see HeapFile
+ */
+public interface TuplePage extends Page {
+
+    HeapPageId getId();
+
+    /**
+     * Adds the specified tuple to the page and sets its RecordId.
+     *
+     * @throws DbException if the tuple does not fit on the page or its
+     *                     TupleDesc does not match the page
+     */
+    void insertTuple(Tuple t) throws DbException;
+
+    /**
+     * Deletes the specified tuple from the page.
+     *
+     * @throws DbException if the tuple is not on this page
+     */
+    void deleteTuple(Tuple t) throws DbException;
+
+    /**
+     * @return the free space left on the page, in the unit used by the
+     *         HeapFile's {@link HeapFile#spaceNeeded(Tuple)}
+     */
+    int getFreeSpace();
+
+    /**
+     * @return an iterator over the tuples on the page
+     */
+    Iterator<Tuple> iterator();
+}
@@ -0,0 +1,51 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Instance of Field that stores a single String of variable length, up to
+ * Type.STRING_LEN characters. It compares and hashes like a StringField with
+ * the same value, but is serialized as its length followed by its bytes,
+ * with no padding.
+ */
+public class VarcharField extends StringField {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructor.
+     *
+     * @param s The value of this field; longer values are truncated to
+     *          Type.STRING_LEN characters.
+     */
+    public VarcharField(String s) {
+        super(s, Type.STRING_LEN);
+    }
+
+    /**
+     * Write this string to dos: a two-byte length followed by the string.
+     *
+     * @param dos Where the string is written
+     */
+    @Override
+    public void serialize(DataOutputStream dos) throws IOException {
+        String s = getValue();
+        dos.writeShort(s.length());
+        dos.writeBytes(s);
+    }
+
+    /**
+     * @return the number of bytes serialize writes
+     */
+    public int getSerializedLength() {
+        return 2 + getValue().length();
+    }
+
+    @Override
+    public Type getType() {
+        return Type.VARCHAR_TYPE;
+    }
+}
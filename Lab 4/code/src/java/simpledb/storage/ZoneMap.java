@@ -0,0 +1,400 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+import simpledb.execution.Predicate;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Records, for each page of a HeapFile, the smallest and largest value of
+ * each INT field and the smallest and largest prefix of each string field,
+ * so that scans with a predicate can skip pages on which no tuple can
+ * satisfy it.
+ * <p>
+ * A zone covers the values on its page, and is never too narrow: inserts
+ * widen it, and deletes only mark it loose, so that it still covers the
+ * tuples an abort brings back. Loose zones, and pages the map knows nothing
+ * about, are rebuilt exactly from the page when a scan reads it while no
+ * transaction has changed it. Pages the map knows nothing about are never
+ * skipped.
+ * <p>
+ * The zones of tables that scans with predicates use are saved, all at
+ * once, in a side file next to the HeapFile by {@link #save}, which the
+ * buffer pool calls when it flushes all pages. The side file holds the
+ * length of the HeapFile when it was saved. After an insert has widened a
+ * zone, the first page write sets that length to -1 and forces the side
+ * file to disk before the page reaches the HeapFile, so that a crash cannot
+ * leave saved zones narrower than their pages. Inserts themselves do no
+ * I/O. If the lengths do not match when the side file is read, the
+ * HeapFile has been changed without the map, and the side file is emptied;
+ * it is deleted if the HeapFile no longer exists.
+ *
+ * @see HeapFile#iterator(simpledb.transaction.TransactionId, List)
+ * @Threadsafe
+ */
+public class ZoneMap {
+
+    /**
+     * Number of leading characters of strings the map records.
+     */
+    public static final int PREFIX_CHARS = 8;
+
+    // what the map knows about a page
+    private static final byte UNKNOWN = 0;
+    private static final byte EMPTY = 1;
+    private static final byte EXACT = 2;
+    private static final byte LOOSE = 3;
+
+    // the length of the HeapFile, before the zones
+    private static final int HEADER_SIZE = 8;
+
+    private final File file;
+    private final File dataFile;
+    private final TupleDesc td;
+    private final int zoneSize;
+
+    // loaded on first use
+    private List<Zone> zones;
+    private FileChannel channel;
+    // true if the side file holds zones that cover the HeapFile
+    private boolean saved = false;
+    // true if a zone changed since the last save
+    private boolean changed = false;
+    // true if an insert widened a zone since the last save, so the saved
+    // zones must be invalidated before the next page write
+    private boolean widened = false;
+    // true once a scan with predicates has asked the map about a page
+    private boolean used = false;
+
+    private class Zone {
+        byte state = UNKNOWN;
+        final int[] min = new int[td.numFields()];
+        final int[] max = new int[td.numFields()];
+        final String[] minPrefix = new String[td.numFields()];
+        final String[] maxPrefix = new String[td.numFields()];
+
+        void set(Tuple t) {
+            for (int i = 0; i < td.numFields(); i++) {
+                Field f = t.getField(i);
+                if (f instanceof IntField) {
+                    min[i] = max[i] = ((IntField) f).getValue();
+                } else if (f instanceof StringField) {
+                    minPrefix[i] = maxPrefix[i] = prefix(f);
+                }
+            }
+        }
+
+        void widen(Tuple t) {
+            for (int i = 0; i < td.numFields(); i++) {
+                Field f = t.getField(i);
+                if (f instanceof IntField) {
+                    int v = ((IntField) f).getValue();
+                    min[i] = Math.min(min[i], v);
+                    max[i] = Math.max(max[i], v);
+                } else if (f instanceof StringField) {
+                    String p = prefix(f);
+                    if (p.compareTo(minPrefix[i]) < 0)
+                        minPrefix[i] = p;
+                    if (p.compareTo(maxPrefix[i]) > 0)
+                        maxPrefix[i] = p;
+                }
+            }
+        }
+
+        void add(Tuple t, byte newState) {
+            if (state == EMPTY)
+                set(t);
+            else
+                widen(t);
+            state = newState;
+        }
+
+        /**
+         * @return false if no tuple on the page can satisfy p
+         */
+        boolean mayMatch(Predicate p) {
+            if (state == UNKNOWN)
+                return true;
+            if (state == EMPTY)
+                return false;
+            int i = p.getField();
+            Field c = p.getOperand();
+            Type type = td.getFieldType(i);
+            if (type == Type.INT_TYPE && c instanceof IntField) {
+                int v = ((IntField) c).getValue();
+                switch (p.getOp()) {
+                    case EQUALS:
+                        return min[i] <= v && v <= max[i];
+                    case NOT_EQUALS:
+                        return min[i] != v || max[i] != v;
+                    case GREATER_THAN:
+                        return max[i] > v;
+                    case GREATER_THAN_OR_EQ:
+                        return max[i] >= v;
+                    case LESS_THAN:
+                        return min[i] < v;
+                    case LESS_THAN_OR_EQ:
+                        return min[i] <= v;
+                    default:
+                        return true;
+                }
+            }
+            if (type != Type.INT_TYPE && c instanceof StringField) {
+                // prefixes preserve order, so the prefix of a matching
+                // string compares to the prefix of c as the string does,
+                // or is equal to it
+                String v = prefix(c);
+                switch (p.getOp()) {
+                    case EQUALS:
+                        return minPrefix[i].compareTo(v) <= 0 && v.compareTo(maxPrefix[i]) <= 0;
+                    case GREATER_THAN:
+                    case GREATER_THAN_OR_EQ:
+                        return maxPrefix[i].compareTo(v) >= 0;
+                    case LESS_THAN:
+                    case LESS_THAN_OR_EQ:
+                        return minPrefix[i].compareTo(v) <= 0;
+                    default:
+                        return true;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Creates the zone map of a HeapFile, which is read from its side file
+     * on first use.
+     *
+     * @param dataFile the file of the HeapFile
+     * @param td       the TupleDesc of the HeapFile
+     */
+    public ZoneMap(File dataFile, TupleDesc td) {
+        this.dataFile = dataFile;
+        this.file = new File(dataFile.getPath() + ".zone");
+        this.td = td;
+        int size = 1;
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE)
+                size += 8;
+            else
+                size += 2 * (2 + 2 * PREFIX_CHARS);
+        }
+        this.zoneSize = size;
+    }
+
+    /**
+     * @return the side file the zones are kept in
+     */
+    public File getFile() {
+        return file;
+    }
+
+    private static String prefix(Field f) {
+        String s = ((StringField) f).getValue();
+        return s.length() <= PREFIX_CHARS ? s : s.substring(0, PREFIX_CHARS);
+    }
+
+    private Zone zone(int pgNo) {
+        load();
+        while (zones.size() <= pgNo)
+            zones.add(new Zone());
+        return zones.get(pgNo);
+    }
+
+    /**
+     * @return false if the zone of the page shows that no tuple on it
+     *         satisfies all of the predicates
+     */
+    public synchronized boolean mayMatch(int pgNo, List<Predicate> predicates) {
+        load();
+        used = true;
+        if (pgNo >= zones.size())
+            return true;
+        Zone z = zones.get(pgNo);
+        for (Predicate p : predicates) {
+            if (!z.mayMatch(p))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Widens the zone of a page for a tuple about to be inserted on it.
+     */
+    synchronized void inserted(int pgNo, Tuple t) {
+        Zone z = zone(pgNo);
+        if (z.state == UNKNOWN)
+            return;
+        z.add(t, LOOSE);
+        changed = true;
+        if (saved)
+            widened = true;
+    }
+
+    /**
+     * Called before a page of the HeapFile is written; invalidates the saved
+     * zones if an insert widened a zone since they were saved.
+     */
+    synchronized void beforeWrite() throws IOException {
+        if (!widened)
+            return;
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE);
+        buf.putLong(-1);
+        buf.flip();
+        write(buf, 0);
+        channel.force(false);
+        saved = false;
+        widened = false;
+    }
+
+    /**
+     * Notes that a tuple was deleted from a page, which leaves its zone
+     * wider than it needs to be.
+     */
+    synchronized void deleted(int pgNo) {
+        Zone z = zone(pgNo);
+        if (z.state == EXACT) {
+            z.state = LOOSE;
+            changed = true;
+        }
+    }
+
+    /**
+     * @return true if the zone of the page should be rebuilt the next time
+     *         the page is read
+     */
+    synchronized boolean isStale(int pgNo) {
+        load();
+        return pgNo >= zones.size() || zones.get(pgNo).state == UNKNOWN
+                || zones.get(pgNo).state == LOOSE;
+    }
+
+    /**
+     * Rebuilds the zone of a page from its tuples. The page must not have
+     * been changed by a transaction that is still running.
+     */
+    synchronized void rebuild(TuplePage page) {
+        Zone z = zone(page.getId().getPageNumber());
+        z.state = EMPTY;
+        for (Iterator<Tuple> it = page.iterator(); it.hasNext(); )
+            z.add(it.next(), EXACT);
+        changed = true;
+    }
+
+    /**
+     * Writes the zones to the side file, if scans with predicates use them
+     * and they changed since the last save. The side file is created by the
+     * first save.
+     */
+    public synchronized void save() throws IOException {
+        if (!used || !changed)
+            return;
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE + zones.size() * zoneSize);
+        buf.putLong(dataFile.length());
+        for (Zone z : zones)
+            putZone(buf, z);
+        buf.flip();
+        open();
+        channel.truncate(buf.limit());
+        write(buf, 0);
+        channel.force(false);
+        saved = true;
+        changed = false;
+        widened = false;
+    }
+
+    private void putZone(ByteBuffer buf, Zone z) {
+        buf.put(z.state);
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                buf.putInt(z.min[i]);
+                buf.putInt(z.max[i]);
+            } else {
+                putPrefix(buf, z.minPrefix[i]);
+                putPrefix(buf, z.maxPrefix[i]);
+            }
+        }
+    }
+
+    private static void putPrefix(ByteBuffer buf, String s) {
+        if (s == null)
+            s = "";
+        buf.putShort((short) s.length());
+        for (int i = 0; i < PREFIX_CHARS; i++)
+            buf.putChar(i < s.length() ? s.charAt(i) : 0);
+    }
+
+    private static String getPrefix(ByteBuffer buf) {
+        int len = buf.getShort();
+        char[] chars = new char[PREFIX_CHARS];
+        for (int i = 0; i < PREFIX_CHARS; i++)
+            chars[i] = buf.getChar();
+        return new String(chars, 0, len);
+    }
+
+    private void open() throws IOException {
+        if (channel == null || !channel.isOpen())
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+    }
+
+    private void write(ByteBuffer buf, long offset) throws IOException {
+        open();
+        while (buf.hasRemaining())
+            channel.write(buf, offset + buf.position());
+    }
+
+    /**
+     * Reads the zones from the side file, unless they were written for a
+     * HeapFile of another length, in which case the side file is emptied.
+     */
+    private void load() {
+        if (zones != null)
+            return;
+        zones = new ArrayList<>();
+        if (!file.exists())
+            return;
+        if (!dataFile.exists()) {
+            // left behind by a table that was deleted
+            file.delete();
+            return;
+        }
+        try {
+            open();
+            ByteBuffer buf = ByteBuffer.allocate((int) channel.size());
+            while (buf.hasRemaining() && channel.read(buf, buf.position()) != -1)
+                ;
+            buf.flip();
+            if (buf.remaining() < HEADER_SIZE || buf.getLong() != dataFile.length()) {
+                channel.truncate(0);
+                return;
+            }
+            saved = true;
+            used = true;
+            while (buf.remaining() >= zoneSize) {
+                Zone z = new Zone();
+                z.state = buf.get();
+                for (int i = 0; i < td.numFields(); i++) {
+                    if (td.getFieldType(i) == Type.INT_TYPE) {
+                        z.min[i] = buf.getInt();
+                        z.max[i] = buf.getInt();
+                    } else {
+                        z.minPrefix[i] = getPrefix(buf);
+                        z.maxPrefix[i] = getPrefix(buf);
+                    }
+                }
+                zones.add(z);
+            }
+        } catch (IOException e) {
+            // the zones are rebuilt as pages are read
+            zones.clear();
+        }
+    }
+}
@@ -0,0 +1,295 @@
+package simpledb;
+
+import java.io.File;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.*;
+import simpledb.index.BTreeFile;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class BTreeFileTest extends SimpleDbTestBase {
+    private static final int POOL_PAGES = 1000;
+
+    private TupleDesc td;
+    private BTreeFile bf;
+    private String tableName;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        // small pages give a tree of several levels from a few thousand tuples
+        BufferPool.setPageSize(256);
+        Database.resetBufferPool(POOL_PAGES);
+        td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.INT_TYPE },
+                new String[] { "key", "value" });
+        File f = File.createTempFile("btree", ".dat");
+        f.delete();
+        f.deleteOnExit();
+        bf = new BTreeFile(f, 0, td);
+        tableName = SystemTestUtil.getUUID();
+        Database.getCatalog().addTable(bf, tableName);
+    }
+
+    @After public void tearDown() {
+        BufferPool.resetPageSize();
+    }
+
+    private Tuple tuple(int key, int value) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(key));
+        t.setField(1, new IntField(value));
+        return t;
+    }
+
+    private void insert(List<Integer> keys) throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < keys.size(); i++) {
+            Database.getBufferPool().insertTuple(tid, bf.getId(), tuple(keys.get(i), i));
+            if (i % 200 == 199) {
+                Database.getBufferPool().transactionComplete(tid);
+                tid = new TransactionId();
+            }
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static List<Integer> shuffledKeys(int n, int distinct) {
+        List<Integer> keys = new ArrayList<>();
+        for (int i = 0; i < n; i++)
+            keys.add(i % distinct);
+        Collections.shuffle(keys, new Random(42));
+        return keys;
+    }
+
+    /**
+     * @return the keys of the tuples the iterator returns, checking that
+     *         they come in key order
+     */
+    private List<Integer> keys(DbFileIterator it) throws Exception {
+        List<Integer> keys = new ArrayList<>();
+        it.open();
+        while (it.hasNext()) {
+            int key = ((IntField) it.next().getField(0)).getValue();
+            if (!keys.isEmpty())
+                assertTrue(keys.get(keys.size() - 1) <= key);
+            keys.add(key);
+        }
+        it.close();
+        return keys;
+    }
+
+    private List<Integer> scan() throws Exception {
+        TransactionId tid = new TransactionId();
+        List<Integer> keys = keys(bf.iterator(tid));
+        Database.getBufferPool().transactionComplete(tid);
+        return keys;
+    }
+
+    /**
+     * Inserts in random order split leaves and internal pages, and a scan
+     * returns all tuples in key order.
+     */
+    @Test public void insertAndScan() throws Exception {
+        List<Integer> keys = shuffledKeys(5000, 2500);
+        insert(keys);
+        assertTrue(bf.numPages() > 200);
+
+        Database.resetBufferPool(POOL_PAGES);
+        List<Integer> sorted = new ArrayList<>(keys);
+        Collections.sort(sorted);
+        assertEquals(sorted, scan());
+    }
+
+    private int count(TransactionId tid, Predicate.Op op, int key) throws Exception {
+        return keys(bf.indexIterator(tid, new IndexPredicate(op, new IntField(key)))).size();
+    }
+
+    /**
+     * Index scans return exactly the tuples that match, and read only
+     * the leaves that may hold them.
+     */
+    @Test public void indexScan() throws Exception {
+        insert(shuffledKeys(5000, 2500));
+
+        TransactionId tid = new TransactionId();
+        assertEquals(2, count(tid, Predicate.Op.EQUALS, 1234));
+        assertEquals(0, count(tid, Predicate.Op.EQUALS, 2500));
+        assertEquals(2000, count(tid, Predicate.Op.LESS_THAN, 1000));
+        assertEquals(2002, count(tid, Predicate.Op.LESS_THAN_OR_EQ, 1000));
+        assertEquals(2998, count(tid, Predicate.Op.GREATER_THAN, 1000));
+        assertEquals(3000, count(tid, Predicate.Op.GREATER_THAN_OR_EQ, 1000));
+        assertEquals(4998, count(tid, Predicate.Op.NOT_EQUALS, 1000));
+        Database.getBufferPool().transactionComplete(tid);
+
+        BufferPool bp = Database.resetBufferPool(POOL_PAGES);
+        tid = new TransactionId();
+        IndexScan scan = new IndexScan(tid, bf.getId(), "t", new IndexPredicate(Predicate.Op.EQUALS,
+                new IntField(77)));
+        assertEquals("t.key", scan.getTupleDesc().getFieldName(0));
+        scan.open();
+        while (scan.hasNext())
+            assertEquals(77, ((IntField) scan.next().getField(0)).getValue());
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertTrue(bp.getMissCount() < 10);
+    }
+
+    /**
+     * Deleted tuples are gone, and the pages of leaves that became empty
+     * are reused by later inserts.
+     */
+    @Test public void deleteAndReuse() throws Exception {
+        insert(shuffledKeys(3000, 3000));
+        int pages = bf.numPages();
+
+        TransactionId tid = new TransactionId();
+        List<Tuple> doomed = new ArrayList<>();
+        DbFileIterator it = bf.indexIterator(tid, new IndexPredicate(Predicate.Op.LESS_THAN,
+                new IntField(2000)));
+        it.open();
+        while (it.hasNext())
+            doomed.add(it.next());
+        it.close();
+        for (int i = 0; i < doomed.size(); i++) {
+            Database.getBufferPool().deleteTuple(tid, doomed.get(i));
+            if (i % 200 == 199) {
+                Database.getBufferPool().transactionComplete(tid);
+                tid = new TransactionId();
+            }
+        }
+        Database.getBufferPool().transactionComplete(tid);
+
+        List<Integer> left = scan();
+        assertEquals(1000, left.size());
+        assertEquals(2000, (int) left.get(0));
+
+        insert(shuffledKeys(2000, 2000));
+        assertEquals(3000, scan().size());
+        assertTrue(bf.numPages() <= pages + pages / 10);
+    }
+
+    /**
+     * A bulk-loaded tree holds the tuples in order and takes inserts like
+     * any other.
+     */
+    @Test public void bulkLoad() throws Exception {
+        List<Tuple> tuples = new ArrayList<>();
+        for (int i = 0; i < 5000; i++)
+            tuples.add(tuple(i / 2, i));
+        bf.bulkLoad(tuples.iterator());
+
+        List<Integer> keys = scan();
+        assertEquals(5000, keys.size());
+        TransactionId tid = new TransactionId();
+        assertEquals(2, count(tid, Predicate.Op.EQUALS, 1999));
+        assertEquals(200, count(tid, Predicate.Op.LESS_THAN, 100));
+        Database.getBufferPool().transactionComplete(tid);
+
+        insert(shuffledKeys(500, 500));
+        assertEquals(5500, scan().size());
+
+        try {
+            bf.bulkLoad(tuples.iterator());
+            fail("bulk load into a tree that is not empty");
+        } catch (simpledb.common.DbException expected) {
+        }
+    }
+
+    /**
+     * Transactions inserting at the same time get in each other's way only
+     * on the leaves and the pages of splits.
+     */
+    @Test public void concurrentInserts() throws Exception {
+        int threads = 4, perThread = 500;
+        List<Thread> workers = new ArrayList<>();
+        List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        for (int w = 0; w < threads; w++) {
+            int first = w * perThread;
+            workers.add(new Thread(() -> {
+                try {
+                    for (int i = first; i < first + perThread; i += 10) {
+                        // retry a batch that lost a deadlock
+                        while (true) {
+                            TransactionId tid = new TransactionId();
+                            try {
+                                for (int k = i; k < i + 10; k++)
+                                    Database.getBufferPool().insertTuple(tid, bf.getId(), tuple(k, k));
+                                Database.getBufferPool().transactionComplete(tid);
+                                break;
+                            } catch (TransactionAbortedException e) {
+                                Database.getBufferPool().transactionComplete(tid, false);
+                            }
+                        }
+                    }
+                } catch (Throwable t) {
+                    errors.add(t);
+                }
+            }));
+        }
+        for (Thread t : workers)
+            t.start();
+        for (Thread t : workers)
+            t.join();
+        assertTrue(errors.toString(), errors.isEmpty());
+
+        List<Integer> keys = scan();
+        assertEquals(threads * perThread, keys.size());
+        for (int i = 0; i < keys.size(); i++)
+            assertEquals(i, (int) keys.get(i));
+    }
+
+    /**
+     * The optimizer answers a selective filter on the key with an
+     * IndexScan, and other filters with a scan.
+     */
+    @Test public void planUsesIndexScan() throws Exception {
+        insert(shuffledKeys(5000, 5000));
+        Map<String, TableStats> stats = new HashMap<>();
+        stats.put(tableName, new TableStats(bf.getId(), 1000));
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(bf.getId(), "t");
+        lp.addFilter("t.key", Predicate.Op.EQUALS, "17");
+        lp.addProjectField("t.value", null);
+        OpIterator plan = lp.physicalPlan(new TransactionId(), stats, false);
+        OpIterator child = ((Operator) plan).getChildren()[0];
+        assertTrue(child instanceof IndexScan);
+
+        lp = new LogicalPlan();
+        lp.addScan(bf.getId(), "t");
+        lp.addFilter("t.value", Predicate.Op.EQUALS, "17");
+        lp.addProjectField("t.value", null);
+        plan = lp.physicalPlan(new TransactionId(), stats, false);
+        assertTrue(((Operator) plan).getChildren()[0] instanceof Filter);
+
+        // most of the table matches, so scanning is cheaper
+        lp = new LogicalPlan();
+        lp.addScan(bf.getId(), "t");
+        lp.addFilter("t.key", Predicate.Op.GREATER_THAN, "10");
+        lp.addProjectField("t.value", null);
+        plan = lp.physicalPlan(new TransactionId(), stats, false);
+        assertTrue(((Operator) plan).getChildren()[0] instanceof Filter);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BTreeFileTest.class);
+    }
+}
@@ -0,0 +1,147 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.transaction.TransactionId;
+
+public class BufferPoolReadTest extends SimpleDbTestBase {
+    private static final int THREADS = 8;
+
+    // class that counts its page reads, can hold them up and can fail them
+    static class CountingHeapFile extends HeapFile {
+
+        final AtomicInteger reads = new AtomicInteger();
+        volatile CountDownLatch gate = new CountDownLatch(0);
+        volatile boolean fail = false;
+
+        public CountingHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) {
+            reads.incrementAndGet();
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            if (fail)
+                throw new IllegalStateException("read failed");
+            return super.readPage(pid);
+        }
+    }
+
+    private CountingHeapFile file;
+    private HeapPageId pid;
+
+    @Before public void setUp() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        file = new CountingHeapFile(hf.getFile(), hf.getTupleDesc());
+        Database.getCatalog().addTable(file, SystemTestUtil.getUUID());
+        pid = new HeapPageId(file.getId(), 0);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    /**
+     * Starts THREADS threads that each fetch the page in a transaction of
+     * their own, and collects the pages or exceptions they get.
+     */
+    private List<Thread> fetch(List<Object> results) {
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            Thread t = new Thread(() -> {
+                TransactionId tid = new TransactionId();
+                Object result;
+                try {
+                    result = Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+                } catch (Exception e) {
+                    result = e;
+                }
+                try {
+                    Database.getBufferPool().transactionComplete(tid);
+                } catch (IOException e) {
+                    result = e;
+                }
+                synchronized (results) {
+                    results.add(result);
+                }
+            });
+            t.start();
+            threads.add(t);
+        }
+        return threads;
+    }
+
+    // holds up the first read until the other threads have had time to ask
+    private void release(List<Thread> threads) throws Exception {
+        while (file.reads.get() == 0)
+            Thread.sleep(10);
+        Thread.sleep(200);
+        file.gate.countDown();
+        for (Thread t : threads)
+            t.join();
+    }
+
+    /**
+     * Concurrent requests for a page that is not in the pool read it from
+     * disk once, and all get the same page.
+     */
+    @Test public void concurrentMissReadsOnce() throws Exception {
+        file.gate = new CountDownLatch(1);
+        List<Object> results = new ArrayList<>();
+        release(fetch(results));
+
+        assertEquals(1, file.reads.get());
+        assertEquals(THREADS, results.size());
+        for (Object r : results) {
+            assertTrue(r instanceof HeapPage);
+            assertSame(results.get(0), r);
+        }
+    }
+
+    /**
+     * A read that fails fails the requests waiting for it too, but leaves
+     * no frame behind, so that the next request reads the page again.
+     */
+    @Test public void failedReadIsRetried() throws Exception {
+        file.gate = new CountDownLatch(1);
+        file.fail = true;
+        List<Object> results = new ArrayList<>();
+        release(fetch(results));
+
+        assertEquals(1, file.reads.get());
+        assertEquals(THREADS, results.size());
+        for (Object r : results)
+            assertTrue(r instanceof IllegalStateException);
+
+        file.fail = false;
+        TransactionId tid = new TransactionId();
+        Page p = Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(pid, p.getId());
+        assertEquals(2, file.reads.get());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolReadTest.class);
+    }
+}
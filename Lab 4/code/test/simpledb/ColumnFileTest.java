@@ -0,0 +1,365 @@
+package simpledb;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Future;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.*;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class ColumnFileTest extends SimpleDbTestBase {
+    private TupleDesc td;
+    private ColumnFile cf;
+
+    @Before public void setUp() throws Exception {
+        td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE },
+                new String[] { "id", "name", "score" });
+        cf = createColumnFile(td);
+    }
+
+    private static ColumnFile createColumnFile(TupleDesc td) throws Exception {
+        File f = File.createTempFile("columns", ".col");
+        // the tests merge a table a few times at most
+        for (String gen : new String[] { "", ".g1", ".g2", ".g3" }) {
+            for (String suffix : new String[] { ".0", ".1", ".2", ".1.dict", ".del", ".delta", ".delta.zone" })
+                new File(f.getPath() + gen + suffix).deleteOnExit();
+        }
+        new File(f.getPath() + ".tmp").deleteOnExit();
+        f.deleteOnExit();
+        ColumnFile cf = new ColumnFile(f, td);
+        Database.getCatalog().addTable(cf, SystemTestUtil.getUUID());
+        return cf;
+    }
+
+    private Tuple tuple(int id) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(id));
+        t.setField(1, new StringField("name" + id, Type.STRING_LEN));
+        t.setField(2, new IntField(id * 10));
+        return t;
+    }
+
+    private void insert(int from, int to) throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = from; i < to; i++) {
+            Database.getBufferPool().insertTuple(tid, cf.getId(), tuple(i));
+            // commit now and then, as the delta outgrows the pool
+            if (i % 500 == 499) {
+                Database.getBufferPool().transactionComplete(tid);
+                tid = new TransactionId();
+            }
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Scans the table and checks that every row holds the values it was
+     * inserted with.
+     */
+    private Set<Integer> scan() throws Exception {
+        Set<Integer> ids = new HashSet<>();
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = cf.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int id = ((IntField) t.getField(0)).getValue();
+            assertEquals("name" + id, ((StringField) t.getField(1)).getValue());
+            assertEquals(id * 10, ((IntField) t.getField(2)).getValue());
+            assertTrue(ids.add(id));
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return ids;
+    }
+
+    /**
+     * Inserted rows are visible from the delta, and still after they have
+     * been merged into the column files.
+     */
+    @Test public void insertAndMerge() throws Exception {
+        insert(0, 1000);
+        assertEquals(0, cf.numRows());
+        assertEquals(1000, scan().size());
+
+        cf.merge();
+        assertEquals(1000, cf.numRows());
+        insert(1000, 1100);
+        Set<Integer> ids = scan();
+        assertEquals(1100, ids.size());
+        for (int i = 0; i < 1100; i++)
+            assertTrue(ids.contains(i));
+    }
+
+    /**
+     * Rows can be deleted from the main store and from the delta, and
+     * merging drops the deleted rows for good.
+     */
+    @Test public void deleteAndMerge() throws Exception {
+        insert(0, 500);
+        cf.merge();
+        insert(500, 600);
+
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = cf.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (((IntField) t.getField(0)).getValue() % 2 == 0)
+                Database.getBufferPool().deleteTuple(tid, t);
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+
+        Set<Integer> ids = scan();
+        assertEquals(300, ids.size());
+        for (int id : ids)
+            assertEquals(1, id % 2);
+
+        cf.merge();
+        assertEquals(300, cf.numRows());
+        assertEquals(ids, scan());
+    }
+
+    /**
+     * Once the delta is large enough, a commit schedules a merge, which runs
+     * in the background after the transactions still using the table have
+     * completed. The commit does not wait for them.
+     */
+    @Test public void mergeAfterCommit() throws Exception {
+        cf.setMergePages(1);
+        TransactionId reader = new TransactionId();
+        DbFileIterator it = cf.iterator(reader);
+        it.open();
+
+        insert(0, 100);
+        Future<Boolean> merge = cf.scheduleMerge();
+        Thread.sleep(500);
+        assertFalse(merge.isDone());
+        assertEquals(0, cf.numRows());
+
+        it.close();
+        Database.getBufferPool().transactionComplete(reader);
+        assertTrue(merge.get());
+        assertEquals(100, cf.numRows());
+        assertFalse(cf.needsMerge());
+        assertEquals(100, scan().size());
+    }
+
+    /**
+     * A merged table reads back the same when it is opened again, and
+     * opening it deletes the files of a merge that did not finish.
+     */
+    @Test public void reopenAfterMerge() throws Exception {
+        insert(0, 500);
+        cf.merge();
+        insert(500, 600);
+        String path = cf.getFile().getPath();
+        assertFalse(new File(path + ".0").exists());
+        assertTrue(new File(path + ".g1.0").exists());
+
+        // a merge that crashed before switching to its generation
+        File partial = new File(path + ".g2.0");
+        assertTrue(partial.createNewFile());
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        cf = new ColumnFile(cf.getFile(), td);
+        Database.getCatalog().addTable(cf, SystemTestUtil.getUUID());
+        assertFalse(partial.exists());
+        assertEquals(500, cf.numRows());
+        assertEquals(600, scan().size());
+    }
+
+    /**
+     * A scan of one column reads only the pages of that column.
+     */
+    @Test public void scanReadsProjectedColumns() throws Exception {
+        insert(0, 2000);
+        cf.merge();
+
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        ColumnScan scan = new ColumnScan(tid, cf.getId(), "t", new int[] { 2 });
+        assertEquals("t.score", scan.getTupleDesc().getFieldName(0));
+        scan.open();
+        int count = 0;
+        while (scan.hasNext()) {
+            assertEquals(1, scan.next().getTupleDesc().numFields());
+            count++;
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(2000, count);
+        long oneColumn = bp.getMissCount();
+
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        scan();
+        assertTrue(oneColumn * 10 < bp.getMissCount());
+    }
+
+    /**
+     * The optimizer scans columnar tables with a ColumnScan of only the
+     * columns the query uses.
+     */
+    @Test public void planUsesColumnScan() throws Exception {
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(cf.getId(), "t");
+        lp.addProjectField("t.score", null);
+        OpIterator plan = lp.physicalPlan(new TransactionId(), new HashMap<>(), false);
+
+        OpIterator child = ((simpledb.execution.Operator) plan).getChildren()[0];
+        assertTrue(child instanceof ColumnScan);
+        int[] columns = ((ColumnScan) child).getColumns();
+        assertEquals(1, columns.length);
+        assertEquals(2, columns[0]);
+    }
+
+    /**
+     * A filter on a column that is not the first of the table is estimated
+     * with that column's statistics, though the ColumnScan numbers it 0.
+     */
+    @Test public void planFiltersColumnScan() throws Exception {
+        insert(0, 100);
+        cf.merge();
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(cf.getId(), "t");
+        lp.addFilter("t.name", Predicate.Op.EQUALS, "name5");
+        lp.addProjectField("t.name", null);
+        Map<String, TableStats> stats = new HashMap<>();
+        stats.put(Database.getCatalog().getTableName(cf.getId()), new TableStats(cf.getId(), 1000));
+        OpIterator plan = lp.physicalPlan(new TransactionId(), stats, false);
+
+        OpIterator op = ((simpledb.execution.Operator) plan).getChildren()[0];
+        assertTrue(op instanceof Filter);
+        op = ((Filter) op).getChildren()[0];
+        assertTrue(op instanceof ColumnScan);
+        assertArrayEquals(new int[] { 1 }, ((ColumnScan) op).getColumns());
+        assertEquals(1, count(plan));
+    }
+
+    /**
+     * Creates a table with a low-cardinality status column, sorted by
+     * status, and merges it with the status column dictionary encoded.
+     */
+    private ColumnFile createStatusTable(int n) throws Exception {
+        TupleDesc std = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE },
+                new String[] { "id", "status" });
+        ColumnFile sf = createColumnFile(std);
+        sf.setDictionaryEncoded(1, true);
+        // merged once, below, rather than by the commits
+        sf.setMergePages(Integer.MAX_VALUE);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < n; i++) {
+            Tuple t = new Tuple(std);
+            t.setField(0, new IntField(i));
+            t.setField(1, new StringField("s" + (i * 5 / n), Type.STRING_LEN));
+            Database.getBufferPool().insertTuple(tid, sf.getId(), t);
+            if (i % 500 == 499) {
+                Database.getBufferPool().transactionComplete(tid);
+                tid = new TransactionId();
+            }
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        sf.merge();
+        return sf;
+    }
+
+    /**
+     * A dictionary-encoded column stores runs of codes, and reads back as
+     * DictionaryFields with the original values.
+     */
+    @Test public void dictionaryEncoding() throws Exception {
+        ColumnFile sf = createStatusTable(2000);
+        Dictionary dict = sf.getDictionary(1);
+        assertNotNull(dict);
+        assertEquals(5, dict.size());
+        // five runs fit on one page of the merged column
+        assertEquals(BufferPool.getPageSize(), new File(sf.getFile().getPath() + ".g1.1").length());
+
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = sf.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int id = ((IntField) t.getField(0)).getValue();
+            assertTrue(t.getField(1) instanceof DictionaryField);
+            assertEquals("s" + (id * 5 / 2000), ((StringField) t.getField(1)).getValue());
+            count++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(2000, count);
+    }
+
+    private int count(OpIterator op) throws Exception {
+        op.open();
+        int n = 0;
+        while (op.hasNext()) {
+            op.next();
+            n++;
+        }
+        op.close();
+        return n;
+    }
+
+    /**
+     * Filters and grouping on a dictionary-encoded column give the same
+     * results as on plain strings, including for delta rows.
+     */
+    @Test public void filterAndGroupOnCodes() throws Exception {
+        ColumnFile sf = createStatusTable(2000);
+        TransactionId tid = new TransactionId();
+        Tuple extra = new Tuple(sf.getTupleDesc());
+        extra.setField(0, new IntField(2000));
+        extra.setField(1, new StringField("s2", Type.STRING_LEN));
+        Database.getBufferPool().insertTuple(tid, sf.getId(), extra);
+
+        int[] columns = { 1 };
+        assertEquals(401, count(new Filter(new Predicate(0, Predicate.Op.EQUALS,
+                new StringField("s2", Type.STRING_LEN)), new ColumnScan(tid, sf.getId(), "t", columns))));
+        // a value that is not in the dictionary
+        assertEquals(800, count(new Filter(new Predicate(0, Predicate.Op.GREATER_THAN,
+                new StringField("s25", Type.STRING_LEN)), new ColumnScan(tid, sf.getId(), "t", columns))));
+        assertEquals(0, count(new Filter(new Predicate(0, Predicate.Op.EQUALS,
+                new StringField("s25", Type.STRING_LEN)), new ColumnScan(tid, sf.getId(), "t", columns))));
+
+        Aggregate agg = new Aggregate(new ColumnScan(tid, sf.getId(), "t", columns), 0, 0,
+                Aggregator.Op.COUNT);
+        agg.open();
+        int groups = 0;
+        while (agg.hasNext()) {
+            Tuple t = agg.next();
+            String status = ((StringField) t.getField(0)).getValue();
+            assertEquals(status.equals("s2") ? 401 : 400, ((IntField) t.getField(1)).getValue());
+            groups++;
+        }
+        agg.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(5, groups);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ColumnFileTest.class);
+    }
+}
@@ -0,0 +1,222 @@
+package simpledb;
+
+import java.io.File;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.execution.*;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class HashEquiJoinTest extends SimpleDbTestBase {
+
+    /**
+     * Creates a two-column table with the given keys in the first column,
+     * in order.
+     */
+    private static HeapFile table(List<Integer> keys) throws Exception {
+        List<List<Integer>> rows = new ArrayList<>();
+        for (int i = 0; i < keys.size(); i++)
+            rows.add(Arrays.asList(keys.get(i), i));
+        File f = File.createTempFile("join", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convert(rows, f, BufferPool.getPageSize(), 2);
+        return Utility.openHeapFile(2, "f", f);
+    }
+
+    private static List<Integer> range(int from, int to, int step) {
+        List<Integer> keys = new ArrayList<>();
+        for (int k = from; k < to; k += step)
+            keys.add(k);
+        return keys;
+    }
+
+    private static int count(OpIterator op) throws Exception {
+        op.open();
+        int n = 0;
+        while (op.hasNext()) {
+            op.next();
+            n++;
+        }
+        op.close();
+        return n;
+    }
+
+    private static JoinPredicate eq() {
+        return new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    }
+
+    /**
+     * The Bloom filter lets through every key that was added, and few
+     * others.
+     */
+    @Test public void bloomFilter() {
+        RuntimeFilter filter = new RuntimeFilter(0, Type.INT_TYPE, 1000);
+        for (int k = 0; k < 1000; k++)
+            filter.add(new IntField(k * 7));
+        for (int k = 0; k < 1000; k++)
+            assertTrue(filter.mightContain(new IntField(k * 7)));
+        int passed = 0;
+        for (int k = 0; k < 7000; k++) {
+            if (k % 7 != 0 && filter.mightContain(new IntField(k)))
+                passed++;
+        }
+        assertTrue(passed < 6000 * 3 / 100);
+        assertFalse(filter.mightContain(new IntField(-1)));
+        assertFalse(filter.mightContain(new IntField(7000)));
+
+        RuntimeFilter empty = new RuntimeFilter(0, Type.STRING_TYPE, 0);
+        assertFalse(empty.mightContain(new StringField("a", Type.STRING_LEN)));
+        assertTrue(empty.rangePredicates().isEmpty());
+    }
+
+    /**
+     * Joins with runtime filters return what a nested loops join returns,
+     * including when the build side does not fit in memory, and the filters
+     * drop the probe tuples that cannot match.
+     */
+    @Test public void sameResultsAsNestedLoops() throws Exception {
+        HeapFile build = table(range(0, HashEquiJoin.MAP_SIZE + 5000, 1));
+        HeapFile probe = table(range(0, 100000, 20));
+        TransactionId tid = new TransactionId();
+
+        HashEquiJoin join = new HashEquiJoin(eq(), new SeqScan(tid, build.getId(), "b"),
+                new SeqScan(tid, probe.getId(), "p"));
+        int expected = (HashEquiJoin.MAP_SIZE + 5000 + 19) / 20;
+        assertEquals(expected, count(join));
+        // the probe side is read once, and the keys that cannot match are
+        // all outside the range of the build keys
+        assertEquals(5000 - expected, join.getRowsEliminated());
+
+        join.open();
+        join.next();
+        join.rewind();
+        int n = 0;
+        while (join.hasNext()) {
+            join.next();
+            n++;
+        }
+        join.close();
+        assertEquals(expected, n);
+
+        // through a Filter, and against the nested loops join
+        HeapFile small = table(range(0, 30000, 30));
+        Predicate late = new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(1000));
+        join = new HashEquiJoin(eq(), new SeqScan(tid, small.getId(), "b"),
+                new Filter(late, new SeqScan(tid, probe.getId(), "p")));
+        Join nested = new Join(eq(), new Filter(late, new SeqScan(tid, probe.getId(), "p")),
+                new SeqScan(tid, small.getId(), "b"));
+        Set<List<Integer>> rows = new HashSet<>();
+        join.open();
+        while (join.hasNext())
+            assertTrue(rows.add(simpledb.systemtest.SystemTestUtil.tupleToList(join.next())));
+        join.close();
+        assertEquals(count(nested), rows.size());
+        assertTrue(join.getRowsEliminated() > 0);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Probing time-ordered data with a few keys reads only the pages the
+     * keys can be on.
+     */
+    @Test public void probeSkipsPages() throws Exception {
+        HeapFile build = table(range(50000, 50100, 1));
+        HeapFile probe = table(range(0, 100000, 1));
+        TransactionId tid = new TransactionId();
+        // the first scan builds the zone map
+        assertEquals(100000, count(new SeqScan(tid, probe.getId(), "p")));
+        Database.getBufferPool().transactionComplete(tid);
+
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+        HashEquiJoin join = new HashEquiJoin(eq(), new SeqScan(tid, build.getId(), "b"),
+                new SeqScan(tid, probe.getId(), "p"));
+        assertEquals(100, count(join));
+        Database.getBufferPool().transactionComplete(tid);
+        assertTrue(bp.getMissCount() < probe.numPages() / 10);
+    }
+
+    private static Set<List<Integer>> rows(OpIterator op) throws Exception {
+        Set<List<Integer>> rows = new HashSet<>();
+        op.open();
+        while (op.hasNext())
+            assertTrue(rows.add(simpledb.systemtest.SystemTestUtil.tupleToList(op.next())));
+        op.close();
+        return rows;
+    }
+
+    /**
+     * A build side larger than the memory budget is partitioned to disk,
+     * and partitions still too large are split again; the join returns what
+     * the in-memory join returns and reads each child once.
+     */
+    @Test public void spillsToPartitions() throws Exception {
+        List<Integer> keys = new ArrayList<>();
+        for (int i = 0; i < 30000; i++)
+            keys.add(i % 10000);
+        HeapFile build = table(keys);
+        HeapFile probe = table(range(0, 20000, 2));
+        TransactionId tid = new TransactionId();
+        Set<List<Integer>> expected = rows(new HashEquiJoin(eq(),
+                new SeqScan(tid, build.getId(), "b"), new SeqScan(tid, probe.getId(), "p")));
+        assertEquals(15000, expected.size());
+        Database.getBufferPool().transactionComplete(tid);
+
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+        HashEquiJoin join = new HashEquiJoin(eq(), new SeqScan(tid, build.getId(), "b"),
+                new SeqScan(tid, probe.getId(), "p"));
+        join.setMemoryBudget(1000);
+        assertEquals(expected, rows(join));
+        assertTrue(join.getSpilledPartitions() > HashEquiJoin.PARTITIONS);
+        assertTrue(bp.getMissCount() <= build.numPages() + probe.numPages());
+
+        join.open();
+        join.next();
+        join.rewind();
+        int n = 0;
+        while (join.hasNext()) {
+            join.next();
+            n++;
+        }
+        join.close();
+        assertEquals(15000, n);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Tuples that share a key cannot be split, and are joined one memory
+     * load at a time.
+     */
+    @Test public void skewedKeyJoinedInLoads() throws Exception {
+        List<Integer> keys = new ArrayList<>(Collections.nCopies(3000, 7));
+        keys.addAll(range(100, 400, 1));
+        HeapFile build = table(keys);
+        List<Integer> probeKeys = new ArrayList<>(Arrays.asList(7, 7, 7));
+        probeKeys.addAll(range(0, 200, 1));
+        HeapFile probe = table(probeKeys);
+        TransactionId tid = new TransactionId();
+        HashEquiJoin join = new HashEquiJoin(eq(), new SeqScan(tid, build.getId(), "b"),
+                new SeqScan(tid, probe.getId(), "p"));
+        join.setMemoryBudget(500);
+        assertEquals(4 * 3000 + 100, rows(join).size());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashEquiJoinTest.class);
+    }
+}
@@ -0,0 +1,283 @@
+package simpledb;
+
+import java.io.File;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.*;
+import simpledb.index.HashBucketPage;
+import simpledb.index.HashFile;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class HashFileTest extends SimpleDbTestBase {
+    private static final int POOL_PAGES = 1000;
+
+    private TupleDesc td;
+    private HashFile hf;
+    private String tableName;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        // small pages make buckets split and the directory double often
+        BufferPool.setPageSize(256);
+        Database.resetBufferPool(POOL_PAGES);
+        td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.INT_TYPE },
+                new String[] { "key", "value" });
+        File f = File.createTempFile("hash", ".dat");
+        f.delete();
+        f.deleteOnExit();
+        hf = new HashFile(f, 0, td);
+        tableName = SystemTestUtil.getUUID();
+        Database.getCatalog().addTable(hf, tableName);
+    }
+
+    @After public void tearDown() {
+        BufferPool.resetPageSize();
+    }
+
+    private Tuple tuple(int key, int value) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(key));
+        t.setField(1, new IntField(value));
+        return t;
+    }
+
+    private void insert(List<Integer> keys) throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < keys.size(); i++) {
+            Database.getBufferPool().insertTuple(tid, hf.getId(), tuple(keys.get(i), i));
+            if (i % 200 == 199) {
+                Database.getBufferPool().transactionComplete(tid);
+                tid = new TransactionId();
+            }
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static List<Integer> shuffledKeys(int n, int distinct) {
+        List<Integer> keys = new ArrayList<>();
+        for (int i = 0; i < n; i++)
+            keys.add(i % distinct);
+        Collections.shuffle(keys, new Random(42));
+        return keys;
+    }
+
+    /**
+     * @return the keys of the tuples the iterator returns, in sorted order
+     */
+    private List<Integer> keys(DbFileIterator it) throws Exception {
+        List<Integer> keys = new ArrayList<>();
+        it.open();
+        while (it.hasNext())
+            keys.add(((IntField) it.next().getField(0)).getValue());
+        it.close();
+        Collections.sort(keys);
+        return keys;
+    }
+
+    private List<Integer> scan() throws Exception {
+        TransactionId tid = new TransactionId();
+        List<Integer> keys = keys(hf.iterator(tid));
+        Database.getBufferPool().transactionComplete(tid);
+        return keys;
+    }
+
+    private int count(TransactionId tid, int key) throws Exception {
+        List<Integer> keys = keys(hf.lookup(tid, new IntField(key)));
+        for (int k : keys)
+            assertEquals(key, k);
+        return keys.size();
+    }
+
+    /**
+     * Inserts in random order split buckets and double the directory, and
+     * every tuple can still be found by a scan and by a lookup of its key.
+     */
+    @Test public void insertAndLookup() throws Exception {
+        List<Integer> keys = shuffledKeys(5000, 2500);
+        insert(keys);
+        assertTrue(hf.numPages() > 5000 / HashBucketPage.maxTuples(td));
+
+        Database.resetBufferPool(POOL_PAGES);
+        List<Integer> sorted = new ArrayList<>(keys);
+        Collections.sort(sorted);
+        assertEquals(sorted, scan());
+
+        TransactionId tid = new TransactionId();
+        for (int key = 0; key < 2600; key += 7)
+            assertEquals(key < 2500 ? 2 : 0, count(tid, key));
+        Database.getBufferPool().transactionComplete(tid);
+
+        // a lookup reads the header, a directory page and one bucket
+        BufferPool bp = Database.resetBufferPool(POOL_PAGES);
+        tid = new TransactionId();
+        HashIndexScan scan = new HashIndexScan(tid, hf.getId(), "t", new IntField(1234));
+        assertEquals("t.key", scan.getTupleDesc().getFieldName(0));
+        scan.open();
+        int n = 0;
+        while (scan.hasNext()) {
+            assertEquals(1234, ((IntField) scan.next().getField(0)).getValue());
+            n++;
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(2, n);
+        assertTrue(bp.getMissCount() <= 4);
+    }
+
+    /**
+     * A key with more tuples than fit in a bucket gets overflow pages, and
+     * the other keys are still spread over buckets of their own.
+     */
+    @Test public void overflowChains() throws Exception {
+        List<Integer> keys = shuffledKeys(1000, 1000);
+        for (int i = 0; i < 10 * HashBucketPage.maxTuples(td); i++)
+            keys.add(7);
+        insert(keys);
+
+        TransactionId tid = new TransactionId();
+        assertEquals(10 * HashBucketPage.maxTuples(td) + 1, count(tid, 7));
+        for (int key = 0; key < 1000; key += 13)
+            assertEquals(key == 7 ? 10 * HashBucketPage.maxTuples(td) + 1 : 1, count(tid, key));
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(keys.size(), scan().size());
+    }
+
+    /**
+     * Deleted tuples are gone, empty buckets merge with their buddies and
+     * the pages freed by merges are reused by later inserts.
+     */
+    @Test public void deleteAndMerge() throws Exception {
+        insert(shuffledKeys(3000, 3000));
+        int pages = hf.numPages();
+
+        TransactionId tid = new TransactionId();
+        List<Tuple> doomed = new ArrayList<>();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (((IntField) t.getField(0)).getValue() < 2000)
+                doomed.add(t);
+        }
+        it.close();
+        for (int i = 0; i < doomed.size(); i++) {
+            Database.getBufferPool().deleteTuple(tid, doomed.get(i));
+            if (i % 200 == 199) {
+                Database.getBufferPool().transactionComplete(tid);
+                tid = new TransactionId();
+            }
+        }
+        Database.getBufferPool().transactionComplete(tid);
+
+        List<Integer> left = scan();
+        assertEquals(1000, left.size());
+        assertEquals(2000, (int) left.get(0));
+        tid = new TransactionId();
+        assertEquals(0, count(tid, 1999));
+        assertEquals(1, count(tid, 2000));
+        Database.getBufferPool().transactionComplete(tid);
+
+        insert(shuffledKeys(2000, 2000));
+        assertEquals(3000, scan().size());
+        assertTrue(hf.numPages() <= pages + pages / 10);
+    }
+
+    /**
+     * Transactions inserting at the same time split buckets and double the
+     * directory without losing tuples.
+     */
+    @Test public void concurrentInserts() throws Exception {
+        int threads = 4, perThread = 500;
+        List<Thread> workers = new ArrayList<>();
+        List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        for (int w = 0; w < threads; w++) {
+            int first = w * perThread;
+            workers.add(new Thread(() -> {
+                try {
+                    for (int i = first; i < first + perThread; i += 10) {
+                        // retry a batch that lost a deadlock
+                        while (true) {
+                            TransactionId tid = new TransactionId();
+                            try {
+                                for (int k = i; k < i + 10; k++)
+                                    Database.getBufferPool().insertTuple(tid, hf.getId(), tuple(k, k));
+                                Database.getBufferPool().transactionComplete(tid);
+                                break;
+                            } catch (TransactionAbortedException e) {
+                                Database.getBufferPool().transactionComplete(tid, false);
+                            }
+                        }
+                    }
+                } catch (Throwable t) {
+                    errors.add(t);
+                }
+            }));
+        }
+        for (Thread t : workers)
+            t.start();
+        for (Thread t : workers)
+            t.join();
+        assertTrue(errors.toString(), errors.isEmpty());
+
+        List<Integer> keys = scan();
+        assertEquals(threads * perThread, keys.size());
+        for (int i = 0; i < keys.size(); i++)
+            assertEquals(i, (int) keys.get(i));
+    }
+
+    /**
+     * The optimizer answers an equality filter on the key with a
+     * HashIndexScan, and other filters with a scan.
+     */
+    @Test public void planUsesHashIndexScan() throws Exception {
+        insert(shuffledKeys(5000, 5000));
+        Map<String, TableStats> stats = new HashMap<>();
+        stats.put(tableName, new TableStats(hf.getId(), 1000));
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(hf.getId(), "t");
+        lp.addFilter("t.key", Predicate.Op.EQUALS, "17");
+        lp.addProjectField("t.value", null);
+        OpIterator plan = lp.physicalPlan(new TransactionId(), stats, false);
+        OpIterator child = ((Operator) plan).getChildren()[0];
+        assertTrue(child instanceof HashIndexScan);
+        assertEquals(new IntField(17), ((HashIndexScan) child).getKey());
+
+        lp = new LogicalPlan();
+        lp.addScan(hf.getId(), "t");
+        lp.addFilter("t.key", Predicate.Op.LESS_THAN, "17");
+        lp.addProjectField("t.value", null);
+        plan = lp.physicalPlan(new TransactionId(), stats, false);
+        assertTrue(((Operator) plan).getChildren()[0] instanceof Filter);
+
+        lp = new LogicalPlan();
+        lp.addScan(hf.getId(), "t");
+        lp.addFilter("t.value", Predicate.Op.EQUALS, "17");
+        lp.addProjectField("t.value", null);
+        plan = lp.physicalPlan(new TransactionId(), stats, false);
+        assertTrue(((Operator) plan).getChildren()[0] instanceof Filter);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashFileTest.class);
+    }
+}
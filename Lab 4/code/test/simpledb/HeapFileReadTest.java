@@ -31,7 +31,7 @@ public class HeapFileReadTest extends SimpleDbTestBase {
     }
 
     @After
-    public void tearDown() {
+    public void tearDown() throws Exception {
         Database.getBufferPool().transactionComplete(tid);
     }
 
@@ -13,6 +13,7 @@ import simpledb.systemtest.SystemTestUtil;
 import simpledb.transaction.TransactionId;
 
 import java.util.Arrays;
+import java.util.List;
 
 public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
     private TransactionId tid;
@@ -25,7 +26,7 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         tid = new TransactionId();
     }
 
-    @After public void tearDown() {
+    @After public void tearDown() throws Exception {
         Database.getBufferPool().transactionComplete(tid);
     }
 
@@ -90,6 +91,70 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         it.close();
     }
 
+    /**
+     * Pages written through writePage can be read back, extend the file,
+     * and reading past the end fails.
+     */
+    @Test public void writePageThenReadPage() throws Exception {
+        HeapPageId pid = new HeapPageId(empty.getId(), 2);
+        HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+        page.insertTuple(Utility.getHeapTuple(830, 2));
+        empty.writePage(page);
+        assertEquals(3, empty.numPages());
+
+        HeapPage read = (HeapPage) empty.readPage(pid);
+        assertArrayEquals(page.getPageData(), read.getPageData());
+        assertEquals(page.getNumUnusedSlots(), read.getNumUnusedSlots());
+
+        try {
+            empty.readPage(new HeapPageId(empty.getId(), 3));
+            fail("expected a read past the end of the file to fail");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    /**
+     * Inserts go straight to a page with room, without reading the full
+     * pages in front of it.
+     */
+    @Test public void insertSkipsFullPages() throws Exception {
+        HeapFile smallFile = SystemTestUtil.createRandomHeapFile(2, 3, null, null);
+        int tableId = smallFile.getId();
+        byte[] full = HeapPage.createEmptyPageData();
+        Arrays.fill(full, (byte) 0xFF);
+        smallFile.writePage(new HeapPage(new HeapPageId(tableId, 0), full));
+        smallFile.writePage(new HeapPage(new HeapPageId(tableId, 1), full));
+        smallFile.writePage(new HeapPage(new HeapPageId(tableId, 2), HeapPage.createEmptyPageData()));
+        smallFile.writePage(new HeapPage(new HeapPageId(tableId, 3), full));
+
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        List<Page> dirtied = smallFile.insertTuple(tid, Utility.getHeapTuple(830, 2));
+        assertEquals(2, dirtied.get(0).getId().getPageNumber());
+        assertEquals(1, bp.getMissCount());
+        assertEquals(4, smallFile.numPages());
+    }
+
+    /**
+     * New pages are preallocated an extent at a time, but only count
+     * towards numPages() once they are handed out.
+     */
+    @Test public void extentAllocation() throws Exception {
+        empty.setExtentPages(4);
+        long pageSize = BufferPool.getPageSize();
+        int inserted = 0;
+        while (empty.numPages() < 2) {
+            empty.insertTuple(tid, Utility.getHeapTuple(inserted++, 2));
+        }
+        assertEquals(5 * pageSize, empty.getFile().length());
+
+        while (empty.numPages() < 6) {
+            empty.insertTuple(tid, Utility.getHeapTuple(inserted++, 2));
+            assertTrue(empty.numPages() == 6 || empty.getFile().length() == 5 * pageSize);
+        }
+        assertEquals(9 * pageSize, empty.getFile().length());
+        assertEquals(504 * 5 + 1, inserted);
+    }
+
     /**
      * JUnit suite target
      */
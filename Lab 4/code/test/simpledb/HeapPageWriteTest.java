@@ -1,5 +1,7 @@
 package simpledb;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedList;
 
@@ -12,6 +14,7 @@ import simpledb.TestUtil.SkeletonFile;
 import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
 import simpledb.storage.HeapPage;
 import simpledb.storage.HeapPageId;
 import simpledb.storage.Tuple;
@@ -131,6 +134,80 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Changes show up in getPageData, and a page built from that data has
+     * the same tuples, while the array the page was created from is left
+     * untouched.
+     */
+    @Test public void pageDataRoundTrip() throws Exception {
+        byte[] original = HeapPageReadTest.EXAMPLE_DATA.clone();
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        Tuple removed = page.iterator().next();
+        page.deleteTuple(removed);
+        Tuple added = Utility.getHeapTuple(new int[] { 6, 830 });
+        page.insertTuple(added);
+        assertArrayEquals(original, HeapPageReadTest.EXAMPLE_DATA);
+
+        HeapPage copy = new HeapPage(pid, page.getPageData());
+        assertEquals(page.getNumUnusedSlots(), copy.getNumUnusedSlots());
+        Iterator<Tuple> it = page.iterator();
+        Iterator<Tuple> copyIt = copy.iterator();
+        while (it.hasNext()) {
+            Tuple expected = it.next();
+            Tuple actual = copyIt.next();
+            assertTrue(TestUtil.compareTuples(expected, actual));
+            assertEquals(expected.getRecordId(), actual.getRecordId());
+        }
+        assertFalse(copyIt.hasNext());
+    }
+
+    /**
+     * writeTo writes the bytes of getPageData at the buffer's position, with
+     * deleted slots zeroed out.
+     */
+    @Test public void writeTo() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        Tuple removed = page.iterator().next();
+        page.deleteTuple(removed);
+
+        int pageSize = BufferPool.getPageSize();
+        ByteBuffer buf = ByteBuffer.allocate(pageSize + 3);
+        buf.position(3);
+        page.writeTo(buf);
+        assertEquals(pageSize + 3, buf.position());
+        byte[] written = Arrays.copyOfRange(buf.array(), 3, pageSize + 3);
+        assertArrayEquals(page.getPageData(), written);
+
+        HeapPage copy = new HeapPage(pid, written);
+        assertEquals(page.getNumUnusedSlots(), copy.getNumUnusedSlots());
+        int size = Utility.getTupleDesc(2).getSize();
+        int slot = removed.getRecordId().getTupleNumber();
+        int numSlots = (pageSize * 8) / (size * 8 + 1);
+        int headerSize = (numSlots + 7) / 8;
+        for (int i = 0; i < size; i++)
+            assertEquals(0, written[headerSize + slot * size + i]);
+    }
+
+    /**
+     * The before-image keeps the contents from when it was last set, across
+     * changes to the page.
+     */
+    @Test public void beforeImage() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        int free = page.getNumUnusedSlots();
+        page.deleteTuple(page.iterator().next());
+        assertEquals(free, page.getBeforeImage().getNumUnusedSlots());
+        assertArrayEquals(new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA).getPageData(),
+                page.getBeforeImage().getPageData());
+
+        page.setBeforeImage();
+        assertArrayEquals(page.getPageData(), page.getBeforeImage().getPageData());
+        page.insertTuple(Utility.getHeapTuple(new int[] { 6, 830 }));
+        page.insertTuple(Utility.getHeapTuple(new int[] { 7, 830 }));
+        assertEquals(free + 1, page.getBeforeImage().getNumUnusedSlots());
+        assertEquals(free - 1, page.getNumUnusedSlots());
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,365 @@
+package simpledb;
+
+import java.io.File;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.execution.*;
+import simpledb.index.BTreeFile;
+import simpledb.index.HashFile;
+import simpledb.optimizer.JoinOptimizer;
+import simpledb.optimizer.JoinOptimizer.JoinAlgorithm;
+import simpledb.optimizer.LogicalJoinNode;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.QueryPlanVisualizer;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class JoinSelectionTest extends SimpleDbTestBase {
+    private static final int POOL_PAGES = 1000;
+
+    private static final Predicate.Op[] OPS = { Predicate.Op.EQUALS,
+            Predicate.Op.LESS_THAN, Predicate.Op.LESS_THAN_OR_EQ,
+            Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ };
+
+    private TupleDesc td;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        // small pages give a tree of several levels from a few thousand tuples
+        BufferPool.setPageSize(256);
+        Database.resetBufferPool(POOL_PAGES);
+        td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.INT_TYPE },
+                new String[] { "key", "value" });
+    }
+
+    @After public void tearDown() {
+        BufferPool.resetPageSize();
+    }
+
+    private static File tempFile(String prefix) throws Exception {
+        File f = File.createTempFile(prefix, ".dat");
+        f.delete();
+        f.deleteOnExit();
+        return f;
+    }
+
+    private void insert(DbFile file, List<Integer> keys) throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < keys.size(); i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(keys.get(i)));
+            t.setField(1, new IntField(i));
+            Database.getBufferPool().insertTuple(tid, file.getId(), t);
+            if (i % 200 == 199) {
+                Database.getBufferPool().transactionComplete(tid);
+                tid = new TransactionId();
+            }
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private BTreeFile btree(List<Integer> keys) throws Exception {
+        BTreeFile bf = new BTreeFile(tempFile("btree"), 0, td);
+        Database.getCatalog().addTable(bf, SystemTestUtil.getUUID());
+        insert(bf, keys);
+        return bf;
+    }
+
+    private HashFile hash(List<Integer> keys) throws Exception {
+        HashFile hf = new HashFile(tempFile("hash"), 0, td);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        insert(hf, keys);
+        return hf;
+    }
+
+    private HeapFile heap(List<Integer> keys) throws Exception {
+        List<List<Integer>> rows = new ArrayList<>();
+        for (int i = 0; i < keys.size(); i++)
+            rows.add(Arrays.asList(keys.get(i), i));
+        File f = File.createTempFile("join", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convert(rows, f, BufferPool.getPageSize(), 2);
+        return Utility.openHeapFile(2, "f", f, td);
+    }
+
+    private static List<Integer> shuffledKeys(int n, int distinct) {
+        List<Integer> keys = new ArrayList<>();
+        for (int i = 0; i < n; i++)
+            keys.add(i % distinct);
+        Collections.shuffle(keys, new Random(42));
+        return keys;
+    }
+
+    private static List<List<Integer>> rows(OpIterator op) throws Exception {
+        List<List<Integer>> rows = new ArrayList<>();
+        op.open();
+        while (op.hasNext())
+            rows.add(SystemTestUtil.tupleToList(op.next()));
+        op.close();
+        rows.sort(Comparator.comparing(Object::toString));
+        return rows;
+    }
+
+    /**
+     * For each predicate a B+ tree can answer, and for equality through a
+     * hash index, the index join returns what a nested loops join returns,
+     * with one lookup per outer tuple and the inner filters applied.
+     */
+    @Test public void sameResultsAsNestedLoops() throws Exception {
+        HeapFile outer = heap(shuffledKeys(40, 300));
+        BTreeFile bf = btree(shuffledKeys(2000, 500));
+        HashFile hf = hash(shuffledKeys(2000, 500));
+        Predicate late = new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(1000));
+        TransactionId tid = new TransactionId();
+
+        for (Predicate.Op op : OPS) {
+            JoinPredicate p = new JoinPredicate(0, op, 0);
+            OpIterator inner = new Filter(late, new SeqScan(tid, bf.getId(), "i"));
+            IndexNestedLoopJoin join = new IndexNestedLoopJoin(p,
+                    new SeqScan(tid, outer.getId(), "o"), inner);
+            assertEquals(rows(new Join(p, new SeqScan(tid, outer.getId(), "o"), inner)), rows(join));
+            assertEquals(40, join.getLookups());
+        }
+
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        SeqScan inner = new SeqScan(tid, hf.getId(), "i");
+        inner.pushDown(late);
+        IndexNestedLoopJoin join = new IndexNestedLoopJoin(p,
+                new SeqScan(tid, outer.getId(), "o"), inner);
+        List<List<Integer>> expected = rows(new Join(p, new SeqScan(tid, outer.getId(), "o"),
+                new Filter(late, new SeqScan(tid, hf.getId(), "i"))));
+        assertFalse(expected.isEmpty());
+        assertEquals(expected, rows(join));
+
+        join.open();
+        join.next();
+        join.rewind();
+        List<List<Integer>> again = new ArrayList<>();
+        while (join.hasNext())
+            again.add(SystemTestUtil.tupleToList(join.next()));
+        join.close();
+        again.sort(Comparator.comparing(Object::toString));
+        assertEquals(expected, again);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * The index join needs an index on the inner join field that can answer
+     * the predicate.
+     */
+    @Test public void indexRequired() throws Exception {
+        BTreeFile bf = btree(shuffledKeys(10, 10));
+        HashFile hf = hash(shuffledKeys(10, 10));
+        HeapFile heap = heap(shuffledKeys(10, 10));
+        TransactionId tid = new TransactionId();
+        JoinPredicate eq = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        JoinPredicate lt = new JoinPredicate(0, Predicate.Op.LESS_THAN, 0);
+        JoinPredicate ne = new JoinPredicate(0, Predicate.Op.NOT_EQUALS, 0);
+
+        assertTrue(IndexNestedLoopJoin.canUse(lt, new SeqScan(tid, bf.getId(), "i")));
+        assertFalse(IndexNestedLoopJoin.canUse(ne, new SeqScan(tid, bf.getId(), "i")));
+        assertFalse(IndexNestedLoopJoin.canUse(new JoinPredicate(0, Predicate.Op.EQUALS, 1),
+                new SeqScan(tid, bf.getId(), "i")));
+        assertTrue(IndexNestedLoopJoin.canUse(eq, new SeqScan(tid, hf.getId(), "i")));
+        assertFalse(IndexNestedLoopJoin.canUse(lt, new SeqScan(tid, hf.getId(), "i")));
+        assertFalse(IndexNestedLoopJoin.canUse(eq, new SeqScan(tid, heap.getId(), "i")));
+        assertFalse(IndexNestedLoopJoin.canUse(eq, new IndexScan(tid, bf.getId(), "i",
+                new IndexPredicate(Predicate.Op.EQUALS, new IntField(1)))));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * The estimated costs pick hash joins for large equality joins,
+     * sort-merge joins for large inequality joins, block nested loops for
+     * other predicates, plain nested loops when the outer side is a single
+     * tuple, and index lookups for few outer tuples.
+     */
+    @Test public void cheapestAlgorithm() {
+        int memory = JoinOptimizer.getJoinMemory();
+        double inf = Double.POSITIVE_INFINITY;
+
+        Map<JoinAlgorithm, Double> costs = JoinOptimizer.estimateJoinCosts(Predicate.Op.EQUALS,
+                100000, 100000, 1e6, 1e6, inf, memory);
+        assertEquals(EnumSet.of(JoinAlgorithm.NESTED_LOOP, JoinAlgorithm.BLOCK_NESTED_LOOP,
+                JoinAlgorithm.HASH, JoinAlgorithm.SORT_MERGE), costs.keySet());
+        assertEquals(JoinAlgorithm.HASH, JoinOptimizer.cheapestJoin(costs));
+        assertTrue(costs.get(JoinAlgorithm.BLOCK_NESTED_LOOP) < costs.get(JoinAlgorithm.NESTED_LOOP));
+
+        costs = JoinOptimizer.estimateJoinCosts(Predicate.Op.LESS_THAN,
+                100000, 100000, 1e6, 1e6, inf, memory);
+        assertFalse(costs.containsKey(JoinAlgorithm.HASH));
+        assertEquals(JoinAlgorithm.SORT_MERGE, JoinOptimizer.cheapestJoin(costs));
+
+        costs = JoinOptimizer.estimateJoinCosts(Predicate.Op.NOT_EQUALS,
+                100000, 100000, 1e6, 1e6, inf, memory);
+        assertEquals(EnumSet.of(JoinAlgorithm.NESTED_LOOP, JoinAlgorithm.BLOCK_NESTED_LOOP),
+                costs.keySet());
+        assertEquals(JoinAlgorithm.BLOCK_NESTED_LOOP, JoinOptimizer.cheapestJoin(costs));
+
+        costs = JoinOptimizer.estimateJoinCosts(Predicate.Op.NOT_EQUALS,
+                1, 100000, 1e3, 1e6, inf, memory);
+        assertEquals(JoinAlgorithm.NESTED_LOOP, JoinOptimizer.cheapestJoin(costs));
+
+        costs = JoinOptimizer.estimateJoinCosts(Predicate.Op.EQUALS,
+                10, 100000, 1e3, 1e6, 3000, memory);
+        assertEquals(JoinAlgorithm.INDEX_NESTED_LOOP, JoinOptimizer.cheapestJoin(costs));
+        costs = JoinOptimizer.estimateJoinCosts(Predicate.Op.EQUALS,
+                100000, 100000, 1e6, 1e6, 3000, memory);
+        assertEquals(JoinAlgorithm.HASH, JoinOptimizer.cheapestJoin(costs));
+
+        // less memory makes the hash join partition its inputs
+        assertTrue(JoinOptimizer.estimateHashJoinCost(100000, 100000, 1e6, 1e6, 1000)
+                > JoinOptimizer.estimateHashJoinCost(100000, 100000, 1e6, 1e6, memory));
+    }
+
+    /**
+     * The optimizer costs an index join only over a right-hand side that
+     * instantiateJoin can build one over, with the statistics it is given.
+     */
+    @Test public void indexJoinCostedLikeInstantiated() throws Exception {
+        BTreeFile bf = btree(shuffledKeys(3000, 3000));
+        Map<String, TableStats> stats = new HashMap<>();
+        stats.put(Database.getCatalog().getTableName(bf.getId()), new TableStats(bf.getId(), 1000));
+        JoinOptimizer jo = new JoinOptimizer(new LogicalPlan(), new ArrayList<>());
+        LogicalJoinNode j = new LogicalJoinNode("s", "b", "s.key", "b.key", Predicate.Op.EQUALS);
+        TransactionId tid = new TransactionId();
+
+        assertTrue(jo.estimateJoinCosts(j, 10, 3000, 1e3, 1e5,
+                new SeqScan(tid, bf.getId(), "b"), stats).containsKey(JoinAlgorithm.INDEX_NESTED_LOOP));
+        // an index scan chosen for a filter, a join subtree, or a table
+        // without statistics
+        assertFalse(jo.estimateJoinCosts(j, 10, 3000, 1e3, 1e5,
+                new IndexScan(tid, bf.getId(), "b", new IndexPredicate(Predicate.Op.LESS_THAN, new IntField(5))),
+                stats).containsKey(JoinAlgorithm.INDEX_NESTED_LOOP));
+        assertFalse(jo.estimateJoinCosts(j, 10, 3000, 1e3, 1e5, null, stats)
+                .containsKey(JoinAlgorithm.INDEX_NESTED_LOOP));
+        assertFalse(jo.estimateJoinCosts(j, 10, 3000, 1e3, 1e5,
+                new SeqScan(tid, bf.getId(), "b"), new HashMap<>()).containsKey(JoinAlgorithm.INDEX_NESTED_LOOP));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static OpIterator join(OpIterator plan) {
+        while (plan instanceof Project || plan instanceof Filter)
+            plan = ((Operator) plan).getChildren()[0];
+        return plan;
+    }
+
+    /**
+     * The optimizer instantiates the algorithm with the lowest cost for the
+     * tables' statistics, and the query plan shows it.
+     */
+    @Test public void planUsesCheapestJoin() throws Exception {
+        HeapFile small = heap(shuffledKeys(5, 5));
+        HeapFile large = heap(shuffledKeys(3000, 3000));
+        BTreeFile bf = btree(shuffledKeys(3000, 3000));
+        Map<String, TableStats> stats = new HashMap<>();
+        for (DbFile f : new DbFile[] { small, large, bf })
+            stats.put(Database.getCatalog().getTableName(f.getId()), new TableStats(f.getId(), 1000));
+        QueryPlanVisualizer visualizer = new QueryPlanVisualizer();
+
+        // a few outer tuples look up the indexed inner table
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(small.getId(), "s");
+        lp.addScan(bf.getId(), "b");
+        lp.addJoin("s.key", "b.key", Predicate.Op.EQUALS);
+        lp.addProjectField("b.value", null);
+        OpIterator plan = lp.physicalPlan(new TransactionId(), stats, false);
+        assertTrue(join(plan) instanceof IndexNestedLoopJoin);
+        assertTrue(visualizer.getQueryPlanTree(plan).contains("⨝(index)"));
+        assertEquals(5, rows(plan).size());
+
+        // without an index, the equality join hashes
+        lp = new LogicalPlan();
+        lp.addScan(large.getId(), "l");
+        lp.addScan(bf.getId(), "b");
+        lp.addJoin("l.value", "b.value", Predicate.Op.EQUALS);
+        lp.addProjectField("b.key", null);
+        plan = lp.physicalPlan(new TransactionId(), stats, false);
+        assertTrue(join(plan) instanceof HashEquiJoin);
+        assertTrue(visualizer.getQueryPlanTree(plan).contains("⨝(hash)"));
+        assertEquals(3000, rows(plan).size());
+
+        // and other predicates loop over blocks of outer tuples
+        lp = new LogicalPlan();
+        lp.addScan(small.getId(), "s");
+        lp.addScan(large.getId(), "l");
+        lp.addJoin("s.key", "l.key", Predicate.Op.NOT_EQUALS);
+        lp.addProjectField("l.value", null);
+        plan = lp.physicalPlan(new TransactionId(), stats, false);
+        assertTrue(join(plan) instanceof Join);
+        assertTrue(visualizer.getQueryPlanTree(plan).contains("⨝(block)"));
+        assertEquals(5 * 2999, rows(plan).size());
+    }
+
+    /**
+     * Without statistics, equality joins hash, inequality joins sort and
+     * merge, and other joins loop over blocks of outer tuples.
+     */
+    @Test public void planWithoutStatsByPredicate() throws Exception {
+        HeapFile a = heap(shuffledKeys(100, 100));
+        HeapFile b = heap(shuffledKeys(100, 100));
+        Predicate.Op[] ops = { Predicate.Op.EQUALS, Predicate.Op.LESS_THAN, Predicate.Op.NOT_EQUALS };
+        Class<?>[] joins = { HashEquiJoin.class, SortMergeJoin.class, Join.class };
+        for (int i = 0; i < ops.length; i++) {
+            LogicalPlan lp = new LogicalPlan();
+            lp.addScan(a.getId(), "a");
+            lp.addScan(b.getId(), "b");
+            lp.addJoin("a.key", "b.key", ops[i]);
+            lp.addProjectField("a.value", null);
+            OpIterator plan = lp.physicalPlan(new TransactionId(), new HashMap<>(), false);
+            assertEquals(joins[i], join(plan).getClass());
+        }
+    }
+
+    /**
+     * The optimizer orders the joins by their costs, which puts the indexed
+     * table on the inner side of a join written the other way around.
+     */
+    @Test public void planOrdersJoinsByCost() throws Exception {
+        HeapFile small = heap(shuffledKeys(5, 5));
+        HeapFile large = heap(shuffledKeys(3000, 3000));
+        BTreeFile bf = btree(shuffledKeys(3000, 3000));
+        Map<String, TableStats> stats = new HashMap<>();
+        for (DbFile f : new DbFile[] { small, large, bf })
+            stats.put(Database.getCatalog().getTableName(f.getId()), new TableStats(f.getId(), 1000));
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(bf.getId(), "b");
+        lp.addScan(small.getId(), "s");
+        lp.addScan(large.getId(), "l");
+        lp.addJoin("l.key", "b.value", Predicate.Op.EQUALS);
+        lp.addJoin("b.key", "s.key", Predicate.Op.EQUALS);
+        lp.addProjectField("l.value", null);
+        OpIterator plan = lp.physicalPlan(new TransactionId(), stats, false);
+
+        // the small table looks up the indexed one first, and the few
+        // tuples that result are joined with the large table last
+        OpIterator top = join(plan);
+        OpIterator first = join(((Operator) top).getChildren()[0]);
+        if (!(first instanceof IndexNestedLoopJoin))
+            first = join(((Operator) top).getChildren()[1]);
+        assertTrue(first instanceof IndexNestedLoopJoin);
+        assertEquals(5, rows(plan).size());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(JoinSelectionTest.class);
+    }
+}
@@ -3,6 +3,11 @@ package simpledb;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 import junit.framework.JUnit4TestAdapter;
 
 import org.junit.Before;
@@ -112,6 +117,52 @@ public class JoinTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(eqJoin, op);
   }
 
+  /**
+   * Unit test for the block nested loops join: child2 is scanned once per
+   * block of child1 tuples, whatever the block size, with the same result.
+   */
+  @Test public void blockNestedLoops() throws Exception {
+    int[] outer = new int[2 * 100];
+    int[] inner = new int[3 * 300];
+    for (int i = 0; i < 100; i++) {
+      outer[2 * i] = i % 30;
+      outer[2 * i + 1] = i;
+    }
+    for (int i = 0; i < 300; i++) {
+      inner[3 * i] = i % 50;
+      inner[3 * i + 1] = i;
+    }
+    OpIterator scanOuter = TestUtil.createTupleList(width1, outer);
+    OpIterator scanInner = TestUtil.createTupleList(width2, inner);
+
+    for (Predicate.Op p : new Predicate.Op[] { Predicate.Op.EQUALS, Predicate.Op.LESS_THAN }) {
+      JoinPredicate pred = new JoinPredicate(0, p, 0);
+      Join tupleAtATime = new Join(pred, scanOuter, scanInner);
+      tupleAtATime.setMemoryBudget(1);
+      List<String> expected = results(tupleAtATime);
+      assertEquals(100, tupleAtATime.getInnerScans());
+
+      Join block = new Join(pred, scanOuter, scanInner);
+      block.setMemoryBudget(7);
+      assertEquals(expected, results(block));
+      assertEquals(15, block.getInnerScans());
+
+      Join all = new Join(pred, scanOuter, scanInner);
+      assertEquals(expected, results(all));
+      assertEquals(1, all.getInnerScans());
+    }
+  }
+
+  private static List<String> results(Join op) throws Exception {
+    List<String> rows = new ArrayList<>();
+    op.open();
+    while (op.hasNext())
+      rows.add(op.next().toString());
+    op.close();
+    Collections.sort(rows);
+    return rows;
+  }
+
   /**
    * JUnit suite target
    */
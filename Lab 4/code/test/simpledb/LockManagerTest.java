@@ -0,0 +1,195 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.storage.HeapPageId;
+import simpledb.storage.LockManager;
+import simpledb.storage.PageId;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class LockManagerTest extends SimpleDbTestBase {
+
+    /** Time to wait for a thread to block or to be granted, in ms */
+    private static final int POLL_INTERVAL = 100;
+
+    private LockManager lm;
+    private PageId pid;
+    private List<TransactionId> grantOrder;
+
+    @Before public void setUpLockManager() {
+        lm = new LockManager();
+        pid = new HeapPageId(-1, 0);
+        grantOrder = Collections.synchronizedList(new ArrayList<>());
+    }
+
+    /**
+     * Start a thread that acquires a lock on pid and records when it is granted.
+     */
+    private Thread request(TransactionId tid, boolean exclusive) throws InterruptedException {
+        Thread t = new Thread(() -> {
+            try {
+                lm.acquireLock(tid, pid, exclusive);
+                grantOrder.add(tid);
+            } catch (TransactionAbortedException ignored) {
+            }
+        });
+        t.start();
+        Thread.sleep(POLL_INTERVAL);
+        return t;
+    }
+
+    /**
+     * Shared locks are compatible with each other; an exclusive lock is not
+     * compatible with anything.
+     */
+    @Test public void compatibility() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        TransactionId t3 = new TransactionId();
+        lm.acquireLock(t1, pid, false);
+        lm.acquireLock(t2, pid, false);
+        assertTrue(lm.holdsLock(t1, pid));
+        assertTrue(lm.holdsLock(t2, pid));
+
+        Thread w = request(t3, true);
+        assertFalse(lm.holdsLock(t3, pid));
+        lm.releaseLock(t1, pid);
+        assertFalse(lm.holdsLock(t3, pid));
+        lm.releaseLock(t2, pid);
+        w.join();
+        assertTrue(lm.holdsLock(t3, pid));
+    }
+
+    /**
+     * A shared request behind a waiting exclusive request must wait its turn
+     * even though it is compatible with the granted shared lock.
+     */
+    @Test public void fifoGrantOrder() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        TransactionId t3 = new TransactionId();
+        lm.acquireLock(t1, pid, false);
+        Thread w2 = request(t2, true);
+        Thread w3 = request(t3, false);
+        assertTrue(grantOrder.isEmpty());
+
+        lm.releaseLock(t1, pid);
+        w2.join();
+        assertEquals(Collections.singletonList(t2), grantOrder);
+        lm.releaseLock(t2, pid);
+        w3.join();
+        assertEquals(t3, grantOrder.get(1));
+    }
+
+    /**
+     * An upgrade request is granted before requests that arrived earlier.
+     */
+    @Test public void upgradePriority() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        TransactionId t3 = new TransactionId();
+        lm.acquireLock(t1, pid, false);
+        lm.acquireLock(t2, pid, false);
+        Thread w3 = request(t3, true);
+        Thread w1 = request(t1, true);
+
+        lm.releaseLock(t2, pid);
+        w1.join();
+        assertEquals(Collections.singletonList(t1), grantOrder);
+        lm.releaseLock(t1, pid);
+        w3.join();
+        assertEquals(t3, grantOrder.get(1));
+    }
+
+    /**
+     * The lock table tracks the pages each transaction has locked, and
+     * releasing them all leaves the locks of other transactions alone.
+     */
+    @Test public void releaseAllLocks() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        PageId other = new HeapPageId(-1, 1);
+        lm.acquireLock(t1, pid, false);
+        lm.acquireLock(t1, other, true);
+        lm.acquireLock(t2, pid, false);
+        assertEquals(2, lm.getLockedPages(t1).size());
+
+        lm.releaseAllLocks(t1);
+        assertTrue(lm.getLockedPages(t1).isEmpty());
+        assertFalse(lm.holdsLock(t1, pid));
+        assertFalse(lm.holdsLock(t1, other));
+        assertTrue(lm.holdsLock(t2, pid));
+        assertEquals(Collections.singleton(pid), lm.getLockedPages(t2));
+    }
+
+    /**
+     * Two transactions upgrading their shared locks deadlock; the one that
+     * is cheaper to abort fails immediately and the other gets its lock.
+     */
+    @Test public void deadlockAbortsCheapestVictim() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        lm = new LockManager(tid -> tid.equals(t1) ? 10 : 1);
+
+        lm.acquireLock(t1, pid, false);
+        lm.acquireLock(t2, pid, false);
+        Thread w1 = request(t1, true);
+        assertTrue(grantOrder.isEmpty());
+
+        try {
+            lm.acquireLock(t2, pid, true);
+            fail("expected t2 to be aborted");
+        } catch (TransactionAbortedException expected) {
+        }
+        assertEquals(1, lm.getDeadlockCount());
+        // t2 keeps its shared lock until it completes its abort
+        assertTrue(grantOrder.isEmpty());
+
+        lm.releaseLock(t2, pid);
+        w1.join();
+        assertEquals(Collections.singletonList(t1), grantOrder);
+        assertTrue(lm.getLockWaitMillis() > 0);
+    }
+
+    /**
+     * When the victim is the other waiter on the cycle, the transaction that
+     * closed the cycle aborts it and gets its lock once the victim lets go;
+     * the cycle is counted once.
+     */
+    @Test public void deadlockAbortsOtherWaiter() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        lm = new LockManager(tid -> tid.equals(t1) ? 1 : 10);
+
+        lm.acquireLock(t1, pid, false);
+        lm.acquireLock(t2, pid, false);
+        Thread w1 = request(t1, true);
+        Thread w2 = request(t2, true);
+        w1.join();
+        assertEquals(1, lm.getDeadlockCount());
+        assertTrue(grantOrder.isEmpty());
+
+        lm.releaseLock(t1, pid);
+        w2.join();
+        assertEquals(Collections.singletonList(t2), grantOrder);
+        assertEquals(1, lm.getDeadlockCount());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockManagerTest.class);
+    }
+}
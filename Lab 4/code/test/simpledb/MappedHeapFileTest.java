@@ -0,0 +1,77 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class MappedHeapFileTest extends SimpleDbTestBase {
+    private List<List<Integer>> tuples;
+    private MappedHeapFile mf;
+
+    @Before public void setUp() throws Exception {
+        tuples = new ArrayList<>();
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 2000, 1 << 16, null, tuples);
+        mf = new MappedHeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(mf, UUID.randomUUID().toString());
+    }
+
+    /**
+     * Pages read through the mapping match pages read with plain I/O.
+     */
+    @Test public void readPage() throws Exception {
+        HeapFile plain = new HeapFile(mf.getFile(), mf.getTupleDesc());
+        assertTrue(mf.numPages() > 1);
+        for (int i = 0; i < mf.numPages(); i++) {
+            HeapPageId pid = new HeapPageId(mf.getId(), i);
+            assertArrayEquals(((HeapPage) plain.readPage(pid)).getPageData(),
+                    ((HeapPage) mf.readPage(pid)).getPageData());
+        }
+        try {
+            mf.readPage(new HeapPageId(mf.getId(), mf.numPages()));
+            fail("expected a read past the end of the file to fail");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    /**
+     * A scan sees every tuple, including those on pages appended after the
+     * file was first mapped.
+     */
+    @Test public void scanAfterAppend() throws Exception {
+        SystemTestUtil.matchTuples(mf, tuples);
+
+        int numPages = mf.numPages();
+        TransactionId tid = new TransactionId();
+        while (mf.numPages() == numPages) {
+            Database.getBufferPool().insertTuple(tid, mf.getId(), Utility.getHeapTuple(830, 2));
+            tuples.add(Arrays.asList(830, 830));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(mf, tuples);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(MappedHeapFileTest.class);
+    }
+}
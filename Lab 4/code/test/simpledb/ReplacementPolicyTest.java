@@ -0,0 +1,128 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import static org.junit.Assert.*;
+
+public class ReplacementPolicyTest extends SimpleDbTestBase {
+
+    private static PageId pid(int pgNo) {
+        return new HeapPageId(-1, pgNo);
+    }
+
+    /**
+     * Every policy must skip pages excluded from eviction and report null
+     * once nothing is evictable.
+     */
+    private void checkEvictable(ReplacementPolicy policy) {
+        for (int i = 0; i < 3; i++)
+            policy.recordInsert(pid(i));
+        policy.setEvictable(pid(0), false);
+        policy.setEvictable(pid(1), false);
+        assertEquals(pid(2), policy.victim());
+
+        policy.recordRemove(pid(2));
+        assertNull(policy.victim());
+
+        policy.setEvictable(pid(1), true);
+        assertEquals(pid(1), policy.victim());
+    }
+
+    @Test public void clockEvictable() {
+        checkEvictable(new ClockPolicy(3));
+    }
+
+    @Test public void lruKEvictable() {
+        checkEvictable(new LruKPolicy(3));
+    }
+
+    @Test public void arcEvictable() {
+        checkEvictable(new ArcPolicy(3));
+    }
+
+    /**
+     * CLOCK gives a referenced page a second chance.
+     */
+    @Test public void clockSecondChance() {
+        ClockPolicy policy = new ClockPolicy(3);
+        for (int i = 0; i < 3; i++)
+            policy.recordInsert(pid(i));
+        // first sweep clears every bit, so the hand stops at page 0
+        assertEquals(pid(0), policy.victim());
+        policy.recordRemove(pid(0));
+        policy.recordInsert(pid(3));
+        policy.recordAccess(pid(1));
+        assertEquals(pid(2), policy.victim());
+    }
+
+    /**
+     * With K = 1, LRU-K is plain LRU.
+     */
+    @Test public void lru() {
+        LruKPolicy policy = new LruKPolicy(3, 1);
+        for (int i = 0; i < 3; i++)
+            policy.recordInsert(pid(i));
+        policy.recordAccess(pid(0));
+        assertEquals(pid(1), policy.victim());
+        policy.recordAccess(pid(1));
+        assertEquals(pid(2), policy.victim());
+    }
+
+    /**
+     * LRU-2 evicts pages seen once before pages seen twice, however recent.
+     */
+    @Test public void lru2ScanResistant() {
+        LruKPolicy policy = new LruKPolicy(4, 2);
+        policy.recordInsert(pid(0));
+        policy.recordAccess(pid(0));
+        policy.recordInsert(pid(1));
+        policy.recordAccess(pid(1));
+        policy.recordInsert(pid(2));
+        assertEquals(pid(2), policy.victim());
+        policy.recordRemove(pid(2));
+        assertEquals(pid(0), policy.victim());
+    }
+
+    /**
+     * ARC keeps pages seen twice (T2) when a scan streams through T1.
+     */
+    @Test public void arcScanResistant() {
+        ArcPolicy policy = new ArcPolicy(3);
+        policy.recordInsert(pid(0));
+        policy.recordAccess(pid(0));
+        for (int i = 1; i < 10; i++) {
+            if (i > 2) {
+                PageId victim = policy.victim();
+                assertNotEquals(pid(0), victim);
+                policy.recordRemove(victim);
+            }
+            policy.recordInsert(pid(i));
+        }
+    }
+
+    /**
+     * A page evicted from T1 and requested again goes straight to T2.
+     */
+    @Test public void arcGhostHit() {
+        ArcPolicy policy = new ArcPolicy(3);
+        for (int i = 0; i < 3; i++)
+            policy.recordInsert(pid(i));
+        assertEquals(pid(0), policy.victim());
+        policy.recordRemove(pid(0));
+        policy.recordInsert(pid(0));
+        // page 0 is now in T2, and T1 is still above its target size
+        assertEquals(pid(1), policy.victim());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+    }
+}
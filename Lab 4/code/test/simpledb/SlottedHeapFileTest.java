@@ -0,0 +1,198 @@
+package simpledb;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class SlottedHeapFileTest extends SimpleDbTestBase {
+    private TupleDesc td;
+    private SlottedHeapFile sf;
+
+    @Before public void setUp() throws Exception {
+        td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.VARCHAR_TYPE },
+                new String[] { "id", "name" });
+        sf = new SlottedHeapFile(tempFile(), td);
+        Database.getCatalog().addTable(sf, SystemTestUtil.getUUID());
+    }
+
+    private static File tempFile() throws Exception {
+        File f = File.createTempFile("slotted", ".dat");
+        f.deleteOnExit();
+        return f;
+    }
+
+    private Tuple tuple(int id) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(id));
+        t.setField(1, new VarcharField("name" + id));
+        return t;
+    }
+
+    /**
+     * Short VARCHARs take only the bytes they need, so a slotted file is
+     * many times smaller than a HeapFile of fixed-size slots.
+     */
+    @Test public void insertAndScan() throws Exception {
+        HeapFile fixed = new HeapFile(tempFile(), td);
+        Database.getCatalog().addTable(fixed, SystemTestUtil.getUUID());
+
+        TransactionId tid = new TransactionId();
+        int n = 2000;
+        for (int i = 0; i < n; i++) {
+            Database.getBufferPool().insertTuple(tid, sf.getId(), tuple(i));
+            Database.getBufferPool().insertTuple(tid, fixed.getId(), tuple(i));
+            // commit now and then, as the fixed-size file outgrows the pool
+            if (i % 500 == 499) {
+                Database.getBufferPool().transactionComplete(tid);
+                tid = new TransactionId();
+            }
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertTrue(sf.numPages() * 4 < fixed.numPages());
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        Set<Integer> seen = new HashSet<>();
+        tid = new TransactionId();
+        DbFileIterator it = sf.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int id = ((IntField) t.getField(0)).getValue();
+            assertEquals("name" + id, ((StringField) t.getField(1)).getValue());
+            assertTrue(seen.add(id));
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(n, seen.size());
+    }
+
+    /**
+     * Space of deleted records is reused by compacting the page, and the
+     * tuples that stay keep their RecordIds.
+     */
+    @Test public void deleteAndCompact() throws Exception {
+        HeapPageId pid = new HeapPageId(sf.getId(), 0);
+        SlottedPage page = new SlottedPage(pid, SlottedPage.createEmptyPageData());
+        List<Tuple> tuples = new ArrayList<>();
+        try {
+            for (int i = 0; ; i++) {
+                Tuple t = tuple(i);
+                page.insertTuple(t);
+                tuples.add(t);
+            }
+        } catch (DbException expected) {
+            // page is full
+        }
+        int full = tuples.size();
+        assertTrue(page.getFreeSpace() < SlottedPage.spaceNeeded(tuple(full)));
+
+        // free every other record, which leaves only holes
+        for (int i = 0; i < full; i += 2)
+            page.deleteTuple(tuples.get(i));
+        for (int i = 0; i < full; i += 2)
+            page.insertTuple(tuple(i));
+        assertEquals(full, page.getNumTuples());
+
+        SlottedPage copy = new SlottedPage(pid, page.getPageData());
+        Set<RecordId> kept = new HashSet<>();
+        for (int i = 1; i < full; i += 2)
+            kept.add(tuples.get(i).getRecordId());
+        int found = 0;
+        for (Tuple t : (Iterable<Tuple>) copy::iterator) {
+            int id = ((IntField) t.getField(0)).getValue();
+            if (id < full && id % 2 == 1) {
+                assertTrue(kept.contains(t.getRecordId()));
+                found++;
+            }
+            assertEquals("name" + id, ((StringField) t.getField(1)).getValue());
+        }
+        assertEquals(kept.size(), found);
+    }
+
+    /**
+     * The before-image keeps the contents from before the page changed.
+     */
+    @Test public void beforeImage() throws Exception {
+        HeapPageId pid = new HeapPageId(sf.getId(), 0);
+        SlottedPage page = new SlottedPage(pid, SlottedPage.createEmptyPageData());
+        page.insertTuple(tuple(1));
+        assertEquals(0, page.getBeforeImage().getNumTuples());
+        page.setBeforeImage();
+        page.insertTuple(tuple(2));
+        assertEquals(1, page.getBeforeImage().getNumTuples());
+        assertEquals(2, page.getNumTuples());
+    }
+
+    /**
+     * The encoder writes slotted pages from a text file, and a catalog
+     * entry marked "slotted" reads them back as a SlottedHeapFile.
+     */
+    @Test public void loadThroughCatalog() throws Exception {
+        File dir = Files.createTempDirectory("slotted").toFile();
+        dir.deleteOnExit();
+        File txt = new File(dir, "people.txt");
+        File dat = new File(dir, "people.dat");
+        File fixed = new File(dir, "fixed.dat");
+        File schema = new File(dir, "catalog.txt");
+        for (File f : new File[] { txt, dat, fixed, schema })
+            f.deleteOnExit();
+
+        int n = 3000;
+        try (PrintWriter out = new PrintWriter(txt)) {
+            for (int i = 0; i < n; i++)
+                out.println(i + ",name" + i);
+        }
+        Type[] types = { Type.INT_TYPE, Type.VARCHAR_TYPE };
+        HeapFileEncoder.convertSlotted(txt, dat, BufferPool.getPageSize(), types, ',');
+        HeapFileEncoder.convert(txt, fixed, BufferPool.getPageSize(), 2, types);
+        assertTrue(dat.length() * 4 < fixed.length());
+
+        try (PrintWriter out = new PrintWriter(schema)) {
+            out.println("people (id int pk, name varchar) slotted");
+        }
+        Database.getCatalog().loadSchema(schema.getPath());
+        DbFile file = Database.getCatalog().getDatabaseFile(
+                Database.getCatalog().getTableId("people"));
+        assertTrue(file instanceof SlottedHeapFile);
+
+        Set<Integer> seen = new HashSet<>();
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = file.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int id = ((IntField) t.getField(0)).getValue();
+            assertEquals("name" + id, ((StringField) t.getField(1)).getValue());
+            assertTrue(seen.add(id));
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(n, seen.size());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedHeapFileTest.class);
+    }
+}
@@ -0,0 +1,143 @@
+package simpledb;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.execution.*;
+import simpledb.storage.IntField;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import static org.junit.Assert.*;
+
+public class SortMergeJoinTest extends SimpleDbTestBase {
+
+    private static final Predicate.Op[] OPS = { Predicate.Op.EQUALS,
+            Predicate.Op.LESS_THAN, Predicate.Op.LESS_THAN_OR_EQ,
+            Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ };
+
+    /**
+     * Creates a two-column tuple list with random keys below maxKey in the
+     * first column, in no particular order.
+     */
+    private static OpIterator tuples(Random rand, int n, int maxKey) {
+        int[] values = new int[2 * n];
+        for (int i = 0; i < n; i++) {
+            values[2 * i] = rand.nextInt(maxKey);
+            values[2 * i + 1] = i;
+        }
+        return TestUtil.createTupleList(2, values);
+    }
+
+    private static List<List<Integer>> rows(OpIterator op) throws Exception {
+        List<List<Integer>> rows = new ArrayList<>();
+        op.open();
+        while (op.hasNext())
+            rows.add(SystemTestUtil.tupleToList(op.next()));
+        op.close();
+        rows.sort(Comparator.comparing(Object::toString));
+        return rows;
+    }
+
+    /**
+     * For each predicate, the join returns what a nested loops join
+     * returns, both in memory and when the sort, the runs of equal keys and
+     * the prefixes spill to disk.
+     */
+    @Test public void sameResultsAsNestedLoops() throws Exception {
+        Random rand = new Random(42);
+        OpIterator left = tuples(rand, 300, 40);
+        OpIterator right = tuples(rand, 200, 40);
+        for (Predicate.Op op : OPS) {
+            JoinPredicate p = new JoinPredicate(0, op, 0);
+            List<List<Integer>> expected = rows(new Join(p, left, right));
+
+            SortMergeJoin join = new SortMergeJoin(p, left, right);
+            assertEquals(expected, rows(join));
+            assertEquals(0, join.getSpilledRuns());
+
+            join = new SortMergeJoin(p, left, right);
+            join.setMemoryBudget(7);
+            assertEquals(expected, rows(join));
+            assertTrue(join.getSpilledRuns() >= (300 + 200) / 7);
+        }
+    }
+
+    /**
+     * An external sort with more runs than it merges at once merges them in
+     * several passes.
+     */
+    @Test public void multiPassSort() throws Exception {
+        Random rand = new Random(7);
+        OpIterator left = tuples(rand, 2000, 1000);
+        OpIterator right = tuples(rand, 1000, 1000);
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        SortMergeJoin join = new SortMergeJoin(p, left, right);
+        join.setMemoryBudget(10);
+        assertEquals(rows(new HashEquiJoin(p, left, right)), rows(join));
+    }
+
+    /**
+     * Children sorted on their join fields are not sorted again.
+     */
+    @Test public void reusesSortedInputs() throws Exception {
+        Random rand = new Random(1);
+        OpIterator unsorted1 = tuples(rand, 300, 40);
+        OpIterator unsorted2 = tuples(rand, 200, 40);
+        Predicate late = new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(10));
+        OpIterator left = new OrderBy(0, true, unsorted1);
+        OpIterator right = new Filter(late, new OrderBy(0, true, unsorted2));
+        assertTrue(SortMergeJoin.isSortedOn(left, 0));
+        assertTrue(SortMergeJoin.isSortedOn(right, 0));
+        assertFalse(SortMergeJoin.isSortedOn(left, 1));
+        assertFalse(SortMergeJoin.isSortedOn(new OrderBy(0, false, unsorted1), 0));
+        assertFalse(SortMergeJoin.isSortedOn(unsorted1, 0));
+
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.LESS_THAN_OR_EQ, 0);
+        SortMergeJoin join = new SortMergeJoin(p, left, right);
+        join.setMemoryBudget(50000);
+        assertEquals(rows(new Join(p, unsorted1, new Filter(late, unsorted2))), rows(join));
+        assertEquals(0, join.getSpilledRuns());
+    }
+
+    /**
+     * Rewinding returns the same tuples again.
+     */
+    @Test public void rewind() throws Exception {
+        Random rand = new Random(3);
+        OpIterator left = tuples(rand, 100, 20);
+        OpIterator right = tuples(rand, 100, 20);
+        for (Predicate.Op op : new Predicate.Op[] { Predicate.Op.EQUALS, Predicate.Op.GREATER_THAN }) {
+            SortMergeJoin join = new SortMergeJoin(new JoinPredicate(0, op, 0), left, right);
+            join.setMemoryBudget(9);
+            List<List<Integer>> expected = rows(join);
+            join.open();
+            for (int i = 0; i < 50; i++)
+                join.next();
+            join.rewind();
+            List<List<Integer>> again = new ArrayList<>();
+            while (join.hasNext())
+                again.add(SystemTestUtil.tupleToList(join.next()));
+            join.close();
+            again.sort(Comparator.comparing(Object::toString));
+            assertEquals(expected, again);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void notEqualsUnsupported() {
+        Random rand = new Random(5);
+        new SortMergeJoin(new JoinPredicate(0, Predicate.Op.NOT_EQUALS, 0),
+                tuples(rand, 1, 1), tuples(rand, 1, 1));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SortMergeJoinTest.class);
+    }
+}
@@ -0,0 +1,212 @@
+package simpledb;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.*;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class ZoneMapTest extends SimpleDbTestBase {
+    private static final int ROWS = 20000;
+
+    private File f;
+    private HeapFile hf;
+
+    /**
+     * Creates a table of time-ordered rows: an id and a timestamp that
+     * grows with it.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        List<List<Integer>> rows = new ArrayList<>();
+        for (int i = 0; i < ROWS; i++)
+            rows.add(Arrays.asList(i, 1000000 + 10 * i));
+        f = File.createTempFile("zones", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convert(rows, f, BufferPool.getPageSize(), 2);
+        hf = Utility.openHeapFile(2, "field", f);
+    }
+
+    private SeqScan scan(TransactionId tid, Predicate... predicates) {
+        SeqScan scan = new SeqScan(tid, hf.getId(), "t");
+        for (Predicate p : predicates)
+            scan.pushDown(p);
+        return scan;
+    }
+
+    private static int count(OpIterator op) throws Exception {
+        op.open();
+        int n = 0;
+        while (op.hasNext()) {
+            op.next();
+            n++;
+        }
+        op.close();
+        return n;
+    }
+
+    private static Predicate ts(Predicate.Op op, int value) {
+        return new Predicate(1, op, new IntField(value));
+    }
+
+    /**
+     * Once a scan has built the zones, a range scan over time-ordered data
+     * reads only the pages in the range.
+     */
+    @Test public void rangeScanSkipsPages() throws Exception {
+        TransactionId tid = new TransactionId();
+        assertEquals(ROWS, count(scan(tid)));
+        Database.getBufferPool().transactionComplete(tid);
+
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+        assertEquals(99, count(scan(tid, ts(Predicate.Op.GREATER_THAN, 1000000 + 10 * (ROWS - 100)))));
+        assertEquals(100, count(scan(tid, ts(Predicate.Op.GREATER_THAN_OR_EQ, 1000000 + 10 * (ROWS - 100)))));
+        assertEquals(1, count(scan(tid, ts(Predicate.Op.EQUALS, 1000000 + 10 * 777))));
+        assertEquals(0, count(scan(tid, ts(Predicate.Op.EQUALS, 1000000 + 10 * 777 + 1))));
+        assertEquals(50, count(scan(tid, ts(Predicate.Op.GREATER_THAN_OR_EQ, 1000000 + 10 * 500),
+                ts(Predicate.Op.LESS_THAN, 1000000 + 10 * 550))));
+        Database.getBufferPool().transactionComplete(tid);
+        assertTrue(bp.getMissCount() < hf.numPages() / 10);
+
+        // the zones are saved in the side file when all pages are flushed
+        File side = new File(f.getPath() + ".zone");
+        assertFalse(side.exists());
+        Database.getBufferPool().flushAllPages();
+        assertTrue(side.exists());
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        hf = Utility.openHeapFile(2, "field", f);
+        bp = Database.getBufferPool();
+        tid = new TransactionId();
+        assertEquals(10, count(scan(tid, ts(Predicate.Op.LESS_THAN, 1000000 + 10 * 10))));
+        Database.getBufferPool().transactionComplete(tid);
+        assertTrue(bp.getMissCount() < 5);
+
+        // and deleted once the table is gone
+        assertTrue(f.delete());
+        new ZoneMap(f, hf.getTupleDesc()).mayMatch(0, Collections.singletonList(
+                ts(Predicate.Op.EQUALS, 0)));
+        assertFalse(side.exists());
+    }
+
+    private long savedLength(File side) throws Exception {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(side))) {
+            return in.readLong();
+        }
+    }
+
+    /**
+     * Inserts do no I/O on the side file; the saved zones are invalidated
+     * when the first page with an inserted tuple is written.
+     */
+    @Test public void savedZonesInvalidatedBeforeWrite() throws Exception {
+        TransactionId tid = new TransactionId();
+        count(scan(tid, ts(Predicate.Op.LESS_THAN, 1000000 + 10 * 10)));
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushAllPages();
+        File side = new File(f.getPath() + ".zone");
+        side.deleteOnExit();
+        assertEquals(f.length(), savedLength(side));
+
+        tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        Database.getBufferPool().deleteTuple(tid, it.next());
+        it.close();
+        Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] { -1, 5 }));
+        assertEquals(f.length(), savedLength(side));
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(-1, savedLength(side));
+    }
+
+    /**
+     * Inserts widen the zone of the page they go to, for the inserting
+     * transaction and for later ones.
+     */
+    @Test public void insertsWidenZones() throws Exception {
+        TransactionId tid = new TransactionId();
+        count(scan(tid));
+        Database.getBufferPool().transactionComplete(tid);
+
+        // free a slot on the first page and fill it with an old timestamp
+        tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        Database.getBufferPool().deleteTuple(tid, it.next());
+        it.close();
+        Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] { -1, 5 }));
+        assertEquals(1, count(scan(tid, ts(Predicate.Op.LESS_THAN, 1000))));
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        assertEquals(1, count(scan(tid, ts(Predicate.Op.LESS_THAN, 1000))));
+        assertEquals(0, count(scan(tid, ts(Predicate.Op.EQUALS, 1000000))));
+        assertEquals(ROWS, count(scan(tid)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A tuple deleted by a transaction that aborts is found again, although
+     * scans after the delete saw the page without it.
+     */
+    @Test public void abortedDeleteStaysVisible() throws Exception {
+        int ts = 1000000 + 10 * 1234;
+        TransactionId tid = new TransactionId();
+        SeqScan scan = scan(tid, ts(Predicate.Op.EQUALS, ts));
+        scan.open();
+        Tuple t = scan.next();
+        scan.close();
+        Database.getBufferPool().deleteTuple(tid, t);
+        assertEquals(0, count(scan(tid, ts(Predicate.Op.EQUALS, ts))));
+        Database.getBufferPool().transactionComplete(tid, false);
+
+        tid = new TransactionId();
+        assertEquals(1, count(scan(tid, ts(Predicate.Op.EQUALS, ts))));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * The optimizer has the scans beneath filters skip the pages the
+     * filters rule out, and leaves checking the tuples to the filters.
+     */
+    @Test public void planPushesFilters() throws Exception {
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(hf.getId(), "t");
+        lp.addFilter("t.field1", Predicate.Op.GREATER_THAN, "1100000");
+        lp.addFilter("t.field0", Predicate.Op.LESS_THAN, "12000");
+        lp.addProjectField("t.field0", null);
+        Map<String, TableStats> stats = new HashMap<>();
+        stats.put(Database.getCatalog().getTableName(hf.getId()), new TableStats(hf.getId(), 1000));
+        OpIterator plan = lp.physicalPlan(new TransactionId(), stats, false);
+
+        OpIterator op = ((Operator) plan).getChildren()[0];
+        while (op instanceof Filter)
+            op = ((Filter) op).getChildren()[0];
+        assertTrue(op instanceof SeqScan);
+        assertEquals(2, ((SeqScan) op).getPagePredicates().size());
+        assertTrue(((SeqScan) op).getPredicates().isEmpty());
+        assertEquals(1999, count(plan));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ZoneMapTest.class);
+    }
+}
@@ -2,6 +2,7 @@ package simpledb.systemtest;
 
 import simpledb.common.Database;
 import simpledb.common.DbException;
+import simpledb.common.Permissions;
 import simpledb.common.Utility;
 import simpledb.execution.SeqScan;
 import simpledb.storage.*;
@@ -112,6 +113,48 @@ public class ScanTest extends SimpleDbTestBase {
         assertEquals(0, table.readCount);
     }
 
+    /** Verifies that scans prefetch pages and that prefetched pages are used. */
+    @Test public void testReadAhead() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(1, 992*30, 1000, null, tuples);
+
+        // a pool smaller than the table still returns every tuple
+        BufferPool bp = Database.resetBufferPool(10);
+        SystemTestUtil.matchTuples(f, tuples);
+        assertTrue(bp.getPrefetchHitCount() + bp.getWastedPrefetchCount() <= bp.getPrefetchCount());
+
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        PageId pid = new HeapPageId(f.getId(), 3);
+        bp.prefetchPage(pid);
+        for (int i = 0; i < 100 && bp.getPrefetchCount() == 0; i++)
+            Thread.sleep(10);
+        assertEquals(1, bp.getPrefetchCount());
+
+        TransactionId tid = new TransactionId();
+        bp.getPage(tid, pid, Permissions.READ_ONLY);
+        assertEquals(1, bp.getPrefetchHitCount());
+        assertEquals(0, bp.getMissCount());
+        bp.transactionComplete(tid);
+    }
+
+    /** Verifies that scanning a large table leaves the cached pages of other tables alone. */
+    @Test public void testLargeScanUsesRing() throws Exception {
+        List<List<Integer>> hotTuples = new ArrayList<>();
+        HeapFile hot = SystemTestUtil.createRandomHeapFile(1, 992*5, 1000, null, hotTuples);
+        List<List<Integer>> bigTuples = new ArrayList<>();
+        HeapFile big = SystemTestUtil.createRandomHeapFile(1, 992*2*BufferPool.DEFAULT_PAGES, 1000, null, bigTuples);
+
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertNull(bp.ringForScan(hot.numPages()));
+        assertNotNull(bp.ringForScan(big.numPages()));
+        SystemTestUtil.matchTuples(hot, hotTuples);
+        SystemTestUtil.matchTuples(big, bigTuples);
+
+        long misses = bp.getMissCount();
+        SystemTestUtil.matchTuples(hot, hotTuples);
+        assertEquals(misses, bp.getMissCount());
+    }
+
     /** Verifies SeqScan's getTupleDesc prefixes the table name + "." to the field names
      * @throws IOException
      */